@@ -41,12 +41,18 @@ class CalEvent extends TimeEvent {
     /** Initial date */
     private String initDate;
 
+    /** Initial date parsed; Long.MIN_VALUE if not yet */
+    private long init = Long.MIN_VALUE;
+
     /** Duration */
     private int duration;
 
     /** period */
     private String period;
 
+    /** period parsed; -1 if not yet */
+    private int per = -1;
+
     /** icon */
     private ImageIcon icon;
 
@@ -116,7 +122,7 @@ class CalEvent extends TimeEvent {
      * @return start and end.
      */
     public float[] isActive(long from, long to) {
-        long init = main.myData.string2datetime(initDate);
+        long init = getStart();
 
         if (to < init) return null;
 
@@ -151,18 +157,49 @@ class CalEvent extends TimeEvent {
      * Get numerical period.
      */
     public int getPeriod() {
-        if (period == null) return 0;
+        if (per >= 0) return per;
+        if (period == null) return per = 0;
 
         // Years
         String t[] = period.split("-");
-        int per = Integer.parseInt(t[0]) * (int) Data.YEAR;
+        int p = Integer.parseInt(t[0]) * (int) Data.YEAR;
         // Months
         /* not supported */
         // Days
-        if (t.length > 2) per += Integer.parseInt(t[2]) * (int) Data.DAY;
-        return per;
+        if (t.length > 2) p += Integer.parseInt(t[2]) * (int) Data.DAY;
+        return per = p;
+    }
+
+    /**
+     * Forget the parsed times; the calendar has changed.
+     */
+    void reset() {
+        init = Long.MIN_VALUE;
+        per = -1;
+    }
+
+    /**
+     * Initial date; parsed once.
+     * @return start
+     */
+    public long getStart() {
+        if (init == Long.MIN_VALUE)
+            init = main.myData.string2datetime(initDate);
+        return init;
     }
 
+    /**
+     * Duration.
+     * @return duration
+     */
+    public long getDuration() { return duration; }
+
+    /**
+     * Numerical period.
+     * @return period
+     */
+    public long getRecurrence() { return getPeriod(); }
+
     /**
      * Returns the icon for this event.
      * @return icon for this event
@@ -142,11 +142,8 @@ public class CalendarDisplay extends JComponent {
         line = 0;
         height = 0;
 	for (int j = 0; j < (front + back); j++) {
-            TreeSet ts = new TreeSet
-                (new MyComparator(t0 + (j - back) * Data.DAY, Data.DAY));
-            ArrayList wd = (ArrayList) eList.get(j);
-            ts.addAll(wd);
-            wd = new ArrayList(ts);
+            ArrayList wd = sort
+                ((ArrayList) eList.get(j), t0 + (j - back) * Data.DAY, Data.DAY);
 
             old = g.getColor();
             height = (wd != null ? wd.size() : 0);
@@ -222,11 +219,8 @@ public class CalendarDisplay extends JComponent {
         int line = 0;
 
 	for (int j = 0; j < (front + back); j++) {
-            TreeSet ts = new TreeSet
-                (new MyComparator(t0 + (j - back) * Data.DAY, Data.DAY));
-            ArrayList wd = (ArrayList) eList.get(j);
-            ts.addAll(wd);
-            wd = new ArrayList(ts);
+            ArrayList wd = sort
+                ((ArrayList) eList.get(j), t0 + (j - back) * Data.DAY, Data.DAY);
 
             int height = (wd != null ? wd.size() : 0);
             if (j == back && height == 0) height = 1;
@@ -357,22 +351,34 @@ public class CalendarDisplay extends JComponent {
         ev.details();
     }
 
-    /** Class to sort events */
-    class MyComparator implements Comparator {
-        /** Start time */
-        long a, b;
-        /** Constructor */
-        MyComparator(long aStart, long duration) { a = aStart; b = a + duration; }
-        /** IF method */
-        public int compare(Object o1, Object o2) {
-            if (o1 == null || o2 == null) return 1;
-            float[] o1a = ((TimeEvent) o1).isActive(a, b);
-            float[] o2a = ((TimeEvent) o2).isActive(a, b);
-            if (o1a == null || o2a == null) return 1;
-            int ret = (int) (Data.DAY * (o1a[0] - o2a[0]));
-            return ret == 0 ? 1 : ret;
+    /**
+     * Sort events by their start in an interval; those not in the interval
+     * last.
+     * @param list events
+     * @param a start of interval
+     * @param duration length of interval
+     * @return sorted list
+     */
+    private static ArrayList sort(ArrayList list, long a, long duration) {
+        final TimeEvent[] ev =
+            (TimeEvent[]) list.toArray(new TimeEvent[list.size()]);
+        final float[] start = new float[ev.length];
+        Integer[] order = new Integer[ev.length];
+        for (int i = 0; i < ev.length; i++) {
+            float[] time = ev[i].isActive(a, a + duration);
+            start[i] = (time != null ? time[0] : Float.POSITIVE_INFINITY);
+            order[i] = new Integer(i);
         }
-        /** IF method */
-        public boolean equals(Object obj) { return false; }
+        Arrays.sort(order, new Comparator() {
+                public int compare(Object o1, Object o2) {
+                    return Float.compare
+                        (start[((Integer)o1).intValue()],
+                         start[((Integer)o2).intValue()]);
+                }
+            });
+        ArrayList ret = new ArrayList(ev.length);
+        for (int i = 0; i < order.length; i++)
+            ret.add(ev[order[i].intValue()]);
+        return ret;
     }
 }
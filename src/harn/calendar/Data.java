@@ -41,7 +41,7 @@ public class Data extends TimeFrame implements IListener {
     private Hashtable sunsigns;
 
     /** events */
-    private HashSet events;
+    private TimeIndex events;
 
     /** event types */
     private Hashtable types;
@@ -82,7 +82,7 @@ public class Data extends TimeFrame implements IListener {
 	main = aMain;
 	months = new Hashtable();
 	sunsigns = new Hashtable();
-	events = new HashSet();
+	events = new TimeIndex();
         types = new Hashtable();
 
 	try {
@@ -103,6 +103,15 @@ public class Data extends TimeFrame implements IListener {
                 }
             }
 	    YEAR *= DAY;
+
+            // Times of events are known only now
+            Iterator iter = events.all().iterator();
+            while (iter.hasNext()) {
+                TimeEvent ev = (TimeEvent) iter.next();
+                if (!(ev instanceof CalEvent)) continue;
+                ((CalEvent)ev).reset();
+                events.add(ev);
+            }
 	    frw.announce(this);
 	}
 	catch (Exception e) {
@@ -494,7 +503,7 @@ public class Data extends TimeFrame implements IListener {
      * @return event list
      */
     ArrayList getEvent(long from, long to) {
-        Iterator iter = events.iterator();
+        Iterator iter = events.overlapping(from, to).iterator();
         ArrayList al = new ArrayList();
         while (iter.hasNext()) {
             TimeEvent ev = (TimeEvent)iter.next();
@@ -516,6 +525,30 @@ public class Data extends TimeFrame implements IListener {
 	return al;
     }
 
+    /**
+     * Get the first time after t and not after to, at which a calendar
+     * event starts or ends, as found by getEvent.
+     * @param t time
+     * @param to last time
+     * @param end whether to look for ends
+     * @return time or Long.MAX_VALUE, if none
+     */
+    long nextTime(long t, long to, boolean end) {
+        while (true) {
+            t = events.next(t, end);
+            if (t > to) return Long.MAX_VALUE;
+            Iterator iter = events.overlapping(t, t).iterator();
+            while (iter.hasNext()) {
+                TimeEvent ev = (TimeEvent)iter.next();
+                if (ev.getDuration() <= 0 || suppressType(ev.type())) continue;
+                if (ev.isActive(t, t) == null) continue;
+                long s = (end ? t - ev.getDuration() : t) - ev.getStart();
+                long per = ev.getRecurrence();
+                if (s == 0 || (per > 0 && s > 0 && s % per == 0)) return t;
+            }
+        }
+    }
+
     /**
      * Inform of a sound bank.
      */
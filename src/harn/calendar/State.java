@@ -133,28 +133,20 @@ public class State implements IListener {
      * @param idx idx in time array. 0 = begin, 1 = end
      */
     public void gotoNext(int idx) {
-        ArrayList eList = getAllEvents();
-        if (eList == null) return;
+        if (act == null) return;
         long t0 = act.getDate() + 2;
-        Comparator comp = new MyComparator(t0, front * Data.DAY, idx);
-        TreeSet ts = new TreeSet(comp);
+        long t1 = t0 + front * Data.DAY;
+
+        // Earliest start (end) inside the days shown; else the end of the
+        // days shown, if looking for ends of events lasting beyond
+        long date = main.myData.nextTime(t0, t1, idx == 1);
+        if (date != Long.MAX_VALUE)
+            date += (idx == 0 ? 1 : -1);
+        else if (idx == 1 && !main.myData.getEvent(t0, t1).isEmpty())
+            date = t1 - 1;
+        else
+            return;
 
-        // Add all events
-	for (int j = 0; j < front; j++) {
-            ArrayList wd = (ArrayList) eList.get(j + back);
-            ts.addAll(wd);
-        }
-
-        Object[] oa = ts.toArray();
-        if (oa == null || oa.length == 0) return;
-
-        float reltime = 0.0f;
-        for (int i = 0; reltime == 0.0 && i < oa.length; i++) {
-            TimeEvent ev = (TimeEvent) oa[i];
-            reltime = ev.isActive(t0, t0 + front * Data.DAY)[idx];
-        }
-        long date = t0 + (long)(reltime * front * Data.DAY) + (idx == 0 ? 1 : -1);
-                                
         act.setLocation(act.getMap(), act.getX(), act.getY(), date);
     }
 
@@ -289,30 +281,4 @@ public class State implements IListener {
         }
         return evts;
     }
-
-    /** Class to sort events */
-    class MyComparator implements Comparator {
-        /** Start time, End time */
-        long a, b;
-        /** Start or end time */
-        int idx;
-        /** Constructor */
-        MyComparator(long aStart, long duration, int anIdx) {
-            a = aStart;
-            b = a + duration;
-            idx = anIdx;
-        }
-        /** IF method */
-        public int compare(Object o1, Object o2) {
-            float[] t1 = ((TimeEvent) o1).isActive(a, b);
-            float[] t2 = ((TimeEvent) o2).isActive(a, b);
-            if (t1 == null) return (int)Float.POSITIVE_INFINITY;
-            if (t2 == null) return (int)Float.NEGATIVE_INFINITY;
-            int ret = (int)
-                (Data.DAY * (t1[idx] - t2[idx]));
-            return ret == 0 ? 1 : ret;
-        }
-        /** IF method */
-        public boolean equals(Object obj) { return false; }
-    }
 }
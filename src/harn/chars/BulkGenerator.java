@@ -0,0 +1,157 @@
+/**
+ * UGMT : Universal Gamemaster tool
+ * Copyright (c) 2004 Michael Jung
+ * miju@phantasia.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package harn.chars;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.*;
+import javax.swing.*;
+import rpg.*;
+
+/**
+ * Generates many characters (NPCs) at once. Each character is generated on
+ * one of several threads with the rules used on the GUI: attributes,
+ * tables, heraldry and the development without choices. Every character
+ * has its own random generator derived from the seed, so a seed always
+ * yields the same characters. The characters are written as a group to a
+ * new state file, which is then loaded.
+ * @author Michael Jung
+ */
+class BulkGenerator implements Runnable {
+    /** Root reference */
+    private Main main;
+
+    /** Group name */
+    private String group;
+
+    /** Character names */
+    private String[] names;
+
+    /** Seed */
+    private long seed;
+
+    /** Number of threads */
+    private int threads;
+
+    /**
+     * Constructor. Called on the event dispatch thread.
+     * @param aMain root reference
+     * @param aGroup group and name prefix
+     * @param count number of characters
+     * @param aSeed seed
+     */
+    BulkGenerator(Main aMain, String aGroup, int count, long aSeed) {
+        main = aMain;
+        group = aGroup;
+        seed = aSeed;
+        names = main.getState().freeNames(group, count);
+        threads = Integer.parseInt
+            (main.myProps.getProperty
+             ("bulk.threads",
+              Integer.toString(Runtime.getRuntime().availableProcessors())));
+    }
+
+    /** IF method */
+    public void run() {
+        ExecutorService pool = null;
+        try {
+            long t0 = System.currentTimeMillis();
+            pool = Executors.newFixedThreadPool
+                (threads, new ThreadFactory() {
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "generate");
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+
+            // Generators are split off in order, independent of threads
+            SplittableRandom root = new SplittableRandom(seed);
+            Future[] res = new Future[names.length];
+            for (int i = 0; i < names.length; i++) {
+                final int idx = i;
+                final SplittableRandom r = root.split();
+                res[i] = pool.submit(new Callable() {
+                        public Object call() { return generate(idx, r); }
+                    });
+            }
+
+            ArrayList chars = new ArrayList();
+            for (int i = 0; i < res.length; i++) {
+                try {
+                    chars.add(res[i].get());
+                }
+                catch (Exception e) {
+                    // Debugging
+                    e.printStackTrace();
+                }
+            }
+
+            File file = null;
+            if (chars.size() > 0)
+                file = main.getState().saveBulk
+                    ((State.MyCharacter[]) chars.toArray
+                     (new State.MyCharacter[chars.size()]), group);
+            long ms = Math.max(1, System.currentTimeMillis() - t0);
+
+            final String msg = "Generated " + chars.size() +
+                " characters in " + ms/1000. + " s (" +
+                Math.round(chars.size()*1000./ms) + " per second, " +
+                threads + " threads)\nSeed: " + seed +
+                (file != null ? "\nWritten to " + file.getName() : "");
+            final File loaded = file;
+            SwingUtilities.invokeLater(new Runnable() {
+                    public void run() {
+                        if (loaded != null) main.getState().loadBulk(loaded);
+                        JOptionPane.showMessageDialog
+                            (main.myPanel, msg, "Generate NPCs",
+                             JOptionPane.INFORMATION_MESSAGE);
+                    }
+                });
+        }
+        finally {
+            if (pool != null) pool.shutdown();
+            // Available again, even if generating failed
+            SwingUtilities.invokeLater(new Runnable() {
+                    public void run() { main.miGenerate.setEnabled(true); }
+                });
+        }
+    }
+
+    /**
+     * Generate one character on the calling thread.
+     * @param idx index of character
+     * @param r generator of character
+     * @return character
+     */
+    private State.MyCharacter generate(int idx, SplittableRandom r) {
+        State state = main.getState();
+        DiceRoller.use(r);
+        try {
+            State.MyCharacter c = state.startBulk(names[idx]);
+            main.getData().generate();
+            return c;
+        }
+        finally {
+            state.endBulk();
+            DiceRoller.use(null);
+        }
+    }
+}
@@ -66,8 +66,6 @@ public class CharAttribute {
     final public static int DAY = 24 * HOUR;
     /** minutes per year */
     final public static int YEAR = 360 * DAY;
-    /** ParseFormula */
-    final private ParseFormula pf = new ParseFormula();
 
     /**
      * Constructor.
@@ -149,13 +147,13 @@ public class CharAttribute {
             if (cattr != null && child.getNodeName().equals("adjust")) {
                 String val = cattr.getNamedItem("value").getNodeValue();
                 String test = cattr.getNamedItem("test").getNodeValue();
-                cond2adj.put(test, val);
+                cond2adj.put(Condition.compile(test), val);
             }
             if (cattr != null && child.getNodeName().equals("lateadjust")) {
                 String ladj = cattr.getNamedItem("value").getNodeValue();
                 Integer val = new Integer(ladj.substring(0, ladj.length() - 1));
                 String test = cattr.getNamedItem("test").getNodeValue();
-                cond2lateadj.put(test, val);
+                cond2lateadj.put(Condition.compile(test), val);
             }
             if (cattr != null && child.getNodeName().equals("use")) {
                 if (table == null) {
@@ -241,27 +239,43 @@ public class CharAttribute {
      * @param rule rule with which to roll. (n<em>d</em>d<em>m</em>m)
      */
     public void roll(String rule) {
+        String myArg = determine(rule);
+
+        // Adapt GUI
+        if (myArg != null) field.setText(myArg);
+
+        // Something was done
+        main.getState().setDirty(true);
+    }
+
+    /**
+     * Determine an attribute of the current character without using the
+     * GUI. May be called from several threads generating in bulk.
+     * @param rule rule with which to roll. (n<em>d</em>d<em>m</em>m)
+     * @return attribute value or null
+     */
+    String determine(String rule) {
         String myArg = null;
 
         if (dice != null || set != null) {
             int roll = 0;
             // Roll standard
             if (rule == null && dice != null) {
-                String myRoll = pf.eval(dice);
                 try {
-                    roll = Integer.parseInt(myRoll);
+                    roll = DiceFormula.compile(dice).roll();
                 }
-		catch (NumberFormatException nfe) {
-		    nfe.printStackTrace();                
+                catch (IllegalArgumentException e) {
+                    // Debugging
+                    e.printStackTrace();
                 }
             } // Use rule instead
             else if (rule != null) {
-                String myRoll = pf.eval(rule);
                 try {
-                    roll = Integer.parseInt(myRoll);
+                    roll = DiceFormula.compile(rule).roll();
                 }
-                catch (NumberFormatException nfe) {
-                    nfe.printStackTrace();
+                catch (IllegalArgumentException e) {
+                    // Debugging
+                    e.printStackTrace();
                 }
             }
             else { // Use set
@@ -274,8 +288,8 @@ public class CharAttribute {
             // Adjustements
             Iterator iter = cond2adj.keySet().iterator();
             while (iter.hasNext()) {
-                String key = (String) iter.next();
-                if (evalCond(null, key, main.getState())) {
+                Condition key = (Condition) iter.next();
+                if (key.eval(null, main.getState())) {
                     String val = (String) cond2adj.get(key);
                     try {
                         roll += Integer.parseInt(val);
@@ -300,8 +314,8 @@ public class CharAttribute {
             // Late adjustements
             iter = cond2lateadj.keySet().iterator();
             while (iter.hasNext()) {
-                String key = (String) iter.next();
-                if (evalCond(null, key, main.getState())) {
+                Condition key = (Condition) iter.next();
+                if (key.eval(null, main.getState())) {
                     int adj = ((Integer) cond2lateadj.get(key)).intValue();
                     roll = (roll * (100 + adj)) / 100;
                 }
@@ -345,13 +359,8 @@ public class CharAttribute {
         }
 
         // Adapt state
-        if (myArg != null) {
-            field.setText(myArg);
-            main.getState().setAttribute(name, myArg);
-        }
-
-        // Something was done
-        main.getState().setDirty(true);
+        if (myArg != null) main.getState().setAttribute(name, myArg);
+        return myArg;
     }
 
     /**
@@ -376,7 +385,8 @@ public class CharAttribute {
      * left. "<" for strings means left is contained in the comma-separated
      * right list. "a" is taken to be an attribute, "b" a value. If "a" is
      * "$value", the skill in test is taken instead. If "$var" is specified,
-     * not it's value is taken but its name instead.
+     * not it's value is taken but its name instead. Conditions are compiled
+     * once (see Condition).
      * @param var current skill being tested (if being tested)
      * @param test condition to test
      * @param state reference to get atttributes/skill from
@@ -385,81 +395,7 @@ public class CharAttribute {
         if (test == null) {
             return true;
         }
-
-        String[] cond = test.split("[|]");
-        boolean met = true;
-        for (int i = 0; (i < cond.length) && met; i++) {
-            String[] sub = cond[i].split("[=<!>]");
-
-            // Parsing of left side
-            String lval;
-            if (sub[0].equals("$var")) {
-                lval = var;
-            }
-            else if (var != null && sub[0].equals("$value")) {
-                lval = state.getPrelimSkill(var);
-            }
-            else {
-                lval = state.getAttribute(sub[0]);
-            }
-
-            // Normalize emptieness
-            if (lval == null || lval.length() == 0) {
-                lval = "0";
-            }
-
-            // Parsing of right side
-            String rval = sub[1];
-            try {
-                if (sub[1].indexOf("-") >= 1) {
-                    String tmp[] = sub[1].split("-");
-                    rval = Integer.toString(Integer.parseInt(state.getAttribute(tmp[0])) -
-                            Integer.parseInt(tmp[1]));
-                }
-                if (sub[1].indexOf("+") >= 1) {
-                    String tmp[] = sub[1].split("\\+");
-                    rval = Integer.toString(Integer.parseInt(state.getAttribute(tmp[0])) +
-                            Integer.parseInt(tmp[1]));
-                }
-            }
-            catch (NumberFormatException e) {
-                // Ignore, keep sub[1]
-            }
-
-            try {
-                // Numeric "=", "<", ">", and "!"
-                if (cond[i].indexOf("=") > -1) {
-                    met &= (Integer.parseInt(lval) == Integer.parseInt(rval));
-                }
-                else if (cond[i].indexOf("<") > -1) {
-                    met &= (Integer.parseInt(lval) < Integer.parseInt(rval));
-                }
-                else if (cond[i].indexOf(">") > -1) {
-                    met &= (Integer.parseInt(lval) > Integer.parseInt(rval));
-                }
-                else if (cond[i].indexOf("!") > -1) {
-                    met &= (Integer.parseInt(lval) != Integer.parseInt(rval));
-                }
-            }
-            catch (Exception e) {
-                // String "=", "<", and "!"
-                if (cond[i].indexOf("=") > -1) {
-                    met &= (lval.indexOf(rval) == 0);
-                }
-                else if (cond[i].indexOf("!") > -1) {
-                    met &= (lval.indexOf(rval) != 0);
-                }
-                else if (cond[i].indexOf("<") > -1) {
-                    String[] all = rval.split(",");
-                    boolean lmet = false;
-                    for (int j = 0; (j < all.length) && !lmet; j++) {
-                        lmet |= (lval.indexOf(all[j]) == 0);
-                    }
-                    met &= lmet;
-                }
-            }
-        }
-        return met;
+        return Condition.compile(test).eval(var, state);
     }
 
     /**
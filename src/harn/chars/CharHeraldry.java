@@ -119,17 +119,26 @@ class CharHeraldry extends JButton {
             icon = new ImageIcon(main.myPath + heraldry);
         }
         else if (calc) {
-            for (int i = 0; i < tests.size(); i++) {
-                MyTest t = (MyTest) tests.get(i);
-                if (CharAttribute.evalCond(null, t.test, main.getState())) {
-                    iconName = t.value;
-                    icon = new ImageIcon(main.myPath + t.value);
-                    break;
-                }
+            String value = choose();
+            if (value != null) {
+                iconName = value;
+                icon = new ImageIcon(main.myPath + value);
             }
         }
         setIcon(icon);
     }
+    /**
+     * Choose the heraldry for the current character.
+     * @return heraldic file name or null
+     */
+    String choose() {
+        for (int i = 0; i < tests.size(); i++) {
+            MyTest t = (MyTest) tests.get(i);
+            if (CharAttribute.evalCond(null, t.test, main.getState()))
+                return t.value;
+        }
+        return null;
+    }
     /**
      * Class to hold tests. Only used within CharHeraldry.
      */
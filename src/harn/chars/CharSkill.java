@@ -553,13 +553,20 @@ public class CharSkill {
      */
     public void setPML(String skill, String value) {
         if (lattr != null && lsun != null && pml != null && skill.equals(name)) {
+            // In bulk, the state holds the character, not the GUI
+            boolean bulk = state.isBulk();
+
             // Get SB
             int sb = 0;
 
-            String s1 = getText(lattr);
-            String s2 = getText(lsun);
-            if (s1.length() != 0) sb += Integer.parseInt(s1);
-            if (s2.length() != 0) sb += Integer.parseInt(s2);
+            if (bulk)
+                sb = calcSB(state.getCurrent());
+            else {
+                String s1 = getText(lattr);
+                String s2 = getText(lsun);
+                if (s1.length() != 0) sb += Integer.parseInt(s1);
+                if (s2.length() != 0) sb += Integer.parseInt(s2);
+            }
 
             // Get OML formula
             String myeval = (oml != null ? getText(oml) : "0xSB");
@@ -569,8 +576,9 @@ public class CharSkill {
 
             // Check the previous PML
             int old = 0;
-            if (pml.getText().length() > 0)
-                old = Integer.parseInt(pml.getText());
+            String prev = (bulk ? state.getPrelimSkill(name) : pml.getText());
+            if (prev != null && prev.length() > 0)
+                old = Integer.parseInt(prev);
 
             // Evaluate the formula (note that OML may recursively be
             // present).
@@ -578,12 +586,11 @@ public class CharSkill {
                 (old, myeval, sb, (oml != null ? getText(oml) : "0xSB"));
 
             // Change if it makes a difference. Otherwise increase by SB.
-            if (old < myml) {
-                pml.setText(Integer.toString(myml));
-            }
-            else {
-                pml.setText(Integer.toString(old + sb));
-            }
+            String res = Integer.toString(old < myml ? myml : old + sb);
+            if (bulk)
+                state.setPrelimSkill(name, res);
+            else
+                pml.setText(res);
         }
 
         if (branches != null && !skill.equals(name)) {
@@ -55,7 +55,7 @@ class CondTable {
                 table.addRow(child, child.getAttributes(), results);
         }
 
-        cond2table.put(test, table);
+        cond2table.put(Condition.compile(test), table);
     }
 
     /**
@@ -69,8 +69,8 @@ class CondTable {
     public String get(int r, int n, int d) {
         Iterator iter = cond2table.keySet().iterator();
         while (iter.hasNext()) {
-            String key = (String)iter.next();
-            if (CharAttribute.evalCond(null, key, main.getState())) {
+            Condition key = (Condition)iter.next();
+            if (key.eval(null, main.getState())) {
                 RandTable tab = (RandTable) cond2table.get(key);
                 return tab.get(r, n, d);
             }
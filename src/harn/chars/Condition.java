@@ -0,0 +1,270 @@
+/**
+ * UGMT : Universal Gamemaster tool
+ * Copyright (c) 2004 Michael Jung
+ * miju@phantasia.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package harn.chars;
+
+import java.util.*;
+
+/**
+ * Compiled condition as used by CharAttribute.evalCond. A condition string
+ * is parsed once into its terms; constant right sides are parsed to
+ * numbers once, and values of the state are parsed without exceptions.
+ * Compiled conditions are cached by their string; malformed ones are
+ * rejected when compiled. Equality and hash code
+ * are those of the string, so that tables keyed by conditions keep their
+ * order.
+ * @author Michael Jung
+ */
+class Condition {
+    /** Cache (string -> condition) */
+    private static Hashtable cache = new Hashtable();
+
+    /** No number */
+    final private static long NAN = Long.MIN_VALUE;
+
+    /** Left side kinds */
+    final private static int ATTR = 0;
+    final private static int VAR = 1;
+    final private static int VALUE = 2;
+
+    /** Source */
+    private String source;
+
+    /** Terms, all of which must be met */
+    private Term[] terms;
+
+    /**
+     * Get the compiled condition for a string.
+     * @param test condition string
+     * @return compiled condition
+     * @throws IllegalArgumentException if the condition is malformed
+     */
+    static Condition compile(String test) {
+        Condition c = (Condition) cache.get(test);
+        if (c == null) {
+            c = new Condition(test);
+            cache.put(test, c);
+        }
+        return c;
+    }
+
+    /**
+     * Constructor.
+     * @param test condition string
+     */
+    private Condition(String test) {
+        source = test;
+        String[] cond = test.split("[|]");
+        terms = new Term[cond.length];
+        for (int i = 0; i < cond.length; i++)
+            terms[i] = new Term(cond[i], test);
+    }
+
+    /**
+     * Test the condition. See CharAttribute.evalCond.
+     * @param var current skill being tested (if being tested)
+     * @param state reference to get atttributes/skill from
+     */
+    boolean eval(String var, State state) {
+        for (int i = 0; i < terms.length; i++)
+            if (!terms[i].eval(var, state)) return false;
+        return true;
+    }
+
+    /** IF method */
+    public boolean equals(Object o) {
+        return (o instanceof Condition) && ((Condition)o).source.equals(source);
+    }
+
+    /** IF method */
+    public int hashCode() { return source.hashCode(); }
+
+    /** IF method */
+    public String toString() { return source; }
+
+    /**
+     * Parse an int as Integer.parseInt does.
+     * @return value or NAN
+     */
+    private static long parse(String s) {
+        if (s == null) return NAN;
+        int len = s.length();
+        int i = 0;
+        boolean neg = false;
+        if (len > 0 && (s.charAt(0) == '-' || s.charAt(0) == '+')) {
+            neg = (s.charAt(0) == '-');
+            i++;
+        }
+        if (i == len) return NAN;
+        long ret = 0;
+        for (; i < len; i++) {
+            int d = Character.digit(s.charAt(i), 10);
+            if (d < 0) return NAN;
+            ret = ret*10 + d;
+            if (ret > Integer.MAX_VALUE + 1L) return NAN;
+        }
+        if (neg) ret = -ret;
+        if (ret > Integer.MAX_VALUE) return NAN;
+        return ret;
+    }
+
+    /**
+     * A single comparison "a?b".
+     */
+    class Term {
+        /** Kind and name of left side */
+        int kind;
+        String left;
+
+        /** Right side as given and as number */
+        String right;
+        long rnum;
+
+        /** Right side list for string "<" */
+        String[] all;
+
+        /** Attributes and offsets for right sides "a-n" and "a+n" */
+        String minus, plus;
+        long mnum, pnum;
+
+        /** Numerical and string operators (0 if none) */
+        char nop, sop;
+
+        /**
+         * Constructor.
+         * @param cond term string
+         * @param test condition string (for errors)
+         * @throws IllegalArgumentException if the term is malformed
+         */
+        Term(String cond, String test) {
+            String[] sub = cond.split("[=<!>]");
+            if (sub.length < 2)
+                throw new IllegalArgumentException
+                    ("Malformed condition \"" + test + "\"");
+
+            // Left side
+            left = sub[0];
+            kind = (left.equals("$var") ? VAR : (left.equals("$value") ? VALUE : ATTR));
+
+            // Right side
+            right = sub[1];
+            rnum = parse(right);
+            all = right.split(",");
+            boolean failed = false;
+            if (right.indexOf("-") >= 1) {
+                String tmp[] = right.split("-");
+                if (tmp.length == 1)
+                    throw new IllegalArgumentException
+                        ("Missing offset in condition \"" + test + "\"");
+                if (parse(tmp[1]) != NAN) {
+                    minus = tmp[0];
+                    mnum = parse(tmp[1]);
+                }
+                else {
+                    // Always fails, right side is kept
+                    failed = true;
+                }
+            }
+            if (!failed && right.indexOf("+") >= 1) {
+                String tmp[] = right.split("\\+");
+                if (tmp.length == 1)
+                    throw new IllegalArgumentException
+                        ("Missing offset in condition \"" + test + "\"");
+                if (parse(tmp[1]) != NAN) {
+                    plus = tmp[0];
+                    pnum = parse(tmp[1]);
+                }
+            }
+
+            // Operators in order of precedence
+            if (cond.indexOf("=") > -1) nop = '=';
+            else if (cond.indexOf("<") > -1) nop = '<';
+            else if (cond.indexOf(">") > -1) nop = '>';
+            else if (cond.indexOf("!") > -1) nop = '!';
+            if (cond.indexOf("=") > -1) sop = '=';
+            else if (cond.indexOf("!") > -1) sop = '!';
+            else if (cond.indexOf("<") > -1) sop = '<';
+        }
+
+        /**
+         * Test the term.
+         */
+        boolean eval(String var, State state) {
+            // Left side
+            String lval;
+            if (kind == VAR)
+                lval = var;
+            else if (kind == VALUE && var != null)
+                lval = state.getPrelimSkill(var);
+            else
+                lval = state.getAttribute(left);
+
+            // Normalize emptieness
+            if (lval == null || lval.length() == 0) lval = "0";
+
+            // Right side
+            String rval = right;
+            long r = rnum;
+            if (minus != null) {
+                long a = parse(state.getAttribute(minus));
+                if (a != NAN) {
+                    r = (int)(a - mnum);
+                    rval = null;
+                    if (plus != null) {
+                        a = parse(state.getAttribute(plus));
+                        if (a != NAN) r = (int)(a + pnum);
+                    }
+                }
+            }
+            else if (plus != null) {
+                long a = parse(state.getAttribute(plus));
+                if (a != NAN) {
+                    r = (int)(a + pnum);
+                    rval = null;
+                }
+            }
+
+            // Numeric
+            long l = parse(lval);
+            if (l != NAN && r != NAN) {
+                switch (nop) {
+                case '=': return l == r;
+                case '<': return l < r;
+                case '>': return l > r;
+                case '!': return l != r;
+                default: return true;
+                }
+            }
+            if (nop == 0) return true;
+
+            // String
+            if (rval == null) rval = Long.toString(r);
+            switch (sop) {
+            case '=': return lval.indexOf(rval) == 0;
+            case '!': return lval.indexOf(rval) != 0;
+            case '<':
+                String[] list = (rval == right ? all : rval.split(","));
+                for (int j = 0; j < list.length; j++)
+                    if (lval.indexOf(list[j]) == 0) return true;
+                return false;
+            default: return true;
+            }
+        }
+    }
+}
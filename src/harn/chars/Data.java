@@ -225,6 +225,17 @@ public class Data {
             ((Section)sections.get(i)).setAttribute(name, value);
     }
 
+    /**
+     * Generate the current character without using the GUI: determine all
+     * attributes and develop without choices. Used for bulk generation.
+     */
+    void generate() {
+        for (int i = 0; i < sections.size(); i++)
+            ((Section)sections.get(i)).determine();
+        for (int i = 0; i < actlist.size(); i++)
+            ((DevActionListener)actlist.get(i)).develop();
+    }
+
     /**
      * Roll a character, i.e. all attributes
      */
@@ -180,6 +180,31 @@ public class DevActionListener implements ActionListener {
     public boolean actionPerformed() {
         if (repeat != null) repeat.repeat();
 
+        determine();
+
+        // Option choice setup
+        if (table == null && options.size() > 0) {
+            DevOption dev = (DevOption) options.get(0);
+            boolean on = dev.enable();
+            if (on) return true; // else proceed
+        }
+        return false; // Don't proceed
+    }
+
+    /**
+     * Development without choices, used for characters generated in bulk.
+     * Options are not offered; attribute adjustments follow immediately.
+     */
+    void develop() {
+        if (repeat != null) repeat.repeat();
+        determine();
+        adjust();
+    }
+
+    /**
+     * Determine non-choice skills or table skills.
+     */
+    private void determine() {
         if (table == null) {
             // Non-choice skills
             Iterator iter = skills.iterator();
@@ -188,13 +213,6 @@ public class DevActionListener implements ActionListener {
                 if (CharAttribute.evalCond(tv.name, tv.test, main.getState()))
                     if (tv.name != null) main.getData().setPML(tv.name, tv.oml);
             }
-
-            // Option choice setup
-            if (options.size() > 0) {
-                DevOption dev = (DevOption) options.get(0);
-                boolean on = dev.enable();
-                if (on) return true; // else proceed
-            }
         }
         else {
             // Tables are non-choice only
@@ -212,7 +230,6 @@ public class DevActionListener implements ActionListener {
                 }
             }
         }
-        return false; // Don't proceed
     }
 
     /**
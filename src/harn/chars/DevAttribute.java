@@ -96,7 +96,7 @@ class DevAttribute {
             if (child.getNodeName().equals("adjust")) {
                 String val = cattr.getNamedItem("value").getNodeValue();
                 String test = cattr.getNamedItem("test").getNodeValue();
-                cond2adj.put(test, val);
+                cond2adj.put(Condition.compile(test), val);
             }
             if (child.getNodeName().equals("table")) {
                 if (table == null) table = new RandTable(main);
@@ -116,8 +116,8 @@ class DevAttribute {
         int num = 0;
         Iterator iter = cond2adj.keySet().iterator();
         while (iter.hasNext()) {
-            String key = (String) iter.next();
-            if (CharAttribute.evalCond(null, key, state)) {
+            Condition key = (Condition) iter.next();
+            if (key.eval(null, state)) {
                 String val = (String) cond2adj.get(key);
                 try {
                     num += Integer.parseInt(val);
@@ -203,7 +203,11 @@ class DevAttribute {
         }
 
         // Set the adjusted attribute. 
-        if (myArg != null && !myArg.equals(myVal))
-            main.getData().setAttribute(name, myArg);
+        if (myArg != null && !myArg.equals(myVal)) {
+            if (state.isBulk())
+                state.setAttribute(name, myArg);
+            else
+                main.getData().setAttribute(name, myArg);
+        }
     }
 }
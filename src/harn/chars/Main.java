@@ -78,6 +78,9 @@ public class Main implements IPlugin {
     /** Print sysnopsis */
     private JMenuItem miSPrint;
 
+    /** Generate NPCs */
+    JMenuItem miGenerate;
+
     // Right GUI items
 
     /** Print helper */
@@ -267,6 +270,42 @@ public class Main implements IPlugin {
                     }
                 }
             });
+        miGenerate = new JMenuItem("Generate NPCs");
+        miGenerate.setToolTipText("Generate many characters as new group");
+        pMenu.add(miGenerate);
+        miGenerate.addActionListener(new ActionListener() {
+                public void actionPerformed(ActionEvent e) {
+                    JTextField count = new JTextField("50");
+                    JTextField group = new JTextField("NPC");
+                    JTextField seed = new JTextField
+                        (Long.toString(System.currentTimeMillis()));
+                    JPanel p = new JPanel(new GridLayout(3, 2));
+                    p.add(new JLabel("Number"));
+                    p.add(count);
+                    p.add(new JLabel("Group"));
+                    p.add(group);
+                    p.add(new JLabel("Seed"));
+                    p.add(seed);
+                    int res = JOptionPane.showConfirmDialog
+                        (myPanel, p, "Generate NPCs",
+                         JOptionPane.OK_CANCEL_OPTION);
+                    if (res != JOptionPane.OK_OPTION) return;
+                    try {
+                        Runnable gen = new BulkGenerator
+                            (Main.this, group.getText(),
+                             Integer.parseInt(count.getText().trim()),
+                             Long.parseLong(seed.getText().trim()));
+                        miGenerate.setEnabled(false);
+                        Thread t = new Thread(gen, "generate");
+                        t.setDaemon(true);
+                        t.start();
+                    }
+                    catch (NumberFormatException ex) {
+                        // Debug
+                        ex.printStackTrace();
+                    }
+                }
+            });
         miActive = new JMenuItem("Add to active");
         pMenu.add(miActive);
         miActive.addActionListener(new ActionListener() {
@@ -80,7 +80,7 @@ class RandTable {
                     Integer vals = new Integer
                         (child.getAttributes().getNamedItem("value").getNodeValue());
                     String test = child.getAttributes().getNamedItem("test").getNodeValue();
-                    cond2adj.put(test, vals);
+                    cond2adj.put(Condition.compile(test), vals);
                 }
             }
             results.add
@@ -147,8 +147,8 @@ class RandTable {
             // Adjustements
             Iterator iter = cond2adj.keySet().iterator();
             while (iter.hasNext()) {
-                String key = (String) iter.next();
-                if (CharAttribute.evalCond(null, key, main.getState())) {
+                Condition key = (Condition) iter.next();
+                if (key.eval(null, main.getState())) {
                     roll += ((Integer) cond2adj.get(key)).intValue();
                 }
             }
@@ -125,6 +125,21 @@ public class Section {
         }
     }
 
+    /**
+     * Determines all attributes and the heraldry of a section for the
+     * current character without using the GUI (bulk generation).
+     */
+    void determine() {
+        State state = main.getState();
+        for (int i = 0; i < charitems.size(); i++) {
+            if (charitems.get(i) instanceof CharAttribute)
+                ((CharAttribute)charitems.get(i)).determine(null);
+            else if (charitems.get(i) instanceof CharHeraldry)
+                state.getCurrent().heraldry =
+                    ((CharHeraldry)charitems.get(i)).choose();
+        }
+    }
+
     /**
      * Set Dirty.
      */
@@ -75,6 +75,9 @@ public class State implements IListener {
     /** Depth of nested attribute parts */
     private static int DEPTH = 2;
 
+    /** Character generated in bulk by the current thread */
+    private ThreadLocal bulk = new ThreadLocal();
+
     /**
      * Constructor,
      * @param aMain root reference
@@ -412,18 +415,57 @@ public class State implements IListener {
      * @return value of attribute
      */
     public String getAttribute(String name) {
-        if (charlist == null || current == null) return null;
-        return (String) ((MyCharacter)charlist.get(current)).getAttribute(name);
+        MyCharacter c = getCurrent();
+        if (c == null) return null;
+        return (String) c.getAttribute(name);
     }
 
     /**
-     * Get the current character.
+     * Get the current character. This is the character generated in bulk
+     * by the calling thread, if any.
      */
     public MyCharacter getCurrent() {
+        MyCharacter c = (MyCharacter) bulk.get();
+        if (c != null) return c;
         if (current == null) return null;
         return (MyCharacter)charlist.get(current);
     }
 
+    /**
+     * Start generating a character in bulk. Until endBulk, the rules of the
+     * calling thread work on this character instead of the current one. The
+     * character is neither listed nor announced.
+     * @param name name of character
+     * @return new character
+     */
+    MyCharacter startBulk(String name) {
+        MyCharacter c = new MyCharacter(name, false);
+        bulk.set(c);
+        return c;
+    }
+
+    /**
+     * Stop generating a character in bulk. Preliminary skills become
+     * skills.
+     */
+    void endBulk() {
+        MyCharacter c = (MyCharacter) bulk.get();
+        bulk.set(null);
+        if (c == null) return;
+        Iterator iter = c.prels.keySet().iterator();
+        while (iter.hasNext()) {
+            String key = (String) iter.next();
+            c.putSkill(key, (String) c.prels.get(key), false);
+        }
+        c.prels = new Hashtable();
+    }
+
+    /**
+     * Whether the calling thread generates a character in bulk.
+     * @return true if generating in bulk
+     */
+    boolean isBulk() { return bulk.get() != null; }
+
     /**
      * Get the code (PIN).
      * @param name name of char
@@ -440,8 +482,9 @@ public class State implements IListener {
      * @return value of skill
      */
     public String getSkill(String name) {
-        if (charlist == null || current == null) return null;
-        return (String) ((MyCharacter)charlist.get(current)).getSkill(name);
+        MyCharacter c = getCurrent();
+        if (c == null) return null;
+        return (String) c.getSkill(name);
     }
 
     /**
@@ -450,8 +493,9 @@ public class State implements IListener {
      * @return value of note
      */
     public String getNote(String name) {
-        if (charlist == null || current == null) return null;
-        return (String) ((MyCharacter)charlist.get(current)).getNote(name);
+        MyCharacter c = getCurrent();
+        if (c == null) return null;
+        return (String) c.getNote(name);
     }
 
     /**
@@ -460,7 +504,7 @@ public class State implements IListener {
      * @return value of skill
      */
     public String getPrelimSkill(String name) {
-        return (String) ((MyCharacter)charlist.get(current)).getPrelimSkill(name);
+        return (String) getCurrent().getPrelimSkill(name);
     }
 
     /**
@@ -519,8 +563,9 @@ public class State implements IListener {
      * @param value value of attribute
      */
     public void setAttribute(String name, String value) {
-        if (current != null && value != null)
-            ((MyCharacter)charlist.get(current)).putAttribute(name, value);
+        MyCharacter c = getCurrent();
+        if (c != null && value != null)
+            c.putAttribute(name, value);
     }
 
     /**
@@ -529,8 +574,9 @@ public class State implements IListener {
      * @param value value of note
      */
     public void setNote(String name, String value) {
-        if (current != null && value != null && value.length() != 0)
-            ((MyCharacter)charlist.get(current)).putNote(name, value);
+        MyCharacter c = getCurrent();
+        if (c != null && value != null && value.length() != 0)
+            c.putNote(name, value);
     }
 
     /**
@@ -550,8 +596,9 @@ public class State implements IListener {
      * @param value value of skill
      */
     public void setSkill(String name, String value) {
-        if (current != null && value != null)
-            ((MyCharacter)charlist.get(current)).putSkill(name, value, true);
+        MyCharacter c = getCurrent();
+        if (c != null && value != null)
+            c.putSkill(name, value, true);
     }
 
     /**
@@ -560,22 +607,23 @@ public class State implements IListener {
      * @param value value of skill
      */
     public void setPrelimSkill(String name, String value) {
-        if (current != null && value != null && value.length() != 0)
-            ((MyCharacter)charlist.get(current)).putPrelimSkill(name, value);
+        MyCharacter c = getCurrent();
+        if (c != null && value != null && value.length() != 0)
+            c.putPrelimSkill(name, value);
     }
 
     /**
      * Clear all attributes and heraldic.
      */
     public void clearAttributes() {
-        ((MyCharacter)charlist.get(current)).cleanAttributes();
+        getCurrent().cleanAttributes();
     }
 
     /**
      * Clear all skills.
      */
     public void clearSkills() {
-        ((MyCharacter)charlist.get(current)).cleanSkills();
+        getCurrent().cleanSkills();
     }
 
     /**
@@ -648,63 +696,122 @@ public class State implements IListener {
                 else {
                     String ckey = child.toString();
                     MyCharacter mychar = (MyCharacter) charlist.get(ckey);
+                    root.insertBefore(saveChar(mychar, stateDoc), null);
+                }
+            }
+    }
 
-                    // Character element
-                    Element elem = stateDoc.createElement("char");
-                    root.insertBefore(elem, null);
-                    elem.setAttribute("name", mychar.cname);
-                    elem.setAttribute("code", mychar.code);
-
-                    // Attributes
-                    Iterator iter1 = mychar.attrKeySet().iterator();
-                    while (iter1.hasNext()) {
-                        String akey = (String) iter1.next();
-                        if (mychar.getAttribute(akey) == null || mychar.getAttribute(akey).length() == 0)
-                            continue;
-
-                        // Attribute element
-                        Element attrelem = stateDoc.createElement("attribute");
-                        elem.insertBefore(attrelem, null);
-                        attrelem.setAttribute("name", akey);
-                        attrelem.setAttribute
-                            ("value", mychar.getAttribute(akey));
-                    }
+    /**
+     * Create the element of a character.
+     * @param mychar character
+     * @param stateDoc document to create element in
+     * @return character element
+     */
+    private Element saveChar(MyCharacter mychar, Document stateDoc) {
+        // Character element
+        Element elem = stateDoc.createElement("char");
+        elem.setAttribute("name", mychar.cname);
+        elem.setAttribute("code", mychar.code);
+
+        // Attributes
+        Iterator iter1 = mychar.attrKeySet().iterator();
+        while (iter1.hasNext()) {
+            String akey = (String) iter1.next();
+            if (mychar.getAttribute(akey) == null || mychar.getAttribute(akey).length() == 0)
+                continue;
+
+            // Attribute element
+            Element attrelem = stateDoc.createElement("attribute");
+            elem.insertBefore(attrelem, null);
+            attrelem.setAttribute("name", akey);
+            attrelem.setAttribute
+                ("value", mychar.getAttribute(akey));
+        }
 
-                    // Skills
-                    iter1 = mychar.skillKeySet().iterator();
-                    while (iter1.hasNext()) {
-                        String akey = (String) iter1.next();
-                        if (mychar.getSkill(akey) == null || mychar.getSkill(akey).length() == 0)
-                            continue;
-
-                        // Skill element
-                        Element skillelem = stateDoc.createElement("skill");
-                        elem.insertBefore(skillelem, null);
-                        skillelem.setAttribute("name", akey);
-                        skillelem.setAttribute("value", mychar.getSkill(akey));
-                    }
+        // Skills
+        iter1 = mychar.skillKeySet().iterator();
+        while (iter1.hasNext()) {
+            String akey = (String) iter1.next();
+            if (mychar.getSkill(akey) == null || mychar.getSkill(akey).length() == 0)
+                continue;
+
+            // Skill element
+            Element skillelem = stateDoc.createElement("skill");
+            elem.insertBefore(skillelem, null);
+            skillelem.setAttribute("name", akey);
+            skillelem.setAttribute("value", mychar.getSkill(akey));
+        }
 
-                    if (mychar.heraldry != null) {
-                        // Heraldry element
-                        Element heraldelem =
-                            stateDoc.createElement("heraldry");
-                        elem.insertBefore(heraldelem, null);
-                        heraldelem.setAttribute("value", mychar.heraldry);
-                    }
+        if (mychar.heraldry != null) {
+            // Heraldry element
+            Element heraldelem =
+                stateDoc.createElement("heraldry");
+            elem.insertBefore(heraldelem, null);
+            heraldelem.setAttribute("value", mychar.heraldry);
+        }
 
-                    // Notes
-                    iter1 = mychar.notesKeySet().iterator();
-                    while (iter1.hasNext()) {
-                        String akey = (String) iter1.next();
+        // Notes
+        iter1 = mychar.notesKeySet().iterator();
+        while (iter1.hasNext()) {
+            String akey = (String) iter1.next();
 
-                        // Skill element
-                        Element noteelem = stateDoc.createElement("note");
-                        elem.insertBefore(noteelem, null);
-                        noteelem.setAttribute("name", akey);
-                        noteelem.setAttribute("value", mychar.getNote(akey));
-                    }
-                }
-            }
+            // Skill element
+            Element noteelem = stateDoc.createElement("note");
+            elem.insertBefore(noteelem, null);
+            noteelem.setAttribute("name", akey);
+            noteelem.setAttribute("value", mychar.getNote(akey));
+        }
+        return elem;
+    }
+
+    /**
+     * Get names for characters that are not taken yet.
+     * @param prefix prefix of names
+     * @param n number of names
+     * @return names
+     */
+    String[] freeNames(String prefix, int n) {
+        String[] ret = new String[n];
+        int j = 1;
+        for (int i = 0; i < n; i++) {
+            while (charlist.get(prefix + " " + j) != null) j++;
+            ret[i] = prefix + " " + j++;
+        }
+        return ret;
+    }
+
+    /**
+     * Write characters generated in bulk as group to a new state file. The
+     * file is merged like any other state file.
+     * @param chars characters
+     * @param group group name
+     * @return file written
+     */
+    File saveBulk(MyCharacter[] chars, String group) {
+        Document doc = Framework.newDoc();
+        Element root = doc.createElement("chars");
+        doc.insertBefore(root, doc.getLastChild());
+        Element elem = doc.createElement("group");
+        elem.setAttribute("name", group);
+        root.insertBefore(elem, null);
+        for (int i = 0; i < chars.length; i++)
+            elem.insertBefore(saveChar(chars[i], doc), null);
+
+        String base = "state-" + group.replaceAll("[^A-Za-z0-9]", "_");
+        File file = new File(main.myPath + base + ".xml");
+        for (int i = 1; file.exists(); i++)
+            file = new File(main.myPath + base + "-" + i + ".xml");
+        Framework.transform(doc, new StreamResult(file), null);
+        return file;
+    }
+
+    /**
+     * Load a state file written by saveBulk.
+     * @param file file to load
+     */
+    void loadBulk(File file) {
+        Document doc = Framework.parse(file.getPath(), "chars");
+        loadDoc(doc.getDocumentElement(), main.chartree);
     }
 
     /**
@@ -1015,7 +1122,14 @@ public class State implements IListener {
          * Constructor. Used for immediate creation.
          * @param aName character's name
          */
-        MyCharacter(String aName) {
+        MyCharacter(String aName) { this(aName, true); }
+
+        /**
+         * Constructor.
+         * @param aName character's name
+         * @param anAnnounce announce the character and its changes
+         */
+        MyCharacter(String aName, boolean anAnnounce) {
             attrs = new Hashtable();
             skills = new Hashtable();
             prels = new Hashtable();
@@ -1023,10 +1137,10 @@ public class State implements IListener {
             cname = aName;
             code = Integer.toString(9999 + DiceRoller.d(10000)).substring(1,5);
 
-            announce = true;
+            announce = anAnnounce;
             valid = true;
             isCombat = false;
-            main.getFramework().announce(this);
+            if (announce) main.getFramework().announce(this);
         }
 
         /**
@@ -20,6 +20,7 @@
 package harn.encounters;
 
 import java.io.*;
+import java.util.*;
 import org.w3c.dom.*;
 import rpg.Framework;
 
@@ -40,6 +41,9 @@ public class Data {
     /** total (table) data */
     private Document total;
 
+    /** Compiled tables (name -> table) */
+    private Hashtable tables = new Hashtable();
+
     /**
      * Constructor. Parses the data into a hashmap of hashmaps...
      * Gets all iconic weather items.
@@ -92,6 +96,20 @@ public class Data {
         throw new RuntimeException("Can't find table " + name);
     }
 
+    /**
+     * Get a compiled table. Tables are compiled on first use.
+     * @param name name of table
+     * @return compiled table
+     */
+    EncounterTable getTable(String name) {
+        EncounterTable ret = (EncounterTable) tables.get(name);
+        if (ret == null) {
+            ret = new EncounterTable(findTable(name));
+            tables.put(name, ret);
+        }
+        return ret;
+    }
+
     /**
      * Get total table data.
      * @return table data
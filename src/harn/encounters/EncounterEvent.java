@@ -159,6 +159,41 @@ public class EncounterEvent extends TimeEvent {
         announce();
     }
 
+    /**
+     * Setting an outcome as forecast (see Forecast).
+     * @param aPrefix prefix
+     * @param aName name or null
+     * @param aNote note or null
+     * @param anIndex index or null
+     * @param aTable table reference, if not yet final
+     */
+    void setOutcome(String aPrefix, String aName, String aNote, String anIndex, String aTable) {
+        prefix = aPrefix;
+        name = aName;
+        note = aNote;
+        index = anIndex;
+        tableref = aTable;
+        node.removeAttribute("prefix");
+        node.removeAttribute("name");
+        node.removeAttribute("note");
+        node.removeAttribute("index");
+        node.removeAttribute("tableref");
+
+        if (tableref != null)
+            node.setAttribute("tableref", tableref);
+        if (name != null)
+            node.setAttribute("name", name);
+        if (note != null)
+            node.setAttribute("note", note);
+        if (index != null)
+            node.setAttribute("index", index);
+        if (prefix.length() > 0)
+            node.setAttribute("prefix", prefix);
+
+        main.bSave.setEnabled(true);
+        announce();
+    }
+
     /**
      * Setting the current attributes into the node (and keep the node).
      * @param attr the attributes from the entry
@@ -291,6 +326,12 @@ public class EncounterEvent extends TimeEvent {
                 act.getDate() <= time[1]);
     }
 
+    /** IF method TimeEvent */
+    public long getStart() { return time[0]; }
+
+    /** IF method TimeEvent */
+    public long getDuration() { return time[1] - time[0]; }
+
     /** IF method TimeEvent */
     public float[] isActive(long from, long to) {
         // Prerequisites
@@ -0,0 +1,260 @@
+/**
+ * UGMT : Universal Gamemaster tool
+ * Copyright (c) 2004 Michael Jung
+ * miju@phantasia.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package harn.encounters;
+
+import java.util.*;
+import org.w3c.dom.*;
+import rpg.DiceRoller;
+
+/**
+ * Compiled encounter table. The entries of a table are read once with
+ * their weights, references and conditions. For each context (the values
+ * of terrain, vegetation, weather, light and locations, as far as the
+ * conditions of the table use them) the entries met and their cumulative
+ * weights are determined once and kept as a bucket. A roll is then a
+ * single die roll and a table lookup. The same die is rolled as by the
+ * old interpreting roll, so that results do not change.
+ * @author Michael Jung
+ */
+class EncounterTable {
+    /** Context kinds */
+    final private static int TERRAIN = 0;
+    final private static int VEGETATION = 1;
+    final private static int CONDITION = 2;
+    final private static int WEATHER = 3;
+    final private static int TIME = 4;
+    final private static int KINDS = 5;
+    final private static int OTHER = -1;
+
+    /** Names of context kinds in conditions */
+    final private static String[] KEYS =
+        new String[] { "terrain", "vegetation", "condition", "weather", "time" };
+
+    /** Largest sum of weights with a direct lookup */
+    final private static int DIRECT = 4096;
+
+    /** Entries with weight */
+    private Node[] nodes;
+
+    /** Table references of entries */
+    private String[] refs;
+
+    /** Weights of entries */
+    private int[] weights;
+
+    /** Conditions of entries (null if none) */
+    private Term[][] conds;
+
+    /** Context kinds used */
+    private boolean[] used = new boolean[KINDS];
+
+    /** Locations used */
+    private String[] locs;
+
+    /** Any condition dependent on locale */
+    private boolean local;
+
+    /** Buckets (context -> bucket) */
+    private HashMap buckets = new HashMap();
+
+    /**
+     * Constructor.
+     * @param table table node of data
+     */
+    EncounterTable(Node table) {
+        ArrayList n = new ArrayList();
+        ArrayList l = new ArrayList();
+	NodeList tree = table.getChildNodes();
+	for (int i = 0; i < tree.getLength(); i++) {
+            Node entry = tree.item(i);
+            if (entry.getNodeName().equals("entry") &&
+                entry.getAttributes().getNamedItem("weight") != null)
+                n.add(entry);
+        }
+        nodes = (Node[]) n.toArray(new Node[n.size()]);
+        refs = new String[nodes.length];
+        weights = new int[nodes.length];
+        conds = new Term[nodes.length][];
+        for (int i = 0; i < nodes.length; i++) {
+            NamedNodeMap attr = nodes[i].getAttributes();
+            weights[i] = Integer.parseInt
+                (attr.getNamedItem("weight").getNodeValue());
+            Node ref = attr.getNamedItem("tableref");
+            if (ref != null) refs[i] = ref.getNodeValue();
+            Node cond = attr.getNamedItem("cond");
+            if (cond == null) continue;
+            String[] list = cond.getNodeValue().split("[|]");
+            conds[i] = new Term[list.length];
+            for (int j = 0; j < list.length; j++) {
+                Term t = new Term(list[j]);
+                conds[i][j] = t;
+                local |= (t.kind == TERRAIN || t.kind == VEGETATION ||
+                          t.kind == KINDS);
+                if (t.kind == OTHER) continue;
+                if (t.kind < KINDS) {
+                    used[t.kind] = true;
+                    continue;
+                }
+                if (!l.contains(t.right)) l.add(t.right);
+                t.kind = KINDS + l.indexOf(t.right);
+            }
+        }
+        locs = (String[]) l.toArray(new String[l.size()]);
+    }
+
+    /**
+     * Whether the table depends on locale. Such tables are only rolled
+     * upon, if forced.
+     * @return local flag
+     */
+    boolean isLocal() { return local; }
+
+    /**
+     * Get the data node of an entry.
+     * @param i index as rolled
+     * @return entry node
+     */
+    Node getNode(int i) { return nodes[i]; }
+
+    /**
+     * Get the table reference of an entry.
+     * @param i index as rolled
+     * @return name of table or null
+     */
+    String getRef(int i) { return refs[i]; }
+
+    /**
+     * Roll on this table in a context.
+     * @param ctx context of group
+     * @param date date of context
+     * @param r generator; null for the one of the thread
+     * @return index of entry or -1, if none met
+     */
+    int roll(State.Context ctx, long date, SplittableRandom r) {
+        Bucket b = bucket(ctx, date);
+        if (b.idx.length == 0) return -1;
+        return b.pick(r != null ? DiceRoller.d(r, b.sum) : DiceRoller.d(b.sum));
+    }
+
+    /** Get the bucket of a context */
+    private Bucket bucket(State.Context where, long date) {
+        String[] ctx = new String[KINDS + locs.length];
+        if (used[TERRAIN]) ctx[TERRAIN] = where.getTerrain();
+        if (used[VEGETATION]) ctx[VEGETATION] = where.getVegetation();
+        if (used[CONDITION]) ctx[CONDITION] = where.getWeatherCondition(date);
+        if (used[WEATHER]) ctx[WEATHER] = where.getWeatherEvent(date);
+        if (used[TIME]) ctx[TIME] = where.getLight(date);
+        for (int i = 0; i < locs.length; i++)
+            ctx[KINDS + i] = where.getLocation(locs[i]);
+
+        List key = Arrays.asList(ctx);
+        synchronized (buckets) {
+            Bucket b = (Bucket) buckets.get(key);
+            if (b == null) {
+                b = new Bucket(ctx);
+                buckets.put(key, b);
+            }
+            return b;
+        }
+    }
+
+    /**
+     * Entries met in one context with their cumulative weights.
+     */
+    class Bucket {
+        /** Entries met */
+        int[] idx;
+        /** Cumulative weights */
+        int[] cum;
+        int sum;
+        /** Cumulative weights not decreasing */
+        boolean sorted = true;
+        /** Roll -> position (if weights small and not negative) */
+        int[] direct;
+
+        Bucket(String[] ctx) {
+            int[] tmp = new int[nodes.length];
+            int n = 0;
+            for (int i = 0; i < nodes.length; i++)
+                if (met(conds[i], ctx)) tmp[n++] = i;
+            idx = new int[n];
+            cum = new int[n];
+            for (int i = 0; i < n; i++) {
+                idx[i] = tmp[i];
+                sorted &= (weights[idx[i]] >= 0);
+                sum += weights[idx[i]];
+                cum[i] = sum;
+            }
+            if (sorted && sum > 0 && sum <= DIRECT) {
+                direct = new int[sum + 1];
+                for (int i = 0, v = 0; i < n; i++)
+                    for (; v <= cum[i]; v++) direct[v] = i;
+            }
+        }
+
+        /** Entry with the first cumulative weight not below r */
+        int pick(int r) {
+            if (direct != null && r >= 0 && r <= sum) return idx[direct[r]];
+            int i = 0;
+            if (sorted) {
+                int hi = cum.length - 1;
+                while (i < hi) {
+                    int mid = (i + hi) >>> 1;
+                    if (cum[mid] < r) i = mid + 1; else hi = mid;
+                }
+            }
+            else {
+                while (i < cum.length - 1 && cum[i] < r) i++;
+            }
+            return idx[i];
+        }
+    }
+
+    /** Whether all terms are met in a context */
+    private static boolean met(Term[] terms, String[] ctx) {
+        if (terms == null) return true;
+        for (int i = 0; i < terms.length; i++) {
+            String test = (terms[i].kind == OTHER ? null : ctx[terms[i].kind]);
+            if (terms[i].eq != terms[i].right.equals(test)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * A single term "a=b" or "a!b" of a condition.
+     */
+    static class Term {
+        /** Context index (locations after the kinds) */
+        int kind = OTHER;
+        /** Value compared to */
+        String right;
+        /** Equality or inequality */
+        boolean eq;
+
+        Term(String term) {
+            String[] sub = term.split("[=!]");
+            right = (sub.length > 1 ? sub[1] : "");
+            eq = (term.indexOf("=") > -1);
+            for (int i = 0; i < KINDS; i++)
+                if (sub[0].equals(KEYS[i])) kind = i;
+            if (sub[0].equals("location")) kind = KINDS;
+        }
+    }
+}
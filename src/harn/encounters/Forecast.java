@@ -0,0 +1,323 @@
+/**
+ * UGMT : Universal Gamemaster tool
+ * Copyright (c) 2004 Michael Jung
+ * miju@phantasia.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package harn.encounters;
+
+import java.util.*;
+import java.util.concurrent.*;
+import javax.swing.*;
+import org.w3c.dom.*;
+import rpg.*;
+
+/**
+ * Encounter forecast for the active group over a range of days. The
+ * watches are rolled in chunks on several threads, each chunk with its own
+ * random generator derived from the seed, so a seed always yields the same
+ * forecast (for the same weather). Each watch is stored as its offset
+ * within the watch and the index of its outcome; outcomes are kept only
+ * once. When the group reaches a watch of the forecast, the event is taken
+ * from it instead of being rolled. The position of the group at the time
+ * of the forecast is used for all watches; each watch keeps the context
+ * (map, terrain, vegetation, weather, location) it was rolled in, and its
+ * outcome is only used if the group's context then is still the same.
+ * Otherwise the watch is rolled as usual. The weather of the whole range
+ * is determined first, in order of time, so that the threads only read it.
+ * @author Michael Jung
+ */
+class Forecast implements Runnable {
+    /** Watches per chunk */
+    final private static int CHUNK = 7 * 6;
+
+    /** Root reference */
+    private Main main;
+
+    /** Group name */
+    private String group;
+
+    /** Date of the group when forecast */
+    private long date;
+
+    /** Context of the group when forecast */
+    private State.Context ctx;
+
+    /** First watch */
+    private long first;
+
+    /** Offsets of events within their watches (0 if none) */
+    private int[] offs;
+
+    /** Outcomes of watches (index into outcomes, -1 if none) */
+    private int[] outs;
+
+    /** Contexts of watches (index into outcomes; see State.Context) */
+    private int[] sigs;
+
+    /** Distinct outcomes */
+    private ArrayList outcomes = new ArrayList();
+
+    /** Outcome indices (key -> Integer) */
+    private HashMap known = new HashMap();
+
+    /** Seed */
+    private long seed;
+
+    /** Number of threads */
+    private int threads;
+
+    /** Time needed */
+    private long ms;
+
+    /**
+     * Constructor. Called on the event dispatch thread.
+     * @param aMain root reference
+     * @param from first date
+     * @param days number of days
+     * @param aSeed seed
+     */
+    Forecast(Main aMain, long from, int days, long aSeed) {
+        main = aMain;
+        group = main.myState.act.getName();
+        date = main.myState.act.getDate();
+        ctx = main.myState.new Context(main.myState.act);
+        first = from/Main.DAY*Main.DAY/Main.WATCH;
+        offs = new int[6*days];
+        outs = new int[6*days];
+        Arrays.fill(outs, -1);
+        sigs = new int[6*days];
+        seed = aSeed;
+        threads = Integer.parseInt
+            (main.myProps.getProperty
+             ("forecast.threads",
+              Integer.toString(Runtime.getRuntime().availableProcessors())));
+    }
+
+    /** IF method */
+    public void run() {
+        long t0 = System.currentTimeMillis();
+
+        // Weather in order of time, so that it is the same as if the group
+        // got there and independent of threads
+        for (int i = 0; i < offs.length; i++) {
+            long t = (first + i)*Main.WATCH;
+            if (t < 0) continue;
+            ctx.getWeatherCondition(t);
+            ctx.getWeatherEvent(t);
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool
+            (threads, new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "forecast");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+
+        // Generators are split off in order, independent of threads
+        SplittableRandom root = new SplittableRandom(seed);
+        ArrayList res = new ArrayList();
+        for (int i = 0; i < offs.length; i += CHUNK) {
+            final int lo = i;
+            final int hi = Math.min(offs.length, i + CHUNK);
+            final SplittableRandom r = root.split();
+            res.add(pool.submit(new Runnable() {
+                    public void run() { generate(lo, hi, r); }
+                }));
+        }
+        for (int i = 0; i < res.size(); i++) {
+            try {
+                ((Future)res.get(i)).get();
+            }
+            catch (Exception e) {
+                // Debugging
+                e.printStackTrace();
+            }
+        }
+        pool.shutdown();
+        ms = Math.max(1, System.currentTimeMillis() - t0);
+
+        SwingUtilities.invokeLater(new Runnable() {
+                public void run() {
+                    main.myState.setForecast(Forecast.this);
+                    main.showForecast(0);
+                }
+            });
+    }
+
+    /**
+     * Roll the watches from lo (inclusive) to hi (exclusive) on the calling
+     * thread.
+     */
+    private void generate(int lo, int hi, SplittableRandom r) {
+        for (int i = lo; i < hi; i++) {
+            long t = (first + i)*Main.WATCH;
+            if (t < 0) continue;
+            try {
+                int off = DiceRoller.d(r, Main.WATCH);
+                sigs[i] = intern(ctx.signature(t + off));
+                outs[i] = intern(resolve(t + off, r));
+                offs[i] = off;
+            }
+            catch (RuntimeException e) {
+                // Debugging
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Roll an encounter from "General" as State.roll does, without an
+     * event. Rolling stops at tables depending on locale, unless the group
+     * is there at the time.
+     */
+    private Outcome resolve(long time, SplittableRandom r) {
+        boolean force = (date >= time && date <= time + State.evlen);
+        Outcome ret = new Outcome();
+        ret.prefix = "";
+        ret.tableref = "General";
+        while (ret.tableref != null) {
+            EncounterTable table = main.myData.getTable(ret.tableref);
+            if (table.isLocal() && !force) break;
+            int l = table.roll(ctx, time, r);
+            if (l < 0) break;
+
+            NamedNodeMap attr = table.getNode(l).getAttributes();
+            if (attr.getNamedItem("prefix") != null)
+                ret.prefix += attr.getNamedItem("prefix").getNodeValue();
+            ret.name = value(attr, "name");
+            if (ret.name != null) ret.name = ret.prefix + ret.name;
+            ret.note = value(attr, "note");
+            ret.index = value(attr, "index");
+            ret.tableref = table.getRef(l);
+        }
+        return ret;
+    }
+
+    /** Value of an attribute or null */
+    private static String value(NamedNodeMap attr, String name) {
+        Node n = attr.getNamedItem(name);
+        return (n != null ? n.getNodeValue() : null);
+    }
+
+    /** Index of an outcome or context; added, if new */
+    private synchronized int intern(Object o) {
+        String key = (o instanceof Outcome ? ((Outcome)o).key() : "=" + o);
+        Integer ret = (Integer) known.get(key);
+        if (ret == null) {
+            ret = new Integer(outcomes.size());
+            outcomes.add(o);
+            known.put(key, ret);
+        }
+        return ret.intValue();
+    }
+
+    /**
+     * Offset of the event of a watch within the watch.
+     * @param aGroup group name
+     * @param watch watch (time/WATCH)
+     * @return offset or 0, if not forecast
+     */
+    int offset(String aGroup, long watch) {
+        if (!group.equals(aGroup) || watch < first || watch >= first + offs.length)
+            return 0;
+        return offs[(int)(watch - first)];
+    }
+
+    /**
+     * Whether the context of a watch is still the one forecast, so that
+     * its outcome may be used.
+     * @param watch watch (time/WATCH) as forecast
+     * @param now context of the group now
+     * @return true if matching
+     */
+    boolean matches(long watch, State.Context now) {
+        long i = watch - first;
+        if (i < 0 || i >= outs.length || outs[(int)i] < 0) return false;
+        long t = watch*Main.WATCH + offs[(int)i];
+        return outcomes.get(sigs[(int)i]).equals(now.signature(t));
+    }
+
+    /**
+     * Set the outcome of a watch on an event.
+     * @param watch watch (time/WATCH) as forecast
+     * @param ev event
+     */
+    void apply(long watch, EncounterEvent ev) {
+        long i = watch - first;
+        if (i < 0 || i >= outs.length || outs[(int)i] < 0) return;
+        Outcome o = (Outcome) outcomes.get(outs[(int)i]);
+        ev.setOutcome(o.prefix, o.name, o.note, o.index, o.tableref);
+    }
+
+    /**
+     * Number of pages.
+     * @param size watches per page
+     * @return pages
+     */
+    int pages(int size) { return (offs.length + size - 1)/size; }
+
+    /**
+     * Get a page of the forecast as text.
+     * @param no page number
+     * @param size watches per page
+     * @return text
+     */
+    String page(int no, int size) {
+        StringBuffer ret = new StringBuffer();
+        ret.append("Forecast for " + group + " (" + (no + 1) + "/" +
+                   pages(size) + ")\nSeed: " + seed + ", " + offs.length +
+                   " watches in " + ms/1000. + " s\n\n");
+        for (int i = no*size; i < offs.length && i < (no + 1)*size; i++) {
+            if (outs[i] < 0) continue;
+            Outcome o = (Outcome) outcomes.get(outs[i]);
+            if (main.list.hidePseudos && o.isPseudo()) continue;
+            ret.append(main.myState.datetime2string((first + i)*Main.WATCH + offs[i]));
+            ret.append(" ");
+            ret.append(o.toString());
+            ret.append("\n");
+        }
+        return ret.toString();
+    }
+
+    /**
+     * Result of rolling for a watch, as set on an event.
+     */
+    static class Outcome {
+        String prefix, name, note, index, tableref;
+
+        /** Key for sharing */
+        String key() {
+            return prefix + "\0" + name + "\0" + note + "\0" + index + "\0" + tableref;
+        }
+
+        /** Non-event */
+        boolean isPseudo() {
+            return name == null && note == null && index == null && tableref == null;
+        }
+
+        /** IF method */
+        public String toString() {
+            if (note != null) return note.substring(note.lastIndexOf("/") + 1);
+            if (index != null) return index.substring(index.lastIndexOf("/") + 1);
+            if (name != null) return name;
+            if (tableref != null) return "(" + tableref + ")";
+            return "-";
+        }
+    }
+}
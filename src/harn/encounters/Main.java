@@ -72,6 +72,12 @@ public class Main implements IPlugin {
     private JButton bRemove;
     private JButton bRemove1;
     private JButton bHide;
+    private JButton bForecast;
+    private JButton bPrevious;
+    private JButton bNext;
+
+    /** Forecast page shown */
+    private int fPage;
 
     /**
      * Provide a version information of a format "x.y", where x is a major and
@@ -189,6 +195,61 @@ public class Main implements IPlugin {
         bHide.setToolTipText
             ("<html>Some watches have no events. But a time slot is still<br>" +
              "rolled and an event assigned. Show/Hide these \"Non-events\"</html>");
+        bForecast = new JButton("Forecast");
+        bForecast.setMnemonic(KeyEvent.VK_F);
+	bForecast.addActionListener(new ActionListener() {
+		public void actionPerformed(ActionEvent e) {
+                    if (myState.act == null || myState.cal == null) return;
+                    JTextField days = new JTextField("30");
+                    JTextField seed = new JTextField
+                        (Long.toString(System.currentTimeMillis()));
+                    JPanel p = new JPanel(new GridLayout(2, 2));
+                    p.add(new JLabel("Days"));
+                    p.add(days);
+                    p.add(new JLabel("Seed"));
+                    p.add(seed);
+                    int res = JOptionPane.showConfirmDialog
+                        (myPanel, p, "Forecast encounters",
+                         JOptionPane.OK_CANCEL_OPTION);
+                    if (res != JOptionPane.OK_OPTION) return;
+                    try {
+                        Runnable gen = new Forecast
+                            (Main.this, myState.act.getDate(),
+                             Integer.parseInt(days.getText().trim()),
+                             Long.parseLong(seed.getText().trim()));
+                        bForecast.setEnabled(false);
+                        Thread t = new Thread(gen, "forecast");
+                        t.setDaemon(true);
+                        t.start();
+                    }
+                    catch (NumberFormatException ex) {
+                        // Debug
+                        ex.printStackTrace();
+                    }
+		}
+	    });
+        bForecast.setToolTipText
+            ("<html>Roll encounters for the days ahead at once. New events<br>" +
+             "are taken from the forecast, when the group gets there</html>");
+
+        bPrevious = new JButton("<");
+        bPrevious.setEnabled(false);
+	bPrevious.addActionListener(new ActionListener() {
+		public void actionPerformed(ActionEvent e) {
+		    showForecast(fPage - 1);
+		}
+	    });
+        bPrevious.setToolTipText("Previous page of forecast");
+
+        bNext = new JButton(">");
+        bNext.setEnabled(false);
+	bNext.addActionListener(new ActionListener() {
+		public void actionPerformed(ActionEvent e) {
+		    showForecast(fPage + 1);
+		}
+	    });
+        bNext.setToolTipText("Next page of forecast");
+
 	bSave = new JButton("Save");
         bSave.setMnemonic(KeyEvent.VK_S);
 	bSave.setEnabled(false);
@@ -206,6 +267,11 @@ public class Main implements IPlugin {
         leftPanel.add(bRemove, constr2);
         leftPanel.add(bRemove1, constr2);
         leftPanel.add(bHide, constr2);
+        leftPanel.add(bForecast, constr2);
+        JPanel pages = new JPanel(new GridLayout(1, 2));
+        pages.add(bPrevious);
+        pages.add(bNext);
+        leftPanel.add(pages, constr2);
 
 	myDisplay = new JEditorPane();
         myDisplay.setEditable(false);
@@ -244,6 +310,27 @@ public class Main implements IPlugin {
         pMenu = new ValuMenu(this);
     }
 
+    /**
+     * Show a page of the forecast in the display. The number of watches per
+     * page is taken from the "forecast.page" property.
+     * @param no page number
+     */
+    void showForecast(int no) {
+        bForecast.setEnabled(true);
+        Forecast f = myState.getForecast();
+        if (f == null) {
+            bPrevious.setEnabled(false);
+            bNext.setEnabled(false);
+            return;
+        }
+        int size = Integer.parseInt(myProps.getProperty("forecast.page", "42"));
+        fPage = Math.max(0, Math.min(no, f.pages(size) - 1));
+        myDisplay.setText(f.page(fPage, size));
+        myDisplay.setCaretPosition(0);
+        bPrevious.setEnabled(fPage > 0);
+        bNext.setEnabled(fPage < f.pages(size) - 1);
+    }
+
     /**
      * Each plugin must provide an array of objects it requires.
      * @return list of imports
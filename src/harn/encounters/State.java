@@ -66,6 +66,9 @@ public class State implements IListener {
     /** Representation of the state.xml file (and changes) */
     private Document stateDoc;
 
+    /** Items of stateDoc (group -> idx -> Node); built on first lookup */
+    private Hashtable items;
+
     /** tomorrows to show */
     private int front;
 
@@ -82,6 +85,9 @@ public class State implements IListener {
     private Set actEncounters;
     private Set inactEncounters;
 
+    /** Forecast of encounters or null */
+    private Forecast forecast;
+
     /**
      * Constructor. Loads the state of the weather (predetermined). This is
      * not a simple hasmap of hashmaps.
@@ -164,6 +170,10 @@ public class State implements IListener {
             }
         }
 
+        // A reroll drops the forecast as well
+        if (all) forecast = null;
+        items = null;
+
         // Redraw
         tDisplay = Integer.MIN_VALUE;
         inform(act);
@@ -180,6 +190,18 @@ public class State implements IListener {
         main.bSave.setEnabled(false);
     }
     
+    /**
+     * Set the forecast, from which new events are taken.
+     * @param f forecast
+     */
+    void setForecast(Forecast f) { forecast = f; }
+
+    /**
+     * Get the forecast.
+     * @return forecast or null
+     */
+    Forecast getForecast() { return forecast; }
+
     /**
      * Get a location from list.
      */
@@ -223,10 +245,15 @@ public class State implements IListener {
                     EncounterEvent ev = findEvent(t1/Main.WATCH);
                     if (ev == null) {
                         if (t1 < 0) continue;
-                        int off = DiceRoller.d(Main.WATCH);
+                        int off = (forecast != null ?
+                                   forecast.offset(act.getName(), t1/Main.WATCH) : 0);
+                        boolean known = (off > 0 && forecast.matches
+                                         (t1/Main.WATCH, new Context(act)));
+                        if (!known) off = DiceRoller.d(Main.WATCH);
                         ev = new EncounterEvent
                             (main, "General", t1 + off, t1 + off + evlen, act);
                         putEvent(t1/Main.WATCH, ev);
+                        if (known) forecast.apply(t1/Main.WATCH, ev);
                         main.bSave.setEnabled(true);
                         main.list.setEvent((int)t1/Main.WATCH, ev);
                         if (!ev.isFinal())
@@ -307,6 +334,24 @@ public class State implements IListener {
         Element nn = stateDoc.createElement("item");
         parent.appendChild(nn);
         ev.emptyStateNode(nn);
+        if (items != null) item(act.getName(), idx, nn);
+    }
+
+    /**
+     * Add an item of the state file to the lookup table. The first item
+     * of a watch is kept.
+     * @param group group name
+     * @param idx time idx
+     * @param node item
+     */
+    private void item(String group, long idx, Node node) {
+        Hashtable ht = (Hashtable) items.get(group);
+        if (ht == null) {
+            ht = new Hashtable();
+            items.put(group, ht);
+        }
+        Long key = new Long(idx);
+        if (!ht.containsKey(key)) ht.put(key, node);
     }
 
     /**
@@ -321,7 +366,7 @@ public class State implements IListener {
     }
 
     /**
-     * Find an event.
+     * Find an event, among those known or the items of the state file.
      * @param idx time idx
      */
     private EncounterEvent findEvent(long idx) {
@@ -337,98 +382,171 @@ public class State implements IListener {
             return ev;
         }
 
-        // Get parent in DOM document
-        NodeList children = stateDoc.getDocumentElement().getChildNodes();
-        for (int i = 0; i < children.getLength(); i++) {
-            Node node = children.item(i);
-            NamedNodeMap attr = node.getAttributes();
-            if (attr != null) {
+        // Look up in the state file
+        if (items == null) {
+            items = new Hashtable();
+            NodeList children = stateDoc.getDocumentElement().getChildNodes();
+            for (int i = 0; i < children.getLength(); i++) {
+                NamedNodeMap attr = children.item(i).getAttributes();
+                if (attr == null) continue;
                 String date = attr.getNamedItem("date").getNodeValue();
                 String group = attr.getNamedItem("group").getNodeValue();
-                if (cal.string2datetime(date) / Main.WATCH == idx &&
-                    group.equals(act.getName())) {
-                    long time = cal.string2datetime(date);
-                    long len = evlen;
-                    Node lenNode = attr.getNamedItem("length");
-                    if (lenNode != null)
-                        len = cal.string2datetime(lenNode.getNodeValue());
-                    ev = new EncounterEvent
-                        (main, null, time, time + len, act);
-                    ev.setStateNode(node);
-                    ht.put(new Long(idx), ev);
-                    main.list.setEvent((int)idx, ev);
-                    return ev;
-                }
+                item(group, cal.string2datetime(date) / Main.WATCH,
+                     children.item(i));
             }
         }
+        Hashtable hs = (Hashtable) items.get(act.getName());
+        Node node = (hs != null ? (Node) hs.get(new Long(idx)) : null);
+        if (node != null) {
+            NamedNodeMap attr = node.getAttributes();
+            long time = cal.string2datetime
+                (attr.getNamedItem("date").getNodeValue());
+            long len = evlen;
+            Node lenNode = attr.getNamedItem("length");
+            if (lenNode != null)
+                len = cal.string2datetime(lenNode.getNodeValue());
+            ev = new EncounterEvent
+                (main, null, time, time + len, act);
+            ev.setStateNode(node);
+            ht.put(new Long(idx), ev);
+            main.list.setEvent((int)idx, ev);
+            return ev;
+        }
         return null;
     }
 
     /**
      * Get current terrain.
      */
-    public String getTerrain() {
-        if (act == null || atlas == null) return null;
-        for (int i = 0; i < atlas.size(); i++) {
-            ScaledMap map = ((Atlas)atlas.get(i)).getMap(act.getMap());
-            if (map != null)
-                return map.getTerrain(act.getX(), act.getY());
-        }
-        return null;
-    }
+    public String getTerrain() { return new Context(act).getTerrain(); }
 
     /**
      * Get current vegetation.
      */
-    public String getVegetation() {
-        if (weath == null || act == null || atlas == null) return null;
-        for (int i = 0; i < atlas.size(); i++) {
-            ScaledMap map = ((Atlas)atlas.get(i)).getMap(act.getMap());
-            if (map != null)
-                return map.getVegetation(act.getX(), act.getY());
-        }
-        return null;
-    }
+    public String getVegetation() { return new Context(act).getVegetation(); }
 
     /**
      * Get current weather condition.
      */
     public String getWeatherCondition() {
-        if (weath == null || act == null || atlas == null) return null;
-        return weath.condition(act.getMap(), act.getX(), act.getY(), act.getDate());
+        return (act == null ? null : new Context(act).getWeatherCondition(act.getDate()));
     }
 
     /**
      * Get current weather event.
      */
     public String getWeatherEvent() {
-        if (weath == null || act == null || atlas == null) return null;
-        return weath.event(act.getMap(), act.getX(), act.getY(), act.getDate());
+        return (act == null ? null : new Context(act).getWeatherEvent(act.getDate()));
     }
 
     /**
      * Get current daylight (or not).
      */
     public String getLight() {
-        if (act == null) return null;
-        long morn = cal.getDawn(act.getDate());
-        long eve = cal.getDusk(act.getDate());
-        if (morn <= act.getDate() && eve > act.getDate())
-            return "day";
-        return "night";
+        return (act == null ? null : new Context(act).getLight(act.getDate()));
     }
 
     /**
      * Test current position for location.
      */
-    public String getLocation(String map) {
-        if (act == null || atlas == null) return null;
-        if (!act.getMap().equals(map)) return null;
-        Location loc = (Location) locs.get(map);
-        Shape[] sh = loc.getShapes(map);
-        for (int i = 0; i < sh.length; i++)
-            if (sh[i].contains(act.getX(), act.getY())) return map;
-        return null;
+    public String getLocation(String map) { return new Context(act).getLocation(map); }
+
+    /**
+     * Position of a group with the objects needed to evaluate conditions
+     * there. The position is copied, so that a context can be used away
+     * from the event thread while the group moves on.
+     */
+    class Context {
+        /** Position; map null if no group */
+        String map;
+        int x, y;
+
+        /** Weather and atlanti */
+        Weather w;
+        ArrayList maps;
+
+        /**
+         * Constructor.
+         * @param cg group or null
+         */
+        Context(CharGroup cg) {
+            if (cg != null) {
+                map = cg.getMap();
+                x = cg.getX();
+                y = cg.getY();
+            }
+            w = weath;
+            maps = new ArrayList(atlas);
+        }
+
+        /** Map of position or null */
+        private ScaledMap scaled() {
+            for (int i = 0; i < maps.size(); i++) {
+                ScaledMap sm = ((Atlas)maps.get(i)).getMap(map);
+                if (sm != null) return sm;
+            }
+            return null;
+        }
+
+        /** Terrain at position */
+        String getTerrain() {
+            if (map == null) return null;
+            ScaledMap sm = scaled();
+            return (sm != null ? sm.getTerrain(x, y) : null);
+        }
+
+        /** Vegetation at position */
+        String getVegetation() {
+            if (w == null || map == null) return null;
+            ScaledMap sm = scaled();
+            return (sm != null ? sm.getVegetation(x, y) : null);
+        }
+
+        /** Weather condition at position and date */
+        String getWeatherCondition(long date) {
+            if (w == null || map == null) return null;
+            return w.condition(map, x, y, date);
+        }
+
+        /** Weather event at position and date */
+        String getWeatherEvent(long date) {
+            if (w == null || map == null) return null;
+            return w.event(map, x, y, date);
+        }
+
+        /** Daylight (or not) at date */
+        String getLight(long date) {
+            if (map == null) return null;
+            long morn = cal.getDawn(date);
+            long eve = cal.getDusk(date);
+            if (morn <= date && eve > date)
+                return "day";
+            return "night";
+        }
+
+        /**
+         * Values encounter conditions depend on, except light (which
+         * depends on the date only).
+         * @param date date of weather
+         * @return signature
+         */
+        String signature(long date) {
+            String loc = (map != null && locs.containsKey(map) ?
+                          getLocation(map) : null);
+            return map + "\0" + getTerrain() + "\0" + getVegetation() +
+                "\0" + getWeatherCondition(date) + "\0" +
+                getWeatherEvent(date) + "\0" + loc;
+        }
+
+        /** Location name, if position within, or null */
+        String getLocation(String name) {
+            if (map == null || !map.equals(name)) return null;
+            Location loc = (Location) locs.get(name);
+            Shape[] sh = loc.getShapes(name);
+            for (int i = 0; i < sh.length; i++)
+                if (sh[i].contains(x, y)) return name;
+            return null;
+        }
     }
 
     /**
@@ -452,57 +570,21 @@ public class State implements IListener {
         if (parent == null) return;
         if (parent.equals("General")) ev.resetPrefix();
 
-        int sum = 0;
-        ArrayList rand = new ArrayList();
-        ArrayList tables = new ArrayList();
-        boolean local = false;
-
-        // Prepare table
-	NodeList tree = findTable(parent).getChildNodes();
-	for (int i = 0; i < tree.getLength(); i++) {
-            if (tree.item(i).getNodeName().equals("entry")) {
-                // Check condition
-                Node cond = tree.item(i).getAttributes().getNamedItem("cond");
-                Node weight = tree.item(i).getAttributes().getNamedItem("weight");
-                if (weight != null && cond != null) {
-                    if (!evalCond(cond.getNodeValue()))
-                        weight = null;
-                    local |= evalLocal(cond.getNodeValue());
-                    if (local && !force) break;
-                }
+        // Compiled table; locale dependent ones only if forced
+        EncounterTable table = main.myData.getTable(parent);
+        if (table.isLocal() && !force) return;
+        int l = table.roll
+            (new Context(act), act != null ? act.getDate() : time, null);
+        if (l < 0) return;
 
-                // Add to list
-                if (weight != null) {
-                    int add = Integer.parseInt(weight.getNodeValue());
-                    sum += add;
-                    rand.add(new Integer(sum));
-                    tables.add(tree.item(i));
-                }
-            }
-        }
-        if (rand.size() == 0) return;
-
-        if (!local || force) {
-            // Roll
-            //TODO: FIX NEXT LINE AS WELL
-            int r =
-                DiceRoller.d(((Integer)rand.get(rand.size() - 1)).intValue());
-            int l = 0;
-            while (((Integer)rand.get(l)).intValue() < r && l < rand.size())
-                l++;
-            Node node = (Node) tables.get(l);
-
-            // Adjust encounter
-            ev.setDataNode(node);
-
-            // Recursive
-            Node attr = node.getAttributes().getNamedItem("tableref");
-            if (attr != null) {
-                roll(time, ev, force, attr.getNodeValue());
-            }
-            // Announce, if first
-            if (parent.equals("General")) ev.announce();
-        }
+        // Adjust encounter
+        ev.setDataNode(table.getNode(l));
+
+        // Recursive
+        roll(time, ev, force, table.getRef(l));
+
+        // Announce, if first
+        if (parent.equals("General")) ev.announce();
     }
 
     /**
@@ -511,50 +593,4 @@ public class State implements IListener {
      * @return table
      */
     public Node findTable(String name) { return main.myData.findTable(name); }
-
-    /**
-     * Test a condition for independence of local. Only dependence on time
-     * attributes will continue rolling a random encounter.
-     * @param condlist conditions to test
-     * @return is locale important
-     */
-    public boolean evalLocal(String condlist) {
-        String[] cond = condlist.split("[|]");
-        for (int i = 0; i < cond.length; i++) {
-            String[] sub = cond[i].split("[=!]");
-            if (sub[0].equals("terrain") ||
-                sub[0].equals("vegetation") ||
-                sub[0].equals("location")) return true;
-        }
-        return false;
-    }
-
-    /**
-     * Way to test a condition. Parses formulas of types: "a=b", and "a!b",
-     * which can be "and"ed through "|".  "a" is taken to be a current
-     * condition, "b" a value for such a condition.
-     * @param condlist conditions to test
-     */
-    public boolean evalCond(String condlist) {
-        boolean met = true;
-        if (condlist == null) return met;
-
-        String[] cond = condlist.split("[|]");
-        for (int i = 0; (i < cond.length) && met; i++) {
-            String[] sub = cond[i].split("[=!]");
-
-            String test = null;
-            if (sub[0].equals("terrain")) test = getTerrain();
-            else if (sub[0].equals("vegetation")) test = getVegetation();
-            else if (sub[0].equals("condition")) test = getWeatherCondition();
-            else if (sub[0].equals("weather")) test = getWeatherEvent();
-            else if (sub[0].equals("time")) test = getLight();
-            else if (sub[0].equals("location")) test = getLocation(sub[1]);
-            if (cond[i].indexOf("=") > -1)
-                met &= (sub[1].equals(test));
-            else // cond[i].indexOf("!") > -1
-                met &= (!sub[1].equals(test));
-        }
-        return met;
-    }
 }
@@ -21,24 +21,54 @@ package harn.export;
 
 import java.io.*;
 import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
 
 /**
  * The class that controls the socket. It listens and pipes out appropriate
- * HTTP answers.
+ * HTTP answers. A single selector thread accepts, reads and writes all
+ * connections; the exports are rendered on a bounded pool of workers.
+ * Connections are kept alive (HTTP/1.1) and pipelined requests are answered
+ * in order, one at a time per connection.
  * @author Michael Jung
  */
 public class Background {
+    /** Maximum size of a request header */
+    final static private int MAX_HEADER = 16 * 1024;
+
+    /** Number of rendered replies kept */
+    final static private int CACHED = 64;
+
+    /** Latin-1, the charset of HTTP headers */
+    final static private String LATIN1 = "ISO-8859-1";
 
     /** List of all exportables */
     ArrayList exports;
-    
+
     /** listener port */
     final int port;
 
     /** Main reference */
     Main main;
 
+    /** Selector for all channels */
+    private Selector selector;
+
+    /** Workers rendering exports */
+    private ThreadPoolExecutor workers;
+
+    /** Connections with finished responses */
+    private ConcurrentLinkedQueue finished;
+
+    /** Idle time after which a kept alive connection is closed */
+    private long idle;
+
+    /** Rendered replies (query -> reply), least recently used first */
+    private LinkedHashMap cache;
+
     /**
      * Constructor
      * @param al list of exportables
@@ -47,98 +77,255 @@ public class Background {
         main = aMain;
         exports = al;
         port = aPort;
+        finished = new ConcurrentLinkedQueue();
+        cache = new LinkedHashMap(16, .75f, true) {
+                protected boolean removeEldestEntry(Map.Entry e) {
+                    return size() > CACHED;
+                }
+            };
+
+        String prop = main.myProps.getProperty("workers");
+        int nw = (prop != null ? Integer.parseInt(prop) : 4);
+        prop = main.myProps.getProperty("keepalive");
+        idle = 1000L * (prop != null ? Integer.parseInt(prop) : 15);
+        workers = new ThreadPoolExecutor
+            (nw, nw, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue(64),
+             new ThreadFactory() {
+                 public Thread newThread(Runnable r) {
+                     Thread t = new Thread(r, "export");
+                     t.setDaemon(true);
+                     return t;
+                 }
+             });
 
         // Start socket
         Thread main = new Thread() {
                 public void run() {
                     try {
-                        ServerSocket servsock = new ServerSocket(port);
-                        Socket sock;
-                        while ((sock = servsock.accept()) != null) {
-                            Thread t = new MyThread(sock);
-                            t.start();
-                        }
+                        selector = Selector.open();
+                        ServerSocketChannel servsock = ServerSocketChannel.open();
+                        servsock.socket().setReuseAddress(true);
+                        servsock.socket().bind(new InetSocketAddress(port));
+                        servsock.configureBlocking(false);
+                        servsock.register(selector, SelectionKey.OP_ACCEPT);
+                        loop();
                     }
                     catch (Exception e) {
                         e.printStackTrace();
                     }
                 }
             };
+        main.setDaemon(true);
         main.start();
     }
 
     /**
-     * This class is used to asynchronously answer a HTTP request for an
-     * exportable.
+     * Selector loop. Never returns.
      */
-    class MyThread extends Thread {
-        /** socket for communication */
-        Socket sock;
-
-        /**
-         * Constructor.
-         * @param aSock socket for communication.
-         */
-        MyThread(Socket aSock) { sock = aSock; }
-
-        /**
-         * Main thread mehod. Reads from socket and Writes to socket.
-         */
-        public void run() {
-            OutputStream os = null;
-            PrintWriter osr = null;
-            try {
-                BufferedReader bsr = new BufferedReader
-                    (new InputStreamReader(sock.getInputStream()));
-                String in = null;
-                String query = "";
-                char version = '1';
-                while ((in = bsr.readLine()) != null) {
-                    String[] res = in.split("  *");
-                    if (res.length > 0 && res[0].equals("GET")) {
-                        query = res[1].substring(1);
-                        version = in.charAt(in.length() - 1);
-                        break;
+    private void loop() throws IOException {
+        while (true) {
+            selector.select(1000);
+
+            // Responses of the workers
+            Connection c;
+            while ((c = (Connection) finished.poll()) != null)
+                c.finish();
+
+            Iterator iter = selector.selectedKeys().iterator();
+            while (iter.hasNext()) {
+                SelectionKey key = (SelectionKey) iter.next();
+                iter.remove();
+                try {
+                    if (!key.isValid()) continue;
+                    if (key.isAcceptable()) {
+                        SocketChannel ch =
+                            ((ServerSocketChannel)key.channel()).accept();
+                        if (ch == null) continue;
+                        ch.configureBlocking(false);
+                        ch.socket().setTcpNoDelay(true);
+                        SelectionKey ck = ch.register(selector, SelectionKey.OP_READ);
+                        ck.attach(new Connection(ck));
+                        continue;
                     }
+                    c = (Connection) key.attachment();
+                    if (key.isReadable()) c.read();
+                    if (key.isValid() && key.isWritable()) c.write();
                 }
-                HttpExport gl = null;
-                for (int i = 0; (gl == null) && (i < exports.size()); i++) {
-                    gl = (HttpExport) exports.get(i);
-                    if (!gl.choose(query))
-                        gl = null;
-                }
-                
-                // Simple Security 
-                if (query.indexOf("..") > -1) gl = null;
-                os = sock.getOutputStream();
-                osr = new PrintWriter(os);
-                
-                if (query.length() == 0) {
-                    osr.println("HTTP/1." + version + " 200 OK");
-                    printTop(osr);
-                }
-                else {
-                    if (gl != null) {
-                        osr.println("HTTP/1." + version + " 200 OK");
-                        gl.export(query, os, osr);
-                    }
+                catch (IOException e) {
+                    Connection cc = (Connection) key.attachment();
+                    if (cc != null)
+                        cc.close();
                     else {
-                        // Error
-                        osr.println("HTTP/1." + version + " 403 FORBIDDEN");
-                        osr.println();
-                        osr.println("<html><head><body>Forbidden</body></html>");
+                        // Debug; accepting failed, keep serving
+                        e.printStackTrace();
                     }
                 }
             }
-            catch (IOException e) {
-                e.printStackTrace();
+
+            // Close idle connections
+            long now = System.currentTimeMillis();
+            iter = selector.keys().iterator();
+            while (iter.hasNext()) {
+                Object o = ((SelectionKey)iter.next()).attachment();
+                if (o instanceof Connection) ((Connection)o).expire(now);
             }
-            finally {
-                try { osr.close(); } catch(Exception e) {}
-                try { os.close(); } catch(Exception e) {}
-                try { sock.close(); } catch(Exception e) {}
+        }
+    }
+
+    /**
+     * Create the answer for a request. Renders through the cache and answers
+     * 304 if the client already has the current version.
+     * @param query query (path without leading slash)
+     * @param lines request header lines
+     * @param version minor HTTP version
+     * @param close whether the connection is closed afterwards
+     * @param head only header requested
+     * @return full response
+     */
+    private byte[] respond(String query, String[] lines, char version, boolean close, boolean head) throws IOException {
+        String match = null;
+        boolean gzip = false;
+        for (int i = 1; i < lines.length; i++) {
+            String l = lines[i].toLowerCase();
+            if (l.startsWith("if-none-match:"))
+                match = lines[i].substring(14).trim();
+            if (l.startsWith("accept-encoding:") && l.indexOf("gzip") > -1)
+                gzip = true;
+        }
+
+        Reply r = render(query);
+        String conn = "Connection: " + (close ? "close" : "keep-alive") + "\r\n";
+
+        if (r.etag != null && r.etag.equals(match)) {
+            return ("HTTP/1." + version + " 304 NOT MODIFIED\r\n" +
+                    "ETag: " + r.etag + "\r\n" + conn + "\r\n").getBytes(LATIN1);
+        }
+
+        byte[] body = r.body;
+        String hdr = r.header;
+        if (r.etag != null) hdr += "ETag: " + r.etag + "\r\n";
+        if (r.textual) {
+            hdr += "Vary: Accept-Encoding\r\n";
+            if (gzip) {
+                body = r.gzipped();
+                hdr += "Content-Encoding: gzip\r\n";
             }
         }
+
+        String top = "HTTP/1." + version + " " + r.status + "\r\n" + hdr +
+            "Content-Length: " + body.length + "\r\n" + conn + "\r\n";
+        byte[] tb = top.getBytes(LATIN1);
+        byte[] ret = new byte[tb.length + (head ? 0 : body.length)];
+        System.arraycopy(tb, 0, ret, 0, tb.length);
+        if (!head) System.arraycopy(body, 0, ret, tb.length, body.length);
+        return ret;
+    }
+
+    /**
+     * Render an export, or take it from the cache, if the export has not
+     * changed since.
+     * @param query query (path without leading slash)
+     * @return rendered reply
+     */
+    private Reply render(String query) throws IOException {
+        HttpExport gl = null;
+        for (int i = 0; (gl == null) && (i < exports.size()); i++) {
+            gl = (HttpExport) exports.get(i);
+            if (!gl.choose(query))
+                gl = null;
+        }
+
+        // Simple Security
+        if (query.indexOf("..") > -1) gl = null;
+
+        // Generation before rendering; a change during rendering must
+        // invalidate the result
+        int gen = 0;
+        boolean cacheable = (gl != null && gl.cacheable());
+        if (cacheable) {
+            gen = gl.generation();
+            synchronized (cache) {
+                Reply r = (Reply) cache.get(query);
+                if (r != null && r.generation == gen) return r;
+            }
+        }
+
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        final PrintWriter osr = new PrintWriter
+            (new OutputStreamWriter(bos, "UTF-8"));
+        // Direct writes must not overtake the writer
+        OutputStream os = new OutputStream() {
+                public void write(int b) { osr.flush(); bos.write(b); }
+                public void write(byte[] b, int off, int len) {
+                    osr.flush(); bos.write(b, off, len);
+                }
+            };
+
+        Reply r = new Reply();
+        r.status = "200 OK";
+        r.generation = gen;
+        if (query.length() == 0) {
+            printTop(osr);
+        }
+        else if (gl != null) {
+            gl.export(query, os, osr);
+        }
+        else {
+            // Error
+            r.status = "403 FORBIDDEN";
+            osr.println("Content-type: text/html");
+            osr.println();
+            osr.println("<html><head><body>Forbidden</body></html>");
+        }
+        osr.flush();
+
+        // Split what the export wrote into header and body
+        byte[] out = bos.toByteArray();
+        int end = -1, start = out.length;
+        if (out.length > 0 && out[0] == '\n') { end = 0; start = 1; }
+        if (out.length > 1 && out[0] == '\r' && out[1] == '\n') {
+            end = 0; start = 2;
+        }
+        for (int i = 0; i < out.length - 1 && end < 0; i++) {
+            if (out[i] != '\n') continue;
+            if (out[i+1] == '\n') { end = i; start = i + 2; }
+            else if (out[i+1] == '\r' && i + 2 < out.length && out[i+2] == '\n') {
+                end = i; start = i + 3;
+            }
+        }
+        if (end < 0) {
+            r.status = "404 NOT FOUND";
+            end = 0;
+            start = out.length;
+        }
+
+        StringBuffer hdr = new StringBuffer();
+        String[] lines = new String(out, 0, end, LATIN1).split("\r?\n");
+        for (int i = 0; i < lines.length; i++) {
+            String l = lines[i].trim();
+            if (l.length() == 0) continue;
+            if (l.startsWith("HTTP/")) {
+                r.status = l.substring(l.indexOf(' ') + 1).trim();
+                continue;
+            }
+            if (l.toLowerCase().startsWith("content-type: text/"))
+                r.textual = true;
+            hdr.append(l).append("\r\n");
+        }
+        r.header = hdr.toString();
+        r.body = new byte[out.length - start];
+        System.arraycopy(out, start, r.body, 0, r.body.length);
+
+        if (r.status.startsWith("200")) {
+            CRC32 crc = new CRC32();
+            crc.update(r.body);
+            r.etag = "\"" + Long.toHexString(crc.getValue()) + "-" +
+                Integer.toHexString(r.body.length) + "\"";
+            if (cacheable) {
+                synchronized (cache) { cache.put(query, r); }
+            }
+        }
+        return r;
     }
 
     /** Top index */
@@ -151,4 +338,212 @@ public class Background {
                 osr.println("<a href=\"/" + name + "\">" + name + "</a><br>");
         }
     }
+
+    /**
+     * A rendered export, split into status, header and body.
+     */
+    static class Reply {
+        /** Status (code and reason) */
+        String status;
+
+        /** Header lines of the export */
+        String header;
+
+        /** Body */
+        byte[] body;
+
+        /** Gzipped body, created on demand */
+        private byte[] zipped;
+
+        /** Entity tag, only for successful replies */
+        String etag;
+
+        /** Export generation rendered */
+        int generation;
+
+        /** Text content, worth compressing */
+        boolean textual;
+
+        /** Get the gzipped body */
+        synchronized byte[] gzipped() throws IOException {
+            if (zipped == null) {
+                ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                GZIPOutputStream gz = new GZIPOutputStream(bos);
+                gz.write(body);
+                gz.close();
+                zipped = bos.toByteArray();
+            }
+            return zipped;
+        }
+    }
+
+    /**
+     * State of one client connection. Except for the response handed over
+     * by a worker, it is only accessed by the selector thread.
+     */
+    class Connection {
+        /** Selection key */
+        private SelectionKey key;
+
+        /** Bytes read, not yet parsed */
+        private ByteBuffer in;
+
+        /** Parsed requests waiting for their turn */
+        private LinkedList pending;
+
+        /** Responses to write */
+        private LinkedList out;
+
+        /** A worker is busy with a request */
+        private boolean busy;
+
+        /** Close after all responses are written */
+        private boolean closing;
+
+        /** Response handed over by the worker */
+        private volatile byte[] result;
+
+        /** Close after the current response */
+        private boolean closeResult;
+
+        /** Last activity */
+        private long last;
+
+        /** Constructor */
+        Connection(SelectionKey aKey) {
+            key = aKey;
+            in = ByteBuffer.allocate(1024);
+            pending = new LinkedList();
+            out = new LinkedList();
+            last = System.currentTimeMillis();
+        }
+
+        /** Read and parse requests */
+        void read() throws IOException {
+            if (!in.hasRemaining()) {
+                if (in.capacity() >= MAX_HEADER) { close(); return; }
+                ByteBuffer nb = ByteBuffer.allocate(in.capacity() * 2);
+                in.flip();
+                nb.put(in);
+                in = nb;
+            }
+            int n = ((SocketChannel)key.channel()).read(in);
+            if (n < 0) { close(); return; }
+            last = System.currentTimeMillis();
+
+            // Complete requests end with an empty line
+            byte[] buf = in.array();
+            int from = 0;
+            for (int i = 0; i < in.position(); i++) {
+                if (buf[i] != '\n') continue;
+                int j = i - 1;
+                if (j >= from && buf[j] == '\r') j--;
+                if (j < from || buf[j] != '\n') continue;
+                pending.add(new String(buf, from, i + 1 - from, LATIN1));
+                from = i + 1;
+            }
+            in.flip();
+            in.position(from);
+            in.compact();
+            dispatch();
+        }
+
+        /** Hand the next request to a worker */
+        private void dispatch() {
+            if (busy || closing || pending.isEmpty()) return;
+            String req = (String) pending.removeFirst();
+            final String[] lines = req.split("\r?\n");
+            String[] res = lines[0].split("  *");
+            if (res.length < 2 ||
+                !(res[0].equals("GET") || res[0].equals("HEAD"))) {
+                // Anything else is neither supported nor expected
+                closing = true;
+                queue(("HTTP/1.0 501 NOT IMPLEMENTED\r\n" +
+                       "Content-Length: 0\r\nConnection: close\r\n\r\n").getBytes());
+                return;
+            }
+
+            final String query = res[1].substring(1);
+            final boolean head = res[0].equals("HEAD");
+            final char version = lines[0].charAt(lines[0].length() - 1);
+            boolean close = (version == '0');
+            for (int i = 1; i < lines.length; i++) {
+                String l = lines[i].toLowerCase();
+                if (!l.startsWith("connection:")) continue;
+                if (l.indexOf("close") > -1) close = true;
+                if (l.indexOf("keep-alive") > -1) close = false;
+            }
+            closeResult = close;
+            final boolean fclose = close;
+
+            busy = true;
+            try {
+                workers.execute(new Runnable() {
+                        public void run() {
+                            byte[] ret;
+                            try {
+                                ret = respond(query, lines, version, fclose, head);
+                            }
+                            catch (Exception e) {
+                                e.printStackTrace();
+                                ret = ("HTTP/1." + version + " 500 ERROR\r\n" +
+                                       "Content-Length: 0\r\n" +
+                                       "Connection: close\r\n\r\n").getBytes();
+                                closeResult = true;
+                            }
+                            result = ret;
+                            finished.add(Connection.this);
+                            selector.wakeup();
+                        }
+                    });
+            }
+            catch (RejectedExecutionException e) {
+                busy = false;
+                closing = true;
+                queue(("HTTP/1." + version + " 503 BUSY\r\n" +
+                       "Content-Length: 0\r\nConnection: close\r\n\r\n").getBytes());
+            }
+        }
+
+        /** Take over a worker's response */
+        void finish() {
+            busy = false;
+            if (closeResult) closing = true;
+            queue(result);
+            result = null;
+            dispatch();
+        }
+
+        /** Queue a response for writing */
+        private void queue(byte[] resp) {
+            if (!key.isValid()) return;
+            out.add(ByteBuffer.wrap(resp));
+            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+        }
+
+        /** Write queued responses */
+        void write() throws IOException {
+            SocketChannel ch = (SocketChannel) key.channel();
+            while (!out.isEmpty()) {
+                ByteBuffer bb = (ByteBuffer) out.getFirst();
+                ch.write(bb);
+                if (bb.hasRemaining()) return;
+                out.removeFirst();
+            }
+            last = System.currentTimeMillis();
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            if (closing && !busy) close();
+        }
+
+        /** Close idle connections */
+        void expire(long now) {
+            if (!busy && out.isEmpty() && now - last > idle) close();
+        }
+
+        /** Close connection */
+        void close() {
+            key.cancel();
+            try { key.channel().close(); } catch (IOException e) {}
+        }
+    }
 }
@@ -96,8 +96,9 @@ class CharSheetsExport extends HttpExport {
         byte[] tmp = new byte[1024];
         int len;
         while ((len = fis.read(tmp)) > -1) {
-            os.write(tmp);
+            os.write(tmp, 0, len);
         }
+        fis.close();
     }
 
     /**
@@ -130,6 +131,7 @@ class CharSheetsExport extends HttpExport {
             chars.put(c.getCode(), c);
         else
             chars.remove(c.getCode());
+        changed();
     }
 
     /**
@@ -134,8 +134,9 @@ class CombatExport extends HttpExport {
         byte[] tmp = new byte[1024];
         int len;
         while ((len = fis.read(tmp)) > -1) {
-            os.write(tmp);
+            os.write(tmp, 0, len);
         }
+        fis.close();
     }
 
     /**
@@ -206,4 +207,10 @@ class CombatExport extends HttpExport {
             bScaleSpin.setValue
                 (new Integer(Integer.parseInt(cattr.getNamedItem("combatscale").getNodeValue())));
     }
+
+    /**
+     * The combat map is taken from the plugin, not announced.
+     * @return false
+     */
+    public boolean cacheable() { return false; }
 }
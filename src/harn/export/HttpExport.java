@@ -47,6 +47,10 @@ abstract class HttpExport implements IListener {
     /** Gui constraints */
     protected GridBagConstraints constrBox;
 
+    /** Generation of the exported state; cached renderings of older
+     * generations are stale */
+    private volatile int generation;
+
     /** Constructor */
     protected HttpExport(Main aMain, String aName, String aDesc, JPanel panel, int gridy) {
         main = aMain;
@@ -63,6 +67,7 @@ abstract class HttpExport implements IListener {
         button.addActionListener(new ActionListener() {
                 public void actionPerformed(ActionEvent e) {
                     main.bSave.setEnabled(true);
+                    changed();
                 }
             });
 
@@ -94,6 +99,26 @@ abstract class HttpExport implements IListener {
      */
     public abstract void listen();
 
+    /**
+     * Called by subclasses after the exported state has changed, usually at
+     * the end of inform. Invalidates cached renderings.
+     */
+    protected synchronized void changed() { generation++; }
+
+    /**
+     * Get the generation of the exported state.
+     * @return generation
+     */
+    final public int generation() { return generation; }
+
+    /**
+     * Whether renderings may be cached until the next call of changed. Only
+     * exports that learn about all their changes through inform are
+     * cacheable.
+     * @return true if cacheable
+     */
+    public boolean cacheable() { return true; }
+
     /**
      * Called by the exporting Background thread to determine, whether request
      * is handled by this plugin.
@@ -109,6 +134,7 @@ abstract class HttpExport implements IListener {
      */
     final public void select(boolean select) {
         button.setSelected(select);
+        changed();
         button.revalidate();
         button.repaint();
     }
@@ -76,6 +76,7 @@ class IndexExport extends HttpExport {
             if (loc.getSelected())
                 myLoc = loc;
         }
+        changed();
     }
 
     /**
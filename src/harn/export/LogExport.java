@@ -85,4 +85,10 @@ class LogExport extends HttpExport {
      * @param obj the notified object
      */
     public void inform(IExport obj) {}
+
+    /**
+     * Log pages are read from disk and never announced.
+     * @return false
+     */
+    public boolean cacheable() { return false; }
 }
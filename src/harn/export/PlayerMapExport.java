@@ -47,6 +47,12 @@ class PlayerMapExport extends HttpExport {
     /** Current group coordinates */
     private CharGroup act;
 
+    /** Map of the current group when last exported */
+    private String actMap;
+
+    /** Image changes of the maps when last informed (name -> Long) */
+    private Hashtable seen;
+
     /**
      * Constructor
      * @param aMain main reference
@@ -56,11 +62,13 @@ class PlayerMapExport extends HttpExport {
     PlayerMapExport(Main aMain, int gridy, JPanel panel, String[] exp) {
         super(aMain, "map", "The current map", panel, gridy);
         maps = new Hashtable();
+        seen = new Hashtable();
 
         bScaleSpin = new JSpinner(Framework.getScaleSpinnerModel(17));
         bScaleSpin.addChangeListener(new ChangeListener() {
                 public void stateChanged(ChangeEvent e) {
                     main.bSave.setEnabled(true);
+                    changed();
                 }
             });
         bScaleSpin.setValue(new Integer(100));
@@ -88,18 +96,30 @@ class PlayerMapExport extends HttpExport {
 
     /**
      * Called by the framework to notify a new/changed object to the listener.
+     * Maps are announced after every repaint; the export only changes with
+     * the image of the group's map or the map of the group.
      * @param obj the notified object
      */
     public void inform(IExport obj) {
-        if (obj instanceof ScaledMap)
-            maps.put(((ScaledMap)obj).getName(), obj);
+        if (obj instanceof ScaledMap) {
+            ScaledMap map = (ScaledMap) obj;
+            String name = map.getName();
+            Long count = new Long(map.getImageChanges());
+            boolean known = (maps.put(name, map) == map);
+            boolean same = count.equals(seen.put(name, count));
+            if (known && same) return;
+            if (act != null && !name.equals(act.getMap())) return;
+        }
 
         if (obj instanceof CharGroup) {
             CharGroup cg = (CharGroup) obj;
-            if (cg.isActive()) {
-                act = cg;
-            }
+            if (!cg.isActive()) return;
+            if (cg == act && cg.getMap() != null &&
+                cg.getMap().equals(actMap)) return;
+            act = cg;
+            actMap = cg.getMap();
         }
+        changed();
     }
 
     /**
@@ -176,7 +176,8 @@ class SketchExport extends HttpExport {
      */
     public void inform(IExport obj) {
         Sketch c = (Sketch) obj;
-        root = (c.isValid() ? c : null);        
+        root = (c.isValid() ? c : null);
+        changed();
     }
 
     /**
@@ -82,4 +82,10 @@ class SoundExport extends HttpExport {
      * Called by the main class to register this object with the framework.
      */
     public void listen() {}
+
+    /**
+     * Sound is streamed.
+     * @return false
+     */
+    public boolean cacheable() { return false; }
 }
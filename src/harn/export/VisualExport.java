@@ -125,4 +125,10 @@ class VisualExport extends HttpExport {
             bScaleSpin.setValue
                 (new Integer(Integer.parseInt(cattr.getNamedItem("visualscale").getNodeValue())));
     }
+
+    /**
+     * The visualization is taken from the plugin, not announced.
+     * @return false
+     */
+    public boolean cacheable() { return false; }
 }
@@ -67,6 +67,7 @@ class WeatherExport extends HttpExport {
      */
     public void inform(IExport obj) {
         weath = (Weather) obj;
+        changed();
     }
 
     /**
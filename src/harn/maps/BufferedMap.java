@@ -23,6 +23,7 @@ import java.awt.*;
 import java.awt.color.*;
 import java.awt.geom.*;
 import java.awt.image.*;
+import java.util.Arrays;
 
 /**
  * Class that contains the intermediate map that is used to speed up things.
@@ -30,7 +31,10 @@ import java.awt.image.*;
  * composed and then scaled, while vector layers are first scaled and then
  * composed. The fastBuffer is used when drawing (mostly) bitmap
  * images. Scaling of the layer stack is easy, if vectors are not involved,
- * which is when the fastBuffer is used.
+ * which is when the fastBuffer is used.<br>
+ * Only the fog tiles within the region to redraw are composed into the
+ * fastBuffer; fully hidden tiles are skipped, fully revealed ones are
+ * copied without masking. Redraw regions accumulate until drawn.
  * @author Michael Jung
  */
 public class BufferedMap {
@@ -49,6 +53,29 @@ public class BufferedMap {
     /** Usage of the fastBuffer */
     private Shape useShape;
 
+    /** Region of the fastBuffer to redraw (scaled), accumulated */
+    private Rectangle pending;
+
+    /** Region of the fastBuffer being redrawn (original, tile aligned) */
+    private Rectangle dirty;
+
+    /** Whether the fastBuffer was already drawn during this drawing */
+    private boolean presented;
+
+    /** Composition buffer of a single tile */
+    private BufferedImage tbuffer;
+
+    /** Uniform mask of a tile */
+    private byte[] flat;
+
+    /** Zero bytes of a tile */
+    private static byte[] zeros = new byte[FogMask.TILE*FogMask.TILE];
+
+    /** Color model of tile masks */
+    private static ColorModel maskModel = new ComponentColorModel
+        (ColorSpace.getInstance(ColorSpace.CS_sRGB),
+         true, true, ColorModel.TRANSLUCENT, DataBuffer.TYPE_BYTE);
+
     /** Fast buffer */
     private BufferedImage fastBuffer;
 
@@ -58,9 +85,17 @@ public class BufferedMap {
     /** Constructor */
     public void setColor(Color pBG) { bgCol = pBG; }
 
-    /** Use the fast buffer for display */
+    /**
+     * Use the fast buffer for display.
+     * @param p region to redraw (scaled) or null
+     */
     public void useFastBuffer(Shape p) {
         useShape = p;
+        if (p == null) return;
+        if (pending == null)
+            pending = p.getBounds();
+        else
+            pending.add(p.getBounds());
     }
 
     public void setFastBuffer(Image[] img, Main main) {
@@ -83,119 +118,245 @@ public class BufferedMap {
 
 
 
+    /** Drop the fastBuffer; setFastBuffer creates a new one */
+    public void release() { fastBuffer = null; }
+
     /**
-     * Commit the drawing; uses fastBuffer, if it is being used at all.
+     * Draw the fog over a map drawn from tiles, i.e. the background
+     * where hidden. Tiles cannot be masked per layer; where the masks
+     * differ, the least revealed one is used. The fastBuffer is not used.
+     * @param g graphics object
+     * @param masks masks of the layers shown
+     * @param w width of original
+     * @param h height of original
+     * @param scale display scale
      */
-    public void beginDraw(Graphics2D g, Image img, float scale) {
-        if (useShape != null) {
-            Graphics2D fbg = fastBuffer.createGraphics();
-            fbg.setRenderingHint
-                (RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
-            Rectangle oRect = null;
-            AffineTransform g2o = AffineTransform.getScaleInstance(1/scale, 1/scale);
-            if (g.getClip() != null) {
-                Rectangle r = g.getClip().getBounds().createUnion(useShape.getBounds()).getBounds();
-                oRect = g2o.createTransformedShape(r).getBounds();
-            }
-            else {
-                oRect = new Rectangle(0, 0, fastBuffer.getWidth(), fastBuffer.getHeight());
+    public void drawFog(Graphics2D g, FogMask[] masks, int w, int h, float scale) {
+        pending = null;
+        if (masks.length == 0) return;
+        Rectangle o = new Rectangle(0, 0, w, h);
+        if (g.getClip() != null) {
+            AffineTransform g2o =
+                AffineTransform.getScaleInstance(1/scale, 1/scale);
+            Rectangle r = g2o.createTransformedShape
+                (g.getClip().getBounds()).getBounds();
+            r.grow(1,1);
+            o = o.intersection(r);
+            if (o.isEmpty()) return;
+        }
+        Graphics2D og = (Graphics2D) g.create();
+        og.scale(scale, scale);
+        og.setColor(bgCol);
+        int T = FogMask.TILE;
+        for (int y = o.y/T*T; y < o.y + o.height; y += T) {
+            int th = Math.min(T, h - y);
+            for (int x = o.x/T*T; x < o.x + o.width; x += T) {
+                int tw = Math.min(T, w - x);
+                int t = masks[0].tile(x, y);
+                int lvl = 255;
+                boolean uniform = true;
+                for (int k = 0; k < masks.length; k++) {
+                    int l = masks[k].level(t);
+                    if (l < 0) uniform = false;
+                    else lvl = Math.min(lvl, l);
+                }
+                if (uniform && lvl == 255) continue;
+                if (uniform && lvl == 0) {
+                    og.fillRect(x, y, tw, th);
+                    continue;
+                }
+
+                // Partial tile: background as hidden
+                if (flat == null) flat = new byte[T*T];
+                Arrays.fill(flat, (byte)lvl);
+                for (int k = 0; k < masks.length; k++) {
+                    byte[] data = masks[k].peek(t);
+                    if (data == null) continue;
+                    for (int i = 0; i < flat.length; i++)
+                        if ((data[i] & 0xff) < (flat[i] & 0xff))
+                            flat[i] = data[i];
+                }
+                for (int i = 0; i < flat.length; i++)
+                    flat[i] = (byte)(255 - (flat[i] & 0xff));
+                if (tbuffer == null)
+                    tbuffer = new BufferedImage(T, T, BufferedImage.TYPE_INT_ARGB);
+                Graphics2D gb = tbuffer.createGraphics();
+                gb.setComposite(AlphaComposite.Src);
+                gb.setColor(bgCol);
+                gb.fillRect(0, 0, T, T);
+                gb.setComposite(AlphaComposite.DstIn);
+                gb.drawImage(maskImage(flat), 0, 0, null);
+                gb.dispose();
+                og.drawImage(tbuffer, x, y, x + tw, y + th, 0, 0, tw, th, null);
             }
-            fbg.setColor(bgCol);
-            fbg.fill(oRect);
         }
+        og.dispose();
+    }
+
+    /**
+     * Commit the drawing; uses fastBuffer, if it is being used at all.
+     */
+    public void beginDraw(Graphics2D g, Image img, float scale) {
+        presented = false;
+        dirty = null;
+        if (pending == null) return;
+
+        // Align to tiles
+        AffineTransform g2o = AffineTransform.getScaleInstance(1/scale, 1/scale);
+        Rectangle r = g2o.createTransformedShape(pending).getBounds();
+        r.grow(1,1);
+        int T = FogMask.TILE;
+        int x0 = Math.max(0, r.x/T*T);
+        int y0 = Math.max(0, r.y/T*T);
+        int x1 = Math.min(fastBuffer.getWidth(), (r.x + r.width + T - 1)/T*T);
+        int y1 = Math.min(fastBuffer.getHeight(), (r.y + r.height + T - 1)/T*T);
+        if (x0 >= x1 || y0 >= y1) return;
+        dirty = new Rectangle(x0, y0, x1 - x0, y1 - y0);
+
+        Graphics2D fbg = fastBuffer.createGraphics();
+        fbg.setColor(bgCol);
+        fbg.fill(dirty);
+        fbg.dispose();
     }
 
     /**
      * Commit the drawing; uses fastBuffer, if it is being used at all.
      */
     public void endDraw(Graphics2D g, float scale) {
-        if (useShape == null) {
-            AffineTransform o2g =
-                AffineTransform.getScaleInstance(scale, scale);
-            g.drawImage(fastBuffer, o2g, null);
+        if (!presented) present(g, scale);
+        pending = null;
+        dirty = null;
+    }
+
+    /**
+     * Draw the fastBuffer within the clip.
+     */
+    private void present(Graphics2D g, float scale) {
+        presented = true;
+        Rectangle o = new Rectangle
+            (0, 0, fastBuffer.getWidth(), fastBuffer.getHeight());
+        if (g.getClip() != null) {
+            AffineTransform g2o =
+                AffineTransform.getScaleInstance(1/scale, 1/scale);
+            Rectangle r = g2o.createTransformedShape
+                (g.getClip().getBounds()).getBounds();
+            r.grow(1,1);
+            o = o.intersection(r);
+            if (o.isEmpty()) return;
         }
+        AffineTransform o2g = AffineTransform.getScaleInstance(scale, scale);
+        o2g.translate(o.x, o.y);
+        g.drawImage
+            (fastBuffer.getSubimage(o.x, o.y, o.width, o.height), o2g, null);
     }
 
     /** Draw this map */
-    public void draw(Graphics2D g, Image img, byte[] mdata, float scale) {
+    public void draw(Graphics2D g, Image img, FogMask mask, float scale) {
         if (img instanceof SVGImage) {
-            draw(g, (SVGImage)img, mdata, scale);
+            draw(g, (SVGImage)img, mask, scale);
             return;
         }
 
-        // We shall use the fastBuffer
-        if (useShape == null) return;
+        // Above vector layers, draw directly
+        if (presented) {
+            Rectangle o = new Rectangle
+                (0, 0, img.getWidth(null), img.getHeight(null));
+            if (g.getClip() != null) {
+                AffineTransform g2o =
+                    AffineTransform.getScaleInstance(1/scale, 1/scale);
+                o = o.intersection(g2o.createTransformedShape
+                                   (g.getClip().getBounds()).getBounds());
+            }
+            int T = FogMask.TILE;
+            int x0 = Math.max(0, o.x/T*T);
+            int y0 = Math.max(0, o.y/T*T);
+            int x1 = Math.min(img.getWidth(null), (o.x + o.width + T - 1)/T*T);
+            int y1 = Math.min(img.getHeight(null), (o.y + o.height + T - 1)/T*T);
+            if (x0 >= x1 || y0 >= y1) return;
+            Graphics2D og = (Graphics2D) g.create();
+            og.scale(scale, scale);
+            compose(og, img, mask, new Rectangle(x0, y0, x1 - x0, y1 - y0));
+            og.dispose();
+            return;
+        }
 
-        g.setRenderingHint
+        // We shall use the fastBuffer
+        if (dirty == null) return;
+        Graphics2D fbg = fastBuffer.createGraphics();
+        fbg.setRenderingHint
             (RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        compose(fbg, img, mask, dirty);
+        fbg.dispose();
+    }
 
-        Rectangle oRect = null;
-        AffineTransform g2o = AffineTransform.getScaleInstance(1/scale, 1/scale);
-        AffineTransform o2g = AffineTransform.getScaleInstance(scale, scale);
-
-        if (g.getClip() != null) {            
-            Rectangle r = g.getClip().getBounds().createUnion(useShape.getBounds()).getBounds();
-            oRect = g2o.createTransformedShape(r).getBounds();
-        }
-        else {
-            oRect = new Rectangle(0, 0, img.getWidth(null), img.getHeight(null));
+    /**
+     * Compose a masked layer within a tile aligned rectangle. Runs of
+     * revealed tiles are drawn at once, hidden tiles are skipped.
+     * @param tg target (original coordinates)
+     * @param img layer
+     * @param mask mask or null
+     * @param r rectangle
+     */
+    private void compose(Graphics2D tg, Image img, FogMask mask, Rectangle r) {
+        int x1 = r.x + r.width;
+        int y1 = r.y + r.height;
+        if (mask == null) {
+            tg.drawImage(img, r.x, r.y, x1, y1, r.x, r.y, x1, y1, null);
+            return;
         }
 
-        AffineTransform ominus = AffineTransform.getTranslateInstance
-            (-oRect.x, -oRect.y);
-        AffineTransform oplus = AffineTransform.getTranslateInstance
-            (oRect.x, oRect.y);
-
-        Rectangle oRect0 = new Rectangle(0, 0, oRect.width, oRect.height);
-        if (ibuffer == null)
-            ibuffer = new BufferedImage
-                (oRect0.width, oRect0.height, BufferedImage.TYPE_INT_ARGB);
-        if (ibuffer.getWidth() < oRect0.width ||
-            ibuffer.getHeight() < oRect0.height)
-            ibuffer = new BufferedImage
-                (Math.max(ibuffer.getWidth(), oRect0.width),
-                 Math.max(ibuffer.getHeight(), oRect0.height),
-                 BufferedImage.TYPE_INT_ARGB);
-
-
-        Graphics2D gb = ibuffer.createGraphics();
-        gb.setClip(oRect0);
-        gb.setComposite(AlphaComposite.Src);
-        gb.setColor(new Color(0x00, true));
-        gb.fill(oRect0);
-        gb.setRenderingHint
-            (RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
-        gb.drawImage
-            (img, ominus, null);
-        
-        if (mdata != null) {
-            gb.setComposite(AlphaComposite.DstIn);
-            mbuffer = createMbuffer(oRect0.width, oRect0.height);
-            int mw = img.getWidth(null);
-            for (int j = 0; j < oRect0.height; j++) {
-                int moff = Math.max(0,(oRect.y + j)*mw + oRect.x);
-                int mboff = j*mbuffer.getWidth();
-                int len = Math.min(oRect.width, mdata.length - moff);
-                len = Math.min(len, mbufdata[3].length - mboff);
-                if (len > 0)
-                    System.arraycopy(mdata, moff, mbufdata[3], mboff, len);
+        int T = FogMask.TILE;
+        for (int y = r.y; y < y1; y += T) {
+            int th = Math.min(T, y1 - y);
+            int run = -1;
+            for (int x = r.x; x < x1; x += T) {
+                int t = mask.tile(x, y);
+                int lvl = mask.level(t);
+                if (lvl == 255) {
+                    if (run < 0) run = x;
+                    continue;
+                }
+                if (run >= 0) {
+                    tg.drawImage(img, run, y, x, y + th, run, y, x, y + th, null);
+                    run = -1;
+                }
+                if (lvl == 0) continue;
+
+                // Partial tile
+                int tw = Math.min(T, x1 - x);
+                byte[] data = mask.peek(t);
+                if (data == null) {
+                    if (flat == null) flat = new byte[T*T];
+                    Arrays.fill(flat, (byte)lvl);
+                    data = flat;
+                }
+                if (tbuffer == null)
+                    tbuffer = new BufferedImage(T, T, BufferedImage.TYPE_INT_ARGB);
+                Graphics2D gb = tbuffer.createGraphics();
+                gb.setComposite(AlphaComposite.Src);
+                gb.drawImage(img, 0, 0, tw, th, x, y, x + tw, y + th, null);
+                gb.setComposite(AlphaComposite.DstIn);
+                gb.drawImage(maskImage(data), 0, 0, null);
+                gb.dispose();
+                tg.drawImage(tbuffer, x, y, x + tw, y + th, 0, 0, tw, th, null);
             }
-            gb.drawImage(mbuffer, null, 0, 0);
+            if (run >= 0)
+                tg.drawImage(img, run, y, x1, y + th, run, y, x1, y + th, null);
         }
+    }
 
-        o2g.concatenate(oplus);
-        g.drawImage
-            (ibuffer, o2g, null);
-        Graphics2D fbg = fastBuffer.createGraphics();
-        fbg.setRenderingHint
-            (RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
-        fbg.setClip(oRect);
-        fbg.drawImage
-            (ibuffer, null, oRect.x, oRect.y);
+    /** Image with a tile mask as alpha */
+    private static BufferedImage maskImage(byte[] data) {
+        int T = FogMask.TILE;
+        DataBuffer db = new DataBufferByte
+            (new byte[][] { zeros, zeros, zeros, data }, T*T);
+        WritableRaster wr = Raster.createBandedRaster
+            (db, T, T, T, new int[] { 0, 1, 2, 3 }, new int[] { 0, 0, 0, 0 }, null);
+        return new BufferedImage(maskModel, wr, true, null);
     }
 
     /** Draw this map */
-    public void draw(Graphics2D g, SVGImage img, byte[] mdata, float scale) {
+    public void draw(Graphics2D g, SVGImage img, FogMask mask, float scale) {
         g.setRenderingHint
             (RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
 
@@ -205,14 +366,13 @@ public class BufferedMap {
         AffineTransform o2g = AffineTransform.getScaleInstance(scale, scale);
 
         // Take care of previous fastBuffer usage
-        if (useShape == null) {
-            g.drawImage(fastBuffer, o2g, null);
-            useShape = new Rectangle(0,0,0,0);
-        }
+        if (!presented) present(g, scale);
 
         // Clipping
         if (g.getClip() != null) {
-            gRect = g.getClip().getBounds().createUnion(useShape.getBounds()).getBounds();
+            gRect = g.getClip().getBounds();
+            if (useShape != null)
+                gRect = gRect.union(useShape.getBounds());
             oRect = g2o.createTransformedShape(gRect).getBounds();
         }
         else {
@@ -250,21 +410,12 @@ public class BufferedMap {
         gminus.concatenate(o2g);
         img.draw(gb, gminus);
 
-        if (mdata != null) {
+        if (mask != null) {
             gb.setComposite(AlphaComposite.DstIn);
             mbuffer = createMbuffer(oRect.width, oRect.height);
-            int mw = img.getWidth(null);
-            for (int j = 0; j < oRect.height; j++) {
-                int len = Math.min(oRect.width,
-                                   mdata.length - ((oRect.y + j)*mw + oRect.x));
-                len = Math.min(len,
-                               mbufdata[3].length - (j*mbuffer.getWidth()));
-                if (len > 0) {
-                    System.arraycopy
-                        (mdata, (oRect.y + j)*mw + oRect.x,
-                         mbufdata[3], j*mbuffer.getWidth(), len);
-                }
-            }
+            for (int j = 0; j < oRect.height; j++)
+                mask.copy(oRect.x, oRect.y + j, oRect.width,
+                          mbufdata[3], j*mbuffer.getWidth());
 
             // Work around Java bug #4723021
             BufferedImage tmp = new BufferedImage
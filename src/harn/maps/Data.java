@@ -27,7 +27,6 @@ import java.io.*;
 import java.util.*;
 import javax.imageio.*;
 import java.awt.*;
-import java.lang.ref.*;
 import javax.swing.tree.DefaultMutableTreeNode;
 import javax.xml.transform.stream.StreamResult;
 import org.w3c.dom.*;
@@ -58,11 +57,8 @@ public class Data {
     /** atlas/dir table of terrain/vegetation combinations */
     private Hashtable color;
 
-    /** soft refs of filenames to images */
-    private Hashtable fileRefs;
-
-    /** soft refs of filenames to full images */
-    protected Hashtable imgRefs;
+    /** decoded images (filenames and composed layers) */
+    private ImageCache images;
 
     /**
      * Constructor,
@@ -71,6 +67,9 @@ public class Data {
      */
     public Data(Main aMain, Framework frw) {
 	main = aMain;
+        String mb = main.myProps.getProperty("image.cache.mb");
+        images = new ImageCache
+            ((mb != null ? Long.parseLong(mb) : 256) * 1024 * 1024);
         loadData();
     }
 
@@ -106,8 +105,7 @@ public class Data {
 	mapList = new Hashtable();
         gridLinks = new Hashtable();
 	color = new Hashtable();
-        fileRefs = new Hashtable();
-        imgRefs = new Hashtable();
+        images.clear();
 
 	// Used later for GUI
 	DefaultMutableTreeNode atlNode;
@@ -297,147 +295,11 @@ public class Data {
 	}
     }
 
-    /** Return true if water */
-    private boolean isWater(String test) {
-        return test != null && test.toLowerCase().equals("water");
-    }
-
-    private String[] getTerrVegFromColour(Image img, int x, int y, String mapname) {
-	int w = img.getWidth(null);
-	int h = img.getHeight(null);
-        int fsz = 20; /** @todo */
-	int[] data = new int[fsz * fsz];
-
-	// Grab data from the image
-	PixelGrabber pg;
-	try {
-	    int x0 = x - fsz/2;
-	    int y0 = y - fsz/2;
-	    pg = new PixelGrabber(img,x0,y0,fsz,fsz,data,0,fsz);
-	    pg.grabPixels();
-	}
-	catch (InterruptedException e) {
-	    // Debug
-	    e.printStackTrace();
-	}
-
-	// Center
-	int c = fsz/2 * (fsz + 1);
-
-	Hashtable t = (Hashtable) recurseGet(color, mapname);
-	String[] ret = new String[3];
-	// Check for colors. Iterator from center to outside and then along
-	// the border/frame until we find something.
-	for (int i = 0; i < 2; i++) {
-	    for (int j = 0; j < fsz/2 && ret[i] == null; j++) {
-		if (y - j < 0 || y + j > h) continue;
-		for (int k = -j; k <= j && ret[i] == null; k++) {
-		    if (x + k < 0 || x + k > w) continue;
-		    // North
-		    if (ret[i] == null) {
-			int rgb = 0xffffff & data[c - j * fsz + k];
-			String rgbStr = Integer.toString(rgb);
-                        String[] rt = (String[]) t.get(rgbStr);
-                        if (rt != null) ret[i] = rt[i];
-		    }
-		    // East
-		    if (ret[i] == null) {
-			int rgb = 0xffffff & data[c - j + k * fsz];
-			String rgbStr = Integer.toString(rgb);
-                        String[] rt = (String[]) t.get(rgbStr);
-                        if (rt != null) ret[i] = rt[i];
-		    }
-		    // South
-		    if (ret[i] == null) {
-			int rgb = 0xffffff & data[c + j * fsz + k];
-			String rgbStr = Integer.toString(rgb);
-                        String[] rt = (String[]) t.get(rgbStr);
-                        if (rt != null) ret[i] = rt[i];
-		    }
-		    // West
-		    if (ret[i] == null) {
-			int rgb = 0xffffff & data[c + j + k * fsz];
-			String rgbStr = Integer.toString(rgb);
-                        String[] rt = (String[]) t.get(rgbStr);
-                        if (rt != null) ret[i] = rt[i];
-		    }
-		}
-	    }
-	}
-
-	// Take absolute default
-	for (int i = 0; i < 2; i++)
-	    if (ret[i] == null) ret[i] = defTerVeg[i];
-
-	return ret;
-    }
-
-    /** Get Terrain and vegetation from image */
-    private String[] getLandTerrVegFromColour(Image img, int x, int y, String mapname) {
-	int w = img.getWidth(null);
-	int h = img.getHeight(null);
-        int fsz = 20; /** @todo */
-	int[] data = new int[fsz * fsz];
-
-	// Grab data from the image
-	PixelGrabber pg;
-	try {
-	    int x0 = x - fsz/2;
-	    int y0 = y - fsz/2;
-	    pg = new PixelGrabber(img,x0,y0,fsz,fsz,data,0,fsz);
-	    pg.grabPixels();
-	}
-	catch (InterruptedException e) {
-	    // Debug
-	    e.printStackTrace();
-	}
-
-	// Center
-	int c = fsz/2 * (fsz + 1);
-
-	Hashtable t = (Hashtable) recurseGet(color, mapname);
-	String[] ret = null;
-	// Check for colors. Iterator from center to outside and then along
-	// the border/frame until we find something.
-        for (int j = 0; j < fsz/2 && ret == null; j++) {
-            if (y - j < 0 || y + j > h) continue;
-            for (int k = -j; k <= j && ret == null; k++) {
-                if (x + k < 0 || x + k > w) continue;
-                // North
-                if (ret == null || isWater(ret[0])) {
-                    int rgb = 0xffffff & data[c - j * fsz + k];
-                    String rgbStr = Integer.toString(rgb);
-                    ret = (String[]) t.get(rgbStr);
-                }
-                // East
-                if (ret == null || isWater(ret[0])) {
-                    int rgb = 0xffffff & data[c - j + k * fsz];
-                    String rgbStr = Integer.toString(rgb);
-                    ret = (String[]) t.get(rgbStr);
-                }
-                // South
-                if (ret == null || isWater(ret[0])) {
-                    int rgb = 0xffffff & data[c + j * fsz + k];
-                    String rgbStr = Integer.toString(rgb);
-                    ret = (String[]) t.get(rgbStr);
-                }
-                // West
-                if (ret == null || isWater(ret[0])) {
-                    int rgb = 0xffffff & data[c + j + k * fsz];
-                    String rgbStr = Integer.toString(rgb);
-                    ret = (String[]) t.get(rgbStr);
-                }
-                if (ret != null && isWater(ret[0])) ret = null;
-            }
-        }
-
-	// Take absolute default
-        if (ret == null) ret = new String[2];
-	for (int i = 0; i < 2; i++)
-	    if (ret[i] == null) ret[i] = defTerVeg[i];
-
-	return ret;
-    }
+    /**
+     * Get the image cache, e.g. for its counters.
+     * @return image cache
+     */
+    ImageCache getImageCache() { return images; }
 
     /**
      * Get the node list (which contains the border info) for a given map
@@ -758,11 +620,15 @@ public class Data {
 	/** tactical speed quotient */
 	float speedQuot;
 
-	/** in order to optimize we keep the last request: coordinates */
-	private int lTx, lTy, lVx, lVy;
+        /** precomputed terrain/vegetation index */
+        private TerrainIndex terIdx;
 
-	/** in order to optimize we keep the last request: values */
-	private String lT, lV;
+        /** tile pyramid of the layers shown and its layer combination */
+        private TilePyramid pyramid;
+        private int pyramidPost;
+
+        /** size of the map, see getSize */
+        private Dimension size;
 
         /** shape -> foreign map names */
         Hashtable maps;
@@ -840,18 +706,29 @@ public class Data {
             }
         }
 
+        /**
+         * Get the terrain/vegetation index of this map. Built on first use
+         * from the raster (or the full image, if there is no raster).
+         * @return index
+         */
+        private synchronized TerrainIndex getIndex() {
+            if (terIdx == null) {
+                Image icon =
+                    (raster != null ? getImage(raster) : getImageProper(true));
+                if (icon instanceof SVGImage)
+                    icon = ((SVGImage)icon).getBitmap();
+                terIdx = new TerrainIndex
+                    (icon, (Hashtable) recurseGet(color, getName()), defTerVeg);
+            }
+            return terIdx;
+        }
+
 	/**
 	 * Returns the terrain of the map, i.e. a logical property.
 	 * @return terrain
 	 */
 	public String getTerrain(int x, int y) {
-	    if (x == lTx && y == lTy && lT != null)
-		return lT;
- 	    Image icon =
-                (raster != null ? getImage(raster) : getImageProper(true));
-	    String ret = getTerrVegFromColour(icon, x, y, atlas + "/" + name)[0];
-	    lTx = x; lTy = y; lT = ret;
-	    return ret;
+            return getIndex().getTerrain(x, y);
 	}
 
 	/**
@@ -859,12 +736,7 @@ public class Data {
 	 * @return terrain
 	 */
 	public String getLandTerrain(int x, int y) {
-	    if (x == lTx && y == lTy && !isWater(lT))
-		return lT;
- 	    Image icon =
-                (raster != null ? getImage(raster) : getImageProper(true));
-	    String ret = getLandTerrVegFromColour(icon, x, y, atlas + "/" + name)[0];
-	    return ret;
+            return getIndex().getLandTerrain(x, y);
         }
 
 	/**
@@ -872,13 +744,7 @@ public class Data {
 	 * @return vegetation
 	 */
 	public String getVegetation(int x, int y) {
-	    if (x == lVx && y == lVy && lV != null)
-		return lV;
- 	    Image icon =
-                (raster != null ? getImage(raster) : getImageProper(true));
-	    String ret = getTerrVegFromColour(icon, x, y, atlas + "/" + name)[1];
-	    lVx = x; lVy = y; lV = ret;
-	    return ret;
+            return getIndex().getVegetation(x, y);
 	}
 
 	/**
@@ -886,13 +752,7 @@ public class Data {
 	 * @return vegetation
 	 */
 	public String getLandVegetation(int x, int y) {
-	    if (x == lVx && y == lVy && lV != null &&
-                !isWater(lT))
-		return lV;
- 	    Image icon =
-                (raster != null ? getImage(raster) : getImageProper(true));
-	    String ret = getLandTerrVegFromColour(icon, x, y, atlas + "/" + name)[1];
-	    return ret;
+            return getIndex().getLandVegetation(x, y);
 	}
 
 	/**
@@ -907,6 +767,16 @@ public class Data {
 	 */
 	public String getName() { return atlas + "/" + name; }
 
+	/**
+	 * Returns the count of changes of the image as displayed. Only the
+	 * current map changes.
+	 * @return change count
+	 */
+	public long getImageChanges() {
+            if (!getName().equals(main.map.getCurrentName())) return 0;
+            return main.map.getChanges();
+        }
+
 	/**
 	 * Returns the image of the active map, i.e. a physical property.
          * @param force force image return (when possible)
@@ -931,11 +801,8 @@ public class Data {
             Image img = null;
             if (fname == null) return null;
             try {
-                SoftReference ref = (SoftReference) fileRefs.get(fname);
-                if (ref != null) {
-                    Object o = ref.get();
-                    if (o != null) return (Image) o;
-                }
+                img = images.get(fname);
+                if (img != null) return img;
                 String osName = Framework.osName(fname);
                 if (fname.endsWith(".svg")) {
                     img = readSVG("file:" + main.myPath + osName);
@@ -944,7 +811,7 @@ public class Data {
                     img = ImageIO.read(new File(main.myPath + osName));
                 }
                 if (img == null) throw new IOException("Can't decode");
-                fileRefs.put(fname, new SoftReference(img));
+                images.put(fname, img);
             }
             catch (Exception e) {
                 // Debug
@@ -996,12 +863,9 @@ public class Data {
                 post += (1<<i);
             }
 
-            // Try soft refs
-            SoftReference ref = (SoftReference) imgRefs.get(name + "/" + post);
-            if (ref != null) {
-                Object o = ref.get();
-                if (o != null) return (BufferedImage) o;
-            }
+            // Try cache
+            Image cached = images.get(getName() + "/" + post);
+            if (cached != null) return (BufferedImage) cached;
 
             main.myFrw.setBusy(true);
 
@@ -1023,13 +887,66 @@ public class Data {
             }
             gc.dispose();
 
-            imgRefs.put(name + "/" + post, new SoftReference(img));
+            images.put(getName() + "/" + post, img);
             main.myFrw.setBusy(false);
 
             // Final
             return img;
 	}
 
+        /**
+         * Get the tile pyramid for the currently shown layers. The pyramid is
+         * built in the background on first request; the build of the
+         * pyramid replaced is cancelled. Vector layers cannot be tiled; null
+         * is returned then.
+         * @return tile pyramid or null
+         */
+        TilePyramid getPyramid() {
+            int post = 0;
+            for (int i = 0; i < layers.size(); i++) {
+                String layer = (String) layers.get(i);
+                if (layer == null || !main.showLayer(i)) continue;
+                if (layer.endsWith(".svg")) return null;
+                post += (1<<i);
+            }
+            if (post == 0) return null;
+
+            // Only the pyramid of the layers shown is kept
+            if (pyramid != null && pyramidPost == post) return pyramid;
+            if (pyramid != null) pyramid.cancel();
+            String[] files = new String[layers.size()];
+            for (int i = 0; i < files.length; i++) {
+                if ((post & (1<<i)) == 0) continue;
+                files[i] = main.myPath + Framework.osName((String)layers.get(i));
+            }
+            File dir = new File
+                (main.myPath + atlas + Framework.SEP + "tiles" +
+                 Framework.SEP + Framework.osName(name), Integer.toString(post));
+            pyramid = new TilePyramid(files, dir, atlas);
+            pyramidPost = post;
+            return pyramid;
+        }
+
+        /**
+         * Size of the map. Read from the header of the first layer, if
+         * possible, so that the images need not be decoded.
+         * @return size
+         */
+        Dimension getSize() {
+            if (size == null) {
+                String layer = (String) layers.get(0);
+                if (layer != null && !layer.endsWith(".svg"))
+                    size = TilePyramid.size
+                        (main.myPath + Framework.osName(layer));
+                if (size == null) {
+                    Image img = getImages()[0];
+                    size = new Dimension
+                        (img.getWidth(null), img.getHeight(null));
+                }
+            }
+            return size;
+        }
+
 	/**
 	 * Get the part (0-1) of tactical speed that is used on this map.
 	 * @return tactical speed part of total speed
@@ -0,0 +1,410 @@
+/**
+ * UGMT : Universal Gamemaster tool
+ * Copyright (c) 2004 Michael Jung
+ * miju@phantasia.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package harn.maps;
+
+import java.awt.*;
+import java.awt.color.*;
+import java.awt.image.*;
+import java.io.*;
+import java.util.Arrays;
+import java.util.zip.*;
+
+/**
+ * Fog mask of one layer, cut into square tiles. A tile that is uniform
+ * (usually fully hidden or fully revealed) is kept as a single value; only
+ * partially revealed tiles hold a byte raster. A value of 255 is revealed,
+ * 0 is hidden. Tiles modified since the last save are marked dirty.<br>
+ * A fog file is a header followed by tile records. Saving to the file that
+ * was last saved or loaded only appends the dirty tiles; on loading, later
+ * records override earlier ones.
+ * @author Michael Jung
+ */
+class FogMask {
+    /** Tile size in pixels; a power of two */
+    final static int TILE = 64;
+
+    /** log2 of tile size */
+    final static private int SHIFT = 6;
+
+    /** File magic */
+    final static private int MAGIC = 0x55464f47;
+
+    /** File version */
+    final static private int VERSION = 1;
+
+    /** Record kinds */
+    final static private byte UNIFORM = 0, RASTER = 1;
+
+    /** Size in pixels */
+    private int w, h;
+
+    /** Size in tiles */
+    private int tw, th;
+
+    /** Raster per tile (TILE x TILE), null if uniform */
+    private byte[][] raster;
+
+    /** Value of uniform tiles */
+    private byte[] level;
+
+    /** Modified since last save */
+    private boolean[] dirty;
+
+    /**
+     * Constructor.
+     * @param aW width
+     * @param aH height
+     * @param hide whether hidden initially
+     */
+    FogMask(int aW, int aH, boolean hide) {
+        w = aW;
+        h = aH;
+        tw = (w + TILE - 1) >> SHIFT;
+        th = (h + TILE - 1) >> SHIFT;
+        raster = new byte[tw*th][];
+        level = new byte[tw*th];
+        dirty = new boolean[tw*th];
+        fill(hide);
+    }
+
+    /** Width */
+    int getWidth() { return w; }
+
+    /** Height */
+    int getHeight() { return h; }
+
+    /** Number of tiles holding a raster */
+    int getRasterCount() {
+        int n = 0;
+        for (int t = 0; t < raster.length; t++)
+            if (raster[t] != null) n++;
+        return n;
+    }
+
+    /**
+     * Value at a pixel.
+     * @return 0 (hidden) to 255 (revealed)
+     */
+    int get(int x, int y) {
+        int t = (y >> SHIFT)*tw + (x >> SHIFT);
+        if (raster[t] == null) return level[t] & 0xff;
+        return raster[t][((y & (TILE - 1)) << SHIFT) + (x & (TILE - 1))] & 0xff;
+    }
+
+    /**
+     * Copy part of a row.
+     * @param x x-coordinate of first pixel
+     * @param y row
+     * @param len number of pixels
+     * @param dst destination
+     * @param off offset in destination
+     */
+    void copy(int x, int y, int len, byte[] dst, int off) {
+        if (y < 0 || y >= h) return;
+        if (x < 0) { off -= x; len += x; x = 0; }
+        if (x + len > w) len = w - x;
+        int row = (y >> SHIFT)*tw;
+        int ty = (y & (TILE - 1)) << SHIFT;
+        while (len > 0) {
+            int t = row + (x >> SHIFT);
+            int tx = x & (TILE - 1);
+            int n = Math.min(len, TILE - tx);
+            if (raster[t] == null) {
+                byte v = level[t];
+                for (int i = 0; i < n; i++) dst[off + i] = v;
+            }
+            else
+                System.arraycopy(raster[t], ty + tx, dst, off, n);
+            x += n; off += n; len -= n;
+        }
+    }
+
+    /**
+     * Hide or reveal everything.
+     * @param hide hide or reveal
+     */
+    void fill(boolean hide) {
+        for (int t = 0; t < raster.length; t++)
+            set(t, (byte)(hide ? 0 : 0xff));
+    }
+
+    /**
+     * Hide or reveal a shape with sharp borders.
+     * @param shape shape in mask coordinates
+     * @param hide hide or reveal
+     * @return bounds of modified tiles (within shape bounds) or null
+     */
+    Rectangle fill(Shape shape, boolean hide) {
+        byte v = (byte)(hide ? 0 : 0xff);
+        Rectangle b = shape.getBounds().intersection(new Rectangle(0, 0, w, h));
+        if (b.isEmpty()) return null;
+        Rectangle ret = null;
+        for (int ty = b.y >> SHIFT; ty <= (b.y + b.height - 1) >> SHIFT; ty++) {
+            for (int tx = b.x >> SHIFT; tx <= (b.x + b.width - 1) >> SHIFT; tx++) {
+                int t = ty*tw + tx;
+                Rectangle r = new Rectangle(tx*TILE, ty*TILE, TILE, TILE);
+                if (raster[t] == null && level[t] == v) continue;
+                if (shape.contains(r)) {
+                    set(t, v);
+                    ret = add(ret, r.intersection(b));
+                    continue;
+                }
+                if (!shape.intersects(r)) continue;
+                Graphics2D g = image(edit(t)).createGraphics();
+                g.setRenderingHint
+                    (RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                g.translate(-r.x, -r.y);
+                g.setColor(new Color(hide ? 0x0 : 0xffffff));
+                g.fill(shape);
+                g.dispose();
+                settle(t);
+                ret = add(ret, r.intersection(b));
+            }
+        }
+        return ret;
+    }
+
+    /** Union with a possibly null rectangle */
+    private static Rectangle add(Rectangle r, Rectangle s) {
+        if (r == null) return s;
+        r.add(s);
+        return r;
+    }
+
+    /** Gray image on a tile raster */
+    private static BufferedImage image(byte[] data) {
+        DataBuffer db = new DataBufferByte(data, data.length);
+        WritableRaster wr = Raster.createInterleavedRaster
+            (db, TILE, TILE, TILE, 1, new int[] { 0 }, null);
+        return new BufferedImage
+            (new ComponentColorModel
+             (ColorSpace.getInstance(ColorSpace.CS_GRAY),
+              false, false, ColorModel.OPAQUE, DataBuffer.TYPE_BYTE),
+             wr, false, null);
+    }
+
+    /**
+     * Index of the tile containing a pixel.
+     */
+    int tile(int x, int y) { return (y >> SHIFT)*tw + (x >> SHIFT); }
+
+    /**
+     * Uniform value of a tile.
+     * @return 0 to 255 or -1, if the tile holds a raster
+     */
+    int level(int t) { return raster[t] == null ? level[t] & 0xff : -1; }
+
+    /**
+     * Raster of a tile for reading.
+     * @return raster (TILE x TILE, row major) or null, if uniform
+     */
+    byte[] peek(int t) { return raster[t]; }
+
+    /**
+     * Raster of a tile for modification; a uniform tile is expanded. The
+     * tile is marked dirty. Call settle when done.
+     * @param t tile index
+     * @return raster (TILE x TILE, row major)
+     */
+    byte[] edit(int t) {
+        if (raster[t] == null) {
+            raster[t] = new byte[TILE*TILE];
+            Arrays.fill(raster[t], level[t]);
+        }
+        dirty[t] = true;
+        return raster[t];
+    }
+
+    /**
+     * Collapse a tile raster to a single value, if it is uniform.
+     * @param t tile index
+     */
+    void settle(int t) {
+        byte[] r = raster[t];
+        if (r == null) return;
+        int bw = Math.min(TILE, w - (t % tw)*TILE);
+        int bh = Math.min(TILE, h - (t / tw)*TILE);
+        byte v = r[0];
+        for (int y = 0; y < bh; y++)
+            for (int x = 0; x < bw; x++)
+                if (r[(y << SHIFT) + x] != v) return;
+        raster[t] = null;
+        level[t] = v;
+    }
+
+    /** Make a tile uniform */
+    private void set(int t, byte v) {
+        if (raster[t] == null && level[t] == v) return;
+        raster[t] = null;
+        level[t] = v;
+        dirty[t] = true;
+    }
+
+    /**
+     * Save masks to a file.
+     * @param masks masks of all layers (entries may be null)
+     * @param f file
+     * @param append only append dirty tiles to the file
+     * @return number of records written
+     */
+    static int save(FogMask[] masks, File f, boolean append) throws IOException {
+        DataOutputStream os = new DataOutputStream
+            (new BufferedOutputStream(new FileOutputStream(f, append)));
+        int n = 0;
+        try {
+            if (!append) {
+                os.writeInt(MAGIC);
+                os.writeInt(VERSION);
+                os.writeInt(TILE);
+            }
+            for (int k = 0; k < masks.length; k++) {
+                if (masks[k] != null) n += masks[k].write(os, k, append);
+            }
+        }
+        finally {
+            os.close();
+        }
+        return n;
+    }
+
+    /**
+     * Write the tile records of this mask. On a full write, revealed tiles
+     * are skipped, since that is where loading starts from.
+     * @return number of records written
+     */
+    private int write(DataOutputStream os, int k, boolean append) throws IOException {
+        int n = 0;
+        Deflater def = new Deflater(Deflater.BEST_SPEED);
+        byte[] buf = new byte[TILE*TILE + 64];
+        for (int t = 0; t < raster.length; t++) {
+            if (append ? !dirty[t] : raster[t] == null && level[t] == (byte)0xff) {
+                dirty[t] = false;
+                continue;
+            }
+            os.writeShort(k);
+            os.writeInt(t);
+            if (raster[t] == null) {
+                os.writeByte(UNIFORM);
+                os.writeByte(level[t]);
+            }
+            else {
+                def.reset();
+                def.setInput(raster[t]);
+                def.finish();
+                int len = def.deflate(buf);
+                os.writeByte(RASTER);
+                os.writeInt(len);
+                os.write(buf, 0, len);
+            }
+            dirty[t] = false;
+            n++;
+        }
+        def.end();
+        return n;
+    }
+
+    /**
+     * Load masks from a file. Masks are reset to revealed before. A torn
+     * last record is cut off the file.
+     * @param masks masks of all layers (entries may be null)
+     * @param f file
+     * @return number of records read or -1, if the file is not a fog file
+     */
+    static int load(FogMask[] masks, File f) throws IOException {
+        DataInputStream is = new DataInputStream
+            (new BufferedInputStream(new FileInputStream(f)));
+        int n = 0;
+        long good = 12;
+        try {
+            if (f.length() < 12 || is.readInt() != MAGIC ||
+                is.readInt() != VERSION || is.readInt() != TILE)
+                return -1;
+            for (int k = 0; k < masks.length; k++) {
+                if (masks[k] != null) masks[k].fill(false);
+            }
+            Inflater inf = new Inflater();
+            byte[] buf = new byte[TILE*TILE + 64];
+            while (true) {
+                int k, t;
+                byte kind;
+                try {
+                    k = is.readShort();
+                    t = is.readInt();
+                    kind = is.readByte();
+                }
+                catch (EOFException e) {
+                    break;
+                }
+                FogMask m = (k < masks.length ? masks[k] : null);
+                if (m != null && (t < 0 || t >= m.raster.length))
+                    throw new IOException("Bad tile " + t + " in " + f);
+                try {
+                    if (kind == UNIFORM) {
+                        byte v = is.readByte();
+                        if (m != null) {
+                            m.level[t] = v;
+                            m.raster[t] = null;
+                        }
+                        good += 8;
+                    }
+                    else {
+                        int len = is.readInt();
+                        if (len < 0 || len > buf.length)
+                            throw new IOException("Bad record in " + f);
+                        is.readFully(buf, 0, len);
+                        if (m != null) {
+                            byte[] r = new byte[TILE*TILE];
+                            inf.reset();
+                            inf.setInput(buf, 0, len);
+                            if (inf.inflate(r) != r.length)
+                                throw new IOException("Bad record in " + f);
+                            m.raster[t] = r;
+                        }
+                        good += 11 + len;
+                    }
+                }
+                catch (EOFException e) {
+                    break;
+                }
+                catch (DataFormatException e) {
+                    throw new IOException("Bad record in " + f);
+                }
+                n++;
+            }
+            inf.end();
+            for (int k = 0; k < masks.length; k++) {
+                if (masks[k] == null) continue;
+                for (int t = 0; t < masks[k].raster.length; t++) {
+                    masks[k].settle(t);
+                    masks[k].dirty[t] = false;
+                }
+            }
+        }
+        finally {
+            is.close();
+        }
+        if (good < f.length()) {
+            RandomAccessFile raf = new RandomAccessFile(f, "rw");
+            raf.setLength(good);
+            raf.close();
+        }
+        return n;
+    }
+}
@@ -0,0 +1,232 @@
+/**
+ * UGMT : Universal Gamemaster tool
+ * Copyright (c) 2004 Michael Jung
+ * miju@phantasia.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package harn.maps;
+
+import java.awt.*;
+import java.awt.image.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * Bounded cache of decoded images. The cache accounts for the raster size of
+ * each image (4 bytes per pixel) and evicts the least recently used images
+ * when it exceeds its limit. Evicted bitmaps are spilled as raw ARGB pixels
+ * into a memory-mapped file, from which they are restored by a plain copy
+ * instead of decoding the image file again. Vector images are dropped on
+ * eviction.
+ * @author Michael Jung
+ */
+class ImageCache {
+    /** Spill file is renewed when it gets larger than this many limits */
+    final static private int SPILL_FACTOR = 4;
+
+    /** Maximum bytes in memory */
+    private long max;
+
+    /** Current bytes in memory */
+    private long size;
+
+    /** Images in memory (key -> image), least recently used first */
+    private LinkedHashMap mem;
+
+    /** Spilled images (key -> long[] { offset, width, height }) */
+    private HashMap spilled;
+
+    /** Spill file */
+    private RandomAccessFile spill;
+
+    /** End of data in spill file */
+    private long spillEnd;
+
+    /** Counters */
+    private long hits, misses, evictions, reloads;
+
+    /**
+     * Constructor.
+     * @param maxBytes maximum raster bytes to keep in memory
+     */
+    ImageCache(long maxBytes) {
+        max = maxBytes;
+        mem = new LinkedHashMap(16, .75f, true);
+        spilled = new HashMap();
+    }
+
+    /** Bytes of an image raster */
+    private static long bytes(Image img) {
+        if (img instanceof SVGImage) return 0;
+        return 4L * img.getWidth(null) * img.getHeight(null);
+    }
+
+    /**
+     * Get an image. Restores spilled images.
+     * @param key key of image
+     * @return image or null, if not cached
+     */
+    synchronized Image get(String key) {
+        Image img = (Image) mem.get(key);
+        if (img != null) {
+            hits++;
+            return img;
+        }
+        long[] loc = (long[]) spilled.remove(key);
+        if (loc != null) {
+            img = restore(loc);
+            if (img != null) {
+                reloads++;
+                insert(key, img);
+                return img;
+            }
+        }
+        misses++;
+        return null;
+    }
+
+    /**
+     * Put an image into the cache.
+     * @param key key of image
+     * @param img image
+     */
+    synchronized void put(String key, Image img) {
+        if (img == null) return;
+        spilled.remove(key);
+        insert(key, img);
+    }
+
+    /** Insert into memory and evict as necessary */
+    private void insert(String key, Image img) {
+        Image old = (Image) mem.put(key, img);
+        if (old != null) size -= bytes(old);
+        size += bytes(img);
+
+        Iterator iter = mem.entrySet().iterator();
+        while (size > max && iter.hasNext()) {
+            Map.Entry e = (Map.Entry) iter.next();
+            if (e.getKey().equals(key)) continue;
+            Image ev = (Image) e.getValue();
+            iter.remove();
+            size -= bytes(ev);
+            evictions++;
+            if (!(ev instanceof SVGImage)) spill((String) e.getKey(), ev);
+        }
+    }
+
+    /**
+     * Write the raster of an image to the spill file.
+     */
+    private void spill(String key, Image img) {
+        int w = img.getWidth(null);
+        int h = img.getHeight(null);
+        try {
+            if (spill == null || spillEnd > SPILL_FACTOR * max) renewSpill();
+            FileChannel fc = spill.getChannel();
+            IntBuffer ib = fc.map
+                (FileChannel.MapMode.READ_WRITE, spillEnd, 4L * w * h).asIntBuffer();
+            int[] row = new int[w];
+            if (img instanceof BufferedImage) {
+                BufferedImage bi = (BufferedImage) img;
+                for (int y = 0; y < h; y++) {
+                    bi.getRGB(0, y, w, 1, row, 0, w);
+                    ib.put(row);
+                }
+            }
+            else {
+                for (int y = 0; y < h; y++) {
+                    new PixelGrabber(img, 0, y, w, 1, row, 0, w).grabPixels();
+                    ib.put(row);
+                }
+            }
+            spilled.put(key, new long[] { spillEnd, w, h });
+            spillEnd += 4L * w * h;
+        }
+        catch (Exception e) {
+            // Not spilled, will be decoded again
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Start a new spill file. Mapped regions of the old one stay valid
+     * until collected, hence we do not truncate but replace it.
+     */
+    private void renewSpill() throws IOException {
+        if (spill != null) spill.close();
+        File f = File.createTempFile("ugmt", ".cache");
+        f.deleteOnExit();
+        spill = new RandomAccessFile(f, "rw");
+        spillEnd = 0;
+        spilled.clear();
+    }
+
+    /**
+     * Restore an image from the spill file.
+     */
+    private Image restore(long[] loc) {
+        int w = (int) loc[1];
+        int h = (int) loc[2];
+        try {
+            IntBuffer ib = spill.getChannel().map
+                (FileChannel.MapMode.READ_ONLY, loc[0], 4L * w * h).asIntBuffer();
+            BufferedImage img =
+                new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+            ib.get(((DataBufferInt)img.getRaster().getDataBuffer()).getData());
+            return img;
+        }
+        catch (IOException e) {
+            // Debug
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /** Remove all images */
+    synchronized void clear() {
+        mem.clear();
+        spilled.clear();
+        size = 0;
+        spillEnd = 0;
+    }
+
+    /** Bytes of rasters in memory */
+    synchronized long getSize() { return size; }
+
+    /** Number of requests served from memory */
+    synchronized long getHits() { return hits; }
+
+    /** Number of requests that had to be decoded */
+    synchronized long getMisses() { return misses; }
+
+    /** Number of images evicted from memory */
+    synchronized long getEvictions() { return evictions; }
+
+    /** Number of requests served from the spill file */
+    synchronized long getReloads() { return reloads; }
+
+    /**
+     * String representation of the counters.
+     * @return counters
+     */
+    public synchronized String toString() {
+        return "size=" + size + "/" + max + " hits=" + hits +
+            " misses=" + misses + " evictions=" + evictions +
+            " reloads=" + reloads;
+    }
+}
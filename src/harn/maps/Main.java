@@ -275,6 +275,11 @@ public class Main implements IPlugin {
         bSuppExp = new JCheckBox("Suppress Export");
         bSuppExp.addItemListener(new ItemListener() {
                 public void itemStateChanged(ItemEvent e) {
+                    // Export changes; announced after repaint
+                    if (map != null) {
+                        map.changed();
+                        map.repaint();
+                    }
                     if (state != null) state.setDirty();
                 }
             });
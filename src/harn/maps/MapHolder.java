@@ -91,6 +91,15 @@ public class MapHolder extends JComponent implements IListener {
     /** Local variable to hide cursor or not */
     private boolean hideCursor = true;
 
+    /** Changes of the displayed image; see ScaledMap.getImageChanges */
+    private volatile long changes;
+
+    /** Paint from tile pyramids */
+    private boolean tiled;
+
+    /** Tile pyramid of current map and layers */
+    private TilePyramid pyramid;
+
     /**
      * Constructor. Load mark = group cursor.
      * @param props properties
@@ -111,11 +120,18 @@ public class MapHolder extends JComponent implements IListener {
         link = new Color(col, true);
         hightime = Integer.parseInt(props.getProperty("highlight.time"), 16);
         epwidth = (int)Long.parseLong(props.getProperty("editor.pen.width"));
+        tiled = "true".equals(props.getProperty("tiles.pyramid"));
         origMap = new OriginalMap(main, this);
         setDoubleBuffered(true);
         expire(true);
     }
 
+    /** Note a change of the displayed image */
+    void changed() { changes++; }
+
+    /** Changes of the displayed image */
+    long getChanges() { return changes; }
+
     /** Get current name */
     String getCurrentName() { return currentName; }
 
@@ -129,8 +145,10 @@ public class MapHolder extends JComponent implements IListener {
      * Set current icon only (check boxes may change the visibility mode).
      */
     void revalidateCurrentIcon() {
-        if (currentName != null)
+        if (currentName != null) {
             origMap.set(Data.getMap(currentName));
+            setPyramid((Data.MyMap)Data.getMap(currentName));
+        }
         // Adapt the display
         expire(false);
     }
@@ -179,11 +197,20 @@ public class MapHolder extends JComponent implements IListener {
 
             currentName = current;
             origMap.set(map);
+            setPyramid(map);
 
             expire(true);
         }
     }
     
+    /**
+     * Get the tile pyramid for the map, if tiling is switched on.
+     * @param map map to get pyramid for
+     */
+    private void setPyramid(Data.MyMap map) {
+        pyramid = (tiled && map != null ? map.getPyramid() : null);
+    }
+
     /**
      * Return the first location known.
      * @return first location
@@ -331,9 +358,15 @@ public class MapHolder extends JComponent implements IListener {
         ((Graphics2D)g).setStroke(new BasicStroke(epwidth));
         float scale = getScale();
 
-	// Draw map
+	// Draw map; fog over tiles is drawn separately
         origMap.setColor(getBackground());
-        origMap.draw((Graphics2D)g, scale);
+        if (pyramid != null && pyramid.isReady()) {
+            pyramid.draw((Graphics2D)g, scale);
+            if (main.bShowFog.isSelected())
+                origMap.drawFog((Graphics2D)g, scale);
+        }
+        else
+            origMap.draw((Graphics2D)g, scale);
 
         // Draw editing shape (already GUI size)
         if (main.editor != null && main.editor.currShape != null) {
@@ -439,11 +472,12 @@ public class MapHolder extends JComponent implements IListener {
     private void expire(boolean rmmasks) {
         if (origMap.isEmpty()) return;
         main.myFrw.setBusy(true);
+        changed();
 
         // Base
         if (rmmasks) origMap.resetMask();
         origMap.setMasks();
-        repaint(null, origMap.getBounds()); // reset and set do not use fastBuffer
+        repaint(null, getFullShape()); // reset and set do not use fastBuffer
         main.myFrw.setBusy(false);
     }
 
@@ -494,16 +528,21 @@ public class MapHolder extends JComponent implements IListener {
      */
     public void loadMasks(File f) {
         origMap.loadMasks(f, getScale());
+        changed();
         // load mask does not update fastBuffer
-        repaint(getVisibleRect(), origMap.getBounds());
+        repaint(getVisibleRect(), getFullShape());
     }
 
     /**
      * Stains a shape with sharp borders.
      */
     public void stain(int layer, Shape shape, boolean hide) {
-        origMap.stain(layer, shape, hide);
-        repaint(shape.getBounds(), shape); // stain does not update fastBuffer
+        Rectangle r = origMap.stain(layer, shape, hide);
+        changed();
+        // stain does not update fastBuffer
+        Rectangle sr = shape.getBounds();
+        sr.grow(1,1);
+        repaint(r != null ? sr.union(r) : sr, r);
     }
 
     /**
@@ -511,7 +550,8 @@ public class MapHolder extends JComponent implements IListener {
      */
     public void hideAll(int layer, boolean hide) {
         origMap.hideAll(layer, hide);
-        repaint(getVisibleRect(), origMap.getBounds()); // stain does not update fastBuffer
+        changed();
+        repaint(getVisibleRect(), getFullShape()); // stain does not update fastBuffer
     }
 
     /**
@@ -529,10 +569,18 @@ public class MapHolder extends JComponent implements IListener {
      * Stains a point with smooth  borders.
      */
     public void stain(int layer, int xc, int yc, boolean hide) {
-        Shape r = origMap.stain(layer, xc, yc, hide);
-        // stain does not update fastBuffer
+        Rectangle r = origMap.stain(layer, xc, yc, hide);
+        if (r != null) changed();
+        // stain does not update fastBuffer; only the modified pixels
         hideCursor = false;
-        if (r != null) repaint(r.getBounds(), r.getBounds());
+        if (r != null) repaint(r, r);
+    }
+
+    /** The whole map (scaled), to redraw the fast buffer completely */
+    private Shape getFullShape() {
+        float scale = getScale();
+        return AffineTransform.getScaleInstance(scale, scale).
+            createTransformedShape(origMap.getBounds());
     }
 
     /**
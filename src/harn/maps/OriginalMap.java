@@ -23,8 +23,8 @@ import harn.repository.*;
 import java.awt.*;
 import java.awt.geom.*;
 import java.awt.image.*;
-import java.awt.color.*;
 import java.io.*;
+import java.util.*;
 import javax.imageio.ImageIO;
 
 /**
@@ -35,14 +35,26 @@ public class OriginalMap {
     /** Main reference */
     private Main main;
 
-    /** Current map icons */
+    /** Current map */
+    private Data.MyMap map;
+
+    /** Size of current map */
+    private int w, h;
+
+    /** Current map icons; decoded when drawn without tiles */
     private Image[] currentImg;
 
     /** Current masks */
-    private BufferedImage[] currentMsk;
+    private FogMask[] masks;
+
+    /** Fog file last saved to or loaded from */
+    private File fogFile;
 
-    /** Current masks data*/
-    private byte[][][] cmskdata;
+    /** Length of fog file after last save or load */
+    private long fogLength;
+
+    /** Number of records in fog file */
+    private int fogRecords;
 
     /** fog inner drawing width */
     private int fpwidth;
@@ -50,8 +62,14 @@ public class OriginalMap {
     /** fog pen shadow width */
     private int fpshadow;
 
-    /** Current mask data */
-    private float[][] currmask;
+    /** Brush kernel: coverage per pixel around the center, row major */
+    private float[] kernel;
+
+    /** Brush kernel radius */
+    private int kradius;
+
+    /** Pen widths the brush kernel was made for */
+    private float kfps = -1, kfpw = -1;
 
     /** The buffered map for speed */
     private BufferedMap bufMap;
@@ -74,101 +92,112 @@ public class OriginalMap {
     /** Use the fast buffer for display */
     public void useFastBuffer(Shape p) { bufMap.useFastBuffer(p); }
 
-    /** Set base */
+    /** Set base; the images are decoded only when drawn */
     public void set(ScaledMap aMap) {
-        if (aMap == null) {
-            currentImg = null;
+        map = (Data.MyMap) aMap;
+        currentImg = null;
+        bufMap.release();
+        if (map != null) {
+            Dimension d = map.getSize();
+            w = d.width;
+            h = d.height;
         }
-        else {
-            currentImg = ((Data.MyMap)aMap).getImages();
+    }
+
+    /** Images of the current map, decoded on first use */
+    private Image[] images() {
+        if (currentImg == null) {
+            currentImg = map.getImages();
             bufMap.setFastBuffer(currentImg, main);
         }
+        return currentImg;
     }
 
+    /** Whether the current map has a given layer */
+    private boolean has(int i) { return map.layers.get(i) != null; }
+
     /** Reset mask */
     public void resetMask() {
-        currentMsk = new BufferedImage[currentImg.length];
-        cmskdata = new byte[currentImg.length][][];
+        masks = new FogMask[map.layers.size()];
+        fogFile = null;
     }
 
     /** Get bound rectangle */
     public Shape getBounds() { return new Rectangle(0, 0, getWidth(), getHeight()); }
 
     /** Not initialized yet */
-    public boolean isEmpty() { return currentImg == null; }
+    public boolean isEmpty() { return map == null; }
 
     /** Width */
-    public int getWidth() { return currentImg[0].getWidth(null); }
+    public int getWidth() { return w; }
 
     /** Height */
-    public int getHeight() { return currentImg[0].getHeight(null); }
+    public int getHeight() { return h; }
 
     /** Draw into bufmap */
     public void draw(Graphics2D g, float scale) {
-        bufMap.beginDraw(g, currentImg[0], scale);
-        for (int i = 0; i < currentImg.length; i++) {
-            if (currentImg[i] == null || !main.showLayer(i))
+        Image[] img = images();
+        bufMap.beginDraw(g, img[0], scale);
+        for (int i = 0; i < img.length; i++) {
+            if (img[i] == null || !main.showLayer(i))
                 continue;
             bufMap.draw
-                (g, currentImg[i],
-                 main.bShowFog.isSelected() ? cmskdata[i][0] : null,
+                (g, img[i],
+                 main.bShowFog.isSelected() ? masks[i] : null,
                  scale);
         }
         bufMap.endDraw(g, scale);
     }
 
+    /**
+     * Draw the fog of the layers shown over a map drawn from tiles.
+     */
+    public void drawFog(Graphics2D g, float scale) {
+        ArrayList al = new ArrayList();
+        for (int i = 0; i < masks.length; i++)
+            if (has(i) && main.showLayer(i) && masks[i] != null)
+                al.add(masks[i]);
+        bufMap.drawFog
+            (g, (FogMask[]) al.toArray(new FogMask[al.size()]), w, h, scale);
+    }
+
     public void hideAll(int layer, boolean hide) {
-        if (currentMsk != null && currentMsk.length > layer &&
-            currentMsk[layer] != null) {
-            byte fill = (byte)(hide ? 0x0 : 0xff);
-            for (int i = 0; i < cmskdata[layer][0].length; i++)
-                cmskdata[layer][0][i] = fill;
-        }
+        if (masks != null && masks.length > layer && masks[layer] != null)
+            masks[layer].fill(hide);
     }
 
     /**
      * Stain the layer as requested.
      * @param layer layer to stain
-     * @param shape shape to stain
-     * @param y y-coord
+     * @param shape shape to stain (null for everything)
      * @param hide hide or un-hide
+     * @return modified rectangle (scaled) or null
      */
-    public void stain(int layer, Shape shape, boolean hide) {
-        if (isEmpty()) return;
+    public Rectangle stain(int layer, Shape shape, boolean hide) {
+        if (isEmpty()) return null;
 
         // Anti-scale shape
         float scale = main.map.getScale();
         AffineTransform trans =
             AffineTransform.getScaleInstance(1/scale, 1/scale);
-        Rectangle rect;
-        if (shape != null) {
+        if (shape != null)
             shape = trans.createTransformedShape(shape);
-            rect = shape.getBounds();
-        }
-        else {
-            rect = new Rectangle(0, 0, getWidth(), getHeight());
-        }
-
-        int x0 = rect.x;
-        int y0 = rect.y;
-        int w = rect.width;
-        int h = rect.height;
 
-        for (int i = 0; i < currentImg.length; i++) {
-            if (currentImg[i] == null) continue;
+        Rectangle rect = null;
+        for (int i = 0; i < masks.length; i++) {
+            if (!has(i)) continue;
             if (!main.showLayer(i)) continue;
 
-            if (i == layer) {
-                if (currentMsk[i] != null) {
-                    Color col = new Color(hide ? 0x0 : 0xffffff);
-                    Graphics2D mgc = (Graphics2D) currentMsk[i].getGraphics();
-                    mgc.setRenderingHint
-                        (RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
-                    mgc.setColor(col);
-                    mgc.fill(shape);
+            if (i == layer && masks[i] != null) {
+                if (shape != null)
+                    rect = masks[i].fill(shape, hide);
+                else {
+                    masks[i].fill(hide);
+                    rect = new Rectangle(0, 0, getWidth(), getHeight());
                 }
             }
         }
+        return toScaled(rect, scale);
     }
     
     /**
@@ -190,8 +219,8 @@ public class OriginalMap {
         x1 = (int)(x1/scale);
         y1 = (int)(y1/scale);
 
-        for (int i = 0; i < currentImg.length; i++) {
-            if (currentImg[i] == null) continue;
+        for (int i = 0; i < masks.length; i++) {
+            if (!has(i)) continue;
             if (!main.showLayer(i)) continue;
         }
     }
@@ -202,9 +231,9 @@ public class OriginalMap {
      * @param x x-coord
      * @param y y-coord
      * @param hide hide or un-hide
-     * @return modified rectangle
+     * @return modified rectangle (scaled) or null
      */
-    public Shape stain(int layer, int xc, int yc, boolean hide) {
+    public Rectangle stain(int layer, int xc, int yc, boolean hide) {
         if (isEmpty()) return null;
         if (!main.bShowFog.isSelected()) return null;
 
@@ -215,30 +244,28 @@ public class OriginalMap {
         float fps = (int)(fpshadow/scale);
         float fpw = (int)(fpwidth/scale);
 
-        // Bounds in original (this)
-        int[] coords = getBoundedCoords
-            (xc, yc, getWidth(), getHeight(), fps);
-        int x0 = coords[0];
-        int y0 = coords[1];
-        int w = coords[2];
-        int h = coords[3];
-
-        for (int i = 0; i < currentImg.length; i++) {
-            if (currentImg[i] == null) continue;
+        Rectangle rect = null;
+        for (int i = 0; i < masks.length; i++) {
+            if (!has(i)) continue;
             if (!main.showLayer(i)) continue;
 
-            byte[] msk = null;
-            if (main.bShowFog.isSelected()) {
-                msk = cmskdata[i][0];
-                // Modify
-                if (i == layer) {
-                    modifyMask
-                        (xc, yc, w, h, hide, fps, fpw, msk, x0, y0, currentImg[i].getWidth(null));
-                }
-            }
+            // Modify
+            if (i == layer && masks[i] != null)
+                rect = modifyMask(xc, yc, hide, fps, fpw, masks[i]);
         }
-        return AffineTransform.getScaleInstance(scale,scale).
-            createTransformedShape(new Rectangle(x0, y0, w, h));
+        return toScaled(rect, scale);
+    }
+
+    /**
+     * Scale a rectangle of the original to the display; rounds outwards.
+     */
+    private static Rectangle toScaled(Rectangle r, float scale) {
+        if (r == null) return null;
+        int x0 = (int)Math.floor(r.x*scale);
+        int y0 = (int)Math.floor(r.y*scale);
+        int x1 = (int)Math.ceil((r.x + r.width)*scale);
+        int y1 = (int)Math.ceil((r.y + r.height)*scale);
+        return new Rectangle(x0, y0, x1 - x0, y1 - y0);
     }
 
     /**
@@ -254,37 +281,85 @@ public class OriginalMap {
 
     /**
      * Stain the mask. [0,fpw) = 1, [fpw, fps) = linear, [fps, inf) = 0.
+     * The brush kernel is only computed, when the pen widths change.
+     * Pixels outside the brush and tiles that are already as requested
+     * are not touched.
+     * @return bounds of modified pixels or null
      */
-    private void modifyMask(int xc, int yc, int w, int h, boolean show, float fps, float fpw, byte[] mdata, int mx, int my, int mw) {
-        if (currmask == null || currmask.length != w || currmask[0].length != h) {
-            currmask = new float[w][h];
-            for (int yi = 0; yi < h; yi++) {
-                for (int xi = 0; xi < w; xi++) {
+    private Rectangle modifyMask(int xc, int yc, boolean show, float fps, float fpw, FogMask mask) {
+        if (kernel == null || fps != kfps || fpw != kfpw) {
+            kradius = Math.max(0, (int)Math.ceil(fps));
+            int kw = 2*kradius + 1;
+            kernel = new float[kw*kw];
+            for (int yi = 0; yi < kw; yi++) {
+                for (int xi = 0; xi < kw; xi++) {
                     // Center is 1, boundary is 0
-                    float a =
-                        (fps - (float)Math.sqrt
-                         ((xi - w/2)*(xi - w/2) +
-                          (yi - h/2)*(yi - h/2)))/
-                        (float)(fps - fpw);
-                    if (a < 0) a = 0;  
+                    float d = (float)Math.sqrt
+                        ((xi - kradius)*(xi - kradius) +
+                         (yi - kradius)*(yi - kradius));
+                    float a = (fps > fpw ?
+                               (fps - d)/(fps - fpw) : (d < fps ? 1 : 0));
+                    if (a < 0) a = 0;
                     if (a > 1) a = 1;
-                    currmask[xi][yi] = a;
+                    kernel[yi*kw + xi] = a;
                 }
             }
+            kfps = fps;
+            kfpw = fpw;
         }
-        for (int yi = 0; yi < h; yi++) {
-            for (int xi = 0; xi < w; xi++) {
-                // Smooth masking
-                float a = currmask[xi][yi];
-                float b = getAlpha(mdata[mw*(my + yi) + (xi + mx)]);
-                byte c = 0;
-                if (!show)
-                    c = setAlpha(a + b - a*b);
-                else
-                    c = setAlpha(b - a*b);
-                mdata[mw*(my + yi) + (mx + xi)] = c;
+
+        int r = kradius;
+        int kw = 2*r + 1;
+        int mx = Math.max(xc - r, 0), mx1 = Math.min(xc + r + 1, getWidth());
+        int my = Math.max(yc - r, 0), my1 = Math.min(yc + r + 1, getHeight());
+        if (mx >= mx1 || my >= my1) return null;
+
+        // Tile by tile
+        int T = FogMask.TILE;
+        int bx0 = Integer.MAX_VALUE, by0 = Integer.MAX_VALUE;
+        int bx1 = -1, by1 = -1;
+        byte target = (byte)(show ? 0 : 0xff);
+        for (int ty = my/T; ty <= (my1 - 1)/T; ty++) {
+            for (int tx = mx/T; tx <= (mx1 - 1)/T; tx++) {
+                int t = mask.tile(tx*T, ty*T);
+                int lvl = mask.level(t);
+                if (lvl == (target & 0xff)) continue;
+                byte[] mdata = mask.peek(t);
+                boolean edited = false;
+                int x0 = Math.max(mx, tx*T), x1 = Math.min(mx1, tx*T + T);
+                int y0 = Math.max(my, ty*T), y1 = Math.min(my1, ty*T + T);
+                for (int y = y0; y < y1; y++) {
+                    int k = (y - yc + r)*kw - xc + r;
+                    int m = (y - ty*T)*T - tx*T;
+                    for (int x = x0; x < x1; x++) {
+                        // Smooth masking
+                        float a = kernel[k + x];
+                        if (a == 0) continue;
+                        byte old = (mdata != null ? mdata[m + x] : (byte)lvl);
+                        if (old == target) continue;
+                        float b = getAlpha(old);
+                        byte c = 0;
+                        if (!show)
+                            c = setAlpha(a + b - a*b);
+                        else
+                            c = setAlpha(b - a*b);
+                        if (c == old) continue;
+                        if (!edited) {
+                            mdata = mask.edit(t);
+                            edited = true;
+                        }
+                        mdata[m + x] = c;
+                        if (x < bx0) bx0 = x;
+                        if (x > bx1) bx1 = x;
+                        if (y < by0) by0 = y;
+                        if (y > by1) by1 = y;
+                    }
+                }
+                if (edited) mask.settle(t);
             }
         }
+        if (bx1 < 0) return null;
+        return new Rectangle(bx0, by0, bx1 - bx0 + 1, by1 - by0 + 1);
     }
 
     /**
@@ -298,45 +373,22 @@ public class OriginalMap {
     private byte setAlpha(float alpha) { return (byte)(255f*alpha); }
 
     /**
-     * Get the bounded coords. Convert center and unbounded width to rect
-     * coords in image frame. It is assumed that (x,y) lie within the
-     * rectangle.
-     * @param x x-center
-     * @param y y-center
-     * @param w full width
-     * @param h full height
-     * @param w0 radius about center
-     */
-    private int[] getBoundedCoords(int x, int y, int w, int h, float w0) {
-        int[] coords = new int[4];
-        coords[0] = (int)Math.max(x - w0, 0);
-        coords[1] = (int)Math.max(y - w0, 0);
-        coords[2] = (int)Math.min(x + w0, w) - coords[0];
-        coords[3] = (int)Math.min(y + w0, h) - coords[1];
-        return coords;
-    }
-
-    /**
-     * Save masks.
+     * Save masks. Saving to the same file again only appends the tiles
+     * changed since; the file is rewritten, when it holds too many
+     * outdated records.
      */
     public void saveMasks(File f) {
-        int w = getWidth();
-        int h = getHeight();
-        int size = main.getNumLayers();
-        BufferedImage mask = new BufferedImage
-            (size * w, h, BufferedImage.TYPE_BYTE_GRAY);
-
-        for (int k = 0; k < size; k++) {
-            if (currentMsk != null && currentMsk.length > k &&
-                currentMsk[k] != null) {
-                int[] mdata = new int[w*h];
-                currentMsk[k].getRGB(0, 0, w, h, mdata, 0, w);
-                mask.setRGB(k*w, 0, w, h, mdata, 0, w);
-            }
-        }
-
+        if (masks == null) return;
         try {
-            ImageIO.write(mask, "png", f);
+            int live = 0;
+            for (int k = 0; k < masks.length; k++)
+                if (masks[k] != null) live += masks[k].getRasterCount();
+            boolean append = f.equals(fogFile) && f.length() == fogLength &&
+                fogRecords < 2*live + 64;
+            int n = FogMask.save(masks, f, append);
+            fogRecords = (append ? fogRecords : 0) + n;
+            fogFile = f;
+            fogLength = f.length();
         }
         catch (IOException e) {
             // Debug
@@ -345,23 +397,45 @@ public class OriginalMap {
     }
     
     /**
-     * Load masks.
+     * Load masks. Old masks saved as PNG are read, too.
      */
     public void loadMasks(File f, float scale) {
-        int w = getWidth();
-        int h = getHeight();
-        int size = main.getNumLayers();
-
+        if (masks == null) return;
         try {
+            int n = FogMask.load(masks, f);
+            if (n >= 0) {
+                fogRecords = n;
+                fogFile = f;
+                fogLength = f.length();
+                return;
+            }
+            fogFile = null;
+
+            int w = getWidth();
+            int h = getHeight();
             BufferedImage mask = ImageIO.read(f);
-            for (int k = 0; k < size; k++) {
-                int[] mdata = new int[w*h];
+            if (mask == null) return;
+            Raster r = mask.getRaster();
+            boolean gray = (r.getNumBands() == 1);
+            for (int k = 0; k < masks.length; k++) {
                 if (mask.getWidth() < k*w+w) break;
-                mask.getRGB(k*w, 0, w, h, mdata, 0, w);
-                if (currentMsk != null && currentMsk.length > k &&
-                    currentMsk[k] != null) {
-                    currentMsk[k].setRGB(0, 0, w, h, mdata, 0, w);
+                if (masks[k] == null) continue;
+                int[] mdata = new int[w];
+                for (int y = 0; y < h && y < mask.getHeight(); y++) {
+                    if (gray)
+                        r.getSamples(k*w, y, w, 1, 0, mdata);
+                    else
+                        mask.getRGB(k*w, y, w, 1, mdata, 0, w);
+                    for (int x = 0; x < w; x++) {
+                        int t = masks[k].tile(x, y);
+                        if (masks[k].level(t) == (mdata[x] & 0xff)) continue;
+                        masks[k].edit(t)
+                            [(y % FogMask.TILE)*FogMask.TILE + x % FogMask.TILE] =
+                            (byte)mdata[x];
+                    }
                 }
+                for (int t = masks[k].tile(w - 1, h - 1); t >= 0; t--)
+                    masks[k].settle(t);
             }
         }
         catch (IOException e) {
@@ -370,32 +444,13 @@ public class OriginalMap {
         }
     }
 
-    /** Setup masks. I don't know, why I can't go below two bytes */
+    /** Setup masks */
     public int setMasks() {
         int post = 0;
-        // Prepare image
-        for (int i = 0; i < currentMsk.length; i++) {
-            if (currentMsk[i] == null) {
-                cmskdata[i] = new byte[2][getWidth()*getHeight()];
-                
-                DataBuffer db = new DataBufferByte(cmskdata[i], cmskdata[i].length);
-                int[] bmasks = {0, 1};
-                int[] boff = {0, 0};
-                WritableRaster wr = Raster.createBandedRaster
-                    (db, getWidth(), getHeight(), getWidth(), bmasks, boff, null);
-                
-                currentMsk[i] = new BufferedImage
-                    (new ComponentColorModel
-                     (ColorSpace.getInstance(ColorSpace.CS_GRAY),
-                      true, true, ColorModel.OPAQUE, DataBuffer.TYPE_BYTE),
-                     wr, false, null);
-
-                Graphics mgc = currentMsk[i].getGraphics();
-                ((Graphics2D)mgc).setRenderingHint
-                    (RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
-                mgc.setColor(new Color(0xffffff));
-                mgc.fillRect(0, 0, getWidth(), getHeight());
-            }
+        // Prepare masks
+        for (int i = 0; i < masks.length; i++) {
+            if (masks[i] == null)
+                masks[i] = new FogMask(getWidth(), getHeight(), false);
 
             if (!main.showLayer(i)) continue;
             post += (1<<i);
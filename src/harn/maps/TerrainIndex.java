@@ -0,0 +1,226 @@
+/**
+ * UGMT : Universal Gamemaster tool
+ * Copyright (c) 2004 Michael Jung
+ * miju@phantasia.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package harn.maps;
+
+import java.awt.*;
+import java.awt.image.*;
+import java.util.*;
+
+/**
+ * Precomputed terrain/vegetation classification of a map raster. Every pixel
+ * is mapped once to a combination index (one byte per pixel and
+ * feature). Unclassified pixels (labels, borders, antialiasing) are filled
+ * with the nearest classified pixel within the search radius, so that a
+ * lookup is a single array read.
+ * @author Michael Jung
+ */
+class TerrainIndex {
+    /** Search radius for unclassified pixels */
+    final static int RADIUS = 10;
+
+    /** Rows grabbed at once when building */
+    final static private int STRIP = 64;
+
+    /** Width and height of raster */
+    private int w, h;
+
+    /** Terrain/vegetation combinations; index 0 is unclassified */
+    private String[][] combos;
+
+    /** Combination index with a terrain, per pixel */
+    private byte[] ter;
+
+    /** Combination index with a vegetation, per pixel */
+    private byte[] veg;
+
+    /** Defaults */
+    private String[] def;
+
+    /**
+     * Constructor. Builds the index.
+     * @param img raster image to classify
+     * @param colors color (decimal rgb string) -> terrain/vegetation table
+     * @param defaults default terrain/vegetation
+     */
+    TerrainIndex(Image img, Hashtable colors, String[] defaults) {
+        def = defaults;
+        w = img.getWidth(null);
+        h = img.getHeight(null);
+
+        // Color lookup; at most 255 combinations fit in a byte
+        HashMap lookup = new HashMap();
+        ArrayList list = new ArrayList();
+        list.add(new String[2]);
+        if (colors != null) {
+            Iterator iter = colors.keySet().iterator();
+            while (iter.hasNext() && list.size() < 256) {
+                String key = (String) iter.next();
+                lookup.put
+                    (Integer.valueOf(key), Integer.valueOf(list.size()));
+                list.add(colors.get(key));
+            }
+        }
+        combos = (String[][]) list.toArray(new String[list.size()][]);
+
+        ter = new byte[w * h];
+        veg = new byte[w * h];
+
+        // Classify strip by strip
+        int[] data = new int[w * STRIP];
+        int lastRgb = -1;
+        byte lastIdx = 0;
+        for (int y0 = 0; y0 < h; y0 += STRIP) {
+            int rows = Math.min(STRIP, h - y0);
+            grab(img, y0, rows, data);
+            for (int i = 0; i < w * rows; i++) {
+                int rgb = 0xffffff & data[i];
+                if (rgb != lastRgb) {
+                    Integer idx = (Integer) lookup.get(Integer.valueOf(rgb));
+                    lastIdx = (byte)(idx != null ? idx.intValue() : 0);
+                    lastRgb = rgb;
+                }
+                int ci = lastIdx & 0xff;
+                int p = y0 * w + i;
+                if (combos[ci][0] != null) ter[p] = lastIdx;
+                if (combos[ci][1] != null) veg[p] = lastIdx;
+            }
+        }
+
+        fill(ter);
+        fill(veg);
+    }
+
+    /**
+     * Grab a strip of pixels from the image.
+     */
+    private void grab(Image img, int y0, int rows, int[] data) {
+        if (img instanceof BufferedImage && !(img instanceof SVGImage)) {
+            ((BufferedImage)img).getRGB(0, y0, w, rows, data, 0, w);
+            return;
+        }
+        try {
+            PixelGrabber pg = new PixelGrabber(img, 0, y0, w, rows, data, 0, w);
+            pg.grabPixels();
+        }
+        catch (InterruptedException e) {
+            // Debug
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Fill unclassified pixels with their nearest classified neighbour by
+     * repeated dilation. Each pass extends classification by one pixel
+     * (chessboard distance), as the original square search did.
+     * @param grid grid to fill
+     */
+    private void fill(byte[] grid) {
+        byte[] prev = new byte[grid.length];
+        for (int pass = 1; pass < RADIUS; pass++) {
+            System.arraycopy(grid, 0, prev, 0, grid.length);
+            boolean changed = false;
+            boolean open = false;
+            for (int y = 0; y < h; y++) {
+                for (int x = 0; x < w; x++) {
+                    int p = y * w + x;
+                    if (prev[p] != 0) continue;
+                    byte b = 0;
+                    if (y > 0) b = prev[p - w];
+                    if (b == 0 && x > 0) b = prev[p - 1];
+                    if (b == 0 && y < h - 1) b = prev[p + w];
+                    if (b == 0 && x < w - 1) b = prev[p + 1];
+                    if (b == 0 && y > 0 && x > 0) b = prev[p - w - 1];
+                    if (b == 0 && y > 0 && x < w - 1) b = prev[p - w + 1];
+                    if (b == 0 && y < h - 1 && x > 0) b = prev[p + w - 1];
+                    if (b == 0 && y < h - 1 && x < w - 1) b = prev[p + w + 1];
+                    if (b != 0) { grid[p] = b; changed = true; }
+                    else open = true;
+                }
+            }
+            if (!changed || !open) break;
+        }
+    }
+
+    /** Get index */
+    private int at(byte[] grid, int x, int y) {
+        if (x < 0 || y < 0 || x >= w || y >= h) return 0;
+        return grid[y * w + x] & 0xff;
+    }
+
+    /**
+     * Terrain at given pixel.
+     * @return terrain
+     */
+    String getTerrain(int x, int y) {
+        int i = at(ter, x, y);
+        return (i != 0 ? combos[i][0] : def[0]);
+    }
+
+    /**
+     * Vegetation at given pixel.
+     * @return vegetation
+     */
+    String getVegetation(int x, int y) {
+        int i = at(veg, x, y);
+        return (i != 0 ? combos[i][1] : def[1]);
+    }
+
+    /**
+     * Terrain/vegetation combination of the closest land pixel. Searches the
+     * same square rings as the original lookup, but on the index.
+     * @return combination index, 0 if nothing found
+     */
+    private int land(int x, int y) {
+        for (int j = 0; j < RADIUS; j++) {
+            for (int k = -j; k <= j; k++) {
+                int i;
+                if ((i = landAt(x + k, y - j)) != 0) return i;
+                if ((i = landAt(x - j, y + k)) != 0) return i;
+                if ((i = landAt(x + k, y + j)) != 0) return i;
+                if ((i = landAt(x + j, y + k)) != 0) return i;
+            }
+        }
+        return 0;
+    }
+
+    /** Land combination index at pixel or 0 */
+    private int landAt(int x, int y) {
+        int i = at(ter, x, y);
+        return (i != 0 && !"water".equalsIgnoreCase(combos[i][0]) ? i : 0);
+    }
+
+    /**
+     * Terrain of the closest land pixel.
+     * @return terrain
+     */
+    String getLandTerrain(int x, int y) {
+        int i = land(x, y);
+        return (i != 0 ? combos[i][0] : def[0]);
+    }
+
+    /**
+     * Vegetation of the closest land pixel.
+     * @return vegetation
+     */
+    String getLandVegetation(int x, int y) {
+        int i = land(x, y);
+        return (i != 0 && combos[i][1] != null ? combos[i][1] : def[1]);
+    }
+}
@@ -0,0 +1,329 @@
+/**
+ * UGMT : Universal Gamemaster tool
+ * Copyright (c) 2004 Michael Jung
+ * miju@phantasia.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package harn.maps;
+
+import java.awt.*;
+import java.awt.geom.*;
+import java.awt.image.*;
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Tile pyramid of a (bitmap) map. The composed layers are cut into square
+ * tiles at power-of-two zoom levels; level 0 is the original size, level k
+ * is scaled down by 2^k. Tiles are cached on disk in a "tiles" directory
+ * next to the atlas and a small number of them in memory. Only the tiles
+ * visible in the clip are painted, the full sized composite is never
+ * created.
+ * <p>
+ * Pyramids are built in the background, one at a time per atlas. The
+ * layer images are only decoded for building. Each tile is written to a
+ * temporary file and renamed, so that a cancelled build leaves complete
+ * tiles only; these are reused by the next build.
+ * @author Michael Jung
+ */
+class TilePyramid {
+    /** Tile size in pixels */
+    final static int TILE = 256;
+
+    /** Tiles kept in memory */
+    final static private int CACHED = 256;
+
+    /** Builders per atlas (atlas -> executor) */
+    private static HashMap builders = new HashMap();
+
+    /** Directory of the tiles */
+    private File dir;
+
+    /** Original width and height */
+    private int w, h;
+
+    /** Highest level; at this level the map fits into one tile */
+    private int maxLevel;
+
+    /** Ready for drawing */
+    private volatile boolean ready;
+
+    /** Build no longer wanted */
+    private volatile boolean cancelled;
+
+    /** Memory cache (level/x/y -> tile), least recently used first */
+    private LinkedHashMap tiles;
+
+    /**
+     * Constructor. Queues building the pyramid in the background, if the
+     * disk cache is not up to date.
+     * @param files layer file names to compose (null if not shown)
+     * @param aDir tile directory
+     * @param atlas atlas of the map; its pyramids are built one by one
+     */
+    TilePyramid(final String[] files, File aDir, String atlas) {
+        dir = aDir;
+        // Size of the first layer shown
+        for (int i = 0; i < files.length; i++) {
+            if (files[i] == null) continue;
+            Dimension d = size(files[i]);
+            if (d != null) {
+                w = d.width;
+                h = d.height;
+            }
+            break;
+        }
+        maxLevel = 0;
+        while ((Math.max(w, h) >> maxLevel) > TILE) maxLevel++;
+        tiles = new LinkedHashMap(CACHED, .75f, true) {
+                protected boolean removeEldestEntry(Map.Entry e) {
+                    return size() > CACHED;
+                }
+            };
+
+        // Check disk cache
+        final File stamp = new File(dir, "complete");
+        long mod = 0;
+        for (int i = 0; i < files.length; i++) {
+            if (files[i] == null) continue;
+            mod = Math.max(mod, new File(files[i]).lastModified());
+        }
+        if (stamp.exists() && stamp.lastModified() >= mod) {
+            ready = true;
+            return;
+        }
+
+        final long fmod = mod;
+        builder(atlas).execute(new Runnable() {
+                public void run() {
+                    if (cancelled) return;
+                    try {
+                        if (!build(files, fmod)) return;
+                        File tmp = new File(dir, "complete.tmp");
+                        new FileOutputStream(tmp).close();
+                        Files.move(tmp.toPath(), stamp.toPath(),
+                                   StandardCopyOption.REPLACE_EXISTING);
+                        ready = true;
+                    }
+                    catch (IOException e) {
+                        // Debug
+                        e.printStackTrace();
+                    }
+                }
+            });
+    }
+
+    /** Builder of an atlas; created on first use */
+    private static synchronized Executor builder(String atlas) {
+        ExecutorService ex = (ExecutorService) builders.get(atlas);
+        if (ex == null) {
+            ex = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "tiles");
+                        t.setDaemon(true);
+                        t.setPriority(Thread.MIN_PRIORITY);
+                        return t;
+                    }
+                });
+            builders.put(atlas, ex);
+        }
+        return ex;
+    }
+
+    /**
+     * Size of an image file, read from its header only.
+     * @param file image file name
+     * @return size or null, if unknown
+     */
+    static Dimension size(String file) {
+        try {
+            ImageInputStream in =
+                ImageIO.createImageInputStream(new File(file));
+            if (in == null) return null;
+            try {
+                Iterator iter = ImageIO.getImageReaders(in);
+                if (!iter.hasNext()) return null;
+                ImageReader rd = (ImageReader) iter.next();
+                try {
+                    rd.setInput(in);
+                    return new Dimension(rd.getWidth(0), rd.getHeight(0));
+                }
+                finally {
+                    rd.dispose();
+                }
+            }
+            finally {
+                in.close();
+            }
+        }
+        catch (IOException e) {
+            // Debug
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * Stop building. Tiles already written are kept for the next build.
+     */
+    void cancel() { cancelled = true; }
+
+    /** Whether the pyramid can be drawn */
+    boolean isReady() { return ready; }
+
+    /** Number of tiles in x direction on given level */
+    private int cols(int level) {
+        return (((w + (1<<level) - 1) >> level) + TILE - 1) / TILE;
+    }
+
+    /** Number of tiles in y direction on given level */
+    private int rows(int level) {
+        return (((h + (1<<level) - 1) >> level) + TILE - 1) / TILE;
+    }
+
+    /** File of a tile */
+    private File file(int level, int tx, int ty) {
+        return new File
+            (new File(dir, Integer.toString(level)), tx + "_" + ty + ".png");
+    }
+
+    /**
+     * Build all tiles. Level 0 is composed from the layers, every higher
+     * level from its four children of the level below. Tiles newer than
+     * the layers are kept; the layers are only decoded if a tile of level
+     * 0 is missing.
+     * @param files layer file names
+     * @param mod last modification of layers
+     * @return false, if cancelled
+     */
+    private boolean build(String[] files, long mod) throws IOException {
+        Image[] img = null;
+        for (int level = 0; level <= maxLevel; level++) {
+            new File(dir, Integer.toString(level)).mkdirs();
+            for (int ty = 0; ty < rows(level); ty++) {
+                for (int tx = 0; tx < cols(level); tx++) {
+                    if (cancelled) return false;
+                    File f = file(level, tx, ty);
+                    if (f.exists() && f.lastModified() >= mod) continue;
+                    if (level == 0 && img == null) {
+                        img = new Image[files.length];
+                        for (int i = 0; i < files.length; i++)
+                            if (files[i] != null)
+                                img[i] = ImageIO.read(new File(files[i]));
+                    }
+                    BufferedImage tile = new BufferedImage
+                        (TILE, TILE, BufferedImage.TYPE_INT_ARGB);
+                    Graphics2D gc = tile.createGraphics();
+                    gc.setRenderingHint
+                        (RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                    if (level == 0) {
+                        int x0 = tx * TILE;
+                        int y0 = ty * TILE;
+                        int x1 = Math.min(x0 + TILE, w);
+                        int y1 = Math.min(y0 + TILE, h);
+                        for (int i = 0; i < img.length; i++) {
+                            if (img[i] == null) continue;
+                            gc.drawImage
+                                (img[i], 0, 0, x1 - x0, y1 - y0,
+                                 x0, y0, x1, y1, null);
+                        }
+                    }
+                    else {
+                        gc.setRenderingHint
+                            (RenderingHints.KEY_INTERPOLATION,
+                             RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                        for (int j = 0; j < 4; j++) {
+                            int cx = 2*tx + (j & 1);
+                            int cy = 2*ty + (j >> 1);
+                            if (cx >= cols(level-1) || cy >= rows(level-1))
+                                continue;
+                            BufferedImage child = ImageIO.read
+                                (file(level-1, cx, cy));
+                            gc.drawImage
+                                (child, (j & 1) * TILE/2, (j >> 1) * TILE/2,
+                                 TILE/2, TILE/2, null);
+                        }
+                    }
+                    gc.dispose();
+                    File tmp = new File(f.getPath() + ".tmp");
+                    ImageIO.write(tile, "png", tmp);
+                    Files.move(tmp.toPath(), f.toPath(),
+                               StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get a tile. May return null.
+     */
+    private BufferedImage getTile(int level, int tx, int ty) {
+        String key = level + "/" + tx + "/" + ty;
+        BufferedImage tile = (BufferedImage) tiles.get(key);
+        if (tile != null) return tile;
+        try {
+            tile = ImageIO.read(file(level, tx, ty));
+            if (tile != null) tiles.put(key, tile);
+        }
+        catch (IOException e) {
+            // Debug
+            e.printStackTrace();
+        }
+        return tile;
+    }
+
+    /**
+     * Draw the visible tiles at the given scale. The level is chosen such
+     * that tiles are never enlarged by more than a factor two.
+     * @param g graphics object
+     * @param scale display scale
+     */
+    void draw(Graphics2D g, float scale) {
+        int level = 0;
+        while (level < maxLevel && scale * (1 << (level + 1)) <= 1) level++;
+        float ts = scale * (1 << level) * TILE;
+
+        Rectangle clip = g.getClipBounds();
+        if (clip == null)
+            clip = new Rectangle(0, 0, (int)(w * scale), (int)(h * scale));
+
+        int tx0 = Math.max(0, (int)(clip.x / ts));
+        int ty0 = Math.max(0, (int)(clip.y / ts));
+        int tx1 = Math.min(cols(level) - 1, (int)((clip.x + clip.width) / ts));
+        int ty1 = Math.min(rows(level) - 1, (int)((clip.y + clip.height) / ts));
+
+        g.setRenderingHint
+            (RenderingHints.KEY_INTERPOLATION,
+             RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        for (int ty = ty0; ty <= ty1; ty++) {
+            for (int tx = tx0; tx <= tx1; tx++) {
+                BufferedImage tile = getTile(level, tx, ty);
+                if (tile == null) continue;
+                int x0 = Math.round(tx * ts);
+                int y0 = Math.round(ty * ts);
+                int x1 = Math.round((tx + 1) * ts);
+                int y1 = Math.round((ty + 1) * ts);
+                g.drawImage(tile, x0, y0, x1 - x0, y1 - y0, null);
+            }
+        }
+    }
+}
@@ -37,7 +37,7 @@ public abstract class ScaledMap implements IExport {
      * This is the first version of this interface.
      * @return version (1.0)
      */
-    public double version() { return 1.2; }
+    public double version() { return 1.3; }
 
     /**
      * Implement as specified in superclass.
@@ -55,6 +55,14 @@ public abstract class ScaledMap implements IExport {
      */
     public abstract BufferedImage getBufferedImage(boolean force, boolean raw);
 
+    /**
+     * Count of changes of the image to be displayed (not raw), e.g. by
+     * fog or layers shown. A map may be announced without any change;
+     * listeners may compare this count to skip such announcements.
+     * @return change count
+     */
+    public abstract long getImageChanges();
+
     /**
      * Return the scale of the map. The scale is pixels / 4 kilometres.
      * @return scale
@@ -35,10 +35,11 @@ public abstract class TimeEvent implements IExport {
     public final String getType() { return TYPE; }
 
     /**
-     * This is the first version of this interface.
-     * @return version (1.0)
+     * This is the second version of this interface; it adds the times for
+     * indexing.
+     * @return version (1.1)
      */
-    public double version() { return 1.0; }
+    public double version() { return 1.1; }
 
     /**
      * Implement as specified in superclass. This is also the full description
@@ -73,6 +74,26 @@ public abstract class TimeEvent implements IExport {
      */
     public abstract float[] isActive(long from, long to);
 
+    /**
+     * Start of the event (its first occurrence, if recurring). Used to index
+     * events (see TimeIndex). Events without known times return
+     * Long.MIN_VALUE and are always tested with isActive.
+     * @return start or Long.MIN_VALUE
+     */
+    public long getStart() { return Long.MIN_VALUE; }
+
+    /**
+     * Duration of (each occurrence of) the event.
+     * @return duration
+     */
+    public long getDuration() { return 0; }
+
+    /**
+     * Period of a recurring event.
+     * @return period or 0, if the event occurs once
+     */
+    public long getRecurrence() { return 0; }
+
     /**
      * This method is called, when the user asks for details of a specific
      * event. Such details may be displayed by the calling plugin.
@@ -0,0 +1,346 @@
+/**
+ * UGMT : Universal Gamemaster tool
+ * Copyright (c) 2004 Michael Jung
+ * miju@phantasia.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package harn.repository;
+
+import java.util.*;
+
+/**
+ * Index of time events for plugins that listen to many of them. Events
+ * are indexed by the times they give (see TimeEvent.getStart). One-time
+ * events are kept sorted by start with the maximal end of ranges, so that
+ * events overlapping an interval are found without looking at the
+ * others. Recurring events are grouped by period and kept sorted by phase
+ * within the period. Events without times are always returned as
+ * overlapping. Events must be added again, when their times change. The
+ * index is rebuilt on the first query after a change.
+ * @author Michael Jung
+ */
+public class TimeIndex {
+    /** Events (event -> entry) */
+    private HashMap entries = new HashMap();
+
+    /** Changed since built */
+    private boolean dirty;
+
+    /** One-time events */
+    private Group once;
+
+    /** Recurring events by period */
+    private Group[] periodic;
+
+    /** Events without times */
+    private ArrayList unknown;
+
+    /**
+     * Add an event or update its times.
+     * @param ev event
+     */
+    public synchronized void add(TimeEvent ev) {
+        Entry e = new Entry(ev);
+        Entry old = (Entry) entries.put(ev, e);
+        if (old == null || old.start != e.start || old.dur != e.dur ||
+            old.per != e.per)
+            dirty = true;
+    }
+
+    /**
+     * Remove an event.
+     * @param ev event
+     */
+    public synchronized void remove(TimeEvent ev) {
+        if (entries.remove(ev) != null) dirty = true;
+    }
+
+    /**
+     * Whether an event is indexed.
+     * @param ev event
+     * @return true if indexed
+     */
+    public synchronized boolean contains(TimeEvent ev) {
+        return entries.containsKey(ev);
+    }
+
+    /**
+     * Number of events.
+     * @return size
+     */
+    public synchronized int size() { return entries.size(); }
+
+    /**
+     * Get all events.
+     * @return list of events
+     */
+    public synchronized ArrayList all() {
+        return new ArrayList(entries.keySet());
+    }
+
+    /**
+     * Get the events with an occurrence overlapping [from, to]. Callers
+     * still use TimeEvent.isActive(from, to) for the exact part.
+     * @param from start of interval
+     * @param to end of interval
+     * @return list of events
+     */
+    public synchronized ArrayList overlapping(long from, long to) {
+        build();
+        ArrayList ret = new ArrayList(unknown);
+        once.overlapping(from, to, ret);
+        for (int i = 0; i < periodic.length; i++)
+            periodic[i].overlapping(from, to, ret);
+        return ret;
+    }
+
+    /**
+     * Get the first time after t, at which an event starts or ends.
+     * @param t time
+     * @param end whether to look for ends
+     * @return time or Long.MAX_VALUE, if none
+     */
+    public synchronized long next(long t, boolean end) {
+        build();
+        long ret = once.next(t, end);
+        for (int i = 0; i < periodic.length; i++)
+            ret = Math.min(ret, periodic[i].next(t, end));
+        return ret;
+    }
+
+    /** Rebuild, if changed */
+    private void build() {
+        if (!dirty && once != null) return;
+        unknown = new ArrayList();
+        ArrayList one = new ArrayList();
+        TreeMap per = new TreeMap();
+        Iterator iter = entries.values().iterator();
+        while (iter.hasNext()) {
+            Entry e = (Entry) iter.next();
+            if (e.start == Long.MIN_VALUE)
+                unknown.add(e.ev);
+            else if (e.per <= 0)
+                one.add(e);
+            else {
+                Long key = new Long(e.per);
+                ArrayList l = (ArrayList) per.get(key);
+                if (l == null) per.put(key, l = new ArrayList());
+                l.add(e);
+            }
+        }
+        once = new Group(0, one);
+        periodic = new Group[per.size()];
+        iter = per.entrySet().iterator();
+        for (int i = 0; iter.hasNext(); i++) {
+            Map.Entry me = (Map.Entry) iter.next();
+            periodic[i] = new Group
+                (((Long)me.getKey()).longValue(), (ArrayList) me.getValue());
+        }
+        dirty = false;
+    }
+
+    /** Times of an event as indexed */
+    static class Entry {
+        TimeEvent ev;
+        long start, dur, per;
+        Entry(TimeEvent anEv) {
+            ev = anEv;
+            start = ev.getStart();
+            dur = Math.max(0, ev.getDuration());
+            per = ev.getRecurrence();
+        }
+    }
+
+    /**
+     * Events of one period (0 for one-time events). Entries are sorted by
+     * key, which is the start or, if recurring, the phase of the start.
+     */
+    static class Group {
+        /** Period */
+        long per;
+        /** Entries sorted by key */
+        Entry[] e;
+        long[] key;
+        /** Maximal end of ranges (segment tree over e), one-time only */
+        long[] maxEnd;
+        int leaves;
+        /** Maximal duration */
+        long maxDur;
+        /** Starts and ends as points */
+        Points starts, ends;
+
+        Group(long aPer, ArrayList list) {
+            per = aPer;
+            e = (Entry[]) list.toArray(new Entry[list.size()]);
+            Arrays.sort(e, new Comparator() {
+                    public int compare(Object o1, Object o2) {
+                        long k1 = key((Entry) o1), k2 = key((Entry) o2);
+                        return (k1 < k2 ? -1 : (k1 > k2 ? 1 : 0));
+                    }
+                });
+            key = new long[e.length];
+            long[] s = new long[e.length];
+            long[] t = new long[e.length];
+            for (int i = 0; i < e.length; i++) {
+                key[i] = key(e[i]);
+                maxDur = Math.max(maxDur, e[i].dur);
+                s[i] = e[i].start;
+                t[i] = e[i].start + e[i].dur;
+            }
+            starts = new Points(per, s);
+            ends = new Points(per, t);
+            if (per == 0) {
+                leaves = 1;
+                while (leaves < e.length) leaves *= 2;
+                maxEnd = new long[2*leaves];
+                Arrays.fill(maxEnd, Long.MIN_VALUE);
+                for (int i = 0; i < e.length; i++)
+                    maxEnd[leaves + i] = e[i].start + e[i].dur;
+                for (int i = leaves - 1; i > 0; i--)
+                    maxEnd[i] = Math.max(maxEnd[2*i], maxEnd[2*i + 1]);
+            }
+        }
+
+        long key(Entry en) {
+            return (per == 0 ? en.start : Math.floorMod(en.start, per));
+        }
+
+        /** Add events overlapping [from, to] */
+        void overlapping(long from, long to, ArrayList ret) {
+            if (e.length == 0) return;
+            if (per == 0) {
+                int hi = upper(key, to);
+                collect(1, 0, leaves, hi, from, ret);
+                return;
+            }
+            if (to - from + maxDur >= per) {
+                for (int i = 0; i < e.length; i++)
+                    check(e[i], from, to, ret);
+                return;
+            }
+            // Phases from (from - maxDur) to to, possibly wrapping
+            long a = Math.floorMod(from - maxDur, per);
+            long b = Math.floorMod(to, per);
+            int i = lower(key, a);
+            if (a <= b) {
+                for (; i < e.length && key[i] <= b; i++)
+                    check(e[i], from, to, ret);
+            }
+            else {
+                for (; i < e.length; i++)
+                    check(e[i], from, to, ret);
+                for (i = 0; i < e.length && key[i] <= b; i++)
+                    check(e[i], from, to, ret);
+            }
+        }
+
+        /** Collect one-time events before hi ending at or after from */
+        void collect(int node, int lo, int width, int hi, long from, ArrayList ret) {
+            if (lo >= hi || maxEnd[node] < from) return;
+            if (node >= leaves) {
+                ret.add(e[node - leaves].ev);
+                return;
+            }
+            collect(2*node, lo, width/2, hi, from, ret);
+            collect(2*node + 1, lo + width/2, width/2, hi, from, ret);
+        }
+
+        /** Add a recurring event, if its last start up to to ends after from */
+        void check(Entry en, long from, long to, ArrayList ret) {
+            if (en.start > to) return;
+            long last = en.start + Math.floorDiv(to - en.start, per)*per;
+            if (last + en.dur >= from) ret.add(en.ev);
+        }
+
+        /** First start or end after t */
+        long next(long t, boolean end) {
+            return (end ? ends : starts).next(t);
+        }
+    }
+
+    /**
+     * Times, possibly recurring, sorted for "next time after".
+     */
+    static class Points {
+        /** Period (0 if not recurring) */
+        long per;
+        /** Times sorted */
+        long[] at;
+        /** Times sorted by phase (recurring only) and phases */
+        long[] byPhase, phase;
+
+        Points(long aPer, long[] times) {
+            per = aPer;
+            at = (long[]) times.clone();
+            Arrays.sort(at);
+            if (per == 0) return;
+            Long[] tmp = new Long[times.length];
+            for (int i = 0; i < tmp.length; i++) tmp[i] = new Long(times[i]);
+            Arrays.sort(tmp, new Comparator() {
+                    public int compare(Object o1, Object o2) {
+                        long p1 = Math.floorMod(((Long)o1).longValue(), per);
+                        long p2 = Math.floorMod(((Long)o2).longValue(), per);
+                        return (p1 < p2 ? -1 : (p1 > p2 ? 1 : 0));
+                    }
+                });
+            byPhase = new long[tmp.length];
+            phase = new long[tmp.length];
+            for (int i = 0; i < tmp.length; i++) {
+                byPhase[i] = tmp[i].longValue();
+                phase[i] = Math.floorMod(byPhase[i], per);
+            }
+        }
+
+        /** First time after t or Long.MAX_VALUE */
+        long next(long t) {
+            // Not yet begun
+            int i = upper(at, t);
+            long ret = (i < at.length ? at[i] : Long.MAX_VALUE);
+            if (per == 0 || i == 0) return ret;
+
+            // Recurring ones begun: first phase after t's
+            int n = phase.length;
+            int j = lower(phase, Math.floorMod(t + 1, per));
+            for (int k = 0; k < n; k++) {
+                int m = (j + k) % n;
+                if (byPhase[m] > t) continue;
+                long delta = Math.floorMod(byPhase[m] - t - 1, per) + 1;
+                return Math.min(ret, t + delta);
+            }
+            return ret;
+        }
+    }
+
+    /** Index of first value greater than v */
+    private static int upper(long[] a, long v) {
+        int lo = 0, hi = a.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (a[mid] <= v) lo = mid + 1; else hi = mid;
+        }
+        return lo;
+    }
+
+    /** Index of first value not less than v */
+    private static int lower(long[] a, long v) {
+        int lo = 0, hi = a.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (a[mid] < v) lo = mid + 1; else hi = mid;
+        }
+        return lo;
+    }
+}
@@ -37,6 +37,12 @@ public class AutoTravel implements ActionListener {
     /** Remaining route */
     private ArrayList remainRoute;
 
+    /** Running simulation */
+    private BatchTravel batch;
+
+    /** Whether the last travel was simulated */
+    private boolean simulated;
+
     /** Constructor */
     public AutoTravel(Main aMain) {
         main = aMain;
@@ -44,11 +50,96 @@ public class AutoTravel implements ActionListener {
 
     /** IF method */
     public void actionPerformed(ActionEvent e) {
+        if (batch != null) return;
+        ArrayList xy = getRoute();
+        if (xy == null) return;
+        simulated = false;
+
+        // Travel on route
+        main.getMap().autotravel = true;
+        travel(xy);
+        main.getMap().autotravel = false;
+        main.getMap().repaint();
+    }
+
+    /**
+     * Travel off-road to a point of the active map. The route is planned
+     * on the terrain and the current weather condition at the start.
+     * @param x destination x coordinate
+     * @param y destination y coordinate
+     */
+    public void travelOffRoad(int x, int y) {
+        if (batch != null) return;
+        State st = main.getState();
+        MapHolder mh = main.getMap();
+        ScaledMap map = mh.getMap(st.getMap());
+        if (map == null || st.getModes() == null) return;
+
+        int[][] pts = main.getOffRoad().route
+            (map, mh.getMyWidth(), mh.getMyHeight(), st.getModes(),
+             main.bFree.getText(),
+             main.getWeather().getCondition(st.getX(), st.getY()),
+             st.getActive().getSpeed(), st.getX(), st.getY(), x, y);
+        if (pts == null) return;
+
+        // Backward route
+        ArrayList xy = new ArrayList();
+        for (int i = pts[0].length - 1; i >= 0; i--)
+            xy.add(new Location(st.getMap() + "//", pts[0][i], pts[1][i]));
+        simulated = false;
+
+        // Travel on route
+        mh.autotravel = true;
+        travel(xy);
+        mh.autotravel = false;
+        mh.repaint();
+    }
+
+    /**
+     * Simulate the travel to the selected destination on a background
+     * thread. The group is moved once at the end (and once per day, if
+     * encounters stall travel) and a summary per day is shown.
+     */
+    public void simulate() {
+        if (batch != null) return;
+        ArrayList xy = getRoute();
+        if (xy == null) return;
+        simulated = true;
+        startBatch(xy);
+    }
+
+    /** Start a simulation */
+    private void startBatch(ArrayList route) {
+        main.contTravel.setEnabled(false);
+        main.getMap().autotravel = true;
+        batch = new BatchTravel(main, this, route);
+        Thread t = new Thread(batch, "travel");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * Called on the event dispatch thread, when a simulation is done.
+     * @param remain remaining (backward) route
+     */
+    void batchDone(ArrayList remain) {
+        batch = null;
+        main.getMap().autotravel = false;
+        setRemaining(remain, remain.size());
+        main.redo(true);
+        main.getMap().repaint();
+    }
+
+    /**
+     * Get the (backward) route to the selected destination.
+     * @return route or null
+     */
+    private ArrayList getRoute() {
         String map = main.getState().getActive().getMap();
 
         // Get the end destination
         TreePath path = main.tree.getPathForLocation(main.gx, main.gy);
-        if (map == null || path == null) return;
+        if (map == null || path == null) return null;
         String dest = path.getLastPathComponent().toString();
         if (path.getPathCount() == 3)
             dest = path.getPathComponent(1) + "/" + dest;
@@ -58,98 +149,20 @@ public class AutoTravel implements ActionListener {
         int cy = main.getState().getY();
         String cm = main.getState().getMap();
 
-        // Get all vertices (locations)
-        Hashtable str2loc = new Hashtable();
-        ArrayList allRoutes = (ArrayList) main.myData.getRoutes(map);
-        for (int i = 0; i < allRoutes.size(); i++) {
-            Data.Route rout = (Data.Route) allRoutes.get(i);
-            Location loc1 = new Location(rout.loc1(), rout.x(0), rout.y(0));
-            Location loc2 = new Location(rout.loc2(), rout.x(-1), rout.y(-1));
-            str2loc.put(rout.loc1(), loc1);
-            str2loc.put(rout.loc2(), loc2);
-        }
-
-        // Get all vertex indices and keep destination and source
-        Integer destI = null;
-        Integer srcI = null;
-        double dist = Double.MAX_VALUE;
-        Location src = null;
-        Hashtable ht = new Hashtable();
-        Object[] idx = str2loc.keySet().toArray();
-        for (int i = 0; i < idx.length; i++) {
-            Integer idxI = new Integer(i);
-            ht.put(idx[i], idxI);
-            // Destination (equivalent on any map)
-            String fullname = (String)idx[i];
-            if (fullname.substring(fullname.lastIndexOf("//")+2).equals(dest))
-                destI = idxI;
-
-            // Source
-            Location test = (Location)str2loc.get(idx[i]);
-            AffineTransform nm2cm =
-                main.map.getMap(test.getMap()).getTransform(cm);
-            Point2D omp = nm2cm.transform
-                (new Point2D.Double(test.x,test.y), null);
-            double testd = (cx - omp.getX())*(cx - omp.getX()) +
-                                (cy - omp.getY())*(cy - omp.getY());
-            if (testd < dist) {
-                dist = testd;
-                src = test;
-                srcI = idxI;
-            }
-        }
+        // Source and destination (equivalent on any map)
+        RouteNet net = main.myData.getRouteNet(map);
+        int s = net.nearest(cm, cx, cy);
+        int d = net.find(dest);
+        if (s == -1 || d == -1) return null;
 
-        // Dijkstra engine
-        Dijkstra algo = new Dijkstra();
-
-        // Add all "planar" routes
-        for (int i = 0; i < allRoutes.size(); i++) {
-            Data.Route rout = (Data.Route) allRoutes.get(i);
-            algo.addDirectRoute
-                (((Integer)ht.get(rout.loc1())).intValue(),
-                 ((Integer)ht.get(rout.loc2())).intValue(),
-                 rout);
-            algo.addDirectRoute
-                (((Integer)ht.get(rout.loc2())).intValue(),
-                 ((Integer)ht.get(rout.loc1())).intValue(),
-                 main.myData.invert(rout));
-        }
-        // Add all "vertical" routes
-        for (int i = 0; i < idx.length; i++) {
-            Location lloc = (Location)str2loc.get(idx[i]);
-            String lmap = lloc.getMap(); 
-            String loc = lloc.getId();
-            ScaledMap smap = main.map.getMap(lmap);
-            String[] names = smap.getReachableMaps();
-            for (int j = 0; j < names.length; j++) {
-                Location nloc = (Location)str2loc.get(names[j]+"//"+loc);
-                if (nloc != null && !names[j].equals(lmap)) {
-                    int[] x = new int[2];
-                    int[] y = new int[2];
-                    x[0] = lloc.x; x[1] = nloc.x;
-                    y[0] = lloc.y; y[1] = nloc.y;
-                    Data.Route rout = main.myData.getReflexive
-                        (lmap+"//"+loc, names[j]+"//"+loc, x, y);
-                    algo.addDirectRoute
-                        (((Integer)ht.get(lmap+"//"+loc)).intValue(),
-                         ((Integer)ht.get(names[j]+"//"+loc)).intValue(),
-                         rout);
-                    algo.addDirectRoute
-                        (((Integer)ht.get(names[j]+"//"+loc)).intValue(),
-                         ((Integer)ht.get(lmap+"//"+loc)).intValue(),
-                         main.myData.invert(rout));
-                }
-            }
-        }
-
-        algo.execute(srcI, destI);
+        RouteGraph.Tree tree = net.route(s, d);
         // No way
-        if (algo.getPredecessor(destI) == null) return;
+        if (tree.getPredecessor(d) == -1) return null;
 
         // Obtain proper route
         ArrayList xy = new ArrayList();
-        for (Integer step = destI; !step.equals(srcI); step = algo.getPredecessor(step)) {
-            Data.Route leg = algo.getShortestRouteTo(step);
+        for (int step = d; step != s; step = tree.getPredecessor(step)) {
+            Data.Route leg = tree.getShortestRouteTo(step);
             for (int i = leg.length(); i > 0; i--) {
                 String loce = leg.loc2();
                 if (i == 1) loce = leg.loc1();
@@ -157,12 +170,7 @@ public class AutoTravel implements ActionListener {
                 xy.add(loc);
             }
         }
-
-        // Travel on route
-        main.getMap().autotravel = true;
-        travel(xy);
-        main.getMap().autotravel = false;
-        main.getMap().repaint();
+        return xy;
     }
 
     /**
@@ -229,6 +237,15 @@ public class AutoTravel implements ActionListener {
                 i++;
             }
         }
+        setRemaining(route, i);
+    }
+
+    /**
+     * Keep the rest of the route for continuing.
+     * @param route (backward) route
+     * @param i number of remaining locations
+     */
+    private void setRemaining(ArrayList route, int i) {
         if (i == 0) {
             remainRoute = null;
             main.contTravel.setEnabled(false);
@@ -237,12 +254,17 @@ public class AutoTravel implements ActionListener {
             remainRoute = new ArrayList();
             for (int j = 0; j < i; j++)
                 remainRoute.add(route.get(j));
+            main.contTravel.setEnabled(true);
         }
     }
 
     /** Continue travel */
     public void continueTravel() {
-        if (remainRoute == null) return;
+        if (remainRoute == null || batch != null) return;
+        if (simulated) {
+            startBatch(remainRoute);
+            return;
+        }
 
         // Travel on route
         main.getMap().autotravel = true;
@@ -0,0 +1,290 @@
+/**
+ * UGMT : Universal Gamemaster tool
+ * Copyright (c) 2004 Michael Jung
+ * miju@phantasia.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package harn.travel;
+
+import harn.repository.*;
+import java.awt.*;
+import java.awt.geom.*;
+import java.text.*;
+import java.util.*;
+import javax.swing.*;
+
+/**
+ * Simulated automatic travel. The route is travelled on a background
+ * thread with the same rules as AutoTravel (speed, travel time per day,
+ * stalling weather and encounters), but the group is not moved step by
+ * step. Only if encounters stall travel, the group is moved once per day,
+ * so that encounters are generated for that day. At the end the group is
+ * moved to its final location and a summary per day is shown.
+ * @author Michael Jung
+ */
+class BatchTravel implements Runnable {
+    /** Root reference */
+    private Main main;
+
+    /** Auto travel to report to */
+    private AutoTravel auto;
+
+    /** Remaining (backward) route */
+    private ArrayList route;
+
+    /** Group */
+    private CharGroup group;
+
+    /** Position, time and time moved without rest */
+    private String map;
+    private int x, y;
+    private long date, moved;
+
+    /** Travel parameters from the GUI */
+    private String free;
+    private float speed;
+    private long allowed;
+    private int maxStall;
+    private long stay;
+    private Set suppress;
+
+    /** Whether encounters stall travel */
+    private boolean encounters;
+
+    /** Days travelled */
+    private ArrayList days;
+
+    /** Current day */
+    private Day day;
+
+    /**
+     * Constructor. Called on the event dispatch thread.
+     * @param aMain root reference
+     * @param anAuto auto travel to report to
+     * @param aRoute (backward) route
+     */
+    BatchTravel(Main aMain, AutoTravel anAuto, ArrayList aRoute) {
+        main = aMain;
+        auto = anAuto;
+        route = new ArrayList(aRoute);
+        State st = main.getState();
+        group = st.getActive();
+        map = st.getMap();
+        x = st.getX();
+        y = st.getY();
+        date = st.getDate();
+        moved = st.getMoved();
+        free = main.bFree.getText();
+        speed = -1;
+        if (!main.bSpeed.getText().equals("Auto speed")) {
+            try {
+                speed = NumberFormat.getInstance().parse
+                    (main.eSpeed.getText()).floatValue();
+            }
+            catch (ParseException e) {
+                // Cannot happen
+                throw new NumberFormatException(main.eSpeed.getText());
+            }
+        }
+        allowed = Integer.parseInt(main.eTravel.getText())*Main.HOUR;
+        maxStall = Integer.parseInt(main.eStall.getText());
+        stay = Main.stay;
+        suppress = new HashSet(st.getTypes());
+        encounters = suppress.contains("Encounters");
+        days = new ArrayList();
+        day = new Day();
+    }
+
+    /** IF method */
+    public void run() {
+        try {
+            travel();
+        }
+        catch (Throwable t) {
+            // Debugging
+            t.printStackTrace();
+        }
+        finishDay();
+        SwingUtilities.invokeLater(new Runnable() {
+                public void run() { publish(); }
+            });
+    }
+
+    /**
+     * Travel the route, as in AutoTravel.
+     */
+    private void travel() throws Exception {
+        State st = main.getState();
+        int stall = 0;
+        int i = route.size();
+        for (;i > 0; i--) {
+            // Break if appropriate
+            if (stall > maxStall) {
+                day.note = "stalled";
+                break;
+            }
+
+            // Calculate distance
+            AutoTravel.Location loc = (AutoTravel.Location) route.get(i-1);
+            AffineTransform nm2om =
+                main.map.getMap(loc.getMap()).getTransform(map);
+            Point2D omp = nm2om.transform
+                (new Point2D.Double(loc.x,loc.y), null);
+            int ox = (int)omp.getX();
+            int oy = (int)omp.getY();
+            float sp = (speed < 0 ? st.calcSpeed(x, y, ox, oy, date, free) : speed);
+            int delta = st.calcDist(x, y, ox, oy, sp);
+
+            // Intersperse some sleep
+            if (delta > allowed) delta = 0;
+            if (moved + delta > allowed) {
+                advance(x, y, Main.DAY - moved);
+                i++; continue;
+            }
+
+            // Break for encounters now
+            TimeEvent enc = (encounters ? st.getEncounter(date) : null);
+            if (enc != null) {
+                day.note = enc.getName();
+                break;
+            }
+
+            // Try and move (take weather into account)
+            String cond = main.getWeather().getCondition(map, ox, oy, date);
+            day.conds.add(cond);
+            if (delta >= 0 && !suppress.contains(cond)) {
+                if (ox != x || oy != y)
+                    stall = 0;
+                else
+                    stall++;
+                advance(ox, oy, delta);
+            }
+            else {
+                stall++;
+                day.waits++;
+                advance(x, y, stay);
+                i++;
+            }
+        }
+        while (route.size() > i) route.remove(route.size() - 1);
+    }
+
+    /**
+     * Move and/or let time pass. Resting resets the time moved.
+     */
+    private void advance(int nx, int ny, long delta) throws Exception {
+        if (nx == x && ny == y) {
+            if (delta != 0) moved = 0;
+        }
+        else {
+            day.leagues += Math.sqrt((nx - x)*(nx - x) + (ny - y)*(ny - y))/
+                main.getMap().getScale();
+            day.moved += delta;
+            moved += delta;
+        }
+        x = nx;
+        y = ny;
+        date += delta;
+
+        // Next day
+        if (date/Main.DAY != day.date/Main.DAY) {
+            finishDay();
+            day = new Day();
+            if (encounters) {
+                // Have encounters generated for this day
+                SwingUtilities.invokeAndWait(new Runnable() {
+                        public void run() {
+                            group.setLocation(map, x, y, date);
+                        }
+                    });
+            }
+        }
+    }
+
+    /** Close the current day */
+    private void finishDay() {
+        if (day == null) return;
+        day.x1 = x;
+        day.y1 = y;
+        days.add(day);
+        day = null;
+    }
+
+    /**
+     * Move the group to the final location and show the summary. Called on
+     * the event dispatch thread.
+     */
+    private void publish() {
+        State st = main.getState();
+        if (st.getActive() == group) {
+            group.setLocation(map, x, y, date);
+            st.clearMoved();
+            st.addMoved(moved);
+        }
+        auto.batchDone(route);
+
+        StringBuffer sb = new StringBuffer();
+        for (int i = 0; i < days.size(); i++) {
+            Day d = (Day) days.get(i);
+            sb.append(d).append("\n");
+        }
+        JTextArea ta = new JTextArea(sb.toString(), Math.min(days.size(), 20), 50);
+        ta.setEditable(false);
+        JOptionPane.showMessageDialog
+            (main.myPanel, new JScrollPane(ta), "Travel simulation",
+             JOptionPane.INFORMATION_MESSAGE);
+    }
+
+    /**
+     * Summary of one day.
+     */
+    class Day {
+        /** Start time */
+        long date;
+        /** Start and end location */
+        int x0, y0, x1, y1;
+        /** Distance */
+        double leagues;
+        /** Time moved */
+        long moved;
+        /** Number of waits for weather */
+        int waits;
+        /** Weather conditions */
+        TreeSet conds;
+        /** Reason to stop */
+        String note;
+
+        /** Constructor */
+        Day() {
+            date = BatchTravel.this.date;
+            x0 = x;
+            y0 = y;
+            conds = new TreeSet();
+        }
+
+        /** Summary line */
+        public String toString() {
+            String ret = Data.stringDate(date) + ": " +
+                Math.round(leagues*10)/10. + " leagues in " +
+                Data.stringTime(moved) + " (" + x0 + "," + y0 + " - " +
+                x1 + "," + y1 + ")";
+            if (!conds.isEmpty()) ret += ", " + conds;
+            if (waits > 0) ret += ", " + waits + " waits";
+            if (note != null) ret += ", stopped: " + note;
+            return ret;
+        }
+    }
+}
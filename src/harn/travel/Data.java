@@ -48,6 +48,9 @@ public class Data implements IListener {
     /** Hidden locations */
     private Set hidden;
 
+    /** Route nets per map, built from the routes read */
+    private Hashtable nets;
+
     /**
      * Constructor. Turns a simple XML file into a hashmap of hashmaps.  All
      * nodes are read and their names are turned into property nodes. I.e.  <x
@@ -61,6 +64,7 @@ public class Data implements IListener {
 	allLongStrings = new ArrayList();
         routes = new Hashtable();
         hidden = new HashSet();
+        nets = new Hashtable();
 
 	// Parse the data file
 	data = new Hashtable();
@@ -323,6 +327,20 @@ public class Data implements IListener {
         return ret;
     }
     
+    /**
+     * Get the route net as seen from a named map. The net is built once
+     * and kept; routes are only read at startup, so it is never updated.
+     * @param name (full) name of map
+     */
+    RouteNet getRouteNet(String name) {
+        RouteNet net = (RouteNet) nets.get(name);
+        if (net == null) {
+            net = new RouteNet(main, name, getRoutes(name));
+            nets.put(name, net);
+        }
+        return net;
+    }
+
     /**
      * Extract the maps from the document tree.
      * @param tree doc tree to extract from
@@ -395,15 +413,19 @@ public class Data implements IListener {
             String[] p = attr.getNamedItem("coords").getNodeValue().split(",");
             x = new int[p.length/2];
             y = new int[p.length/2];
-            if (distance == 0)
-                for (int i = 0; i < x.length; i++) {
-                    x[i] = Integer.parseInt(p[2*i]);
-                    y[i] = Integer.parseInt(p[2*i + 1]);
-                    if (i > 0)
-                        distance += (int) Math.sqrt
-                            ((x[i] + x[i-1])*(x[i] + x[i-1]) +
-                             (y[i] + y[i-1])*(y[i] + y[i-1]));
-                }
+            for (int i = 0; i < x.length; i++) {
+                x[i] = Integer.parseInt(p[2*i]);
+                y[i] = Integer.parseInt(p[2*i + 1]);
+            }
+            measure();
+        }
+        /** Calculate distance from coordinates */
+        private void measure() {
+            distance = 0;
+            for (int i = 1; i < x.length; i++)
+                distance += (int) Math.sqrt
+                    ((x[i] - x[i-1])*(x[i] - x[i-1]) +
+                     (y[i] - y[i-1])*(y[i] - y[i-1]));
         }
         /** Getter */
         public int x(int i) {
@@ -423,5 +445,7 @@ public class Data implements IListener {
         public String loc2() { return loc2; }
         /** Getter */
         public int distance() { return distance; }
+        /** Getter */
+        public String map() { return loc1.substring(0, loc1.lastIndexOf("//")); }
     }
 }
@@ -62,6 +62,9 @@ public class Main implements IPlugin {
     /** Auto travel object */
     private AutoTravel autoTravel;
 
+    /** Off-road planner */
+    private OffRoad offRoad;
+
     /** My data */
     Data myData;
 
@@ -123,6 +126,7 @@ public class Main implements IPlugin {
 	myProps = props;
 	myPath = path + frw.SEP;
 	myData = new Data(this);
+        offRoad = new OffRoad(this);
 
 	// State object
 	state = new State(this);
@@ -326,6 +330,13 @@ public class Main implements IPlugin {
         pTravel.add(mi);
         autoTravel = new AutoTravel(this);
         mi.addActionListener(autoTravel);
+        mi = new JMenuItem("simulate travel to destination");
+        pTravel.add(mi);
+        mi.addActionListener(new ActionListener() {
+                public void actionPerformed(ActionEvent e) {
+                    autoTravel.simulate();
+                }
+            });
 
 	tree = new JTree();
         tree.setEditable(false);
@@ -565,6 +576,18 @@ public class Main implements IPlugin {
      */
     WeatherEffects getWeather() { return weather; }
 
+    /**
+     * Returns the off-road planner.
+     * @return off-road planner
+     */
+    OffRoad getOffRoad() { return offRoad; }
+
+    /**
+     * Returns the auto travel object.
+     * @return auto travel object
+     */
+    AutoTravel getAutoTravel() { return autoTravel; }
+
     /**
      * Prepares the button widths according to the widest terrain/vegetation
      * combination possible. This is gathered from the data holder.
@@ -51,6 +51,13 @@ public class MoveByMouse extends MouseAdapter {
 	// Out of bounds
 	if (x < 0 || y < 0 || x > wm || y > hm) return;
 
+	// Shift-Button1: travel off-road
+	if ((e.getModifiers() & InputEvent.BUTTON1_MASK) != 0 &&
+            (e.getModifiers() & InputEvent.SHIFT_MASK) != 0) {
+            main.getAutoTravel().travelOffRoad(x, y);
+            return;
+        }
+
 	// Calculate distance
 	int delta = main.getState().calcDist(x, y, main.bFree.getText());
 	// If Button1, travel
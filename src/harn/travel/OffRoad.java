@@ -0,0 +1,350 @@
+/**
+ * UGMT : Universal Gamemaster tool
+ * Copyright (c) 2004 Michael Jung
+ * miju@phantasia.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package harn.travel;
+
+import harn.repository.*;
+import java.util.*;
+
+/**
+ * Off-road route planner. A map is covered by a grid of square cells and
+ * the speed in each cell is taken from terrain, vegetation, weather
+ * condition and travel modes, as for a single move. For water modes the
+ * speed depends on the direction, so eight speeds are kept per cell. Such
+ * a raster is cached per map, modes and condition. A route is searched
+ * with A* on the grid (eight neighbours), bounded to a box around start
+ * and destination. Cells are only sampled when a search box covers them,
+ * so that a search on a large map does not sample all of it.
+ * @author Michael Jung
+ */
+class OffRoad {
+    /** Rasters kept */
+    final static private int CACHED = 8;
+
+    /** Neighbour directions */
+    final static private int[] DX = { 1, 1, 0, -1, -1, -1, 0, 1 };
+    final static private int[] DY = { 0, -1, -1, -1, 0, 1, 1, 1 };
+
+    /** Root reference */
+    private Main main;
+
+    /** Cell size in pixels */
+    private int cell;
+
+    /** Rasters (key -> raster), least recently used first */
+    private LinkedHashMap rasters;
+
+    /**
+     * Constructor.
+     * @param aMain root reference
+     */
+    OffRoad(Main aMain) {
+        main = aMain;
+        cell = Math.max
+            (1, Integer.parseInt(main.myProps.getProperty("offroad.cell", "8")));
+        rasters = new LinkedHashMap(CACHED, .75f, true) {
+                protected boolean removeEldestEntry(Map.Entry e) {
+                    return size() > CACHED;
+                }
+            };
+    }
+
+    /**
+     * Find an off-road route on a map.
+     * @param map map
+     * @param pw map width in pixels
+     * @param ph map height in pixels
+     * @param modes travel modes
+     * @param free travel type (free, normal, forced)
+     * @param cond weather condition
+     * @param actSpeed inherent speed of group
+     * @param x0 start x coordinate
+     * @param y0 start y coordinate
+     * @param x1 destination x coordinate
+     * @param y1 destination y coordinate
+     * @return points after start up to destination ({ x[], y[] }) or null
+     */
+    int[][] route(ScaledMap map, int pw, int ph, String[] modes, String free, String cond, float actSpeed, int x0, int y0, int x1, int y1) {
+        Raster r = getRaster(map, pw, ph, modes, free, cond, actSpeed);
+        int s = r.index(x0, y0);
+        int d = r.index(x1, y1);
+        if (s < 0 || d < 0) return null;
+
+        // Free move or same cell: direct
+        if (s == d || Float.isInfinite(r.sample(s)))
+            return new int[][] { { x1 }, { y1 } };
+
+        int[] cells = r.search(s, d, cell/(double)map.getScale());
+        if (cells == null) return null;
+
+        // Points; steps of equal speed and direction are joined
+        int n = cells.length;
+        int[] px = new int[n];
+        int[] py = new int[n];
+        int k = 0;
+        for (int i = 1; i < n; i++) {
+            int dir = r.dir(cells[i - 1], cells[i]);
+            if (i < n - 1 && dir == r.dir(cells[i], cells[i + 1]) &&
+                r.speed[dir][cells[i]] == r.speed[dir][cells[i + 1]])
+                continue;
+            px[k] = (cells[i] % r.w)*cell + cell/2;
+            py[k] = (cells[i] / r.w)*cell + cell/2;
+            k++;
+        }
+        px[k - 1] = x1;
+        py[k - 1] = y1;
+        return new int[][] { Arrays.copyOf(px, k), Arrays.copyOf(py, k) };
+    }
+
+    /**
+     * Get the raster for a map, modes and condition; create it, if not
+     * cached.
+     */
+    private Raster getRaster(ScaledMap map, int pw, int ph, String[] modes, String free, String cond, float actSpeed) {
+        String[] sm = (String[]) modes.clone();
+        Arrays.sort(sm);
+        String key = map.getName() + "/" + pw + "x" + ph + "/" +
+            Arrays.asList(sm) + "/" + free +
+            "/" + cond + "/" + actSpeed;
+        Raster r = (Raster) rasters.get(key);
+        if (r == null) {
+            r = new Raster(map, pw, ph, new HashSet(Arrays.asList(sm)), free, cond, actSpeed);
+            rasters.put(key, r);
+        }
+        return r;
+    }
+
+    /**
+     * Speed raster of a map. Cells are sampled on demand.
+     */
+    class Raster {
+        /** Size in cells */
+        int w, h;
+
+        /** Speed per direction and cell (NaN if not sampled yet); the
+         * same array for all directions, if there is no water mode */
+        float[][] speed;
+
+        /** Map, modes and conditions sampled */
+        private ScaledMap map;
+        private Set modes;
+        private String free, cond;
+        private float actSpeed, mapQuot;
+
+        /** Water mode present */
+        private boolean water;
+
+        /**
+         * Constructor. Does not sample any cell yet.
+         */
+        Raster(ScaledMap aMap, int pw, int ph, Set someModes, String aFree, String aCond, float anActSpeed) {
+            map = aMap;
+            modes = someModes;
+            free = aFree;
+            cond = aCond;
+            actSpeed = anActSpeed;
+            mapQuot = map.getTacticalSpeed();
+            w = (pw + cell - 1)/cell;
+            h = (ph + cell - 1)/cell;
+            Iterator iter = modes.iterator();
+            while (iter.hasNext())
+                water |= (((String)iter.next()).indexOf(':') > 0);
+
+            speed = new float[DX.length][];
+            for (int dir = 0; dir < DX.length; dir++)
+                speed[dir] = (water || dir == 0 ? new float[w*h] : speed[0]);
+            Arrays.fill(speed[0], Float.NaN);
+        }
+
+        /**
+         * Sample terrain and vegetation at the cell center, if not done.
+         * @param c cell
+         * @return maximal speed of cell
+         */
+        float sample(int c) {
+            if (!Float.isNaN(speed[0][c])) {
+                float max = speed[0][c];
+                for (int dir = 1; water && dir < DX.length; dir++)
+                    max = Math.max(max, speed[dir][c]);
+                return max;
+            }
+            int x = (c % w)*cell + cell/2;
+            int y = (c / w)*cell + cell/2;
+            String ter = map.getTerrain(x, y);
+            String terNW = map.getLandTerrain(x, y);
+            String veg = map.getVegetation(x, y);
+            String vegNW = map.getLandVegetation(x, y);
+            State st = main.getState();
+            float max = 0;
+            // Direction 0 last, it marks the cell as sampled
+            for (int dir = (water ? DX.length - 1 : 0); dir >= 0; dir--) {
+                float sp = st.calcSpeed
+                    (ter, terNW, veg, vegNW, cond, free,
+                     Math.atan2(-DY[dir], DX[dir]), mapQuot, actSpeed, modes);
+                if (sp < 0 || Float.isNaN(sp)) sp = 0;
+                speed[dir][c] = sp;
+                max = Math.max(max, sp);
+            }
+            return max;
+        }
+
+        /** Cell of a point or -1 */
+        int index(int x, int y) {
+            int cx = x/cell, cy = y/cell;
+            if (x < 0 || y < 0 || cx >= w || cy >= h) return -1;
+            return cy*w + cx;
+        }
+
+        /** Direction between neighbouring cells */
+        int dir(int a, int b) {
+            int dx = b % w - a % w;
+            int dy = b / w - a / w;
+            for (int i = 0; i < DX.length; i++)
+                if (DX[i] == dx && DY[i] == dy) return i;
+            return -1;
+        }
+
+        /**
+         * A* search within a box around start and destination. The time to
+         * enter a cell is its size over its speed (as for single moves,
+         * where the destination decides). The cells of the box are sampled
+         * first; their maximal speed bounds the heuristic.
+         * @param s start cell
+         * @param d destination cell
+         * @param len cell size in leagues
+         * @return cells from start to destination or null
+         */
+        int[] search(int s, int d, double len) {
+            // Box
+            int sx = s % w, sy = s / w, dx = d % w, dy = d / w;
+            int margin = Math.max(16, Math.max(Math.abs(sx - dx), Math.abs(sy - dy))/2);
+            int bx0 = Math.max(0, Math.min(sx, dx) - margin);
+            int by0 = Math.max(0, Math.min(sy, dy) - margin);
+            int bx1 = Math.min(w, Math.max(sx, dx) + margin + 1);
+            int by1 = Math.min(h, Math.max(sy, dy) + margin + 1);
+            int bw = bx1 - bx0;
+            int n = bw*(by1 - by0);
+
+            float max = 0;
+            for (int y = by0; y < by1; y++)
+                for (int x = bx0; x < bx1; x++)
+                    max = Math.max(max, sample(y*w + x));
+            if (max <= 0) return null;
+
+            // Minutes per cell at maximal speed
+            double unit = len/max*240;
+
+            double[] g = new double[n];
+            Arrays.fill(g, Double.POSITIVE_INFINITY);
+            int[] pred = new int[n];
+            // Heap position + 1; 0 unseen, -1 settled
+            int[] pos = new int[n];
+            int[] heap = new int[n];
+            double[] key = new double[n];
+            int size = 0;
+
+            int bs = (sy - by0)*bw + (sx - bx0);
+            int bd = (dy - by0)*bw + (dx - bx0);
+            g[bs] = 0;
+            pred[bs] = -1;
+            key[bs] = octile(sx - dx, sy - dy)*unit;
+            heap[size++] = bs;
+            pos[bs] = 1;
+
+            while (size > 0) {
+                // Pop
+                int u = heap[0];
+                pos[u] = -1;
+                if (--size > 0) {
+                    heap[0] = heap[size];
+                    pos[heap[0]] = 1;
+                    size = down(heap, pos, key, size, 0);
+                }
+                if (u == bd) break;
+
+                int ux = u % bw, uy = u / bw;
+                for (int dir = 0; dir < DX.length; dir++) {
+                    int vx = ux + DX[dir], vy = uy + DY[dir];
+                    if (vx < 0 || vy < 0 || vx >= bw || vy >= by1 - by0) continue;
+                    int v = vy*bw + vx;
+                    if (pos[v] < 0) continue;
+                    float sp = speed[dir][(vy + by0)*w + vx + bx0];
+                    if (sp <= 0) continue;
+                    double step = (dir % 2 == 1 ? Math.sqrt(2) : 1)*len/sp*240;
+                    if (g[u] + step >= g[v]) continue;
+                    g[v] = g[u] + step;
+                    pred[v] = u;
+                    key[v] = g[v] + octile(vx + bx0 - dx, vy + by0 - dy)*unit;
+                    if (pos[v] == 0) {
+                        heap[size] = v;
+                        pos[v] = size + 1;
+                        size++;
+                    }
+                    up(heap, pos, key, pos[v] - 1);
+                }
+            }
+            if (pos[bd] != -1) return null;
+
+            // Path
+            int k = 0;
+            for (int v = bd; v != -1; v = pred[v]) k++;
+            int[] ret = new int[k];
+            for (int v = bd; v != -1; v = pred[v])
+                ret[--k] = (v / bw + by0)*w + v % bw + bx0;
+            return ret;
+        }
+    }
+
+    /** Octile distance in cells */
+    private static double octile(int dx, int dy) {
+        dx = Math.abs(dx);
+        dy = Math.abs(dy);
+        return Math.max(dx, dy) + (Math.sqrt(2) - 1)*Math.min(dx, dy);
+    }
+
+    /** Move a heap element up */
+    private static void up(int[] heap, int[] pos, double[] key, int i) {
+        int v = heap[i];
+        while (i > 0) {
+            int p = (i - 1)/2;
+            if (key[heap[p]] <= key[v]) break;
+            heap[i] = heap[p];
+            pos[heap[i]] = i + 1;
+            i = p;
+        }
+        heap[i] = v;
+        pos[v] = i + 1;
+    }
+
+    /** Move a heap element down; returns size */
+    private static int down(int[] heap, int[] pos, double[] key, int size, int i) {
+        int v = heap[i];
+        while (2*i + 1 < size) {
+            int c = 2*i + 1;
+            if (c + 1 < size && key[heap[c + 1]] < key[heap[c]]) c++;
+            if (key[v] <= key[heap[c]]) break;
+            heap[i] = heap[c];
+            pos[heap[i]] = i + 1;
+            i = c;
+        }
+        heap[i] = v;
+        pos[v] = i + 1;
+        return size;
+    }
+}
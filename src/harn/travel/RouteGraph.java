@@ -0,0 +1,358 @@
+/**
+ * UGMT : Universal Gamemaster tool
+ * Copyright (c) 2004 Michael Jung
+ * miju@phantasia.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package harn.travel;
+
+import java.util.*;
+
+/**
+ * Route graph for shortest path searches. Vertices are numbered locations,
+ * edges are directed routes. The edges are kept in compressed sparse row
+ * form (all edges of a vertex are consecutive) and searched with an
+ * int-indexed binary heap, so that a search does not allocate per vertex.
+ *
+ * <p> If all vertex positions are given, a search towards a single
+ * destination uses A*: the straight line distance to the destination,
+ * multiplied by the cheapest cost per distance unit of all edges, never
+ * overestimates the remaining cost.
+ *
+ * <p> Full shortest path trees are cached per start vertex. An edge added
+ * after searches drops the trees it shortens; edges are never removed.
+ * @author Michael Jung
+ */
+class RouteGraph {
+    /** Number of vertices */
+    private int size;
+
+    /** Edges as added: source, target, cost, route */
+    private int[] eFrom, eTo;
+    private double[] eCost;
+    private Data.Route[] eRoute;
+
+    /** Number of edges added */
+    private int edges;
+
+    /** CSR: edges of vertex v are off[v] .. off[v+1]-1 */
+    private int[] off;
+
+    /** CSR: target, cost and route per edge */
+    private int[] adj;
+    private double[] cost;
+    private Data.Route[] route;
+
+    /** Vertex positions for the heuristic; NaN if unknown */
+    private double[] px, py;
+
+    /** Minimal cost per position unit (heuristic factor); 0 if none */
+    private double perUnit;
+
+    /** Full trees kept */
+    final static private int CACHED = 16;
+
+    /** Cached full trees (start -> tree), least recently used first */
+    private LinkedHashMap trees;
+
+    /** Start vertices searched once without a full tree */
+    private HashSet asked;
+
+    /**
+     * Constructor.
+     * @param vertices number of vertices
+     */
+    RouteGraph(int vertices) {
+        size = vertices;
+        eFrom = new int[16];
+        eTo = new int[16];
+        eCost = new double[16];
+        eRoute = new Data.Route[16];
+        px = new double[size];
+        py = new double[size];
+        Arrays.fill(px, Double.NaN);
+        Arrays.fill(py, Double.NaN);
+        trees = new LinkedHashMap(CACHED, .75f, true) {
+                protected boolean removeEldestEntry(Map.Entry e) {
+                    return size() > CACHED;
+                }
+            };
+        asked = new HashSet();
+    }
+
+    /** Number of vertices */
+    int size() { return size; }
+
+    /**
+     * Add an unlinked vertex.
+     * @return index of new vertex
+     */
+    int addVertex() {
+        if (size == px.length) {
+            int n = Math.max(16, 2 * size);
+            double[] tx = new double[n]; System.arraycopy(px, 0, tx, 0, size);
+            double[] ty = new double[n]; System.arraycopy(py, 0, ty, 0, size);
+            px = tx; py = ty;
+        }
+        px[size] = Double.NaN;
+        py[size] = Double.NaN;
+        off = null;
+        return size++;
+    }
+
+    /**
+     * Link two vertices by a direct route.
+     * @param start start vertex
+     * @param end end vertex
+     * @param aRoute the route
+     * @param aCost cost of the route
+     */
+    void addDirectRoute(int start, int end, Data.Route aRoute, double aCost) {
+        if (edges == eFrom.length) {
+            int n = 2 * edges;
+            int[] tf = new int[n]; System.arraycopy(eFrom, 0, tf, 0, edges);
+            int[] tt = new int[n]; System.arraycopy(eTo, 0, tt, 0, edges);
+            double[] tc = new double[n]; System.arraycopy(eCost, 0, tc, 0, edges);
+            Data.Route[] tr = new Data.Route[n]; System.arraycopy(eRoute, 0, tr, 0, edges);
+            eFrom = tf; eTo = tt; eCost = tc; eRoute = tr;
+        }
+        eFrom[edges] = start;
+        eTo[edges] = end;
+        eCost[edges] = aCost;
+        eRoute[edges] = aRoute;
+        edges++;
+        off = null;
+
+        // Trees stay valid, if the edge does not shorten anything
+        Iterator iter = trees.values().iterator();
+        while (iter.hasNext()) {
+            Tree t = (Tree) iter.next();
+            if (t.getDist(start) + aCost < t.getDist(end)) iter.remove();
+        }
+    }
+
+    /**
+     * Set the position of a vertex in a common frame for the heuristic.
+     * @param v vertex
+     * @param x x-coordinate
+     * @param y y-coordinate
+     */
+    void setPosition(int v, double x, double y) {
+        px[v] = x;
+        py[v] = y;
+        off = null;
+    }
+
+    /**
+     * Sort the edges by source vertex (counting sort) and determine the
+     * heuristic factor.
+     */
+    private void compile() {
+        off = new int[size + 1];
+        for (int i = 0; i < edges; i++) off[eFrom[i] + 1]++;
+        for (int v = 0; v < size; v++) off[v + 1] += off[v];
+        adj = new int[edges];
+        cost = new double[edges];
+        route = new Data.Route[edges];
+        int[] fill = new int[size];
+        System.arraycopy(off, 0, fill, 0, size);
+        for (int i = 0; i < edges; i++) {
+            int e = fill[eFrom[i]]++;
+            adj[e] = eTo[i];
+            cost[e] = eCost[i];
+            route[e] = eRoute[i];
+        }
+
+        // Heuristic is consistent, if no edge is cheaper than its factor
+        perUnit = Double.POSITIVE_INFINITY;
+        for (int v = 0; v < size; v++)
+            if (Double.isNaN(px[v]) || Double.isNaN(py[v])) perUnit = 0;
+        for (int i = 0; i < edges && perUnit > 0; i++) {
+            double dx = px[eFrom[i]] - px[eTo[i]];
+            double dy = py[eFrom[i]] - py[eTo[i]];
+            double d = Math.sqrt(dx*dx + dy*dy);
+            if (d > 0) perUnit = Math.min(perUnit, eCost[i] / d);
+        }
+        if (Double.isInfinite(perUnit)) perUnit = 0;
+    }
+
+    /** Heuristic from v to dest */
+    private double estimate(int v, int dest) {
+        if (dest < 0 || perUnit == 0) return 0;
+        double dx = px[v] - px[dest];
+        double dy = py[v] - py[dest];
+        return perUnit * Math.sqrt(dx*dx + dy*dy);
+    }
+
+    /**
+     * Shortest paths from a start vertex to a destination. Repeated queries
+     * from the same start are answered from a full tree, which is computed
+     * on the second query and cached; a first query uses A*.
+     * @param start start vertex
+     * @param dest destination vertex
+     * @return search result
+     */
+    Tree route(int start, int dest) {
+        Integer key = new Integer(start);
+        Tree t = (Tree) trees.get(key);
+        if (t != null) return t;
+        if (!asked.add(key)) {
+            t = search(start, -1);
+            trees.put(key, t);
+            return t;
+        }
+        return search(start, dest);
+    }
+
+    /**
+     * Search shortest paths from a start vertex. With a destination, the
+     * search stops there (A* if positions are known); with a destination
+     * of -1 the full shortest path tree is computed.
+     * @param start start vertex
+     * @param dest destination vertex or -1
+     * @return search result
+     */
+    Tree search(int start, int dest) {
+        if (off == null) compile();
+        Tree t = new Tree(start);
+        if (start < 0 || start >= size) return t;
+
+        // Binary heap of vertices by key; pos[v] is the heap index + 1,
+        // 0 if never queued and -1 if settled
+        int[] heap = new int[size];
+        int[] pos = new int[size];
+        double[] key = new double[size];
+        int n = 0;
+
+        t.dist[start] = 0;
+        key[start] = estimate(start, dest);
+        heap[n++] = start;
+        pos[start] = 1;
+
+        while (n > 0) {
+            // Extract min
+            int u = heap[0];
+            pos[u] = -1;
+            int last = heap[--n];
+            if (n > 0) {
+                heap[0] = last;
+                pos[last] = 1;
+                down(heap, pos, key, n, 0);
+            }
+            if (u == dest) break;
+
+            for (int e = off[u]; e < off[u + 1]; e++) {
+                int v = adj[e];
+                if (pos[v] == -1) continue;
+                double d = t.dist[u] + cost[e];
+                if (d >= t.dist[v]) continue;
+                t.dist[v] = d;
+                t.pred[v] = u;
+                t.via[v] = route[e];
+                key[v] = d + estimate(v, dest);
+                if (pos[v] == 0) {
+                    heap[n] = v;
+                    pos[v] = ++n;
+                }
+                up(heap, pos, key, pos[v] - 1);
+            }
+        }
+        return t;
+    }
+
+    /** Move heap element i up */
+    private static void up(int[] heap, int[] pos, double[] key, int i) {
+        int v = heap[i];
+        while (i > 0) {
+            int p = (i - 1) / 2;
+            if (key[heap[p]] <= key[v]) break;
+            heap[i] = heap[p];
+            pos[heap[i]] = i + 1;
+            i = p;
+        }
+        heap[i] = v;
+        pos[v] = i + 1;
+    }
+
+    /** Move heap element i down */
+    private static void down(int[] heap, int[] pos, double[] key, int n, int i) {
+        int v = heap[i];
+        while (true) {
+            int c = 2 * i + 1;
+            if (c >= n) break;
+            if (c + 1 < n && key[heap[c + 1]] < key[heap[c]]) c++;
+            if (key[v] <= key[heap[c]]) break;
+            heap[i] = heap[c];
+            pos[heap[i]] = i + 1;
+            i = c;
+        }
+        heap[i] = v;
+        pos[v] = i + 1;
+    }
+
+    /**
+     * Result of a search: predecessors and distances from the start
+     * vertex. For a search with a destination, only the path to that
+     * destination is guaranteed to be shortest.
+     */
+    class Tree {
+        /** Start vertex */
+        final int start;
+
+        /** Predecessor per vertex, -1 if unreached */
+        final int[] pred;
+
+        /** Route leading to a vertex */
+        final Data.Route[] via;
+
+        /** Distance per vertex */
+        final double[] dist;
+
+        /** Constructor */
+        private Tree(int aStart) {
+            start = aStart;
+            pred = new int[size];
+            via = new Data.Route[size];
+            dist = new double[size];
+            Arrays.fill(pred, -1);
+            Arrays.fill(dist, Double.POSITIVE_INFINITY);
+        }
+
+        /**
+         * @return vertex leading to the given vertex on the shortest path,
+         * or -1, if there is no route to the vertex.
+         */
+        int getPredecessor(int v) {
+            return (v < pred.length ? pred[v] : -1);
+        }
+
+        /**
+         * @return route leading to the given vertex on the shortest path,
+         * or null, if there is no route to the vertex.
+         */
+        Data.Route getShortestRouteTo(int v) {
+            return (v < via.length ? via[v] : null);
+        }
+
+        /**
+         * @return distance to the given vertex, infinite if there is no
+         * route to the vertex.
+         */
+        double getDist(int v) {
+            return (v < dist.length ? dist[v] : Double.POSITIVE_INFINITY);
+        }
+    }
+}
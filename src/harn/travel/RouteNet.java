@@ -0,0 +1,215 @@
+/**
+ * UGMT : Universal Gamemaster tool
+ * Copyright (c) 2004 Michael Jung
+ * miju@phantasia.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package harn.travel;
+
+import harn.repository.*;
+import java.awt.geom.*;
+import java.util.*;
+
+/**
+ * The route network as seen from one map: all locations of the routes on
+ * the reachable maps, linked by their routes ("planar") and by the
+ * equivalent locations on other maps ("vertical"). It is built once and
+ * kept between travels.
+ * @author Michael Jung
+ */
+class RouteNet {
+    /** Root reference */
+    private Main main;
+
+    /** Map the net is seen from */
+    private String map;
+
+    /** Maps of the net */
+    private String[] maps;
+
+    /** Graph */
+    private RouteGraph graph;
+
+    /** Location name -> vertex index */
+    private HashMap index;
+
+    /** Vertex index -> location name */
+    private ArrayList names;
+
+    /** Vertex coordinates on own map */
+    private int[] x, y;
+
+    /** Number of routes per vertex */
+    private int[] count;
+
+    /** Route -> inverted route */
+    private HashMap inverse;
+
+    /**
+     * Constructor.
+     * @param aMain root reference
+     * @param aMap map the net is seen from
+     * @param routes initial routes
+     */
+    RouteNet(Main aMain, String aMap, ArrayList routes) {
+        main = aMain;
+        map = aMap;
+        ScaledMap smap = main.map.getMap(map);
+        maps = (smap != null ? smap.getReachableMaps() : new String[0]);
+        graph = new RouteGraph(0);
+        index = new HashMap();
+        names = new ArrayList();
+        x = new int[16];
+        y = new int[16];
+        count = new int[16];
+        inverse = new HashMap();
+        for (int i = 0; i < routes.size(); i++)
+            add((Data.Route) routes.get(i));
+    }
+
+    /**
+     * Add a route.
+     * @param rout route to add
+     */
+    void add(Data.Route rout) {
+        if (inverse.containsKey(rout)) return;
+        int u = vertex(rout.loc1(), rout.x(0), rout.y(0));
+        int v = vertex(rout.loc2(), rout.x(-1), rout.y(-1));
+        Data.Route inv = main.myData.invert(rout);
+        inverse.put(rout, inv);
+        graph.addDirectRoute(u, v, rout, rout.distance());
+        graph.addDirectRoute(v, u, inv, inv.distance());
+        count[u]++;
+        count[v]++;
+    }
+
+    /**
+     * Get or create the vertex of a location. A new vertex is linked to
+     * its equivalents on the other maps.
+     */
+    private int vertex(String name, int lx, int ly) {
+        Integer idx = (Integer) index.get(name);
+        if (idx != null) return idx.intValue();
+
+        int i = graph.addVertex();
+        if (i == x.length) {
+            int[] tx = new int[2*i]; System.arraycopy(x, 0, tx, 0, i);
+            int[] ty = new int[2*i]; System.arraycopy(y, 0, ty, 0, i);
+            int[] tc = new int[2*i]; System.arraycopy(count, 0, tc, 0, i);
+            x = tx; y = ty; count = tc;
+        }
+        index.put(name, new Integer(i));
+        names.add(name);
+        x[i] = lx;
+        y[i] = ly;
+
+        // Position in this map for the heuristic
+        String lmap = getMap(i);
+        AffineTransform nm2am = main.map.getMap(lmap).getTransform(map);
+        Point2D amp = nm2am.transform(new Point2D.Double(lx, ly), null);
+        graph.setPosition(i, amp.getX(), amp.getY());
+
+        // Add "vertical" routes
+        String loc = getId(i);
+        List lreach = Arrays.asList(main.map.getMap(lmap).getReachableMaps());
+        for (int j = 0; j < maps.length; j++) {
+            if (maps[j].equals(lmap)) continue;
+            Integer nidx = (Integer) index.get(maps[j] + "//" + loc);
+            if (nidx == null) continue;
+            List nreach = Arrays.asList
+                (main.map.getMap(maps[j]).getReachableMaps());
+            if (!lreach.contains(maps[j]) && !nreach.contains(lmap))
+                continue;
+            int n = nidx.intValue();
+            Data.Route rout = main.myData.getReflexive
+                (name, maps[j] + "//" + loc,
+                 new int[] { lx, x[n] }, new int[] { ly, y[n] });
+            graph.addDirectRoute(i, n, rout, rout.distance());
+            graph.addDirectRoute
+                (n, i, main.myData.invert(rout), rout.distance());
+        }
+        return i;
+    }
+
+    /**
+     * Vertex of a location.
+     * @param name full location name
+     * @return index or -1
+     */
+    int index(String name) {
+        Integer idx = (Integer) index.get(name);
+        return (idx != null ? idx.intValue() : -1);
+    }
+
+    /**
+     * Vertex of a location on any map.
+     * @param id location name without map
+     * @return index or -1
+     */
+    int find(String id) {
+        for (int i = 0; i < names.size(); i++)
+            if (count[i] > 0 && getId(i).equals(id)) return i;
+        return -1;
+    }
+
+    /**
+     * Vertex closest to the given coordinates.
+     * @param cm map of coordinates
+     * @param cx x-coordinate
+     * @param cy y-coordinate
+     * @return index or -1
+     */
+    int nearest(String cm, int cx, int cy) {
+        double dist = Double.MAX_VALUE;
+        int ret = -1;
+        for (int i = 0; i < names.size(); i++) {
+            if (count[i] == 0) continue;
+            AffineTransform nm2cm =
+                main.map.getMap(getMap(i)).getTransform(cm);
+            Point2D omp = nm2cm.transform
+                (new Point2D.Double(x[i], y[i]), null);
+            double testd = (cx - omp.getX())*(cx - omp.getX()) +
+                (cy - omp.getY())*(cy - omp.getY());
+            if (testd < dist) {
+                dist = testd;
+                ret = i;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Shortest paths towards a destination.
+     * @param start start vertex
+     * @param dest destination vertex
+     * @return search result
+     */
+    RouteGraph.Tree route(int start, int dest) {
+        return graph.route(start, dest);
+    }
+
+    /** Map part of vertex name */
+    String getMap(int i) {
+        String name = (String) names.get(i);
+        return name.substring(0, name.lastIndexOf("//"));
+    }
+
+    /** Id part of vertex name */
+    String getId(int i) {
+        String name = (String) names.get(i);
+        return name.substring(name.lastIndexOf("//") + 2);
+    }
+}
@@ -62,6 +62,9 @@ public class State implements IListener {
     /** Current encounters */
     private Set encounters;
 
+    /** All valid encounters (also future ones) */
+    private TimeIndex allEncounters;
+
     /**
      * Constructor,
      * @param aMain root reference
@@ -71,6 +74,7 @@ public class State implements IListener {
 	modes = new HashSet();
         suppress = new HashSet();
         encounters = new HashSet();
+        allEncounters = new TimeIndex();
         Document dataDoc = Framework.parse(main.myPath + "state.xml", "travel");
         loadDoc(dataDoc.getDocumentElement());
     }
@@ -110,6 +114,22 @@ public class State implements IListener {
         return !encounters.isEmpty();
     }
 
+    /**
+     * Whether an encounter stalls travel at the given time. Used when
+     * travel is only simulated.
+     * @param date time to check
+     * @return encounter or null
+     */
+    synchronized TimeEvent getEncounter(long date) {
+        if (!getTypes().contains("Encounters")) return null;
+        Iterator iter = allEncounters.overlapping(date, date + 1).iterator();
+        while (iter.hasNext()) {
+            TimeEvent e = (TimeEvent) iter.next();
+            if (e.isActive(date, date + 1) != null) return e;
+        }
+        return null;
+    }
+
     /**
      * Get X coordinate for active group
      * @return x coordinate
@@ -187,12 +207,14 @@ public class State implements IListener {
                     mh.setNewMap(getMapName());
                     main.setRoutes(getMapName());
                 }
-                modes = new HashSet();
+                HashSet nm = new HashSet();
                 String[] ms = getModes();
                 for (int i = 0; i < ms.length; i++) {
-                    modes.add(ms[i]);
+                    nm.add(ms[i]);
                 }
-                main.redo(true);
+                modes = nm;
+                // Not while simulating
+                if (mh == null || !mh.autotravel) main.redo(true);
             }
         }
         if (obj instanceof TimeEvent) {
@@ -201,6 +223,12 @@ public class State implements IListener {
                 encounters.add(e);
             else
                 encounters.remove(e);
+            synchronized (this) {
+                if (e.isValid() && e.type().equals("Encounter"))
+                    allEncounters.add(e);
+                else
+                    allEncounters.remove(e);
+            }
         }
     }
 
@@ -226,6 +254,11 @@ public class State implements IListener {
     void clearMoved() {
 	addMoved(-moved);
     }
+
+    /**
+     * Time moved without rest.
+     */
+    long getMoved() { return moved; }
     
     /**
      * Return the active group for direct access.
@@ -241,28 +274,15 @@ public class State implements IListener {
      * @return the distance in minutes
      */
     int calcDist(int x0, int y0, String free) {
-	// Get all relevant data
-	String ter = main.getMap().getTerrain(x0, y0);
-	String terNW = main.getMap().getNWTerrain(x0, y0);
-	String veg = main.getMap().getVegetation(x0, y0);
-	String vegNW = main.getMap().getNWVegetation(x0, y0);
-	String cond = main.getWeather().getCondition(x0, y0);
-	float mapQuot = main.getMap().getSpeed();
-	float actSpeed = getActive().getSpeed();
-
 	// Update the button
-	main.bTerr.setText(ter + " & " + veg);
-
-	// Distance in leagues
-	int dx = x0 - getX();
-	int dy = y0 - getY();
-	double ret = Math.sqrt(dx*dx + dy*dy)/main.getMap().getScale();
+	main.bTerr.setText
+            (main.getMap().getTerrain(x0, y0) + " & " +
+             main.getMap().getVegetation(x0, y0));
 
 	// Get speed
 	float sp;
 	if (main.bSpeed.getText().equals("Auto speed")) {
-	    sp = calcSpeed
-		(ter, terNW, veg, vegNW, cond, free, Math.atan2(-dy, dx), mapQuot, actSpeed);
+	    sp = calcSpeed(getX(), getY(), x0, y0, getDate(), free);
 	}
 	else {
             try {
@@ -275,8 +295,7 @@ public class State implements IListener {
             }
 	}
 
-	// Calc distance in minutes
-	if (sp > 0) ret = (ret / sp * 4 * 60); else ret = -1;
+	int ret = calcDist(getX(), getY(), x0, y0, sp);
 
 	// Update buttons
 	if (ret < 0)
@@ -287,7 +306,56 @@ public class State implements IListener {
 	if (sp != Float.POSITIVE_INFINITY)
 	    main.eSpeed.setValue(new Float(sp));
 
-	return (int) ret;
+	return ret;
+    }
+
+    /**
+     * Calculate the (time) distance between two points of the active map
+     * at a given speed. Does not touch the GUI.
+     * @param x start x coordinate
+     * @param y start y coordinate
+     * @param x0 destination x coordinate
+     * @param y0 destination y coordinate
+     * @param sp speed
+     * @return the distance in minutes or -1
+     */
+    int calcDist(int x, int y, int x0, int y0, float sp) {
+	// Distance in leagues
+	int dx = x0 - x;
+	int dy = y0 - y;
+	double ret = Math.sqrt(dx*dx + dy*dy)/main.getMap().getScale();
+
+	// Calc distance in minutes
+	if (sp > 0) ret = (ret / sp * 4 * 60); else ret = -1;
+        return (int) ret;
+    }
+
+    /**
+     * Calculate the speed from a point to a destination on the active map
+     * from terrain, vegetation and the weather at the given time. Does not
+     * touch the GUI.
+     * @param x start x coordinate
+     * @param y start y coordinate
+     * @param x0 destination x coordinate
+     * @param y0 destination y coordinate
+     * @param date time of travel
+     * @param free movement type (free, normal, forced)
+     * @return speed
+     */
+    float calcSpeed(int x, int y, int x0, int y0, long date, String free) {
+	// Get all relevant data
+	String ter = main.getMap().getTerrain(x0, y0);
+	String terNW = main.getMap().getNWTerrain(x0, y0);
+	String veg = main.getMap().getVegetation(x0, y0);
+	String vegNW = main.getMap().getNWVegetation(x0, y0);
+	String cond = main.getWeather().getCondition(getMapName(), x0, y0, date);
+	float mapQuot = main.getMap().getSpeed();
+	float actSpeed = getActive().getSpeed();
+
+	int dx = x0 - x;
+	int dy = y0 - y;
+        return calcSpeed
+            (ter, terNW, veg, vegNW, cond, free, Math.atan2(-dy, dx), mapQuot, actSpeed, modes);
     }
 
     /**
@@ -299,12 +367,13 @@ public class State implements IListener {
      * @param cond weather condition
      * @param free travel type (free, normal, forced)
      * @param angle angle to x-axis
+     * @param mds travel modes
      * @return speed
      */
-    private float calcSpeed(String ter, String terNW, String veg, String vegNW, String cond, String free, double angle, float mapQuot, float actSpeed) {
+    float calcSpeed(String ter, String terNW, String veg, String vegNW, String cond, String free, double angle, float mapQuot, float actSpeed, Set mds) {
 	float wsp = Float.POSITIVE_INFINITY;
 	float lsp = Float.POSITIVE_INFINITY;
-	Iterator iter = modes.iterator();
+	Iterator iter = mds.iterator();
 
 	// If there is no mode chosen, don't move
 	if (!iter.hasNext()) wsp = lsp = 0;
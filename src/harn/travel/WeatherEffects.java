@@ -71,10 +71,24 @@ public class WeatherEffects implements IListener {
      */
     String getCondition(int x, int y) {
 	State st = main.getState();
-	if (st != null && weath != null) {
-	    String map = st.getMapName();
-	    long date = st.getDate();
-	    String ret = weath.condition(map, x, y, date);
+	if (st != null) return getCondition(st.getMapName(), x, y, st.getDate());
+	// Default
+	return "dry";
+    }
+
+    /**
+     * This method returns the condition travel takes place in at a given
+     * map and time.
+     * @param map map name
+     * @param x x-coordinate for condition
+     * @param y y-coordinate for condition
+     * @param date time for condition
+     * @return condition
+     */
+    String getCondition(String map, int x, int y, long date) {
+        Weather w = weath;
+	if (w != null) {
+	    String ret = w.condition(map, x, y, date);
 	    if (ret != null && ret.length() > 0) return ret;
 	}
 	// Default
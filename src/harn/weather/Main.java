@@ -146,6 +146,7 @@ public class Main implements IPlugin {
      */
     public void stop(boolean save) {
 	if (save && state.getDirty()) state.save();
+        state.close();
     }
 
     /**
@@ -279,7 +280,7 @@ public class Main implements IPlugin {
 
 	bSave = new JButton("Save");
         bSave.setMnemonic(KeyEvent.VK_S);
-	bSave.setEnabled(false);
+	bSave.setEnabled(state.getDirty());
 	bSave.addActionListener(new ActionListener() {
 		public void actionPerformed(ActionEvent e) {
 		    state.save();
@@ -0,0 +1,374 @@
+/**
+ * UGMT : Universal Gamemaster tool
+ * Copyright (c) 2004 Michael Jung
+ * miju@phantasia.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package harn.weather;
+
+import harn.repository.*;
+import java.awt.geom.*;
+import java.io.*;
+import java.net.URLEncoder;
+import java.util.*;
+import rpg.*;
+
+/**
+ * Regional weather. Each atlas is covered by a coarse grid of cells, each
+ * of which has its own weather chain, generated only when asked for. The
+ * cell of the active group has the weather of the state (as displayed).
+ * Weather moves between cells: a new watch of a cell takes its compound
+ * from a neighbouring cell with some probability, and a cell without
+ * weather starts from that of a neighbour. Only recently used cells are
+ * kept in memory; others are written to the "regions" directory.
+ * The weather of the state (as displayed) is that of one fixed home cell,
+ * the cell of the active group when regional weather was first asked for.
+ * So every cell keeps its history, wherever the group goes.
+ * @author Michael Jung
+ */
+class RegionalWeather {
+    /** Root reference */
+    private Main main;
+
+    /** Weather state */
+    private State state;
+
+    /** Cell size in leagues */
+    private int size;
+
+    /** Probability (percent) of weather coming from a neighbour */
+    private int coupling;
+
+    /** Cells in memory (key -> cell), least recently used first */
+    private LinkedHashMap cells;
+
+    /** Reference map of a map's atlas (map -> reference map) */
+    private Hashtable refs;
+
+    /** Directory of cells written */
+    private File dir;
+
+    /** Key of the cell with the weather of the state or null */
+    private String home;
+
+    /** Anything generated since the last save */
+    private boolean dirty;
+
+    /**
+     * Constructor.
+     * @param aMain root reference
+     * @param aState weather state
+     * @param aSize cell size in leagues
+     */
+    RegionalWeather(Main aMain, State aState, int aSize) {
+        main = aMain;
+        state = aState;
+        size = aSize;
+        coupling = Integer.parseInt
+            (main.myProps.getProperty("regional.coupling", "50"));
+        final int cached = Integer.parseInt
+            (main.myProps.getProperty("regional.cells", "256"));
+        cells = new LinkedHashMap(cached, .75f, true) {
+                protected boolean removeEldestEntry(Map.Entry e) {
+                    if (size() <= cached) return false;
+                    ((Cell)e.getValue()).write();
+                    return true;
+                }
+            };
+        refs = new Hashtable();
+        dir = new File(Framework.osName(main.myPath + "regions"));
+    }
+
+    /**
+     * Get the weather at a location.
+     * @param map map
+     * @param x coordinate on map
+     * @param y coordinate on map
+     * @param time time for weather
+     * @return weather unit
+     */
+    WeatherUnit getWeather(ScaledMap map, int x, int y, long time) {
+        String key = key(map, x, y);
+        if (key == null || key.equals(home())) return state.getWeather(time);
+        return getWeather(getCell(key), time/Main.WATCH, 3);
+    }
+
+    /**
+     * Get the weather of a cell; create it, if not there. Searches the given
+     * depth backwards for weather to build upon.
+     */
+    private WeatherUnit getWeather(Cell c, long watch, int stack) {
+        if (watch < 0) return null;
+        WeatherUnit ret = c.get(watch);
+        if (ret != null) return ret;
+
+        long time = watch*Main.WATCH;
+        WeatherUnit old = (stack > 0 ? getWeather(c, watch - 1, stack - 1) : null);
+        WeatherUnit near = neighbour(c, watch - 1);
+        if (old == null && near == null)
+            ret = new WeatherUnit(time);
+        else if (old == null)
+            ret = new WeatherUnit(near, time);
+        else if (near != null && DiceRoller.d(100) <= coupling)
+            ret = new WeatherUnit(old, near, time);
+        else
+            ret = new WeatherUnit(old, time);
+        c.put(watch, ret);
+        dirty = true;
+        return ret;
+    }
+
+    /**
+     * Get the weather of a random neighbour of a cell, that has weather for
+     * the watch. Only cells in memory are considered.
+     */
+    private WeatherUnit neighbour(Cell c, long watch) {
+        if (watch < 0) return null;
+        String anchor = home();
+        WeatherUnit[] found = new WeatherUnit[4];
+        int n = 0;
+        for (int i = 0; i < 4; i++) {
+            String key = c.ref + ":" + (c.cx + (i == 0 ? 1 : (i == 1 ? -1 : 0))) +
+                ":" + (c.cy + (i == 2 ? 1 : (i == 3 ? -1 : 0)));
+            WeatherUnit wu = null;
+            if (key.equals(anchor))
+                wu = state.getWeather(watch*Main.WATCH);
+            else {
+                Cell nc = (Cell) cells.get(key);
+                if (nc != null) wu = nc.get(watch);
+            }
+            if (wu != null) found[n++] = wu;
+        }
+        return (n > 0 ? found[DiceRoller.d(n) - 1] : null);
+    }
+
+    /**
+     * Key of the home cell. Read from the "home" file or taken from the
+     * active group and written there.
+     */
+    private String home() {
+        if (home != null) return home;
+        File f = new File(dir, "home");
+        try {
+            if (f.exists()) {
+                BufferedReader br = new BufferedReader
+                    (new InputStreamReader(new FileInputStream(f), "UTF-8"));
+                home = br.readLine();
+                br.close();
+            }
+            else {
+                home = anchor();
+                if (home == null) return null;
+                dir.mkdirs();
+                Writer w = new OutputStreamWriter(new FileOutputStream(f), "UTF-8");
+                w.write(home + "\n");
+                w.close();
+            }
+        }
+        catch (IOException e) {
+            // Debug
+            e.printStackTrace();
+        }
+        return home;
+    }
+
+    /** Key of the cell of the active group or null */
+    private String anchor() {
+        CharGroup act = state.getActive();
+        if (act == null) return null;
+        ScaledMap map = state.getMap(act.getMap());
+        return (map != null ? key(map, act.getX(), act.getY()) : null);
+    }
+
+    /**
+     * Key of the cell of a location: reference map of the atlas and cell
+     * coordinates on it.
+     */
+    private String key(ScaledMap map, int x, int y) {
+        String ref = (String) refs.get(map.getName());
+        if (ref == null) {
+            // First map in order, to which the coordinates transform
+            ref = map.getName();
+            String[] all = map.getReachableMaps();
+            for (int i = 0; all != null && i < all.length; i++)
+                if (all[i].compareTo(ref) < 0 && map.getTransform(all[i]) != null &&
+                    state.getMap(all[i]) != null)
+                    ref = all[i];
+            refs.put(map.getName(), ref);
+        }
+        ScaledMap rm = state.getMap(ref);
+        if (rm == null || rm.getScale() <= 0) return null;
+        double rx = x, ry = y;
+        if (!ref.equals(map.getName())) {
+            Point2D p = map.getTransform(ref).transform
+                (new Point2D.Double(x, y), null);
+            rx = p.getX();
+            ry = p.getY();
+        }
+        double len = (double)size*rm.getScale();
+        return ref + ":" + (int)Math.floor(rx/len) + ":" + (int)Math.floor(ry/len);
+    }
+
+    /** Get a cell; read or create it, if not in memory */
+    private Cell getCell(String key) {
+        Cell c = (Cell) cells.get(key);
+        if (c == null) {
+            c = new Cell(key);
+            cells.put(key, c);
+        }
+        return c;
+    }
+
+    /**
+     * Anything to save?
+     * @return dirty flag
+     */
+    boolean isDirty() { return dirty; }
+
+    /**
+     * Write all changed cells.
+     */
+    void save() {
+        Iterator iter = cells.values().iterator();
+        while (iter.hasNext())
+            ((Cell)iter.next()).write();
+        dirty = false;
+    }
+
+    /**
+     * Drop all weather or that outside the given watches, also of cells not
+     * in memory.
+     * @param first first watch kept
+     * @param last last watch kept
+     * @param all drop all weather
+     */
+    void dump(long first, long last, boolean all) {
+        if (!all) save();
+        cells.clear();
+        if (all) {
+            // The state's weather is gone as well
+            home = null;
+            new File(dir, "home").delete();
+        }
+        String[] list = dir.list();
+        for (int i = 0; list != null && i < list.length; i++) {
+            File f = new File(dir, list[i]);
+            if (!list[i].endsWith(".dat")) continue;
+            if (all) {
+                f.delete();
+                continue;
+            }
+            try {
+                WeatherStore ws = WeatherStore.read(f);
+                ws.retain(first, last);
+                if (ws.size() > 0)
+                    ws.write(f);
+                else
+                    f.delete();
+            }
+            catch (IOException e) {
+                // Debug
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Weather chain of one cell.
+     */
+    class Cell {
+        /** Key, reference map and coordinates */
+        String key, ref;
+        int cx, cy;
+
+        /** Weather */
+        WeatherStore store;
+
+        /** Last weather unit got */
+        long lastWatch = Long.MIN_VALUE;
+        WeatherUnit last;
+
+        /** Changed since written */
+        boolean changed;
+
+        /**
+         * Constructor. Reads the cell, if written before.
+         * @param aKey key of cell
+         */
+        Cell(String aKey) {
+            key = aKey;
+            int i = key.lastIndexOf(':', key.lastIndexOf(':') - 1);
+            ref = key.substring(0, i);
+            String[] c = key.substring(i + 1).split(":");
+            cx = Integer.parseInt(c[0]);
+            cy = Integer.parseInt(c[1]);
+            store = new WeatherStore();
+            File f = file();
+            if (f.exists()) {
+                try {
+                    store = WeatherStore.read(f);
+                }
+                catch (IOException e) {
+                    // Debug
+                    e.printStackTrace();
+                }
+            }
+            store.addLevels(Data.getLevelnames());
+        }
+
+        /** Get the weather of a watch or null */
+        WeatherUnit get(long watch) {
+            if (watch != lastWatch) {
+                last = store.get(watch);
+                lastWatch = watch;
+            }
+            return last;
+        }
+
+        /** Set the weather of a watch */
+        void put(long watch, WeatherUnit wu) {
+            store.put(watch, wu);
+            lastWatch = watch;
+            last = wu;
+            changed = true;
+        }
+
+        /** File of cell */
+        File file() {
+            try {
+                return new File(dir, URLEncoder.encode(key, "UTF-8") + ".dat");
+            }
+            catch (UnsupportedEncodingException e) {
+                // Cannot happen
+                throw new IllegalStateException(e.toString());
+            }
+        }
+
+        /** Write the cell, if changed */
+        void write() {
+            if (!changed) return;
+            try {
+                dir.mkdirs();
+                store.write(file());
+                changed = false;
+            }
+            catch (IOException e) {
+                // Debug
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -21,12 +21,14 @@ package harn.weather;
 
 import harn.repository.*;
 import java.io.*;
-import java.util.Hashtable;
-import javax.xml.transform.stream.StreamResult;
+import java.nio.file.*;
+import java.util.*;
 import org.w3c.dom.*;
 import rpg.*;
 import java.awt.image.BufferedImage;
 import java.awt.*;
+import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
 
 /**
  * State object. This represents the active weather state. It therefore
@@ -49,11 +51,17 @@ public class State extends Weather implements IListener {
     /** find out whether this object changed in "inform" */
     private boolean changed;
 
-    /** Weather list already determined */
-    private Hashtable availWeath;
+    /** Weather already determined */
+    private WeatherStore store;
 
-    /** Representation of the state.xml file (and changes) */
-    private Document stateDoc;
+    /** Weather units handed out recently (Long watch -> unit) */
+    private LinkedHashMap units;
+
+    /** Old state.xml to be imported, once the calendar is known */
+    private Document legacy;
+
+    /** state.dat could not be read; it is never overwritten then */
+    private boolean unreadable;
 
     /** yesterdays to show */
     private int back;
@@ -64,6 +72,12 @@ public class State extends Weather implements IListener {
     /** map of all maps */
     private Hashtable maps;
 
+    /** weather per region; null if there is one weather only */
+    private RegionalWeather regional;
+
+    /** journal of changes; null if not journaling */
+    private Journal journal;
+
     /**
      * Constructor. Loads the state of the weather (predetermined). This is
      * not a simple hasmap of hashmaps.
@@ -74,12 +88,63 @@ public class State extends Weather implements IListener {
 	back = Integer.parseInt(main.myProps.getProperty("yesterdays"));
 	front = Integer.parseInt(main.myProps.getProperty("tomorrows"));
 	maps = new Hashtable();
-        availWeath = new Hashtable();
+        final int cached = Integer.parseInt
+            (main.myProps.getProperty("store.cache", "1024"));
+        units = new LinkedHashMap(cached, .75f, true) {
+                protected boolean removeEldestEntry(Map.Entry e) {
+                    return size() > cached;
+                }
+            };
 
         main.myFrw.listen(new MapListener(), ScaledMap.TYPE, null);
         main.myFrw.announce(this);
-        stateDoc = Framework.parse(main.myPath + "state.xml", "state");
-        availWeath = loadFromDoc();
+
+        // The binary store replaces state.xml of older versions
+        File dat = new File(Framework.osName(main.myPath + "state.dat"));
+        store = new WeatherStore();
+        if (dat.exists()) {
+            try {
+                store = WeatherStore.read(dat);
+            }
+            catch (IOException e) {
+                // Debug
+                e.printStackTrace();
+                unreadable = true;
+                final String msg = "Cannot read " + dat.getPath() + ": " +
+                    e.getMessage() + "\nWeather will not be saved.";
+                SwingUtilities.invokeLater(new Runnable() {
+                        public void run() {
+                            JOptionPane.showMessageDialog
+                                (main.myPanel, msg, "Weather",
+                                 JOptionPane.ERROR_MESSAGE);
+                        }
+                    });
+            }
+        }
+        else
+            legacy = Framework.parse(main.myPath + "state.xml", "state");
+        store.addLevels(Data.getLevelnames());
+
+        int region = Integer.parseInt
+            (main.myProps.getProperty("regional.size", "0"));
+        if (region > 0) regional = new RegionalWeather(main, this, region);
+
+        // Replay changes since the last save
+        long compact = Long.parseLong
+            (main.myProps.getProperty("journal.compact", "0"));
+        if (compact > 0) {
+            journal = new Journal
+                (main.myPath + "state.journal", main.myPath + "state.dat",
+                 new Journaled());
+            try {
+                dirty = (journal.replay() > 0);
+            }
+            catch (IOException e) {
+                // Debug
+                e.printStackTrace();
+            }
+            journal.setCompaction(compact);
+        }
     }
 
     /**
@@ -154,10 +219,36 @@ public class State extends Weather implements IListener {
      * @param time time for weather unit
      * @return weather unit valid for time
      */
-    private WeatherUnit getWeather(long time) {
+    WeatherUnit getWeather(long time) {
 	return getWeather(time, 3);
     }
 
+    /**
+     * Returns weather unit for a location. Without regional weather (or on
+     * unknown maps) this is the weather of the active group.
+     * @param map map name
+     * @param x coordinate on map
+     * @param y coordinate on map
+     * @param time time for weather unit
+     * @return weather unit valid for time and location
+     */
+    private synchronized WeatherUnit getWeather(String map, int x, int y, long time) {
+        ScaledMap local = (ScaledMap) maps.get(map);
+        if (regional == null || local == null || time < 0 ||
+            !Data.existsTimeframe())
+            return getWeather(time);
+        WeatherUnit ret = regional.getWeather(local, x, y, time);
+        if (regional.isDirty() && !dirty) setDirty(true);
+        return ret;
+    }
+
+    /**
+     * Get a map known.
+     * @param name map name
+     * @return map or null
+     */
+    ScaledMap getMap(String name) { return (ScaledMap) maps.get(name); }
+
     /**
      * Returns weather unit for a given time. Also the depth with which to
      * search in the past for a weather unit already existing to build upon is
@@ -166,13 +257,20 @@ public class State extends Weather implements IListener {
      * @param stack depth to search backwards for existing weather 
      * @return weather key string
      */
-    private WeatherUnit getWeather(long time, int stack) {
+    private synchronized WeatherUnit getWeather(long time, int stack) {
         if (time < 0) return null;
-	String sidx = Data.stringDateTime(Main.WATCH*(time/Main.WATCH));
-        if (sidx == null) return null; // No calendar present
-	WeatherUnit weath = (WeatherUnit) availWeath.get(sidx);
+        if (!Data.existsTimeframe()) return null; // No calendar present
+        importLegacy();
+        long watch = time/Main.WATCH;
+        Long key = new Long(watch);
+	WeatherUnit weath = (WeatherUnit) units.get(key);
+        if (weath == null) {
+            weath = store.get(watch);
+            if (weath != null) units.put(key, weath);
+        }
 	// Weather unit isn't there yet.
 	if (weath == null) {
+            time = watch*Main.WATCH;
 	    if (stack > 0) {
 		WeatherUnit old = getWeather(time - main.WATCH, stack - 1);
                 if (old != null)
@@ -185,20 +283,34 @@ public class State extends Weather implements IListener {
 	    }
 	    changed = true;
 	    setDirty(true);
-	    availWeath.put(sidx, weath);
-
-	    // Get parent in DOM document
-	    Node parent = stateDoc.getDocumentElement();
-
-	    // Put into DOM document
-	    Element nn = stateDoc.createElement("date");
-	    nn.setAttribute("name", Data.stringDateTime(time));
-	    weath.setAttributes(nn);
-	    parent.appendChild(nn);
+	    units.put(key, weath);
+            store(watch, weath);
 	}
 	return weath;
     }
 
+    /**
+     * Store a weather unit and journal it.
+     * @param watch watch of unit
+     * @param weath weather unit
+     */
+    private void store(long watch, WeatherUnit weath) {
+        store.put(watch, weath);
+        if (journal != null) {
+            String[] rec = new String[4 + 2*weath.levels.size()];
+            rec[0] = "watch";
+            rec[1] = Long.toString(watch);
+            rec[2] = weath.getSeason() + "." + weath.getIndex();
+            rec[3] = Integer.toString(weath.speedindex);
+            Iterator iter = weath.levels.keySet().iterator();
+            for (int i = 4; iter.hasNext(); i += 2) {
+                rec[i] = (String) iter.next();
+                rec[i + 1] = weath.levels.get(rec[i]).toString();
+            }
+            journal.log(rec);
+        }
+    }
+
     /**
      * Weather IF method. We provide a singleton, so this is constant.
      * @return singleton name
@@ -213,15 +325,15 @@ public class State extends Weather implements IListener {
 
     /**
      * Weather IF method. We need to know whether we are in water or not at
-     * this location.
-     * @param map map name (unused)
-     * @param x coordinate on map (unused)
-     * @param y coordinate on map (unused)
+     * this location; with regional weather also the region.
+     * @param map map name
+     * @param x coordinate on map
+     * @param y coordinate on map
      * @param date time for weather
      * @return weather condition
      */
     public String condition(String map, int x, int y, long date) {
-	WeatherUnit weath = getWeather(date);
+	WeatherUnit weath = getWeather(map, x, y, date);
         if (weath == null) return "dry"; // No calendar present
 	// Water is handled different, only wind counts
 	ScaledMap local = (ScaledMap)maps.get(map);
@@ -245,14 +357,14 @@ public class State extends Weather implements IListener {
 
     /**
      * Weather IF method.
-     * @param map map name (unused)
-     * @param x coordinate on map (unused)
-     * @param y coordinate on map (unused)
+     * @param map map name (used with regional weather)
+     * @param x coordinate on map (used with regional weather)
+     * @param y coordinate on map (used with regional weather)
      * @param date time for weather
      * @return weather condition
      */
     public String event(String map, int x, int y, long date) {
-	WeatherUnit wu = getWeather(date);
+	WeatherUnit wu = getWeather(map, x, y, date);
         if (wu != null) return wu.event;
         return null;
     }
@@ -296,6 +408,8 @@ public class State extends Weather implements IListener {
 	if (nyu < 0) nyu = 0;
 	if (old != nyu) {
 	    weath1.levels.put(name,new Integer(nyu));
+            store(date/Main.WATCH, weath1);
+            setDirty(true);
 	    // Cascade down
 	    setCond(name, date);
 	    main.myFrw.announce(this);
@@ -317,6 +431,7 @@ public class State extends Weather implements IListener {
 	int val = weath2.calcCond(name, weath1, date);
 	if (val == ((Integer)weath2.levels.get(name)).intValue()) return;
 	weath2.levels.put(name, new Integer(val));
+        store((date + main.WATCH)/Main.WATCH, weath2);
 
 	// Cascade down
 	setCond(name, date + main.WATCH);
@@ -368,49 +483,99 @@ public class State extends Weather implements IListener {
      */
     private void setDirty(boolean flag) {
 	dirty = flag;
-	main.bSave.setEnabled(dirty);
+        SwingUtilities.invokeLater(new Runnable() {
+                public void run() { main.bSave.setEnabled(dirty); }
+            });
+    }
+
+    /**
+     * Tell the user why the weather was not saved. It stays dirty.
+     * @param msg reason
+     */
+    private void notSaved(final String msg) {
+        SwingUtilities.invokeLater(new Runnable() {
+                public void run() {
+                    JOptionPane.showMessageDialog
+                        (main.myPanel, msg, "Weather",
+                         JOptionPane.WARNING_MESSAGE);
+                }
+            });
     }
 
     /**
      * Use this method to save the data in this object to file. AFter saving
-     * this object is "clean" once more.
+     * this object is "clean" once more. If it cannot be saved, the user is
+     * told and it stays dirty.
      */
-    void save() {
-        File file = new File(main.myPath + "state.xml");
-        Framework.backup(main.myPath + "state.xml");
-        Framework.transform(stateDoc, new StreamResult(file), null);
+    synchronized void save() {
+        // The old state can only be imported with a calendar
+        if (legacy != null && !Data.existsTimeframe()) {
+            notSaved("Weather not saved: state.xml of an older version " +
+                     "needs the calendar to be converted.");
+            return;
+        }
+        if (regional != null) regional.save();
+        importLegacy();
+        if (unreadable) {
+            notSaved("Weather not saved: state.dat could not be read " +
+                     "and is kept as it is.");
+            return;
+        }
+        File file = new File(Framework.osName(main.myPath + "state.dat"));
+        File tmp = new File(file.getPath() + ".tmp");
+        Framework.backup(main.myPath + "state.dat");
+        try {
+            // Replaced only when completely written
+            store.write(tmp);
+            Files.move(tmp.toPath(), file.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (IOException e) {
+            // Debug
+            e.printStackTrace();
+            return;
+        }
+        if (journal != null) journal.saved();
         setDirty(false);
     }
-    
+
+    /**
+     * Stop journaling. Unsaved changes remain in the journal.
+     */
+    void close() {
+        if (journal != null) journal.close();
+    }
+
     /**
      * This method drops all or invisible weather entries, if all=false those
      * that are older than "back" days or further than "front".
      * @param all all or just invisible?
      */
-    void dump(boolean all) {
-        // For XML update
-        Node tree = stateDoc.getDocumentElement();
-        NodeList children = tree.getChildNodes();
-
-        long first = 0;
-        long end = 0;
-        if (act != null) {
-            // first & last date to keep
-	    first = act.getDate() - back * main.DAY;
-	    end = act.getDate() + front * main.DAY;
+    synchronized void dump(boolean all) {
+        importLegacy();
+        if (all) {
+            store.clear();
+            if (journal != null) journal.log(new String[] { "clear" });
+            if (regional != null) regional.dump(0, 0, true);
         }
-
-        for (int i = 0; i < children.getLength(); i++) {
-            NamedNodeMap attr = children.item(i).getAttributes();
-            if (attr != null) {
-                String name = attr.getNamedItem("name").getNodeValue();
-                if (first > Data.string2date(name) ||
-                    end < Data.string2date(name) || all) {
-                    tree.removeChild(children.item(i));
-                    availWeath.remove(name);
-                }
+        else {
+            long first = 0;
+            long end = 0;
+            if (act != null) {
+                // first & last date to keep
+                first = act.getDate() - back * main.DAY;
+                end = act.getDate() + front * main.DAY;
             }
+            // Watches partly in the range are kept
+            first = first/Main.WATCH;
+            end = end/Main.WATCH;
+            store.retain(first, end);
+            if (journal != null)
+                journal.log(new String[] { "retain", Long.toString(first), Long.toString(end) });
+            if (regional != null) regional.dump(first, end, false);
         }
+        units.clear();
+        setDirty(true);
 
         // Redraw
         tDisplay = Integer.MIN_VALUE;
@@ -418,22 +583,22 @@ public class State extends Weather implements IListener {
     }
 
     /**
-     * Load the availWeath list from the XML doxument (reflecting the current
-     * state).
-     * @return hashtable containing the weather entries
+     * Import the old state.xml (reflecting the state of older versions) into
+     * the store. Needs the calendar. Watches already stored are newer.
      */
-    private Hashtable loadFromDoc() {
-	Hashtable tab = new Hashtable();
-
-	NodeList tree = stateDoc.getDocumentElement().getChildNodes();
+    private void importLegacy() {
+        if (legacy == null || !Data.existsTimeframe()) return;
+	NodeList tree = legacy.getDocumentElement().getChildNodes();
 	for (int i = 0; tree != null && i < tree.getLength(); i++) {
 	    NamedNodeMap attr = tree.item(i).getAttributes();
 	    if (attr != null) {
 		String name = attr.getNamedItem("name").getNodeValue();
-		tab.put(name, new WeatherUnit(attr));
+                long watch = Data.string2date(name)/Main.WATCH;
+		if (!store.has(watch))
+                    store.put(watch, new WeatherUnit(attr));
 	    }
 	}
-	return tab;
+        legacy = null;
     }
 
     /**
@@ -459,6 +624,81 @@ public class State extends Weather implements IListener {
         return img.getSubimage(d[0], d[1], d[2], d[3]);
     }
 
+    /**
+     * This class applies the journal to the store and writes compacted
+     * states. Records are "watch" with watch, compound, wind speed index and
+     * level name/value pairs, "retain" with the first and last watch and
+     * "clear". Records "date" and "drop" of older versions are applied to
+     * the old state.
+     */
+    class Journaled implements IJournaled {
+        /** Date elements of the old state by name; built when replaying */
+        private HashMap index;
+
+        /** Old state the index is for */
+        private Document indexed;
+
+        /** Find the date element of the given name in the old state */
+        private Element find(String name) {
+            if (indexed != legacy) {
+                index = new HashMap();
+                NodeList children = legacy.getDocumentElement().getChildNodes();
+                for (int i = 0; i < children.getLength(); i++) {
+                    NamedNodeMap attr = children.item(i).getAttributes();
+                    if (attr != null && attr.getNamedItem("name") != null)
+                        index.put(attr.getNamedItem("name").getNodeValue(),
+                                  children.item(i));
+                }
+                indexed = legacy;
+            }
+            return (Element) index.get(name);
+        }
+
+        /** IF method */
+        public void replay(String[] rec) {
+            if (rec[0].equals("watch") && rec.length > 3) {
+                Hashtable lv = new Hashtable();
+                for (int i = 4; i + 1 < rec.length; i += 2)
+                    lv.put(rec[i], new Integer(rec[i + 1]));
+                int dot = rec[2].indexOf('.');
+                store.put(Long.parseLong(rec[1]), rec[2].substring(0, dot),
+                          Integer.parseInt(rec[2].substring(dot + 1)),
+                          Integer.parseInt(rec[3]), lv);
+            }
+            if (rec[0].equals("retain") && rec.length > 2)
+                store.retain(Long.parseLong(rec[1]), Long.parseLong(rec[2]));
+            if (rec[0].equals("clear"))
+                store.clear();
+            if (legacy == null) return;
+            if (rec[0].equals("drop") && rec.length > 1) {
+                Element old = find(rec[1]);
+                if (old != null) old.getParentNode().removeChild(old);
+                index.remove(rec[1]);
+            }
+            if (rec[0].equals("date")) {
+                Element nn = legacy.createElement("date");
+                for (int i = 1; i + 1 < rec.length; i += 2)
+                    nn.setAttribute(rec[i], rec[i + 1]);
+                Element old = find(nn.getAttribute("name"));
+                if (old != null)
+                    legacy.getDocumentElement().replaceChild(nn, old);
+                else
+                    legacy.getDocumentElement().appendChild(nn);
+                index.put(nn.getAttribute("name"), nn);
+            }
+        }
+        /** IF method */
+        public Object snapshot() {
+            // Not before the old state is imported
+            importLegacy();
+            return (legacy == null && !unreadable ? store.copy() : null);
+        }
+        /** IF method */
+        public void write(Object snapshot, File file) throws IOException {
+            ((WeatherStore) snapshot).write(file);
+        }
+    }
+
     /**
      * This class listens to all maps and registers them locally for later
      * reference.
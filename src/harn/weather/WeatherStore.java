@@ -0,0 +1,340 @@
+/**
+ * UGMT : Universal Gamemaster tool
+ * Copyright (c) 2004 Michael Jung
+ * miju@phantasia.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package harn.weather;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Store of the weather determined, indexed by watch (time/WATCH). Each
+ * watch is a fixed-width record of ints: season, compound index and wind
+ * speed index packed into the first, the condition levels following.
+ * Records are kept in pages of consecutive watches, so that access by
+ * date is a shift and an index, while long gaps in time cost nothing.
+ * Season and level names are kept in tables, which are written with the
+ * pages to a binary file.
+ * @author Michael Jung
+ */
+class WeatherStore {
+    /** File marker and version */
+    final private static int MAGIC = 0x55475753;
+    final private static int VERSION = 1;
+
+    /** Watches per page (log) */
+    final private static int SHIFT = 10;
+    final private static int PAGE = 1 << SHIFT;
+
+    /** Record present */
+    final private static int PRESENT = 1 << 24;
+
+    /** Season names */
+    private ArrayList seasons;
+
+    /** Level names */
+    private ArrayList levels;
+
+    /** Ints per record */
+    private int width;
+
+    /** Pages (page number -> int[]) */
+    private HashMap pages;
+
+    /** Last page accessed */
+    private long lastNo = Long.MIN_VALUE;
+    private int[] lastPage;
+
+    /** Number of records */
+    private int size;
+
+    /**
+     * Constructor. Empty store.
+     */
+    WeatherStore() {
+        seasons = new ArrayList();
+        levels = new ArrayList();
+        width = 1;
+        pages = new HashMap();
+    }
+
+    /**
+     * Add level names; existing records get level 0.
+     * @param names level names
+     */
+    synchronized void addLevels(String[] names) {
+        int old = width;
+        for (int i = 0; i < names.length; i++)
+            if (!levels.contains(names[i])) levels.add(names[i]);
+        width = 1 + levels.size();
+        if (width == old) return;
+
+        // Widen all records
+        Iterator iter = pages.entrySet().iterator();
+        while (iter.hasNext()) {
+            Map.Entry e = (Map.Entry) iter.next();
+            int[] p = (int[]) e.getValue();
+            int[] np = new int[PAGE*width];
+            for (int i = 0; i < PAGE; i++)
+                System.arraycopy(p, i*old, np, i*width, old);
+            e.setValue(np);
+        }
+        lastNo = Long.MIN_VALUE;
+        lastPage = null;
+    }
+
+    /**
+     * Number of watches stored.
+     * @return size
+     */
+    synchronized int size() { return size; }
+
+    /**
+     * Whether a watch is stored.
+     * @param watch watch
+     * @return true if stored
+     */
+    synchronized boolean has(long watch) {
+        int[] p = page(watch, false);
+        return p != null && p[offset(watch)] != 0;
+    }
+
+    /**
+     * Get the weather of a watch.
+     * @param watch watch
+     * @return new weather unit or null if not stored
+     */
+    synchronized WeatherUnit get(long watch) {
+        int[] p = page(watch, false);
+        if (p == null) return null;
+        int off = offset(watch);
+        int head = p[off];
+        if (head == 0) return null;
+
+        Hashtable lv = new Hashtable();
+        for (int i = 0; i < levels.size(); i++)
+            lv.put(levels.get(i), new Integer(p[off + 1 + i]));
+        return new WeatherUnit
+            (watch*Main.WATCH, (String) seasons.get((head >> 16) & 0xff),
+             (head >> 8) & 0xff, head & 0xff, lv);
+    }
+
+    /**
+     * Store the weather of a watch.
+     * @param watch watch
+     * @param wu weather unit
+     */
+    void put(long watch, WeatherUnit wu) {
+        put(watch, wu.getSeason(), wu.getIndex(), wu.speedindex, wu.levels);
+    }
+
+    /**
+     * Store the weather of a watch.
+     * @param watch watch
+     * @param season season name
+     * @param idx compound index
+     * @param speed wind speed index
+     * @param lv levels (name -> Integer); missing ones are 0
+     */
+    synchronized void put(long watch, String season, int idx, int speed, Map lv) {
+        Iterator iter = lv.keySet().iterator();
+        while (iter.hasNext()) {
+            String name = (String) iter.next();
+            if (!levels.contains(name)) addLevels(new String[] { name });
+        }
+        int si = seasons.indexOf(season);
+        if (si < 0) {
+            si = seasons.size();
+            seasons.add(season);
+        }
+
+        int[] p = page(watch, true);
+        int off = offset(watch);
+        if (p[off] == 0) size++;
+        p[off] = PRESENT | (si & 0xff) << 16 | (idx & 0xff) << 8 | (speed & 0xff);
+        for (int i = 0; i < levels.size(); i++) {
+            Integer val = (Integer) lv.get(levels.get(i));
+            p[off + 1 + i] = (val != null ? val.intValue() : 0);
+        }
+    }
+
+    /**
+     * Remove the weather of a watch.
+     * @param watch watch
+     */
+    synchronized void remove(long watch) {
+        int[] p = page(watch, false);
+        if (p == null) return;
+        int off = offset(watch);
+        if (p[off] == 0) return;
+        Arrays.fill(p, off, off + width, 0);
+        if (--size == 0) clear();
+    }
+
+    /**
+     * Keep only the watches from first to last.
+     * @param first first watch kept
+     * @param last last watch kept
+     */
+    synchronized void retain(long first, long last) {
+        Iterator iter = pages.entrySet().iterator();
+        while (iter.hasNext()) {
+            Map.Entry e = (Map.Entry) iter.next();
+            long no = ((Long)e.getKey()).longValue();
+            int[] p = (int[]) e.getValue();
+            for (int i = 0; i < PAGE; i++) {
+                long w = (no << SHIFT) + i;
+                if (p[i*width] != 0 && (w < first || w > last)) {
+                    Arrays.fill(p, i*width, (i + 1)*width, 0);
+                    size--;
+                }
+            }
+            if ((no << SHIFT) + PAGE <= first || (no << SHIFT) > last)
+                iter.remove();
+        }
+        lastNo = Long.MIN_VALUE;
+        lastPage = null;
+    }
+
+    /**
+     * Remove all weather.
+     */
+    synchronized void clear() {
+        pages.clear();
+        size = 0;
+        lastNo = Long.MIN_VALUE;
+        lastPage = null;
+    }
+
+    /**
+     * Get a copy of this store, e.g. to be written in the background.
+     * @return copy
+     */
+    synchronized WeatherStore copy() {
+        WeatherStore ret = new WeatherStore();
+        ret.seasons.addAll(seasons);
+        ret.levels.addAll(levels);
+        ret.width = width;
+        ret.size = size;
+        Iterator iter = pages.entrySet().iterator();
+        while (iter.hasNext()) {
+            Map.Entry e = (Map.Entry) iter.next();
+            ret.pages.put(e.getKey(), ((int[])e.getValue()).clone());
+        }
+        return ret;
+    }
+
+    /** Page of a watch */
+    private int[] page(long watch, boolean create) {
+        long no = watch >> SHIFT;
+        if (no == lastNo) return lastPage;
+        int[] p = (int[]) pages.get(new Long(no));
+        if (p == null) {
+            if (!create) return null;
+            p = new int[PAGE*width];
+            pages.put(new Long(no), p);
+        }
+        lastNo = no;
+        lastPage = p;
+        return p;
+    }
+
+    /** Offset of a watch within its page */
+    private int offset(long watch) {
+        return (int)(watch & (PAGE - 1))*width;
+    }
+
+    /**
+     * Write this store to a file.
+     * @param file file to write
+     */
+    synchronized void write(File file) throws IOException {
+        DataOutputStream out = new DataOutputStream
+            (new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeNames(out, seasons);
+            writeNames(out, levels);
+
+            // Pages in order of time
+            Long[] keys = (Long[]) pages.keySet().toArray(new Long[0]);
+            Arrays.sort(keys);
+            out.writeInt(keys.length);
+            ByteBuffer buf = ByteBuffer.allocate(PAGE*width*4);
+            for (int i = 0; i < keys.length; i++) {
+                out.writeLong(keys[i].longValue());
+                buf.clear();
+                buf.asIntBuffer().put((int[]) pages.get(keys[i]));
+                out.write(buf.array());
+            }
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Read a store from a file.
+     * @param file file to read
+     * @return store
+     */
+    static WeatherStore read(File file) throws IOException {
+        DataInputStream in = new DataInputStream
+            (new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException("Not a weather store: " + file);
+            WeatherStore ret = new WeatherStore();
+            readNames(in, ret.seasons);
+            readNames(in, ret.levels);
+            ret.width = 1 + ret.levels.size();
+
+            int n = in.readInt();
+            byte[] raw = new byte[PAGE*ret.width*4];
+            for (int i = 0; i < n; i++) {
+                long no = in.readLong();
+                in.readFully(raw);
+                int[] p = new int[PAGE*ret.width];
+                ByteBuffer.wrap(raw).asIntBuffer().get(p);
+                for (int j = 0; j < PAGE; j++)
+                    if (p[j*ret.width] != 0) ret.size++;
+                ret.pages.put(new Long(no), p);
+            }
+            return ret;
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /** Write a name table */
+    private static void writeNames(DataOutputStream out, ArrayList names) throws IOException {
+        out.writeInt(names.size());
+        for (int i = 0; i < names.size(); i++)
+            out.writeUTF((String) names.get(i));
+    }
+
+    /** Read a name table */
+    private static void readNames(DataInputStream in, ArrayList names) throws IOException {
+        int n = in.readInt();
+        for (int i = 0; i < n; i++)
+            names.add(in.readUTF());
+    }
+}
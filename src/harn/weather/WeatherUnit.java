@@ -54,7 +54,7 @@ class WeatherUnit {
      */
     WeatherUnit(long time) {
 	String comp = Data.getSeason(time) + "." + DiceRoller.d(20);
-	init(comp, new Hashtable(), time);
+	init(comp, new Hashtable(), time, DiceRoller.d(6));
     }
 
     /**
@@ -79,7 +79,19 @@ class WeatherUnit {
 	Node nt = attrList.getNamedItem("name");
 	long time = (nt != null ? Data.string2date(nt.getNodeValue()) : 0);
 
-	init(comp, ht, time);
+	init(comp, ht, time, DiceRoller.d(6));
+    }
+
+    /**
+     * Constructor. Used by the weather store.
+     * @param time time of unit
+     * @param aSeason season
+     * @param anIdx index as in compound
+     * @param speed wind speed index
+     * @param newlevels levels for all conditions
+     */
+    WeatherUnit(long time, String aSeason, int anIdx, int speed, Hashtable newlevels) {
+	init(aSeason + "." + anIdx, newlevels, time, speed);
     }
 
     /**
@@ -90,7 +102,19 @@ class WeatherUnit {
      * @param time time of new unit
      */
     WeatherUnit(WeatherUnit old, long time) {
-	int idx = old.idx;
+	this(old, old, time);
+    }
+
+    /**
+     * Constructor. Uses a previous weather unit for the condition levels
+     * and a nearby previous weather unit for the compound. Used for
+     * regional weather, where weather moves from one place to the next.
+     * @param old previous weather
+     * @param near previous weather nearby
+     * @param time time of new unit
+     */
+    WeatherUnit(WeatherUnit old, WeatherUnit near, long time) {
+	int idx = near.idx;
 	switch (DiceRoller.d(10)) {
 	    case 0: idx = 1 + (idx + 18) % 20; break;
 	    case 7: case 8:  idx = 1 + idx % 20; break;
@@ -107,26 +131,39 @@ class WeatherUnit {
 	    ht.put(list[i], new Integer(val));
 	}
 
-	init(comp, ht, time);
+	init(comp, ht, time, DiceRoller.d(6));
     }
 
     /**
      * Initialize this object.
      * @param comp compound id
      * @param conds levels for all conditions
+     * @param speed wind speed index
      */
-    private void init(String comp, Hashtable newlevels, long time) {
+    private void init(String comp, Hashtable newlevels, long time, int speed) {
 	season = comp.substring(0, comp.indexOf('.'));
 	idx = Integer.parseInt(comp.substring(comp.indexOf('.') + 1));
 	event = Data.getEvent(comp);
 	temperature = Data.getTemp(comp, time);
 	winddir = Data.getWindDir(comp);
 	windspeed = Data.getWindSpeed(comp);
-	speedindex = DiceRoller.d(6);
+	speedindex = speed;
 	clouds = Data.getClouds(comp);
 	levels = newlevels;
     }
 
+    /**
+     * Get the season.
+     * @return season
+     */
+    String getSeason() { return season; }
+
+    /**
+     * Get the index as in compound.
+     * @return index
+     */
+    int getIndex() { return idx; }
+
     /**
      * Given an old weather unit calculate the new level for condition
      * name. The new compound is taken from this object and assumed to exist.
@@ -0,0 +1,265 @@
+/*
+ * UGMT : Unversal Gamemaster tool
+ * Copyright (c) 2004 Michael Jung
+ *
+ * Any party obtaining a copy of these files is granted, free of charge, a
+ * full and unrestricted irrevocable, world-wide, paid up, royalty-free,
+ * nonexclusive right and license to deal in this software and
+ * documentation files (the "Software"), including without limitation the
+ * rights to use, copy, modify, merge, publish and/or distribute copies of
+ * the Software, and to permit persons who receive copies from any such
+ * party to do so, with the only requirement being that this copyright
+ * notice remain intact.
+ */
+package rpg;
+
+import java.io.*;
+import java.security.*;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * Incremental backup store. Files are cut into content defined chunks
+ * (boundaries depend on the data, not on offsets, so an insertion only
+ * changes the chunks around it), and each chunk is stored once, compressed,
+ * under its SHA-1 hash. A backup (session) is a manifest listing the chunks
+ * of every file. Files whose size and modification time did not change
+ * since the last session are not read at all.<br>
+ * Layout: <em>dir</em>/chunks/xx/hash and <em>dir</em>/sessions/name.
+ * @author Michael Jung
+ */
+class BackupStore {
+    /** Minimal, maximal chunk size */
+    final static private int MIN = 2048, MAX = 65536;
+
+    /** Boundary mask; average chunk size is about MIN + 8k */
+    final static private int MASK = 0x1fff;
+
+    /** Rolling hash table */
+    final static private long[] gear = new long[256];
+    static {
+        Random r = new Random(0x5eed);
+        for (int i = 0; i < gear.length; i++) gear[i] = r.nextLong();
+    }
+
+    /** Chunk directory */
+    private File chunks;
+
+    /** Session directory */
+    private File sessions;
+
+    /**
+     * Constructor.
+     * @param dir store directory
+     */
+    BackupStore(File dir) {
+        chunks = new File(dir, "chunks");
+        sessions = new File(dir, "sessions");
+    }
+
+    /**
+     * List all sessions, oldest first.
+     * @return session names
+     */
+    String[] getSessions() {
+        String[] list = sessions.list();
+        if (list == null) return new String[0];
+        Arrays.sort(list);
+        return list;
+    }
+
+    /**
+     * Make a backup of the given files.
+     * @param files (relative) file names
+     * @return session name
+     */
+    String backup(String[] files) throws IOException {
+        // Entries of the last session: name -> line
+        HashMap last = new HashMap();
+        String[] old = getSessions();
+        if (old.length > 0) {
+            BufferedReader br = new BufferedReader
+                (new InputStreamReader
+                 (new FileInputStream(new File(sessions, old[old.length - 1])),
+                  "UTF-8"));
+            String line;
+            while ((line = br.readLine()) != null)
+                last.put(line.split("\t")[0], line);
+            br.close();
+        }
+
+        StringBuffer manifest = new StringBuffer();
+        for (int i = 0; i < files.length; i++) {
+            File f = new File(files[i]);
+            if (!f.isFile()) continue;
+            String name = files[i].replace(File.separatorChar, '/');
+            String head = name + "\t" + f.length() + "\t" + f.lastModified();
+
+            // Unchanged?
+            String line = (String) last.get(name);
+            if (line == null || !line.startsWith(head + "\t"))
+                line = head + "\t" + store(f);
+            manifest.append(line).append("\n");
+        }
+
+        sessions.mkdirs();
+        String session =
+            new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+        for (int i = 1; new File(sessions, session).exists(); i++)
+            session = session.replaceAll("\\.\\d+$", "") + "." + i;
+        File tmp = new File(sessions, session + ".tmp");
+        Writer w = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8");
+        w.write(manifest.toString());
+        w.close();
+        if (!tmp.renameTo(new File(sessions, session)))
+            throw new IOException("Cannot write session " + session);
+        return session;
+    }
+
+    /**
+     * Cut a file into chunks and store new ones.
+     * @return comma separated chunk hashes
+     */
+    private String store(File f) throws IOException {
+        StringBuffer ret = new StringBuffer();
+        InputStream is = new BufferedInputStream(new FileInputStream(f));
+        byte[] buf = new byte[MAX];
+        try {
+            int len;
+            while ((len = nextChunk(is, buf)) > 0) {
+                if (ret.length() > 0) ret.append(",");
+                ret.append(put(buf, len));
+            }
+        }
+        finally {
+            is.close();
+        }
+        return ret.toString();
+    }
+
+    /**
+     * Read the next chunk. The boundary is where the rolling hash over the
+     * last bytes matches the mask.
+     * @return chunk length, 0 at end of file
+     */
+    private static int nextChunk(InputStream is, byte[] buf) throws IOException {
+        long h = 0;
+        int len = 0;
+        int b;
+        while (len < MAX && (b = is.read()) >= 0) {
+            buf[len++] = (byte) b;
+            h = (h << 1) + gear[b];
+            if (len >= MIN && (h & MASK) == 0) break;
+        }
+        return len;
+    }
+
+    /**
+     * Store a chunk, if not yet present.
+     * @return hash of chunk
+     */
+    private String put(byte[] buf, int len) throws IOException {
+        String hash = hash(buf, len);
+        File f = file(hash);
+        if (f.exists()) return hash;
+
+        f.getParentFile().mkdirs();
+        File tmp = new File(f.getPath() + ".tmp");
+        DeflaterOutputStream os =
+            new DeflaterOutputStream(new FileOutputStream(tmp));
+        os.write(buf, 0, len);
+        os.close();
+        if (!tmp.renameTo(f)) {
+            tmp.delete();
+            if (!f.exists()) throw new IOException("Cannot store " + hash);
+        }
+        return hash;
+    }
+
+    /** File of a chunk */
+    private File file(String hash) {
+        return new File(new File(chunks, hash.substring(0, 2)), hash);
+    }
+
+    /** Hex SHA-1 */
+    private static String hash(byte[] buf, int len) {
+        try {
+            byte[] d = MessageDigest.getInstance("SHA-1").digest
+                (len == buf.length ? buf : Arrays.copyOf(buf, len));
+            StringBuffer sb = new StringBuffer();
+            for (int i = 0; i < d.length; i++)
+                sb.append(Integer.toHexString(0x100 | (d[i] & 0xff)).substring(1));
+            return sb.toString();
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Rebuild the files of a session. All chunks of the session are
+     * verified against their hash before any file is written.
+     * @param session session name
+     * @param target directory to restore into
+     * @return restored file names
+     */
+    String[] restore(String session, File target) throws IOException {
+        File mf = new File(sessions, session);
+        if (!mf.exists()) throw new FileNotFoundException(session);
+
+        ArrayList lines = new ArrayList();
+        BufferedReader br = new BufferedReader
+            (new InputStreamReader(new FileInputStream(mf), "UTF-8"));
+        String line;
+        while ((line = br.readLine()) != null) lines.add(line.split("\t"));
+        br.close();
+
+        // Verify all chunks first
+        for (int j = 0; j < lines.size(); j++) {
+            String[] hashes = hashes((String[]) lines.get(j));
+            for (int i = 0; i < hashes.length; i++) {
+                byte[] data = get(hashes[i]);
+                if (!hash(data, data.length).equals(hashes[i]))
+                    throw new IOException("Corrupt chunk " + hashes[i]);
+            }
+        }
+
+        ArrayList names = new ArrayList();
+        for (int j = 0; j < lines.size(); j++) {
+            String[] p = (String[]) lines.get(j);
+            String[] hashes = hashes(p);
+
+            // Assemble
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            for (int i = 0; i < hashes.length; i++)
+                bos.write(get(hashes[i]));
+
+            File f = new File(target, p[0].replace('/', File.separatorChar));
+            if (f.getParentFile() != null) f.getParentFile().mkdirs();
+            FileOutputStream fos = new FileOutputStream(f);
+            bos.writeTo(fos);
+            fos.close();
+            f.setLastModified(Long.parseLong(p[2]));
+            names.add(p[0]);
+        }
+        return (String[]) names.toArray(new String[names.size()]);
+    }
+
+    /** Chunk hashes of a manifest line */
+    private static String[] hashes(String[] p) {
+        return (p.length > 3 && p[3].length() > 0 ?
+                p[3].split(",") : new String[0]);
+    }
+
+    /** Read a chunk */
+    private byte[] get(String hash) throws IOException {
+        InputStream is = new InflaterInputStream(new FileInputStream(file(hash)));
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int len;
+        while ((len = is.read(buf)) > 0) bos.write(buf, 0, len);
+        is.close();
+        return bos.toByteArray();
+    }
+}
@@ -0,0 +1,482 @@
+/*
+ * UGMT : Unversal Gamemaster tool
+ * Copyright (c) 2004 Michael Jung
+ *
+ * Any party obtaining a copy of these files is granted, free of charge, a
+ * full and unrestricted irrevocable, world-wide, paid up, royalty-free,
+ * nonexclusive right and license to deal in this software and
+ * documentation files (the "Software"), including without limitation the
+ * rights to use, copy, modify, merge, publish and/or distribute copies of
+ * the Software, and to permit persons who receive copies from any such
+ * party to do so, with the only requirement being that this copyright
+ * notice remain intact.
+ */
+package rpg;
+
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compiled dice expression. Expressions consist of numbers, dice, "+",
+ * "-", "*", "/" (rounding towards zero; by zero yields zero) and
+ * parentheses. Dice are written "NdS" ("dS" for one die, "d%" for d100),
+ * optionally followed by "!" (exploding: a maximal roll is rolled again and
+ * added) and a keep clause: "mK", "hK", "kK" or "khK" keep the K highest
+ * dice, "lK" or "klK" the K lowest. Examples: "3d6+2", "4d6m3",
+ * "(2d10!-1)*3", "2d20l1".<br>
+ * Compiled expressions are cached and immutable; rolling is thread-safe
+ * and does not allocate. Besides rolling, the exact distribution (for
+ * exploding dice truncated after a very unlikely number of explosions)
+ * and the expected value can be obtained.
+ * @author Michael Jung
+ */
+public class DiceFormula {
+    /** Cache (formula -> compiled) */
+    private static ConcurrentHashMap<String,DiceFormula> cache =
+        new ConcurrentHashMap<String,DiceFormula>();
+
+    /** Kept dice per thread */
+    private static ThreadLocal<int[]> kept = new ThreadLocal<int[]>() {
+        protected int[] initialValue() { return new int[8]; }
+    };
+
+    /** Largest distribution computed */
+    final private static int MAXDIST = 1 << 20;
+
+    /** Source */
+    private String formula;
+
+    /** Root of expression */
+    private Node root;
+
+    /** Distribution, computed on demand */
+    private volatile Dist dist;
+
+    /**
+     * Get the compiled expression of a formula.
+     * @param formula formula
+     * @return compiled expression
+     * @throws IllegalArgumentException if the formula cannot be parsed
+     */
+    public static DiceFormula compile(String formula) {
+        DiceFormula ret = cache.get(formula);
+        if (ret == null) {
+            ret = new DiceFormula(formula);
+            cache.put(formula, ret);
+        }
+        return ret;
+    }
+
+    /**
+     * Constructor; parses the formula.
+     */
+    private DiceFormula(String aFormula) {
+        formula = aFormula;
+        Parser p = new Parser(aFormula);
+        root = p.expr();
+        if (p.peek() != 0) throw p.error();
+    }
+
+    /**
+     * Roll with the generator of the calling thread (see DiceRoller).
+     * @return result
+     */
+    public int roll() { return root.roll(DiceRoller.current()); }
+
+    /**
+     * Roll with a generator.
+     * @param r generator; null for the shared one
+     * @return result
+     */
+    public int roll(SplittableRandom r) { return root.roll(r); }
+
+    /**
+     * Smallest possible result.
+     * @return minimum
+     */
+    public int min() { return getDist().lo; }
+
+    /**
+     * Largest possible result.
+     * @return maximum
+     */
+    public int max() { return getDist().lo + getDist().p.length - 1; }
+
+    /**
+     * Probabilities of all results from min to max.
+     * @return probabilities; index 0 belongs to min
+     */
+    public double[] distribution() { return (double[]) getDist().p.clone(); }
+
+    /**
+     * Expected value.
+     * @return expected value
+     */
+    public double mean() {
+        Dist d = getDist();
+        double ret = 0;
+        for (int i = 0; i < d.p.length; i++)
+            ret += (d.lo + i)*d.p[i];
+        return ret;
+    }
+
+    /** IF method */
+    public String toString() { return formula; }
+
+    /** Get the distribution */
+    private Dist getDist() {
+        Dist d = dist;
+        if (d == null) dist = d = root.dist();
+        return d;
+    }
+
+    /**
+     * Number of times a die may explode. Further explosions are so unlikely
+     * that they are ignored.
+     */
+    private static int depth(int sides) {
+        int t = 1;
+        double p = 1./sides;
+        while (p > 1e-12 && t < 64) {
+            p /= sides;
+            t++;
+        }
+        return t;
+    }
+
+    /** Roll one die; exploding at most depth - 1 times */
+    private static int die(SplittableRandom r, int sides, int depth) {
+        int ret = 0;
+        for (int t = 0; t < depth; t++) {
+            int v = DiceRoller.d(r, sides);
+            ret += v;
+            if (v != sides) break;
+        }
+        return ret;
+    }
+
+    /**
+     * Expression node.
+     */
+    abstract static class Node {
+        /** Roll */
+        abstract int roll(SplittableRandom r);
+        /** Distribution */
+        abstract Dist dist();
+    }
+
+    /**
+     * Constant.
+     */
+    static class Const extends Node {
+        int value;
+        Const(int aValue) { value = aValue; }
+        int roll(SplittableRandom r) { return value; }
+        Dist dist() { return new Dist(value, new double[] { 1 }); }
+    }
+
+    /**
+     * Binary or unary (b == null) operation.
+     */
+    static class Op extends Node {
+        char op;
+        Node a, b;
+        Op(char anOp, Node anA, Node aB) { op = anOp; a = anA; b = aB; }
+        int roll(SplittableRandom r) {
+            int x = a.roll(r);
+            if (b == null) return -x;
+            return apply(op, x, b.roll(r));
+        }
+        Dist dist() {
+            Dist x = a.dist();
+            if (b == null) {
+                double[] p = new double[x.p.length];
+                for (int i = 0; i < p.length; i++)
+                    p[i] = x.p[p.length - 1 - i];
+                return new Dist(-(x.lo + p.length - 1), p);
+            }
+            Dist y = b.dist();
+            if ((long)x.p.length*y.p.length > MAXDIST*16L)
+                throw new IllegalArgumentException("Too complex");
+
+            // Range of results
+            int lo = Integer.MAX_VALUE, hi = Integer.MIN_VALUE;
+            int[] cx = { x.lo, x.lo + x.p.length - 1 };
+            int[] cy = { y.lo, y.lo + y.p.length - 1 };
+            if (op == '/') {
+                // Extremes of division may lie inside the ranges
+                for (int i = 0; i < x.p.length; i++)
+                    for (int j = 0; j < y.p.length; j++) {
+                        int v = apply(op, x.lo + i, y.lo + j);
+                        lo = Math.min(lo, v);
+                        hi = Math.max(hi, v);
+                    }
+            }
+            else {
+                for (int i = 0; i < 2; i++)
+                    for (int j = 0; j < 2; j++) {
+                        int v = apply(op, cx[i], cy[j]);
+                        lo = Math.min(lo, v);
+                        hi = Math.max(hi, v);
+                    }
+            }
+            if ((long)hi - lo >= MAXDIST)
+                throw new IllegalArgumentException("Too complex");
+
+            double[] p = new double[hi - lo + 1];
+            for (int i = 0; i < x.p.length; i++) {
+                if (x.p[i] == 0) continue;
+                for (int j = 0; j < y.p.length; j++)
+                    p[apply(op, x.lo + i, y.lo + j) - lo] += x.p[i]*y.p[j];
+            }
+            return new Dist(lo, p);
+        }
+        static int apply(char op, int x, int y) {
+            switch (op) {
+            case '+': return x + y;
+            case '-': return x - y;
+            case '*': return x*y;
+            default: return (y != 0 ? x/y : 0);
+            }
+        }
+    }
+
+    /**
+     * Dice.
+     */
+    static class Dice extends Node {
+        /** Number of dice and sides */
+        int num, sides;
+        /** Number of rolls per die (1 if not exploding) */
+        int depth;
+        /** Number of dice kept and whether the lowest are kept */
+        int keep;
+        boolean low;
+        Dice(int aNum, int aSides, boolean explode, int aKeep, boolean aLow) {
+            num = aNum;
+            sides = aSides;
+            depth = (explode && sides > 1 ? depth(sides) : 1);
+            keep = Math.min(aKeep, num);
+            low = aLow;
+        }
+        int roll(SplittableRandom r) {
+            if (keep == num) {
+                int ret = 0;
+                for (int i = 0; i < num; i++)
+                    ret += die(r, sides, depth);
+                return ret;
+            }
+            if (!low && depth == 1)
+                return DiceRoller.rollMax(r, num, sides, keep);
+            if (keep == 0) return 0;
+
+            // Kept dice sorted, best first
+            int m = keep;
+            int[] top = kept.get();
+            if (top.length < m) {
+                top = new int[m];
+                kept.set(top);
+            }
+            int k = 0;
+            for (int i = 0; i < num; i++) {
+                int v = die(r, sides, depth);
+                if (k < m)
+                    k++;
+                else if (!better(v, top[m - 1]))
+                    continue;
+                int j = k - 1;
+                for (; j > 0 && better(v, top[j - 1]); j--)
+                    top[j] = top[j - 1];
+                top[j] = v;
+            }
+            int ret = 0;
+            for (int i = 0; i < m; i++)
+                ret += top[i];
+            return ret;
+        }
+        /** Whether a roll is better than another to be kept */
+        private boolean better(int v, int w) {
+            return (low ? v < w : v > w);
+        }
+        Dist dist() {
+            // One die
+            double[] one = new double[sides*depth];
+            double q = 1./sides;
+            for (int t = 0; t < depth; t++) {
+                for (int v = 1; v < sides; v++)
+                    one[t*sides + v - 1] = q;
+                q /= sides;
+            }
+            one[sides*depth - 1] = q*sides;
+            if ((long)num*one.length >= MAXDIST)
+                throw new IllegalArgumentException("Too complex: " + num + "d" + sides);
+
+            if (keep == num) {
+                Dist ret = new Dist(0, new double[] { 1 });
+                Dist d = new Dist(1, one);
+                for (int i = 0; i < num; i++)
+                    ret = ret.add(d);
+                return ret;
+            }
+
+            // Assign dice to values from the best on; the first ones are kept
+            int m = keep;
+            int n = num;
+            int top = one.length;
+            double[][] dp = new double[n + 1][m*top + 1];
+            dp[0][0] = 1;
+            for (int idx = 0; idx < top; idx++) {
+                int vi = (low ? idx : top - 1 - idx);
+                int v = vi + 1;
+                double pv = one[vi];
+                if (pv == 0) continue;
+                double[][] nd = new double[n + 1][m*top + 1];
+                for (int j = 0; j <= n; j++) {
+                    for (int s = 0; s < dp[j].length; s++) {
+                        if (dp[j][s] == 0) continue;
+                        double w = 1;
+                        for (int c = 0; j + c <= n; c++) {
+                            int add = Math.min(c, Math.max(0, m - j))*v;
+                            nd[j + c][s + add] += dp[j][s]*w*binom(n - j, c);
+                            w *= pv;
+                        }
+                    }
+                }
+                dp = nd;
+            }
+            return new Dist(0, dp[n]).trim();
+        }
+        public String toString() { return num + "d" + sides; }
+    }
+
+    /** Binomial coefficient */
+    private static double binom(int n, int k) {
+        double ret = 1;
+        for (int i = 1; i <= k; i++)
+            ret = ret*(n - k + i)/i;
+        return ret;
+    }
+
+    /**
+     * Distribution: probabilities of the results lo, lo + 1, ...
+     */
+    static class Dist {
+        int lo;
+        double[] p;
+        Dist(int aLo, double[] aP) { lo = aLo; p = aP; }
+        /** Distribution of the sum */
+        Dist add(Dist o) {
+            double[] r = new double[p.length + o.p.length - 1];
+            for (int i = 0; i < p.length; i++) {
+                if (p[i] == 0) continue;
+                for (int j = 0; j < o.p.length; j++)
+                    r[i + j] += p[i]*o.p[j];
+            }
+            return new Dist(lo + o.lo, r);
+        }
+        /** Remove impossible results at both ends */
+        Dist trim() {
+            int a = 0, b = p.length - 1;
+            while (a < b && p[a] == 0) a++;
+            while (b > a && p[b] == 0) b--;
+            double[] r = new double[b - a + 1];
+            System.arraycopy(p, a, r, 0, r.length);
+            return new Dist(lo + a, r);
+        }
+    }
+
+    /**
+     * Recursive descent parser.
+     */
+    static class Parser {
+        String src;
+        char[] s;
+        int pos;
+        Parser(String aSrc) {
+            src = aSrc;
+            s = aSrc.toLowerCase(Locale.ENGLISH).toCharArray();
+        }
+        /** Next non-blank char or 0 */
+        char peek() {
+            while (pos < s.length && Character.isWhitespace(s[pos])) pos++;
+            return (pos < s.length ? s[pos] : 0);
+        }
+        IllegalArgumentException error() {
+            return new IllegalArgumentException
+                ("Cannot parse " + src + " at " + (pos + 1));
+        }
+        Node expr() {
+            Node ret = term();
+            for (char c = peek(); c == '+' || c == '-'; c = peek()) {
+                pos++;
+                ret = new Op(c, ret, term());
+            }
+            return ret;
+        }
+        Node term() {
+            Node ret = factor();
+            for (char c = peek(); c == '*' || c == '/'; c = peek()) {
+                pos++;
+                ret = new Op(c, ret, factor());
+            }
+            return ret;
+        }
+        Node factor() {
+            char c = peek();
+            if (c == '-') {
+                pos++;
+                return new Op('-', factor(), null);
+            }
+            if (c == '+') {
+                pos++;
+                return factor();
+            }
+            if (c == '(') {
+                pos++;
+                Node ret = expr();
+                if (peek() != ')') throw error();
+                pos++;
+                return ret;
+            }
+            int num = 1;
+            if (Character.isDigit(c)) {
+                num = number();
+                if (peek() != 'd') return new Const(num);
+            }
+            if (peek() != 'd') throw error();
+            pos++;
+            int sides;
+            if (peek() == '%') {
+                pos++;
+                sides = 100;
+            }
+            else
+                sides = number();
+            if (sides < 1) throw error();
+            boolean explode = false;
+            if (peek() == '!') {
+                pos++;
+                explode = true;
+            }
+            int keep = num;
+            c = peek();
+            if (c == 'm' || c == 'h' || c == 'l' || c == 'k') {
+                pos++;
+                if (c == 'k' && (peek() == 'h' || peek() == 'l'))
+                    c = s[pos++];
+                keep = number();
+            }
+            return new Dice(num, sides, explode, keep, c == 'l');
+        }
+        int number() {
+            if (!Character.isDigit(peek())) throw error();
+            long ret = 0;
+            while (pos < s.length && Character.isDigit(s[pos])) {
+                ret = ret*10 + (s[pos++] - '0');
+                if (ret > Integer.MAX_VALUE) throw error();
+            }
+            return (int) ret;
+        }
+    }
+}
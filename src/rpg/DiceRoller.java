@@ -13,23 +13,95 @@
  */
 package rpg;
 
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Random;
+import java.util.SplittableRandom;
 
+/**
+ * Dice. By default all threads roll with one shared generator. A thread
+ * may instead use its own generator (see use), and generators can be split
+ * off for plugins (see generator) or for parallel work (SplittableRandom
+ * .split), so that results can be replayed from a seed. The session seed
+ * is set from the "dice.seed" property, if present. Rolls do not allocate.
+ */
 public class DiceRoller {
 
     /** Random generator */
     private static Random rand = new Random();
 
+    /** Random generator of a thread, if set */
+    private static ThreadLocal<SplittableRandom> local =
+        new ThreadLocal<SplittableRandom>();
+
+    /** Kept dice of rollMax per thread */
+    private static ThreadLocal<int[]> kept = new ThreadLocal<int[]>() {
+        protected int[] initialValue() { return new int[8]; }
+    };
+
+    /** Session seed */
+    private static long session = rand.nextLong();
+
+    /**
+     * Set the session seed. The shared generator is reseeded and plugin
+     * generators obtained afterwards derive from this seed.
+     * @param seed session seed
+     */
+    public static void setSession(long seed) {
+        session = seed;
+        rand.setSeed(seed);
+    }
+
+    /**
+     * Get the session seed.
+     * @return session seed
+     */
+    public static long getSession() { return session; }
+
+    /**
+     * Get a generator for a plugin (or another named purpose). The same
+     * name yields the same generator for the same session seed.
+     * @param name name of plugin
+     * @return new generator
+     */
+    public static SplittableRandom generator(String name) {
+        return new SplittableRandom(session ^ (name.hashCode()*0x9E3779B97F4A7C15L));
+    }
+
+    /**
+     * Use a generator for all rolls of the calling thread.
+     * @param r generator; null to use the shared one
+     * @return previous generator of the thread or null
+     */
+    public static SplittableRandom use(SplittableRandom r) {
+        SplittableRandom old = local.get();
+        if (r != null)
+            local.set(r);
+        else
+            local.remove();
+        return old;
+    }
+
+    /**
+     * Generator of the calling thread.
+     * @return generator or null for the shared one
+     */
+    static SplittableRandom current() { return local.get(); }
+
     /**
      * This method rolls an n-sided die. Invalid entries return themselves.
      * @param n maximum number to roll
      * @return random number in 1..n
      */
-    public static int d(int n) {
+    public static int d(int n) { return d(local.get(), n); }
+
+    /**
+     * Roll an n-sided die with a generator.
+     * @param r generator; null for the shared one
+     * @param n maximum number to roll
+     * @return random number in 1..n
+     */
+    public static int d(SplittableRandom r, int n) {
         if (n > 0) {
-            return 1 + rand.nextInt(n);
+            return 1 + (r != null ? r.nextInt(n) : rand.nextInt(n));
         }
         return n;
     }
@@ -42,12 +114,23 @@ public class DiceRoller {
      * @return random number in 1..n
      */
     public static int d(int numDice, int numSides) {
+        return d(local.get(), numDice, numSides);
+    }
+
+    /**
+     * Roll m n-sided dice with a generator.
+     * @param r generator; null for the shared one
+     * @param numDice Number of dice to roll
+     * @param numSides Number of sides per die
+     * @return random number in 1..n
+     */
+    public static int d(SplittableRandom r, int numDice, int numSides) {
         if (numDice < 1) {
             return numDice * numSides;
         }
         int ret = 0;
         for (int i = 0; i < numDice; i++) {
-            ret += d(numSides);
+            ret += d(r, numSides);
         }
         return ret;
     }
@@ -61,19 +144,47 @@ public class DiceRoller {
      * @return
      */
     static public int rollMax(int numDice, int sides, int maxDice) {
+        return rollMax(local.get(), numDice, sides, maxDice);
+    }
+
+    /**
+     * Roll n times dd with a generator and sum maximum m rolls. The m
+     * highest rolls are kept sorted in a buffer of the thread.
+     * @param r generator; null for the shared one
+     * @param numDice
+     * @param sides
+     * @param maxDice
+     * @return
+     */
+    static public int rollMax(SplittableRandom r, int numDice, int sides, int maxDice) {
         if (maxDice > numDice) {
-            return d(numDice, sides);
+            return d(r, numDice, sides);
+        }
+
+        int m = Math.max(maxDice, 0);
+        int[] top = kept.get();
+        if (top.length < m) {
+            top = new int[m];
+            kept.set(top);
         }
 
-        ArrayList<Integer> l = new ArrayList<Integer>();
+        // Highest first
+        int k = 0;
         for (int i = 0; i < numDice; i++) {
-            l.add(d(sides));
+            int v = d(r, sides);
+            if (k < m)
+                k++;
+            else if (m == 0 || v <= top[m - 1])
+                continue;
+            int j = k - 1;
+            for (; j > 0 && top[j - 1] < v; j--)
+                top[j] = top[j - 1];
+            top[j] = v;
         }
-        Collections.sort(l, Collections.reverseOrder());
 
         int sum = 0;
-        for (int i = 0; i < maxDice; i++) {
-            sum += l.get(i);
+        for (int i = 0; i < m; i++) {
+            sum += top[i];
         }
 
         return sum;
@@ -0,0 +1,383 @@
+/*
+ * UGMT : Unversal Gamemaster tool
+ * Copyright (c) 2004 Michael Jung
+ *
+ * Any party obtaining a copy of these files is granted, free of charge, a
+ * full and unrestricted irrevocable, world-wide, paid up, royalty-free,
+ * nonexclusive right and license to deal in this software and
+ * documentation files (the "Software"), including without limitation the
+ * rights to use, copy, modify, merge, publish and/or distribute copies of
+ * the Software, and to permit persons who receive copies from any such
+ * party to do so, with the only requirement being that this copyright
+ * notice remain intact.
+ */
+package rpg;
+
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.*;
+import javax.swing.SwingUtilities;
+
+/**
+ * Dispatcher of announced objects to their listeners. The registry is copied
+ * on write, so that announcing never locks or copies listener sets. Objects
+ * may be delivered in one of three modes:<br>
+ * "sync": immediately on the announcing thread (default);<br>
+ * "edt": queued and delivered later on the event dispatch thread;<br>
+ * "background": queued and delivered on a background thread.<br>
+ * Queues are kept per type. While an object is queued, a newer announcement
+ * of the same type and name replaces it, so that listeners are informed
+ * once about the latest state. Live objects delivered are kept per type
+ * (at most LIVE, oldest dropped first), so that plugins started on demand
+ * can be informed about them (see replay). An object is dropped, when it
+ * is delivered while invalid (see isValid of the repository types).
+ * @author Michael Jung
+ */
+class EventBus {
+    /** Delivery modes */
+    final static int SYNC = 0, EDT = 1, BACKGROUND = 2;
+
+    /** Delivery mode */
+    private int mode;
+
+    /** Executor for queued delivery */
+    private Executor executor;
+
+    /** Registry: type -> name -> listener array; replaced on change */
+    private volatile HashMap type2name2listener;
+
+    /** Queues per type */
+    private HashMap queues;
+
+    /** Number of announcements replaced by newer ones */
+    private long coalesced;
+
+    /** Live objects kept per type */
+    final private static int LIVE = 1024;
+
+    /** Live objects delivered: type -> object -> object */
+    private HashMap live = new HashMap();
+
+    /** isValid methods by class (Class -> Method or null) */
+    private HashMap validity = new HashMap();
+
+    /**
+     * Constructor.
+     * @param delivery delivery mode name ("sync", "edt", "background")
+     */
+    EventBus(String delivery) {
+        type2name2listener = new HashMap();
+        queues = new HashMap();
+        mode = SYNC;
+        if ("edt".equals(delivery)) {
+            mode = EDT;
+            executor = new Executor() {
+                    public void execute(Runnable r) {
+                        SwingUtilities.invokeLater(r);
+                    }
+                };
+        }
+        if ("background".equals(delivery)) {
+            mode = BACKGROUND;
+            executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "announce");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        }
+    }
+
+    /** Delivery mode */
+    int getMode() { return mode; }
+
+    /**
+     * Register a listener.
+     * @param listener listener to be informed
+     * @param type object type
+     * @param name object instance's name or null for all
+     */
+    synchronized void listen(IListener listener, String type, String name) {
+        HashMap reg = new HashMap(type2name2listener);
+        HashMap name2listener = (HashMap) reg.get(type);
+        name2listener = (name2listener != null ?
+                         new HashMap(name2listener) : new HashMap());
+        IListener[] old = (IListener[]) name2listener.get(name);
+        if (old == null) old = new IListener[0];
+        for (int i = 0; i < old.length; i++)
+            if (old[i] == listener) return;
+
+        IListener[] list = new IListener[old.length + 1];
+        System.arraycopy(old, 0, list, 0, old.length);
+        list[old.length] = listener;
+        name2listener.put(name, list);
+        reg.put(type, name2listener);
+        type2name2listener = reg;
+    }
+
+    /**
+     * Remove a listener.
+     * @param listener listener to be removed
+     * @param type object type
+     * @param name object instance's name
+     */
+    synchronized void deafen(IListener listener, String type, String name) {
+        HashMap name2listener = (HashMap) type2name2listener.get(type);
+        if (name2listener == null) return;
+        IListener[] old = (IListener[]) name2listener.get(name);
+        if (old == null) return;
+
+        ArrayList list = new ArrayList();
+        for (int i = 0; i < old.length; i++)
+            if (old[i] != listener) list.add(old[i]);
+        if (list.size() == old.length) return;
+
+        HashMap reg = new HashMap(type2name2listener);
+        name2listener = new HashMap(name2listener);
+        if (list.isEmpty())
+            name2listener.remove(name);
+        else
+            name2listener.put
+                (name, list.toArray(new IListener[list.size()]));
+        if (name2listener.isEmpty())
+            reg.remove(type);
+        else
+            reg.put(type, name2listener);
+        type2name2listener = reg;
+    }
+
+    /**
+     * Remove all listeners whose class name starts with the given prefix,
+     * e.g. those of an unloaded plugin.
+     * @param prefix class name prefix
+     */
+    synchronized void deafenAll(String prefix) {
+        HashMap reg = new HashMap();
+        Iterator titer = type2name2listener.keySet().iterator();
+        while (titer.hasNext()) {
+            Object type = titer.next();
+            HashMap name2listener = new HashMap();
+            HashMap old = (HashMap) type2name2listener.get(type);
+            Iterator niter = old.keySet().iterator();
+            while (niter.hasNext()) {
+                Object name = niter.next();
+                IListener[] lnr = (IListener[]) old.get(name);
+                ArrayList list = new ArrayList();
+                for (int i = 0; i < lnr.length; i++)
+                    if (!lnr[i].getClass().getName().startsWith(prefix))
+                        list.add(lnr[i]);
+                if (!list.isEmpty())
+                    name2listener.put
+                        (name, list.toArray(new IListener[list.size()]));
+            }
+            if (!name2listener.isEmpty()) reg.put(type, name2listener);
+        }
+        type2name2listener = reg;
+    }
+
+    /**
+     * Whether anybody listens to the type.
+     * @param type object type
+     */
+    boolean isListened(String type) {
+        return type2name2listener.containsKey(type);
+    }
+
+    /**
+     * Inform a listener about the live objects of a type (and name, if not
+     * null) according to the delivery mode.
+     * @param listener listener to be informed
+     * @param type object type
+     * @param name object instance's name or null for all
+     */
+    void replay(final IListener listener, String type, String name) {
+        final ArrayList list = new ArrayList();
+        synchronized (live) {
+            LinkedHashMap objs = (LinkedHashMap) live.get(type);
+            if (objs == null) return;
+            Iterator iter = objs.keySet().iterator();
+            while (iter.hasNext()) {
+                IExport e = (IExport) iter.next();
+                if (name == null || name.equals(e.getName())) list.add(e);
+            }
+        }
+        if (list.isEmpty()) return;
+
+        Runnable r = new Runnable() {
+                public void run() {
+                    for (int i = 0; i < list.size(); i++) {
+                        try {
+                            listener.inform((IExport) list.get(i));
+                        }
+                        catch (Throwable t) {
+                            // Debugging
+                            t.printStackTrace();
+                        }
+                    }
+                }
+            };
+        if (mode == SYNC)
+            r.run();
+        else
+            executor.execute(r);
+    }
+
+    /**
+     * Announce an object according to the delivery mode.
+     * @param e the object to be notified
+     */
+    void post(IExport e) {
+        if (mode == SYNC) {
+            deliver(e);
+            return;
+        }
+        if (e.getType() == null || !isListened(e.getType())) return;
+
+        Queue q;
+        synchronized (queues) {
+            q = (Queue) queues.get(e.getType());
+            if (q == null) {
+                q = new Queue();
+                queues.put(e.getType(), q);
+            }
+        }
+        if (q.offer(e)) executor.execute(q);
+    }
+
+    /**
+     * Inform all listeners of the object's type and name on the current
+     * thread. A listener registered for the name and for all names is
+     * informed once.
+     * @param e the object to be notified
+     */
+    void deliver(IExport e) {
+        // No type
+        if (e.getType() == null) return;
+
+        // Keep live objects for plugins started later
+        boolean valid = isValid(e);
+        synchronized (live) {
+            LinkedHashMap objs = (LinkedHashMap) live.get(e.getType());
+            if (objs == null && valid) {
+                objs = new LinkedHashMap() {
+                        protected boolean removeEldestEntry(Map.Entry me) {
+                            return size() > LIVE;
+                        }
+                    };
+                live.put(e.getType(), objs);
+            }
+            if (valid)
+                objs.put(e, e);
+            else if (objs != null)
+                objs.remove(e);
+        }
+
+        // Get specific type listeners; if none return
+        HashMap name2listener = (HashMap) type2name2listener.get(e.getType());
+        if (name2listener == null) return;
+
+        IListener[] named = (IListener[]) name2listener.get(e.getName());
+        IListener[] general = (e.getName() != null ?
+            (IListener[]) name2listener.get(null) : null);
+
+        for (int i = 0; named != null && i < named.length; i++)
+            named[i].inform(e);
+
+        for (int i = 0; general != null && i < general.length; i++) {
+            boolean done = false;
+            for (int j = 0; named != null && j < named.length; j++)
+                done |= (named[j] == general[i]);
+            if (!done) general[i].inform(e);
+        }
+    }
+
+    /**
+     * Whether an object is valid. Objects without an isValid method are.
+     * @param e object
+     */
+    private boolean isValid(IExport e) {
+        Method m;
+        synchronized (validity) {
+            if (validity.containsKey(e.getClass()))
+                m = (Method) validity.get(e.getClass());
+            else {
+                try {
+                    m = e.getClass().getMethod("isValid", new Class[0]);
+                    if (m.getReturnType() != Boolean.TYPE)
+                        m = null;
+                    else
+                        m.setAccessible(true);
+                }
+                catch (Exception ex) {
+                    m = null;
+                }
+                validity.put(e.getClass(), m);
+            }
+        }
+        if (m == null) return true;
+        try {
+            return ((Boolean) m.invoke(e, new Object[0])).booleanValue();
+        }
+        catch (Exception ex) {
+            return true;
+        }
+    }
+
+    /** Number of announcements replaced by newer ones */
+    synchronized long getCoalesced() { return coalesced; }
+
+    /**
+     * Queue of one type. Pending objects are kept by name in order of
+     * their first announcement. The queue is scheduled at most once.
+     */
+    class Queue implements Runnable {
+        /** name -> object */
+        private LinkedHashMap pending = new LinkedHashMap();
+
+        /** Whether delivery is scheduled */
+        private boolean scheduled;
+
+        /**
+         * Add an object.
+         * @return whether the queue needs to be scheduled
+         */
+        synchronized boolean offer(IExport e) {
+            if (pending.put(e.getName(), e) != null) {
+                synchronized (EventBus.this) { coalesced++; }
+            }
+            if (scheduled) return false;
+            scheduled = true;
+            return true;
+        }
+
+        /**
+         * Take the next object.
+         * @return object or null, if the queue is empty
+         */
+        private synchronized IExport poll() {
+            Iterator iter = pending.values().iterator();
+            if (!iter.hasNext()) {
+                scheduled = false;
+                return null;
+            }
+            IExport e = (IExport) iter.next();
+            iter.remove();
+            return e;
+        }
+
+        /** IF method */
+        public void run() {
+            IExport e;
+            while ((e = poll()) != null) {
+                try {
+                    deliver(e);
+                }
+                catch (Throwable t) {
+                    // Debugging
+                    t.printStackTrace();
+                }
+            }
+        }
+    }
+}
@@ -18,7 +18,7 @@ import java.awt.event.*;
 import java.io.*;
 import java.nio.channels.*;
 import java.util.*;
-import java.util.zip.*;
+import java.util.concurrent.*;
 import javax.swing.*;
 import javax.swing.event.*;
 import javax.xml.transform.*;
@@ -62,8 +62,8 @@ public class Framework extends WindowAdapter {
     /** The (static) loader */
     private PluginLoader loader;
 
-    /** The listener hash maps */
-    private HashMap type2name2listener;
+    /** Dispatcher of announcements */
+    private EventBus bus;
 
     /** announced objects during startup */
     private HashSet exports;
@@ -77,6 +77,15 @@ public class Framework extends WindowAdapter {
     /** plugins */
     private Hashtable allPlugins;
 
+    /** plugins not yet started (name -> Deferred) */
+    private Hashtable deferred;
+
+    /** Set while a deferred plugin is started on the thread */
+    private ThreadLocal activating = new ThreadLocal();
+
+    /** panels of all plugins (name -> JPanel) */
+    private Hashtable panels;
+
     /** popup tabs */
     private boolean popup;
 
@@ -100,8 +109,35 @@ public class Framework extends WindowAdapter {
     /** Window size properties */
     private static Properties sizes;
 
-    /** Document builder */
-    private static DocumentBuilder docBuilder;
+    /** Document builder factory */
+    private static DocumentBuilderFactory docFactory;
+
+    /** Document builders; they are not thread-safe, one per thread */
+    private static ThreadLocal docBuilder = new ThreadLocal() {
+            protected Object initialValue() {
+                try {
+                    DocumentBuilder db;
+                    synchronized (docFactory) {
+                        db = docFactory.newDocumentBuilder();
+                    }
+                    db.setErrorHandler(new ErrorHandler() {
+                            public void error(SAXParseException e) {
+                                System.err.println
+                                    ("line:" + e.getLineNumber() +
+                                     ";column:" + e.getColumnNumber());
+                            }
+                            public void fatalError(SAXParseException e) { error(e); }
+                            public void warning(SAXParseException e) { error(e); }
+                        });
+                    return db;
+                }
+                catch (ParserConfigurationException e) {
+                    // Debug
+                    e.printStackTrace();
+                    return null;
+                }
+            }
+        };
 
     /** XML transforming */
     private static TransformerFactory transFact;
@@ -114,6 +150,10 @@ public class Framework extends WindowAdapter {
 	if (args.length > 0) {
             if (args[0].equals("-version")) version = true;
             if (args[0].equals("-edit")) edit = true;
+            if (args[0].equals("-restore")) {
+                restore(args.length > 1 ? args[1] : null);
+                return;
+            }
         }
 
         
@@ -166,6 +206,13 @@ public class Framework extends WindowAdapter {
         // Popup?
         popup = "true".equals(props.getProperty("tabs.popup"));
 
+        // Delivery of announcements
+        bus = new EventBus(props.getProperty("events.delivery", "sync"));
+
+        // Reproducible dice
+        if (props.getProperty("dice.seed") != null)
+            DiceRoller.setSession(Long.parseLong(props.getProperty("dice.seed")));
+
         // Get window list
         ArrayList wl = new ArrayList();
         for (int i = 1; props.getProperty("window." + i) != null; i++) {
@@ -193,6 +240,15 @@ public class Framework extends WindowAdapter {
             }
             plugins[i] = new ArrayList();
 
+            tabpane.addChangeListener(new ChangeListener() {
+                    public void stateChanged(ChangeEvent e) {
+                        activate(((JTabbedPane)e.getSource()).getSelectedComponent());
+                    }
+                });
+            tabpane.addMouseListener(new MouseAdapter() {
+                    public void mousePressed(MouseEvent e) { popup(e); }
+                    public void mouseReleased(MouseEvent e) { popup(e); }
+                });
             tabpane.getActionMap().put("next", new MyAction(tabpane, true));
             tabpane.getActionMap().put("prev", new MyAction(tabpane, false));
             tabpane.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put
@@ -215,18 +271,8 @@ public class Framework extends WindowAdapter {
         final JFrame splash = Splash.createSplash(all);
 
         // Helpers
-        DocumentBuilderFactory f = DocumentBuilderFactory.newInstance();
-        f.setNamespaceAware(true);
-        docBuilder = f.newDocumentBuilder();
-        docBuilder.setErrorHandler(new ErrorHandler() {
-                public void error(SAXParseException e) {
-                    System.err.println
-                        ("line:" + e.getLineNumber() +
-                         ";column:" + e.getColumnNumber());
-                }
-                public void fatalError(SAXParseException e) { error(e); }
-                public void warning(SAXParseException e) { error(e); }
-            });
+        docFactory = DocumentBuilderFactory.newInstance();
+        docFactory.setNamespaceAware(true);
         transFact = TransformerFactory.newInstance();
         transFormer = transFact.newTransformer();
         transFormer.setOutputProperty(OutputKeys.INDENT, "yes");
@@ -236,39 +282,98 @@ public class Framework extends WindowAdapter {
         // Load
         loader = new PluginLoader(this, props);
         allPlugins = new Hashtable();
+        deferred = new Hashtable();
+        panels = new Hashtable();
+
+        // Plugins started on demand
+        HashSet lazy = new HashSet
+            (Arrays.asList(props.getProperty("plugins.lazy", "").split(",")));
+        if (edit || version) lazy.clear();
 
         TreeSet sort = new TreeSet();
         for (int i = 0; all != null && i < all.length; i++) sort.add(all[i]);
         Iterator iter = sort.iterator();
-        
-        // Primary load
-        startup = 0;
+
+        // Register plugin classes in order
+        ArrayList dirs = new ArrayList();
         while (iter.hasNext()) {
             String curr = (String) iter.next();
 
             File pf = new File(curr);
-            if (pf == null || !pf.isDirectory() || curr.equals("lib")) continue;
-            Splash.loadlabel.setText("Loading " + curr + " ...");
-
+            if (pf == null || !pf.isDirectory() || curr.equals("lib") ||
+                curr.startsWith(".")) continue;
             try {
-                JPanel plugPanel = new JPanel();
-                IPlugin plug = loader.add(pf, plugPanel, edit);
-
-                // Find proper pane
-                int found = 0;
-                for (int j = 0; j < wl.size(); j++) {
-                    String[] list = (String[])wl.get(j);
-                    for (int k = 0; k < list.length; k++) {
-                        if (list[k].equals(curr)) {
-                            found = j;
-                            break;
-                        }
+                loader.register(pf);
+                dirs.add(pf);
+            }
+            catch (Throwable t) {
+                // Debugging
+                t.printStackTrace();
+            }
+        }
+
+        // Primary load. With "startup.threads" > 1 plugins start in
+        // parallel; tabs are attached in order on the event dispatch thread
+        startup = 0;
+        int threads = Integer.parseInt(props.getProperty("startup.threads", "1"));
+        ExecutorService pool = (threads > 1 && dirs.size() > 1 ?
+                                Executors.newFixedThreadPool(threads) : null);
+        Future[] started = new Future[dirs.size()];
+        for (int i = 0; i < dirs.size(); i++) {
+            final File pf = (File) dirs.get(i);
+            final JPanel plugPanel = new JPanel();
+            panels.put(pf.getName(), plugPanel);
+            if (lazy.contains(pf.getName())) {
+                try {
+                    Deferred def = new Deferred(pf, loader.create(pf));
+                    def.found = paneOf(wl, pf.getName());
+                    deferred.put(pf.getName(), def);
+                }
+                catch (Throwable t) {
+                    // Debugging
+                    t.printStackTrace();
+                }
+                continue;
+            }
+            Callable task = new Callable() {
+                    public Object call() throws Exception {
+                        Splash.loadlabel.setText("Loading " + pf.getName() + " ...");
+                        return loader.start(pf, plugPanel, edit);
                     }
+                };
+            if (pool != null)
+                started[i] = pool.submit(task);
+            else {
+                FutureTask ft = new FutureTask(task);
+                ft.run();
+                started[i] = ft;
+            }
+        }
+
+        for (int i = 0; i < dirs.size(); i++) {
+            File pf = (File) dirs.get(i);
+            String curr = pf.getName();
+
+            try {
+                IPlugin plug = null;
+                if (started[i] != null) plug = (IPlugin) started[i].get();
+                int found = paneOf(wl, curr);
+
+                // Deferred plugins get their tab, but may be started already
+                boolean tab = (plug != null);
+                synchronized (deferred) {
+                    tab |= deferred.containsKey(curr) ||
+                        allPlugins.containsKey(curr);
                 }
 
-                Component cmp = frame[found].getContentPane().getComponent(0);
-                if (plug != null)
-                    ((JTabbedPane)cmp).add(capitalize(pf.getName()), plugPanel);
+                final JTabbedPane cmp =
+                    (JTabbedPane) frame[found].getContentPane().getComponent(0);
+                final String title = capitalize(pf.getName());
+                final JPanel plugPanel = (JPanel) panels.get(curr);
+                if (tab)
+                    SwingUtilities.invokeAndWait(new Runnable() {
+                            public void run() { cmp.add(title, plugPanel); }
+                        });
 
                 // Add to list
                 if (plug != null) {
@@ -276,27 +381,33 @@ public class Framework extends WindowAdapter {
                         versionInfo(curr, plug);
                     }
                     else {
-                        plugins[found].add(plug);
-                        allPlugins.put(pf.getName(), plug);
+                        synchronized (deferred) {
+                            plugins[found].add(plug);
+                            allPlugins.put(pf.getName(), plug);
+                        }
                     }
                 }
             }
+            catch (ExecutionException e) {
+                // Debugging
+                e.getCause().printStackTrace();
+            }
             catch (Throwable t) {
                 // Debugging
                 t.printStackTrace();
             }
         }
+        if (pool != null) pool.shutdown();
 	if (version) System.exit(0);
 
 	startup = 1;
 
 	// Inform listeners
-	while (exports != null && !exports.isEmpty()) {
-	    IExport exp = (IExport) exports.iterator().next();
-	    exports.remove(exp);
+        IExport exp;
+	while ((exp = nextExport()) != null) {
             try {
                 Splash.loadlabel.setText("Connecting... " + exp.getType());
-                announceCond(exp);
+                bus.deliver(exp);
             }
             catch (Throwable t) {
                 // Debugging
@@ -304,7 +415,7 @@ public class Framework extends WindowAdapter {
             }
 	}
 
-	startup = 2;
+	synchronized (this) { startup = 2; }
 
         // Show it off
         for (int i = 0; i < frame.length; i++)
@@ -332,54 +443,66 @@ public class Framework extends WindowAdapter {
         }
     }
 
+    /**
+     * Find the window of a plugin.
+     * @param wl plugin lists per window
+     * @param name plugin name
+     * @return window index
+     */
+    private static int paneOf(ArrayList wl, String name) {
+        int found = 0;
+        for (int j = 0; j < wl.size(); j++) {
+            String[] list = (String[])wl.get(j);
+            for (int k = 0; k < list.length; k++) {
+                if (list[k].equals(name)) {
+                    found = j;
+                    break;
+                }
+            }
+        }
+        return found;
+    }
+
     /**
      * This method is called by plugins to announce new objects, types and
      * changes to these. During startup this is buffered to allow late
-     * registration.
+     * registration. Afterwards, the object is delivered as configured by
+     * the "events.delivery" property: "sync" (default) informs the
+     * listeners before returning, "edt" and "background" queue the object
+     * and inform later on the event dispatch thread or a background
+     * thread. A queued object is replaced by a later announcement of the
+     * same type and name.
      * @param e the object to be notified
      */
     public void announce(IExport e) {
 	// Stacking...
-	if (startup == 0 || startup == 1) {
-	    if (exports == null) exports = new HashSet();
-	    exports.add(e);
-	    return;
-	}
-        announceCond(e);
+        synchronized (this) {
+            if (startup == 0 || startup == 1) {
+                if (exports == null) exports = new HashSet();
+                exports.add(e);
+                return;
+            }
+        }
+        bus.post(e);
     }
 
     /**
-     * Announce bypass when stacking/informing
+     * Take the next object stacked during startup.
+     * @return object or null, if none left
      */
-    private void announceCond(IExport e) {
-        // No type
-	if (e.getType() == null) return;
-
-	// No listeners at all
-	if (type2name2listener == null) return;
-
-	// Get specific type listeners; if none return
-	HashMap name2listener = (HashMap) type2name2listener.get(e.getType());
-	if (name2listener == null) return;
-
-	// Get specific name listeners
-	HashSet listenerSet = (HashSet) name2listener.get(e.getName());
-	if (listenerSet == null) listenerSet = new HashSet();
-
-	// Add general name listeners
-	listenerSet.addAll((HashSet) name2listener.get(null));
-
-	// Inform them all
-	Object[] list = listenerSet.toArray();
-	for (int i = 0; list != null && i < list.length; i++) {
-	    IListener lnr = (IListener) (list[i]);
-	    if (lnr != null) lnr.inform(e);
-	}
+    private synchronized IExport nextExport() {
+        if (exports == null || exports.isEmpty()) return null;
+        IExport exp = (IExport) exports.iterator().next();
+        exports.remove(exp);
+        return exp;
     }
 
     /**
      * This method is called to register listeners on IExport objects. name
      * may be null, which means to be informed for all objects of type type.
+     * Listeners registered while a plugin is started on demand are also
+     * informed about the live objects of the type (and name) announced
+     * before, which they would otherwise miss.
      * @param listener listener to be informed
      * @param type object type
      * @param name object instance's name
@@ -387,22 +510,152 @@ public class Framework extends WindowAdapter {
     public void listen(IListener listener, String type, String name) {
 	// Ignore me...
 	if (type == null || listener == null) return;
+        bus.listen(listener, type, name);
+
+        // After startup, objects announced before are not stacked any more
+        boolean late;
+        synchronized (this) { late = (startup == 2); }
+        if (late && activating.get() != null)
+            bus.replay(listener, type, name);
+
+        // Start plugins providing the type
+        Object[] names = deferred.keySet().toArray();
+        for (int i = 0; i < names.length; i++) {
+            Deferred def = (Deferred) deferred.get(names[i]);
+            if (def != null && def.provides(type))
+                activate((String) names[i]);
+        }
+    }
 
-	// No listeners at all yet
-	if (type2name2listener == null) type2name2listener = new HashMap();
+    /**
+     * Start a deferred plugin. Nothing happens, if the plugin is not
+     * deferred.
+     * @param name plugin name
+     */
+    public void activate(String name) {
+        // Taken from the deferred ones under lock, started outside of it, as
+        // the plugin may announce or activate others while starting
+        Deferred def;
+        synchronized (deferred) {
+            def = (Deferred) deferred.remove(name);
+        }
+        if (def == null) return;
+        final JPanel plugPanel = (JPanel) panels.get(name);
+        IPlugin plug;
+        Object outer = activating.get();
+        activating.set(name);
+        try {
+            plug = loader.start(def.plug, def.dir, plugPanel, edit);
+        }
+        catch (Throwable t) {
+            // Debugging
+            t.printStackTrace();
+            return;
+        }
+        finally {
+            if (outer != null) activating.set(outer); else activating.remove();
+        }
+        if (plug == null) return;
+        synchronized (deferred) {
+            plugins[def.found].add(plug);
+            allPlugins.put(name, plug);
+        }
+        SwingUtilities.invokeLater(new Runnable() {
+                public void run() {
+                    plugPanel.revalidate();
+                    plugPanel.repaint();
+                }
+            });
+    }
 
-	// Add type-map if not present
-	if (!type2name2listener.containsKey(type))
-	    type2name2listener.put(type,new HashMap());
+    /**
+     * Offer unloading the plugin of a tab, that is not shown.
+     * @param e mouse event on the tabbed pane
+     */
+    private void popup(MouseEvent e) {
+        if (!e.isPopupTrigger()) return;
+        JTabbedPane pane = (JTabbedPane) e.getSource();
+        int idx = pane.indexAtLocation(e.getX(), e.getY());
+        if (idx < 0 || idx == pane.getSelectedIndex()) return;
+        Component cmp = pane.getComponentAt(idx);
+        Iterator iter = panels.keySet().iterator();
+        while (iter.hasNext()) {
+            final String name = (String) iter.next();
+            if (panels.get(name) != cmp || !allPlugins.containsKey(name))
+                continue;
+            JPopupMenu menu = new JPopupMenu();
+            JMenuItem mi = new JMenuItem("Unload " + capitalize(name));
+            mi.setToolTipText("Stop the plugin until its tab is raised again");
+            mi.addActionListener(new ActionListener() {
+                    public void actionPerformed(ActionEvent ae) {
+                        setBusy(true);
+                        unload(name);
+                        setBusy(false);
+                    }
+                });
+            menu.add(mi);
+            menu.show(pane, e.getX(), e.getY());
+            return;
+        }
+    }
 
-	// Add name-map if not present
-	HashMap name2listener = (HashMap) type2name2listener.get(type);
-	if (!name2listener.containsKey(name))
-	    name2listener.put(name,new HashSet());
+    /**
+     * Start the deferred plugin of a tab.
+     * @param cmp the tab's component
+     */
+    private void activate(Component cmp) {
+        Iterator iter = panels.keySet().iterator();
+        while (iter.hasNext()) {
+            String name = (String) iter.next();
+            if (panels.get(name) == cmp && deferred.containsKey(name)) {
+                setBusy(true);
+                activate(name);
+                setBusy(false);
+                return;
+            }
+        }
+    }
 
-	// Add listener to the map he belongs to
-	HashSet listenerSet = (HashSet) name2listener.get(name);
-	listenerSet.add(listener);
+    /**
+     * Stop a plugin and release it. Its unsaved parts are saved and its
+     * listeners (all of its package) are removed. The tab remains and
+     * starts the plugin again, when raised. Objects the plugin announced
+     * and other plugins keep are not released.
+     * @param name plugin name
+     */
+    public void unload(String name) {
+        synchronized (deferred) {
+            IPlugin plug = (IPlugin) allPlugins.remove(name);
+            if (plug == null) return;
+            int found = 0;
+            for (int i = 0; i < plugins.length; i++)
+                if (plugins[i].remove(plug)) found = i;
+
+            plug.stop(plug.hasUnsavedParts());
+            String cls = plug.getClass().getName();
+            int dot = cls.lastIndexOf('.');
+            bus.deafenAll(dot > 0 ? cls.substring(0, dot + 1) : cls);
+
+            File pf = new File(name);
+            try {
+                Deferred def = new Deferred(pf, loader.create(pf));
+                def.found = found;
+                deferred.put(name, def);
+            }
+            catch (Throwable t) {
+                // Debugging
+                t.printStackTrace();
+            }
+
+            final JPanel plugPanel = (JPanel) panels.get(name);
+            SwingUtilities.invokeLater(new Runnable() {
+                    public void run() {
+                        plugPanel.removeAll();
+                        plugPanel.revalidate();
+                        plugPanel.repaint();
+                    }
+                });
+        }
     }
 
     /**
@@ -416,19 +669,7 @@ public class Framework extends WindowAdapter {
     public void deafen(IListener listener, String type, String name) {
 	// Ignore me...
 	if (type == null) return;
-	if (!type2name2listener.containsKey(type)) return;
-
-	// Get the name listener map; if none return
-	HashMap name2listener = (HashMap) type2name2listener.get(type);
-	if (!name2listener.containsKey(name)) return;
-
-	// Get the listener set and remove as asked
-	HashSet listenerSet = (HashSet) name2listener.get(name);
-	listenerSet.remove(listener);
-
-	// Clean out those maps that are not needed. Keep the top map.
-	if (listenerSet.isEmpty()) name2listener.remove(name);
-	if (name2listener.isEmpty()) type2name2listener.remove(type);
+        bus.deafen(listener, type, name);
     }
 
     /**
@@ -518,6 +759,7 @@ public class Framework extends WindowAdapter {
      * @return the requested plugin
      */
     public IPlugin getPlugins(String name) {
+        activate(name);
 	return (IPlugin)allPlugins.get(name);
     }
 
@@ -545,13 +787,14 @@ public class Framework extends WindowAdapter {
      * @param yes busy?
      */
     public void setBusy(boolean yes) {
-        if (yes)
-            for (int i = 0; i < frame.length; i++)
+        for (int i = 0; i < frame.length; i++) {
+            if (frame[i] == null) continue;
+            if (yes)
                 frame[i].setCursor
                     (Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
-        else
-            for (int i = 0; i < frame.length; i++)
+            else
                 frame[i].setCursor(Cursor.getDefaultCursor());
+        }
     }
 
 //    /**
@@ -653,7 +896,7 @@ public class Framework extends WindowAdapter {
      */
     public static Document parse(String name, String root) {
         try {
-            return docBuilder.parse(new File(osName(name)));
+            return ((DocumentBuilder)docBuilder.get()).parse(new File(osName(name)));
         }
         catch (Exception e) {
 	    // Debugging
@@ -670,23 +913,25 @@ public class Framework extends WindowAdapter {
      * @return new document
      */
     public static Document newDoc() {
-        return docBuilder.newDocument();
+        return ((DocumentBuilder)docBuilder.get()).newDocument();
     }
 
     /**
      * XML transform utility
      */
     public static void transform(Document src, Result dest, Document xslt) {
-        Transformer localFormer = transFormer;
-        try {
-            if (xslt != null) {
-                localFormer = transFact.newTransformer(new DOMSource(xslt));
+        synchronized (transFact) {
+            Transformer localFormer = transFormer;
+            try {
+                if (xslt != null) {
+                    localFormer = transFact.newTransformer(new DOMSource(xslt));
+                }
+                localFormer.transform(new DOMSource(src), dest);
+            }
+            catch (Exception e) {
+                // Debug
+                e.printStackTrace();
             }
-            localFormer.transform(new DOMSource(src), dest);
-        }
-        catch (Exception e) {
-            // Debug
-            e.printStackTrace();
         }
     }
 
@@ -792,68 +1037,65 @@ public class Framework extends WindowAdapter {
     }
 
     /**
-     * Method to backup "state.xml" and "*.html" files in plugin root
-     * directories.
+     * Method to backup "state.xml", "state.dat" and "*.html" files in plugin
+     * root directories. Backups are kept incrementally in the ".backup"
+     * directory; only changed parts of files take up space.
      */
     private void backup() {
         // Inputs
         File dir = new File(".");
         String[] all = (dir != null ? dir.list() : null);
+        ArrayList files = new ArrayList();
+
+        for (int i = 0; all != null && i < all.length; i++) {
+            File pf = new File(all[i]);
+
+            if (pf == null || !pf.isDirectory() || all[i].equals("lib")
+                || all[i].startsWith("."))
+                continue;
+
+            boolean xml = new File(all[i] + SEP + "state.xml").exists();
+            boolean dat = new File(all[i] + SEP + "state.dat").exists();
+            if (!xml && !dat) continue;
+            if (xml) files.add(all[i] + SEP + "state.xml");
+            if (dat) files.add(all[i] + SEP + "state.dat");
+
+            String[] html = pf.list(new FilenameFilter() {
+                    public boolean accept(File dir, String name) {
+                        return name.endsWith(".html");
+                    }
+                });
+            for (int j = 0; j < html.length; j++)
+                files.add(all[i] + SEP + html[j]);
+        }
 
         try {
-            // Output
-            ZipOutputStream out = new ZipOutputStream
-                (new FileOutputStream
-                 (new Date().toString().replaceAll(" |:","-") + ".zip"));
-            byte[] buf = new byte[1024];
-
-            for (int i = 0; i < all.length; i++) {
-                File pf = new File(all[i]);
-
-                if (pf == null || !pf.isDirectory() || all[i].equals("lib")
-                    || !new File(all[i] + SEP + "state.xml").exists())
-                    continue;
-            
-                
-                FileInputStream fis = new FileInputStream
-                    (all[i] + SEP + "state.xml");
-
-                // Add ZIP entry
-                out.putNextEntry(new ZipEntry(all[i] + SEP + "state.xml"));
-
-                // Add ZIP content
-                int len = 0;
-                while ((len = fis.read(buf)) > 0)
-                    out.write(buf, 0, len);
-
-                // Close
-                out.closeEntry();
-                fis.close();
-
-                String[] html = pf.list(new FilenameFilter() {
-                        public boolean accept(File dir, String name) {
-                            return name.endsWith(".html");
-                        }
-                    });
-                for (int j = 0; j < html.length; j++) {
-                    fis = new FileInputStream
-                        (all[i] + SEP + html[j]);
-
-                    // Add ZIP entry
-                    out.putNextEntry(new ZipEntry(all[i] + SEP + html[j]));
-
-                    // Add ZIP content
-                    len = 0;
-                    while ((len = fis.read(buf)) > 0)
-                        out.write(buf, 0, len);
-
-                    // Close
-                    out.closeEntry();
-                    fis.close();
-                }
-            }
+            new BackupStore(new File(".backup")).backup
+                ((String[]) files.toArray(new String[files.size()]));
+        }
+        catch (IOException e) {
+            // Debug
+            e.printStackTrace();
+        }
+    }
 
-            out.close();
+    /**
+     * Restore a backup session into the current directory. Without a
+     * session, list the available sessions.
+     * @param session session name or null
+     */
+    private static void restore(String session) {
+        BackupStore store = new BackupStore(new File(".backup"));
+        try {
+            if (session == null) {
+                String[] list = store.getSessions();
+                for (int i = 0; i < list.length; i++)
+                    System.out.println(list[i]);
+                return;
+            }
+            String[] list = store.restore(session, new File("."));
+            for (int i = 0; i < list.length; i++)
+                System.out.println("restored " + list[i]);
         }
         catch (IOException e) {
             // Debug
@@ -861,6 +1103,32 @@ public class Framework extends WindowAdapter {
         }
     }
 
+    /**
+     * Plugin created but not yet started
+     */
+    class Deferred {
+        /** plugin directory */
+        File dir;
+        /** plugin object */
+        IPlugin plug;
+        /** frame index */
+        int found;
+        /** provided types */
+        private String[] prov;
+        /** Constructor */
+        Deferred(File aDir, IPlugin aPlug) {
+            dir = aDir;
+            plug = aPlug;
+            prov = plug.provides();
+        }
+        /** whether the plugin provides the type */
+        boolean provides(String type) {
+            for (int i = 0; prov != null && i < prov.length; i++)
+                if (type.equals(prov[i])) return true;
+            return false;
+        }
+    }
+
     /**
      * Class for tabbed pane traversal
      */
@@ -0,0 +1,49 @@
+/*
+ * UGMT : Unversal Gamemaster tool
+ * Copyright (c) 2004 Michael Jung
+ *
+ * Any party obtaining a copy of these files is granted, free of charge, a
+ * full and unrestricted irrevocable, world-wide, paid up, royalty-free,
+ * nonexclusive right and license to deal in this software and
+ * documentation files (the "Software"), including without limitation the
+ * rights to use, copy, modify, merge, publish and/or distribute copies of
+ * the Software, and to permit persons who receive copies from any such
+ * party to do so, with the only requirement being that this copyright
+ * notice remain intact.
+ */
+package rpg;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Owner of a journal. The owner logs its mutations to the journal, which
+ * replays them at startup and from time to time compacts them into the
+ * state file by having the owner write its complete state. See Journal.
+ * @author Michael Jung
+ */
+public interface IJournaled {
+    /**
+     * Apply a logged mutation. Called while replaying the journal. Records
+     * may be replayed on a state that already contains them (after a crash
+     * during compaction), so they should set rather than increment.
+     * @param record the record as logged
+     */
+    public void replay(String[] record);
+
+    /**
+     * Provide a copy of the complete state, e.g. a cloned DOM. Called on the
+     * event dispatch thread; no mutation is logged meanwhile.
+     * @return state copy or null, if the state cannot be written now (the
+     * journal is kept then)
+     */
+    public Object snapshot();
+
+    /**
+     * Write a state copy obtained from snapshot to a file. Called on a
+     * background thread.
+     * @param snapshot state copy
+     * @param file file to write
+     */
+    public void write(Object snapshot, File file) throws IOException;
+}
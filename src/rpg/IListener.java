@@ -19,7 +19,9 @@ package rpg;
  * object is informed every time a change is announced by the providing
  * plugin. During startup, all announced objects are collected and notified
  * after all plugins are running to avoid missed objects due to the start
- * sequence.<br> Registering is explained in the Framework.
+ * sequence.<br> Depending on the "events.delivery" property, inform may be
+ * called after announce has returned, and with "background" not on the
+ * event dispatch thread.<br> Registering is explained in the Framework.
  * @author Michael Jung
  */
 public interface IListener {
@@ -26,8 +26,14 @@ public interface IPlugin {
      * other plugin is loaded before or after yours. Use the listener
      * interface for that. Any initialization should take place here. Objects
      * being announced are stalled until all plugins are loaded, at which
-     * point they are announced.<br> Presently all plugins are loaded at the
-     * same time, no delayed loading is possible, nor is unloading.
+     * point they are announced.<br> Plugins named in the "plugins.lazy"
+     * property are started only when their tab is raised, when a type they
+     * provide is listened to or when they are requested by name. A started
+     * plugin may be unloaded by the framework, in which case stop is
+     * called.<br> With
+     * the "startup.threads" property, plugins are started in parallel on
+     * worker threads. The GUI frame is attached to its tab on the event
+     * dispatch thread after this method returns.
      * @param frw framework reference
      * @param frm the GUI frame that belongs to the plugin
      * @param props elementary configuration
@@ -0,0 +1,344 @@
+/*
+ * UGMT : Unversal Gamemaster tool
+ * Copyright (c) 2004 Michael Jung
+ *
+ * Any party obtaining a copy of these files is granted, free of charge, a
+ * full and unrestricted irrevocable, world-wide, paid up, royalty-free,
+ * nonexclusive right and license to deal in this software and
+ * documentation files (the "Software"), including without limitation the
+ * rights to use, copy, modify, merge, publish and/or distribute copies of
+ * the Software, and to permit persons who receive copies from any such
+ * party to do so, with the only requirement being that this copyright
+ * notice remain intact.
+ */
+package rpg;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+import javax.swing.SwingUtilities;
+
+/**
+ * Append-only journal of state mutations. Plugins log each mutation as a
+ * record (an array of strings) instead of writing their whole state file.
+ * At startup, after loading the state file, the journal is replayed. From
+ * time to time the journal is compacted: the owner's state is copied on
+ * the event dispatch thread, the journal is rotated, and the copy is
+ * written to the state file on a background thread. A record is one line
+ * with a checksum, so that a record torn by a crash is detected and
+ * dropped.<br>
+ * Usage: create the journal after loading the state file, call replay,
+ * log mutations, call saved after a full save of your own and close on
+ * stop.
+ * @author Michael Jung
+ */
+public class Journal {
+    /** Compaction thread shared by all journals */
+    private static ScheduledExecutorService compactor;
+
+    /** Journal file */
+    private File file;
+
+    /** Rotated journal, being compacted */
+    private File old;
+
+    /** State file */
+    private File target;
+
+    /** Owner */
+    private IJournaled owner;
+
+    /** Writer of journal file */
+    private Writer out;
+
+    /** Records in journal file */
+    private int records;
+
+    /** Scheduled compaction */
+    private ScheduledFuture task;
+
+    /** Incremented by every full save of the owner */
+    private int generation;
+
+    /**
+     * Constructor.
+     * @param aFile journal file
+     * @param aTarget state file compacted into
+     * @param anOwner owner of the state
+     */
+    public Journal(String aFile, String aTarget, IJournaled anOwner) {
+        file = new File(Framework.osName(aFile));
+        old = new File(file.getPath() + ".old");
+        target = new File(Framework.osName(aTarget));
+        owner = anOwner;
+    }
+
+    /**
+     * Replay the journal (including a rotated one, that was not compacted)
+     * to the owner. Opens the journal for logging.
+     * @return number of records replayed
+     */
+    public synchronized int replay() throws IOException {
+        int n = replay(old) + replay(file);
+        records = n;
+        open();
+        return n;
+    }
+
+    /**
+     * Replay one journal file; drop a torn tail.
+     */
+    private int replay(File f) throws IOException {
+        if (!f.exists()) return 0;
+        int n = 0;
+        long good = 0;
+        BufferedReader br = new BufferedReader
+            (new InputStreamReader(new FileInputStream(f), "UTF-8"));
+        String line;
+        try {
+            while ((line = br.readLine()) != null) {
+                String[] rec = decode(line);
+                if (rec == null) break;
+                owner.replay(rec);
+                good += line.getBytes("UTF-8").length + 1;
+                n++;
+            }
+        }
+        finally {
+            br.close();
+        }
+        if (good != f.length()) {
+            // Torn record or missing line end
+            RandomAccessFile raf = new RandomAccessFile(f, "rw");
+            if (good < f.length())
+                raf.setLength(good);
+            else {
+                raf.seek(f.length());
+                raf.write('\n');
+            }
+            raf.close();
+        }
+        return n;
+    }
+
+    /** Open journal file for appending */
+    private void open() throws IOException {
+        out = new BufferedWriter
+            (new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8"));
+    }
+
+    /**
+     * Log a mutation. The record is written through to the file before the
+     * method returns.
+     * @param record record to log
+     */
+    public synchronized void log(String[] record) {
+        try {
+            if (out == null) open();
+            out.write(encode(record));
+            out.write('\n');
+            out.flush();
+            records++;
+        }
+        catch (IOException e) {
+            // Debug
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Compact periodically.
+     * @param seconds period; 0 stops compacting
+     */
+    public synchronized void setCompaction(long seconds) {
+        if (task != null) task.cancel(false);
+        task = null;
+        if (seconds <= 0) return;
+        synchronized (Journal.class) {
+            if (compactor == null)
+                compactor = Executors.newSingleThreadScheduledExecutor
+                    (new ThreadFactory() {
+                            public Thread newThread(Runnable r) {
+                                Thread t = new Thread(r, "journal");
+                                t.setDaemon(true);
+                                t.setPriority(Thread.MIN_PRIORITY);
+                                return t;
+                            }
+                        });
+        }
+        task = compactor.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    try {
+                        compact();
+                    }
+                    catch (Throwable t) {
+                        // Debug
+                        t.printStackTrace();
+                    }
+                }
+            }, seconds, seconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Compact the journal into the state file now. Does nothing if there
+     * is nothing logged or the owner provides no snapshot. If writing fails, the rotated journal is kept and
+     * replayed next time.
+     */
+    public void compact() throws Exception {
+        final Object[] snap = new Object[1];
+        final int[] gen = new int[1];
+        Runnable r = new Runnable() {
+                public void run() {
+                    synchronized (Journal.this) {
+                        if (records == 0) return;
+                        gen[0] = generation;
+                        snap[0] = owner.snapshot();
+                        // Owner cannot provide its state; keep journal
+                        if (snap[0] == null) return;
+                        try {
+                            rotate();
+                        }
+                        catch (IOException e) {
+                            // Debug
+                            e.printStackTrace();
+                            snap[0] = null;
+                        }
+                    }
+                }
+            };
+        if (SwingUtilities.isEventDispatchThread())
+            r.run();
+        else
+            SwingUtilities.invokeAndWait(r);
+        if (snap[0] == null) return;
+
+        File tmp = new File(target.getPath() + ".tmp");
+        owner.write(snap[0], tmp);
+        synchronized (this) {
+            // A full save meanwhile is newer
+            if (gen[0] != generation) {
+                tmp.delete();
+                return;
+            }
+            Files.move(tmp.toPath(), target.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING);
+            old.delete();
+        }
+    }
+
+    /**
+     * Move the journal to the rotated one (appending, if that still exists)
+     * and start an empty journal.
+     */
+    private void rotate() throws IOException {
+        if (out != null) out.close();
+        out = null;
+        if (old.exists()) {
+            FileInputStream fis = new FileInputStream(file);
+            FileOutputStream fos = new FileOutputStream(old, true);
+            fis.getChannel().transferTo(0, file.length(), fos.getChannel());
+            fis.close();
+            fos.close();
+            file.delete();
+        }
+        else if (!file.renameTo(old))
+            throw new IOException("Cannot rotate " + file);
+        records = 0;
+        open();
+    }
+
+    /**
+     * The owner saved its complete state itself; the journal is emptied.
+     */
+    public synchronized void saved() {
+        try {
+            if (out != null) out.close();
+            out = null;
+            file.delete();
+            old.delete();
+            records = 0;
+            generation++;
+            open();
+        }
+        catch (IOException e) {
+            // Debug
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Stop compacting and close the journal. Logged records remain and are
+     * replayed next time.
+     */
+    public synchronized void close() {
+        setCompaction(0);
+        try {
+            if (out != null) out.close();
+            out = null;
+        }
+        catch (IOException e) {
+            // Debug
+            e.printStackTrace();
+        }
+    }
+
+    /** Encode a record as line: checksum and escaped fields */
+    static String encode(String[] record) {
+        StringBuffer sb = new StringBuffer();
+        for (int i = 0; i < record.length; i++) {
+            if (i > 0) sb.append('\t');
+            String s = (record[i] != null ? record[i] : "");
+            for (int j = 0; j < s.length(); j++) {
+                char c = s.charAt(j);
+                switch (c) {
+                case '\\': sb.append("\\\\"); break;
+                case '\t': sb.append("\\t"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                default: sb.append(c);
+                }
+            }
+        }
+        return crc(sb.toString()) + "\t" + sb;
+    }
+
+    /** Decode a line; null if damaged */
+    static String[] decode(String line) {
+        int tab = line.indexOf('\t');
+        if (tab < 0) return null;
+        String body = line.substring(tab + 1);
+        if (!line.substring(0, tab).equals(crc(body))) return null;
+
+        ArrayList list = new ArrayList();
+        StringBuffer sb = new StringBuffer();
+        for (int j = 0; j < body.length(); j++) {
+            char c = body.charAt(j);
+            if (c == '\t') {
+                list.add(sb.toString());
+                sb.setLength(0);
+            }
+            else if (c == '\\' && j + 1 < body.length()) {
+                c = body.charAt(++j);
+                sb.append(c == 't' ? '\t' : c == 'n' ? '\n' : c == 'r' ? '\r' : c);
+            }
+            else
+                sb.append(c);
+        }
+        list.add(sb.toString());
+        return (String[]) list.toArray(new String[list.size()]);
+    }
+
+    /** Checksum of a string */
+    private static String crc(String s) {
+        CRC32 crc = new CRC32();
+        try {
+            crc.update(s.getBytes("UTF-8"));
+        }
+        catch (UnsupportedEncodingException e) {
+            // Cannot happen
+        }
+        return Long.toHexString(crc.getValue());
+    }
+}
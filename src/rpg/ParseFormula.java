@@ -22,6 +22,12 @@ package rpg;
 
 import java.util.Locale;
 
+/**
+ * Parser of a single dice term "NdS[mK][+/-c]" as used in rule files. The
+ * parsed parts are left in the fields, so instances must not be shared
+ * between threads. Expressions of several terms are compiled, cached and
+ * rolled thread-safely by DiceFormula.
+ */
 public class ParseFormula {
     int numDice = 1;
     int numSides = 1;
@@ -43,6 +49,10 @@ public class ParseFormula {
         this.formula = inFormula;
         char[] list = formula.toUpperCase(Locale.ENGLISH).toCharArray();
         errorCode = "";
+        numDice = 1;
+        numSides = 1;
+        numMod = 0;
+        maxNum = -1;
         res = 0;
         current = 0;
         op = ' ';
@@ -52,8 +62,7 @@ public class ParseFormula {
 
         for (int i = 0; i < list.length; i++) {
             if (Character.isDigit(list[i]))
-                current = current * 10 +
-                    Integer.parseInt(Character.toString(list[i]));
+                current = current * 10 + Character.digit(list[i], 10);
             else {
                 switch(op) {
                     case '+':
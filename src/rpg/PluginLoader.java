@@ -49,18 +49,58 @@ public class PluginLoader extends URLClassLoader {
      * @param edit edit mode
      */
     IPlugin add(File pi, JPanel frm, boolean edit) throws Exception {
-	String path = pi.getAbsolutePath() + frw.SEP;
+        register(pi);
+        return start(pi, frm, edit);
+    }
 
+    /**
+     * Make the classes of a plugin available. All plugins to be started in
+     * parallel must be registered beforehand.
+     * @param pi the directory of the plugin
+     */
+    void register(File pi) throws Exception {
 	// Get jar/classes
 	String jar = pi.toURI().toURL().toString() + pi.getName() + ".jar";
 	addURL(new URL(jar));
+    }
+
+    /**
+     * Start a registered plugin and pass it some GUI space. The GUI space
+     * is not yet visible; this may be called from any thread.
+     * @param pi the directory of the plugin
+     * @param frm the GUI space available for the plugin.
+     * @param edit edit mode
+     */
+    IPlugin start(File pi, JPanel frm, boolean edit) throws Exception {
+        return start(create(pi), pi, frm, edit);
+    }
+
+    /**
+     * Create the (not yet started) plugin object of a registered plugin.
+     * @param pi the directory of the plugin
+     */
+    IPlugin create(File pi) throws Exception {
+	Class pc = loadClass("harn." + pi.getName() + ".Main");
+	return (IPlugin) pc.newInstance();
+    }
+
+    /**
+     * Start a created plugin and pass it some GUI space.
+     * @param po the plugin object
+     * @param pi the directory of the plugin
+     * @param frm the GUI space available for the plugin.
+     * @param edit edit mode
+     */
+    IPlugin start(IPlugin po, File pi, JPanel frm, boolean edit) throws Exception {
+	String path = pi.getAbsolutePath() + frw.SEP;
+
 	// Get properties
 	Properties props = new Properties(global);
-	props.load(new FileInputStream(path + "properties"));
+	FileInputStream fis = new FileInputStream(path + "properties");
+	props.load(fis);
+	fis.close();
 
 	// Init
-	Class pc = loadClass("harn." + pi.getName() + ".Main");
-	IPlugin po = (IPlugin) pc.newInstance();
 	if (edit) {
             if (po.startEdit(frw, frm, props, path))
                 return po;
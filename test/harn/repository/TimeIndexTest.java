@@ -0,0 +1,188 @@
+/**
+ * UGMT : Universal Gamemaster tool
+ * Copyright (c) 2009 Michael Jung
+ * miju@phantasia.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package harn.repository;
+
+import java.util.ArrayList;
+import java.util.Random;
+import javax.swing.ImageIcon;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class TimeIndexTest {
+    /** Event with given times */
+    static class Ev extends TimeEvent {
+        long start, dur, per;
+        Ev(long aStart, long aDur, long aPer) {
+            start = aStart; dur = aDur; per = aPer;
+        }
+        public long getStart() { return start; }
+        public long getDuration() { return dur; }
+        public long getRecurrence() { return per; }
+        public String getName() { return "ev"; }
+        public boolean isActive() { return true; }
+        public String type() { return "Test"; }
+        public float[] isActive(long from, long to) { return null; }
+        public String details() { return null; }
+        public boolean isValid() { return true; }
+        public ImageIcon getIcon() { return null; }
+
+        /** Brute force: any occurrence overlapping [from, to] */
+        boolean overlaps(long from, long to) {
+            if (start == Long.MIN_VALUE) return true;
+            if (per <= 0) return start <= to && start + dur >= from;
+            for (long s = start; s <= to; s += per)
+                if (s + dur >= from) return true;
+            return false;
+        }
+    }
+
+    private static boolean has(ArrayList list, Object o) {
+        for (int i = 0; i < list.size(); i++)
+            if (list.get(i) == o) return true;
+        return false;
+    }
+
+    /**
+     * One-time events at the boundaries of the window.
+     */
+    @Test
+    public void testStartAndDuration() {
+        TimeIndex idx = new TimeIndex();
+        Ev ev = new Ev(10, 10, 0);
+        idx.add(ev);
+        assertFalse(has(idx.overlapping(0, 9), ev));
+        assertTrue(has(idx.overlapping(0, 10), ev));
+        assertTrue(has(idx.overlapping(12, 15), ev));
+        assertTrue(has(idx.overlapping(20, 30), ev));
+        assertFalse(has(idx.overlapping(21, 30), ev));
+
+        // No duration
+        Ev pt = new Ev(40, 0, 0);
+        idx.add(pt);
+        assertTrue(has(idx.overlapping(40, 40), pt));
+        assertFalse(has(idx.overlapping(41, 50), pt));
+        assertFalse(has(idx.overlapping(30, 39), pt));
+    }
+
+    /**
+     * Recurring events, including occurrences wrapping the period.
+     */
+    @Test
+    public void testPeriod() {
+        TimeIndex idx = new TimeIndex();
+        Ev ev = new Ev(5, 2, 10);
+        idx.add(ev);
+        assertFalse(has(idx.overlapping(-10, 4), ev));
+        assertTrue(has(idx.overlapping(17, 17), ev));
+        assertFalse(has(idx.overlapping(18, 24), ev));
+        assertTrue(has(idx.overlapping(25, 25), ev));
+        assertTrue(has(idx.overlapping(0, 100), ev));
+
+        Ev wrap = new Ev(8, 4, 10);
+        idx.add(wrap);
+        assertTrue(has(idx.overlapping(10, 11), wrap));
+        assertTrue(has(idx.overlapping(22, 22), wrap));
+        assertFalse(has(idx.overlapping(13, 17), wrap));
+        assertFalse(has(idx.overlapping(0, 7), wrap));
+    }
+
+    /**
+     * Events without times, removal and changed times.
+     */
+    @Test
+    public void testChanges() {
+        TimeIndex idx = new TimeIndex();
+        Ev none = new Ev(Long.MIN_VALUE, 0, 0);
+        Ev ev = new Ev(10, 0, 0);
+        idx.add(none);
+        idx.add(ev);
+        assertTrue(has(idx.overlapping(100, 200), none));
+        assertFalse(has(idx.overlapping(100, 200), ev));
+
+        ev.start = 150;
+        idx.add(ev);
+        assertTrue(has(idx.overlapping(100, 200), ev));
+        assertEquals(2, idx.size());
+
+        idx.remove(ev);
+        assertFalse(has(idx.overlapping(100, 200), ev));
+        assertFalse(idx.contains(ev));
+        assertEquals(1, idx.size());
+    }
+
+    /**
+     * Next start and end.
+     */
+    @Test
+    public void testNext() {
+        TimeIndex idx = new TimeIndex();
+        assertEquals(Long.MAX_VALUE, idx.next(0, false));
+        idx.add(new Ev(10, 5, 0));
+        assertEquals(10, idx.next(0, false));
+        assertEquals(10, idx.next(9, false));
+        assertEquals(Long.MAX_VALUE, idx.next(10, false));
+        assertEquals(15, idx.next(10, true));
+        assertEquals(Long.MAX_VALUE, idx.next(15, true));
+
+        idx.add(new Ev(35, 2, 100));
+        assertEquals(35, idx.next(10, false));
+        assertEquals(135, idx.next(35, false));
+        assertEquals(37, idx.next(15, true));
+        assertEquals(137, idx.next(37, true));
+        assertEquals(135, idx.next(134, false));
+        assertEquals(235, idx.next(135, false));
+    }
+
+    /**
+     * Random events and windows against brute force.
+     */
+    @Test
+    public void testRandom() {
+        Random r = new Random(1);
+        TimeIndex idx = new TimeIndex();
+        Ev[] evs = new Ev[200];
+        for (int i = 0; i < evs.length; i++) {
+            long per = (r.nextInt(3) == 0 ? 0 : 1 + r.nextInt(50));
+            evs[i] = new Ev(r.nextInt(1000) - 200, r.nextInt(30), per);
+            idx.add(evs[i]);
+        }
+        for (int k = 0; k < 2000; k++) {
+            long from = r.nextInt(1400) - 300;
+            long to = from + r.nextInt(60);
+            ArrayList got = idx.overlapping(from, to);
+            for (int i = 0; i < evs.length; i++)
+                assertEquals(evs[i].overlaps(from, to), has(got, evs[i]));
+
+            // Next start and end after from
+            for (int end = 0; end < 2; end++) {
+                long best = Long.MAX_VALUE;
+                for (int i = 0; i < evs.length; i++) {
+                    Ev e = evs[i];
+                    long s = e.start + (end == 1 ? e.dur : 0);
+                    if (s <= from && e.per > 0)
+                        s += ((from - s)/e.per + 1)*e.per;
+                    if (s > from) best = Math.min(best, s);
+                }
+                assertEquals(best, idx.next(from, end == 1));
+            }
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/**
+ * UGMT : Universal Gamemaster tool
+ * Copyright (c) 2009 Michael Jung
+ * miju@phantasia.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package rpg;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class DiceFormulaTest {
+
+    /**
+     * Test of compile method, of class DiceFormula.
+     */
+    @Test
+    public void testCompile() {
+        System.out.println("compile");
+        assertSame(DiceFormula.compile("3d6+2"), DiceFormula.compile("3d6+2"));
+        String[] bad = { "", "1q10", "bored", "3d", "d0", "(1d6", "1d6)",
+                         "4m20d3", "1d6+", "2d6m" };
+        for (int i = 0; i < bad.length; i++) {
+            try {
+                DiceFormula.compile(bad[i]);
+                fail(bad[i]);
+            }
+            catch (IllegalArgumentException e) {
+            }
+        }
+    }
+
+    /**
+     * Test of roll method, of class DiceFormula.
+     */
+    @Test
+    public void testRoll() {
+        System.out.println("roll");
+        SplittableRandom r = new SplittableRandom(17);
+        SplittableRandom cmp = new SplittableRandom(17);
+        DiceFormula f = DiceFormula.compile("(2d6 + 3) * 2 - d4");
+        for (int i = 0; i < 1000; i++) {
+            int exp = (DiceRoller.d(cmp, 2, 6) + 3)*2 - DiceRoller.d(cmp, 4);
+            assertEquals(exp, f.roll(r));
+        }
+        System.out.println("  Precedence and constants");
+        assertEquals(7, DiceFormula.compile("1+2*3").roll());
+        assertEquals(-3, DiceFormula.compile("-(7/2)").roll());
+        assertEquals(0, DiceFormula.compile("5/0").roll());
+        System.out.println("  Keep highest as rollMax");
+        f = DiceFormula.compile("4d6m3");
+        for (int i = 0; i < 1000; i++)
+            assertEquals(DiceRoller.rollMax(cmp, 4, 6, 3), f.roll(r));
+        System.out.println("  Keep lowest");
+        f = DiceFormula.compile("3d20kl1");
+        for (int i = 0; i < 1000; i++) {
+            int[] rolls = { DiceRoller.d(cmp, 20), DiceRoller.d(cmp, 20),
+                            DiceRoller.d(cmp, 20) };
+            Arrays.sort(rolls);
+            assertEquals(rolls[0], f.roll(r));
+        }
+        System.out.println("  Exploding");
+        f = DiceFormula.compile("d6!");
+        for (int i = 0; i < 1000; i++) {
+            int exp = 0, v;
+            do {
+                v = DiceRoller.d(cmp, 6);
+                exp += v;
+            } while (v == 6);
+            assertEquals(exp, f.roll(r));
+        }
+    }
+
+    /**
+     * Test of distribution method, of class DiceFormula.
+     */
+    @Test
+    public void testDistribution() {
+        System.out.println("distribution");
+        DiceFormula f = DiceFormula.compile("2d6");
+        assertEquals(2, f.min());
+        assertEquals(12, f.max());
+        assertEquals(7, f.mean(), 1e-9);
+        assertEquals(6/36., f.distribution()[5], 1e-9);
+        System.out.println("  Keep highest");
+        f = DiceFormula.compile("4d6m3");
+        assertEquals(3, f.min());
+        assertEquals(18, f.max());
+        assertEquals(15869/1296., f.mean(), 1e-9);
+        System.out.println("  Keep lowest");
+        f = DiceFormula.compile("2d20l1");
+        assertEquals(1, f.min());
+        assertEquals(20, f.max());
+        assertEquals(39/400., f.distribution()[0], 1e-9);
+        System.out.println("  Exploding");
+        f = DiceFormula.compile("d6!+1");
+        assertEquals(2, f.min());
+        assertEquals(5.2, f.mean(), 1e-6);
+        assertEquals(0, f.distribution()[5], 1e-9);
+        System.out.println("  Operators");
+        f = DiceFormula.compile("d6-d6");
+        assertEquals(-5, f.min());
+        assertEquals(0, f.mean(), 1e-9);
+        f = DiceFormula.compile("d4*d4/2");
+        double sum = 0;
+        double[] p = f.distribution();
+        for (int i = 0; i < p.length; i++) sum += p[i];
+        assertEquals(1, sum, 1e-9);
+        assertEquals(0, f.min());
+        assertEquals(8, f.max());
+    }
+
+    /**
+     * Test of roll method matching the distribution.
+     */
+    @Test
+    public void testRollDistribution() {
+        System.out.println("roll vs. distribution");
+        SplittableRandom r = new SplittableRandom(4711);
+        DiceFormula f = DiceFormula.compile("3d6!kh2 - 1");
+        double sum = 0;
+        int n = 200000;
+        for (int i = 0; i < n; i++) {
+            int v = f.roll(r);
+            assertTrue(v >= f.min() && v <= f.max());
+            sum += v;
+        }
+        assertEquals(f.mean(), sum/n, 0.05);
+    }
+}
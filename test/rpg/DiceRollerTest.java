@@ -21,6 +21,8 @@
 package rpg;
 
 //import java.util.Random;
+import java.util.Arrays;
+import java.util.SplittableRandom;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
@@ -138,6 +140,64 @@ public class DiceRollerTest {
         assertEquals(expResult, result);
     }
 
+    /**
+     * Test of generator method, of class Dice.
+     */
+    @Test
+    public void testGenerator() {
+        System.out.println("generator");
+        DiceRoller.setSession(4711);
+        SplittableRandom r1 = DiceRoller.generator("weather");
+        SplittableRandom r2 = DiceRoller.generator("weather");
+        for (int i = 0; i < 100; i++)
+            assertEquals(DiceRoller.d(r1, 3, 6), DiceRoller.d(r2, 3, 6));
+        System.out.println("  Different plugin");
+        r1 = DiceRoller.generator("weather");
+        r2 = DiceRoller.generator("encounters");
+        boolean same = true;
+        for (int i = 0; i < 100; i++)
+            same &= (DiceRoller.d(r1, 100) == DiceRoller.d(r2, 100));
+        assertFalse(same);
+    }
+
+    /**
+     * Test of use method, of class Dice.
+     */
+    @Test
+    public void testUse() {
+        System.out.println("use");
+        SplittableRandom r = new SplittableRandom(42);
+        SplittableRandom cmp = new SplittableRandom(42);
+        assertNull(DiceRoller.use(r));
+        for (int i = 0; i < 100; i++)
+            assertEquals(DiceRoller.d(cmp, 20), DiceRoller.d(20));
+        assertSame(r, DiceRoller.use(null));
+        System.out.println("  Shared generator again");
+        instance.setSeed(12344321);
+        assertEquals(11, DiceRoller.d(20));
+    }
+
+    /**
+     * Test of rollMax method with generator, of class Dice.
+     */
+    @Test
+    public void testRollMax_generator() {
+        System.out.println("rollMax with generator");
+        SplittableRandom r = new SplittableRandom(569);
+        SplittableRandom cmp = new SplittableRandom(569);
+        for (int k = 0; k < 1000; k++) {
+            int[] rolls = new int[4];
+            for (int i = 0; i < rolls.length; i++)
+                rolls[i] = DiceRoller.d(cmp, 6);
+            Arrays.sort(rolls);
+            assertEquals(rolls[1] + rolls[2] + rolls[3],
+                         DiceRoller.rollMax(r, 4, 6, 3));
+        }
+        System.out.println("  More kept than rolled");
+        assertEquals(DiceRoller.d(cmp, 2, 6), DiceRoller.rollMax(r, 2, 6, 3));
+        System.out.println("  None kept");
+        assertEquals(0, DiceRoller.rollMax(r, 4, 6, 0));
+    }
 
 //    /**
 //     * Method used to find proper seed to ensure correct results.